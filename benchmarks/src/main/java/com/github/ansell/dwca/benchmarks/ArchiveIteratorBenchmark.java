@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.SAXException;
+
+import com.github.ansell.dwca.CloseableIterator;
+import com.github.ansell.dwca.DarwinCoreArchiveChecker;
+import com.github.ansell.dwca.DarwinCoreArchiveDocument;
+import com.github.ansell.dwca.DarwinCoreRecord;
+import com.github.ansell.dwca.DarwinCoreRowCache;
+import com.github.ansell.dwca.DarwinCoreSyntheticArchiveGenerator;
+
+/**
+ * Benchmarks iterating over every record in the core of a synthetic archive
+ * using {@link DarwinCoreArchiveDocument#iterator(boolean, boolean)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArchiveIteratorBenchmark {
+
+	@Param({ "100000" })
+	public int rows;
+
+	@Param({ "20" })
+	public int columns;
+
+	@Param({ "false", "true" })
+	public boolean includeDefaults;
+
+	@Param({ "false", "true" })
+	public boolean sortById;
+
+	/**
+	 * Whether to read from a {@link DarwinCoreRowCache}, which is written
+	 * during the warmup iterations.
+	 */
+	@Param({ "false", "true" })
+	public boolean rowCache;
+
+	private Path archiveDir;
+
+	private DarwinCoreArchiveDocument document;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, SAXException {
+		archiveDir = Files.createTempDirectory("dwca-benchmark-iterator-");
+		final DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(0x5eed);
+		generator.setCoreRows(rows);
+		generator.setCoreColumns(columns);
+		generator.setDefaultInterval(5);
+		generator.generate(archiveDir);
+		document = DarwinCoreArchiveChecker.parseMetadataXml(archiveDir.resolve(DarwinCoreArchiveChecker.META_XML));
+		document.setRowCacheEnabled(rowCache);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(archiveDir.toFile());
+	}
+
+	@Benchmark
+	public void iterate(Blackhole blackhole) throws IOException {
+		try (final CloseableIterator<DarwinCoreRecord> iterator = document.iterator(includeDefaults, sortById);) {
+			while (iterator.hasNext()) {
+				final DarwinCoreRecord nextRecord = iterator.next();
+				for (int i = 0; i < columns; i++) {
+					blackhole.consume(nextRecord.valueAt(i, includeDefaults));
+				}
+			}
+		}
+	}
+}
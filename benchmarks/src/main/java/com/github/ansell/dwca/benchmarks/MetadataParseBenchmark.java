@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+import com.github.ansell.dwca.DarwinCoreArchiveDocument;
+import com.github.ansell.dwca.DarwinCoreMetadataSaxParser;
+import com.github.ansell.dwca.DarwinCoreSyntheticArchiveGenerator;
+
+/**
+ * Benchmarks parsing a meta.xml document held in memory using
+ * {@link DarwinCoreMetadataSaxParser#parse(java.io.Reader)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetadataParseBenchmark {
+
+	@Param({ "20", "400" })
+	public int columns;
+
+	@Param({ "0", "10" })
+	public int extensions;
+
+	private String metadataXml;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, XMLStreamException {
+		final DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setCoreColumns(columns);
+		generator.setExtensionCount(extensions);
+		generator.setExtensionColumns(columns);
+		generator.setDefaultInterval(5);
+		final StringWriter writer = new StringWriter();
+		generator.createDocument().toXML(writer, true);
+		metadataXml = writer.toString();
+	}
+
+	@Benchmark
+	public DarwinCoreArchiveDocument parse() throws IOException, SAXException {
+		return DarwinCoreMetadataSaxParser.parse(new StringReader(metadataXml));
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ansell.dwca.DarwinCoreCoreOrExtension;
+import com.github.ansell.dwca.DarwinCoreMetadataGenerator;
+import com.github.ansell.dwca.DarwinCoreTermIndex;
+
+/**
+ * Benchmarks matching CSV headers to terms in the default vocabularies using
+ * {@link DarwinCoreMetadataGenerator#populateFields(List, DarwinCoreTermIndex, DarwinCoreCoreOrExtension, boolean)}.
+ * <p>
+ * The headers are a mix of local names, full IRIs, local names in a different
+ * case, and headers that do not match any term.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PopulateFieldsBenchmark {
+
+	@Param({ "200" })
+	public int headerCount;
+
+	@Param({ "false", "true" })
+	public boolean matchCaseInsensitive;
+
+	private Map<String, Map<String, List<IRI>>> vocabMap;
+
+	private DarwinCoreTermIndex termIndex;
+
+	private List<String> headers;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		vocabMap = DarwinCoreMetadataGenerator.getDefaultVocabularies();
+		termIndex = DarwinCoreTermIndex.build(vocabMap);
+		final List<String> localNames = new ArrayList<>();
+		final List<String> iris = new ArrayList<>();
+		vocabMap.values().forEach(nextVocabulary -> nextVocabulary.forEach((nextLocalName, nextIRIs) -> {
+			localNames.add(nextLocalName);
+			nextIRIs.forEach(nextIRI -> iris.add(nextIRI.stringValue()));
+		}));
+		headers = new ArrayList<>(headerCount);
+		for (int i = 0; i < headerCount; i++) {
+			switch (i % 4) {
+			case 0:
+				headers.add(localNames.get(i % localNames.size()));
+				break;
+			case 1:
+				headers.add(iris.get(i % iris.size()));
+				break;
+			case 2:
+				headers.add(localNames.get(i % localNames.size()).toUpperCase(Locale.ENGLISH));
+				break;
+			default:
+				headers.add("unmatchedHeader" + i);
+				break;
+			}
+		}
+	}
+
+	@Benchmark
+	public DarwinCoreCoreOrExtension populateFieldsFromIndex() throws IOException {
+		final DarwinCoreCoreOrExtension core = DarwinCoreCoreOrExtension.newCore();
+		DarwinCoreMetadataGenerator.populateFields(headers, termIndex, core, matchCaseInsensitive);
+		return core;
+	}
+
+	@Benchmark
+	public DarwinCoreCoreOrExtension populateFieldsFromVocabularies() throws IOException {
+		final DarwinCoreCoreOrExtension core = DarwinCoreCoreOrExtension.newCore();
+		DarwinCoreMetadataGenerator.populateFields(headers, vocabMap, core, matchCaseInsensitive);
+		return core;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.ansell.dwca.DarwinCoreArchiveDocument;
+import com.github.ansell.dwca.DarwinCoreCoreOrExtension;
+import com.github.ansell.dwca.DarwinCoreField;
+import com.github.ansell.dwca.DarwinCoreRecord;
+import com.github.ansell.dwca.DarwinCoreRecordImpl;
+import com.github.ansell.dwca.DarwinCoreSyntheticArchiveGenerator;
+
+/**
+ * Benchmarks looking up every term in a record using
+ * {@link DarwinCoreRecordImpl#valueFor(String, boolean)}, which is how the
+ * merger reads records.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecordValueForBenchmark {
+
+	@Param({ "20", "200" })
+	public int columns;
+
+	@Param({ "false", "true" })
+	public boolean includeDefaults;
+
+	private List<String> terms;
+
+	private DarwinCoreRecord record;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setCoreColumns(columns);
+		generator.setDefaultInterval(5);
+		final DarwinCoreArchiveDocument document = generator.createDocument();
+		final DarwinCoreCoreOrExtension core = document.getCore();
+		terms = new ArrayList<>(columns);
+		final List<String> values = new ArrayList<>(columns);
+		final Random random = new Random(0x5eed);
+		for (final DarwinCoreField nextField : core.getFields()) {
+			terms.add(nextField.getTerm());
+			values.add(random.nextInt(10) == 0 ? "" : "value" + nextField.getIndex());
+		}
+		record = new DarwinCoreRecordImpl(document, core.getFields(), values);
+	}
+
+	@Benchmark
+	public void valueForEveryTerm(Blackhole blackhole) {
+		for (final String nextTerm : terms) {
+			blackhole.consume(record.valueFor(nextTerm, includeDefaults));
+		}
+	}
+
+	@Benchmark
+	public Object valueForMissingTerm() {
+		return record.valueFor("http://example.org/synthetic/missing", includeDefaults);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.github.ansell.csv.stream.CSVStream;
+import com.github.ansell.dwca.CloseableIterator;
+import com.github.ansell.dwca.DarwinCoreArchiveChecker;
+import com.github.ansell.dwca.DarwinCoreArchiveDocument;
+import com.github.ansell.dwca.DarwinCoreArchiveMerger;
+import com.github.ansell.dwca.DarwinCoreRecord;
+import com.github.ansell.dwca.DarwinCoreSyntheticArchiveGenerator;
+
+/**
+ * Benchmarks merging the cores of two synthetic archives with the same fields
+ * using
+ * {@link DarwinCoreArchiveMerger#writeMerge(DarwinCoreArchiveDocument, CloseableIterator, CloseableIterator, SequenceWriter, boolean)},
+ * writing the merged rows to a {@link NullWriter}.
+ * <p>
+ * Both archives have sequential ids, and the second archive has half as many
+ * rows again as the first, so every row in the first archive is merged with a
+ * row from the second archive, followed by the unmatched rows from the second
+ * archive.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriteMergeBenchmark {
+
+	@Param({ "100000" })
+	public int rows;
+
+	@Param({ "20" })
+	public int columns;
+
+	@Param({ "false", "true" })
+	public boolean includeDefaults;
+
+	private Path archivesDir;
+
+	private DarwinCoreArchiveDocument document;
+
+	private DarwinCoreArchiveDocument otherDocument;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, SAXException {
+		archivesDir = Files.createTempDirectory("dwca-benchmark-merge-");
+		document = generate(archivesDir.resolve("input"), rows, 0x5eed);
+		otherDocument = generate(archivesDir.resolve("other"), rows + rows / 2, 0x5eed + 1);
+	}
+
+	private DarwinCoreArchiveDocument generate(Path archiveDir, int coreRows, long seed)
+			throws IOException, SAXException {
+		final DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(seed);
+		generator.setCoreRows(coreRows);
+		generator.setCoreColumns(columns);
+		generator.setDefaultInterval(5);
+		generator.generate(archiveDir);
+		return DarwinCoreArchiveChecker.parseMetadataXml(archiveDir.resolve(DarwinCoreArchiveChecker.META_XML));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(archivesDir.toFile());
+	}
+
+	@Benchmark
+	public void writeMerge() throws IOException {
+		try (final CloseableIterator<DarwinCoreRecord> inputIterator = document.iterator(false, false);
+				final CloseableIterator<DarwinCoreRecord> otherInputIterator = otherDocument.iterator(false, false);
+				final SequenceWriter outputCsvWriter = CSVStream.newCSVWriter(new NullWriter(),
+						document.getCore().getCsvSchema());) {
+			// Both archives have the same fields, so the first archive can be used
+			// as the merged archive
+			DarwinCoreArchiveMerger.writeMerge(document, inputIterator, otherInputIterator, outputCsvWriter,
+					includeDefaults);
+		}
+	}
+}
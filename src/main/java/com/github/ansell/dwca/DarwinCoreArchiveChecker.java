@@ -27,12 +27,14 @@ package com.github.ansell.dwca;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -84,7 +86,8 @@ public class DarwinCoreArchiveChecker {
 
 		final OptionSpec<Void> help = parser.accepts("help").forHelp();
 		final OptionSpec<File> input = parser.accepts("input").withRequiredArg().ofType(File.class).required()
-				.describedAs("The input Darwin Core Archive file or metadata file to be checked.");
+				.describedAs(
+						"The input Darwin Core Archive file, folder or metadata file to be checked, or in batch mode, a folder of archives or a file listing them.");
 		final OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class).describedAs(
 				"A directory to output summary and other files to. If this is not set, no output will be preserved.");
 		final OptionSpec<File> tempDirOption = parser.accepts("temp-dir").withRequiredArg().ofType(File.class).describedAs(
@@ -94,6 +97,25 @@ public class DarwinCoreArchiveChecker {
 				.describedAs("Whether to include default values from the meta.xml file in each archive.");
 		final OptionSpec<Boolean> debugOption = parser.accepts("debug").withRequiredArg().ofType(Boolean.class)
 				.defaultsTo(Boolean.FALSE).describedAs("Set to true to debug.");
+		final OptionSpec<Boolean> metricsOption = parser.accepts("metrics").withRequiredArg().ofType(Boolean.class)
+				.defaultsTo(Boolean.FALSE).describedAs("Set to true to expose runtime metrics through JMX.");
+		final OptionSpec<Integer> metricsLogSecondsOption = parser.accepts("metrics-log-seconds").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(0).describedAs(
+						"The number of seconds between lines of runtime metrics printed to the console, or 0 to not print them.");
+		final OptionSpec<Boolean> batchOption = parser.accepts("batch").withRequiredArg().ofType(Boolean.class)
+				.defaultsTo(Boolean.FALSE).describedAs(
+						"Set to true to check every archive in the input folder, or listed in the input file with one path on each line.");
+		final OptionSpec<Integer> batchThreadsOption = parser.accepts("batch-threads").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors())
+				.describedAs("The number of archives to check at the same time in batch mode.");
+		final OptionSpec<Integer> batchIOConcurrencyOption = parser.accepts("batch-io-concurrency").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(DarwinCoreBatchChecker.DEFAULT_IO_CONCURRENCY)
+				.describedAs("The number of ZIP files to extract at the same time in batch mode.");
+		final OptionSpec<File> cacheDirOption = parser.accepts("cache-dir").withRequiredArg().ofType(File.class)
+				.describedAs(
+						"A directory to cache the results of checking each file in, so that files that have not changed since a previous check are not parsed again.");
+		final OptionSpec<File> reportOption = parser.accepts("report").withRequiredArg().ofType(File.class).describedAs(
+				"A file to write a JSON Lines report for the run to, with row counts, bytes and timings for each file. Runtime metrics are enabled if this is set.");
 
 		OptionSet options = null;
 
@@ -127,6 +149,11 @@ public class DarwinCoreArchiveChecker {
 			tempDir = Files.createTempDirectory("dwca-check-").toAbsolutePath().normalize();
 		}
 
+		final DarwinCoreMetrics metrics = DarwinCoreMetrics.startRun(
+				metricsOption.value(options) || options.has(reportOption), metricsLogSecondsOption.value(options),
+				System.out::println);
+		final DarwinCoreRunReport report = DarwinCoreRunReport.start(
+				options.has(reportOption) ? reportOption.value(options).toPath() : null, "dwcacheck", inputPath);
 		try {
 			final Path outputDirPath;
 			boolean hasOutput = options.has(output);
@@ -136,33 +163,153 @@ public class DarwinCoreArchiveChecker {
 				outputDirPath = tempDir;
 			}
 
-			// Override java.io.tmpdir system property so everything thinks this is the temporary directory for this JVM
-			// This includes cases where we used the standard temp dir, but want to remove all files reliably before returning for other applications that also use temp files
-			System.setProperty("java.io.tmpdir", tempDir.toAbsolutePath().toString());
-
-			final Path metadataPath;
-			if (inputPath.getFileName().toString().contains(".zip")) {
-				metadataPath = checkZip(inputPath, tempDir);
-				if (metadataPath == null) {
-					throw new IllegalStateException(
-							"Did not find a metadata file in the ZIP file: " + inputPath.toAbsolutePath().toString());
-				}
+			final DarwinCoreValidationCache cache = options.has(cacheDirOption)
+					? new DarwinCoreValidationCache(cacheDirOption.value(options).toPath())
+					: null;
+			if (batchOption.value(options)) {
+				DarwinCoreBatchChecker.checkArchives(DarwinCoreBatchChecker.findArchives(inputPath), tempDir,
+						hasOutput ? outputDirPath : null, debug, includeDefaults, batchThreadsOption.value(options),
+						batchIOConcurrencyOption.value(options), cache);
 			} else {
-				metadataPath = inputPath;
+				checkArchive(resolveMetadataPath(inputPath, tempDir, debug), outputDirPath, hasOutput, debug,
+						includeDefaults, cache);
 			}
+		} catch (final Exception e) {
+			report.addError(null, e);
+			throw e;
+		} finally {
+			DarwinCoreRunReport.finish(report, metrics);
+			DarwinCoreMetrics.finishRun(metrics);
+			FileUtils.deleteQuietly(tempDir.toFile());
+		}
+	}
+
+	/**
+	 * Find the metadata file for an archive, extracting it first if it is a
+	 * ZIP file.
+	 * 
+	 * @param inputPath
+	 *            A Darwin Core Archive ZIP file, a folder containing an
+	 *            extracted archive, or the metadata file for an archive.
+	 * @param tempDir
+	 *            The directory to extract ZIP files to.
+	 * @return The path to the metadata file for the archive.
+	 * @throws IOException
+	 *             If there is an input-output exception.
+	 * @throws IllegalStateException
+	 *             If there is not exactly one metadata file in a ZIP file or
+	 *             folder.
+	 */
+	public static Path resolveMetadataPath(final Path inputPath, final Path tempDir) throws IOException {
+		return resolveMetadataPath(inputPath, tempDir, false);
+	}
 
-			DarwinCoreArchiveDocument archiveDocument = parseMetadataXml(metadataPath);
-			if (debug) {
-				System.out.println(archiveDocument.toString());
+	/**
+	 * Find the metadata file for an archive, extracting it first if it is a
+	 * ZIP file, as for {@link #resolveMetadataPath(Path, Path)}.
+	 * 
+	 * @param inputPath
+	 *            A Darwin Core Archive ZIP file, a folder containing an
+	 *            extracted archive, or the metadata file for an archive.
+	 * @param tempDir
+	 *            The directory to extract ZIP files to.
+	 * @param debug
+	 *            True to print each file as it is extracted from a ZIP file.
+	 * @return The path to the metadata file for the archive.
+	 * @throws IOException
+	 *             If there is an input-output exception.
+	 * @throws IllegalStateException
+	 *             If there is not exactly one metadata file in a ZIP file or
+	 *             folder.
+	 */
+	public static Path resolveMetadataPath(final Path inputPath, final Path tempDir, final boolean debug)
+			throws IOException {
+		if (inputPath.getFileName().toString().contains(".zip")) {
+			final Path metadataPath = checkZip(inputPath, tempDir, debug);
+			if (metadataPath == null) {
+				throw new IllegalStateException(
+						"Did not find a metadata file in the ZIP file: " + inputPath.toAbsolutePath().toString());
 			}
+			return metadataPath;
+		} else if (Files.isDirectory(inputPath)) {
+			return checkFolder(inputPath);
+		} else {
+			return inputPath;
+		}
+	}
 
-			DarwinCoreCoreOrExtension core = archiveDocument.getCore();
-			checkCoreOrExtension(core, metadataPath, outputDirPath, hasOutput, debug, includeDefaults);
-			for (DarwinCoreCoreOrExtension extension : archiveDocument.getExtensions()) {
-				checkCoreOrExtension(extension, metadataPath, outputDirPath, hasOutput, debug, includeDefaults);
+	/**
+	 * Parses the metadata file for an archive, and then parses and summarises,
+	 * if output is required, the core and extension files.
+	 * 
+	 * @param metadataPath
+	 *            The path to the metadata file for the archive.
+	 * @param outputDirPath
+	 *            The output directory path if output is required
+	 * @param hasOutput
+	 *            True to generate statistical output and false to simply
+	 *            attempt to parse the files to determine if they are
+	 *            syntactically valid.
+	 * @param debug
+	 *            True to emit debug messages
+	 * @param includeDefaults
+	 *            True to include default values from the metadata file.
+	 * @throws IOException
+	 *             If there are issues accessing or reading the files.
+	 * @throws SAXException
+	 *             If the metadata file is not valid XML.
+	 * @throws CSVStreamException
+	 *             If there are CSV syntax errors.
+	 */
+	public static void checkArchive(final Path metadataPath, final Path outputDirPath, final boolean hasOutput,
+			final boolean debug, final boolean includeDefaults) throws IOException, SAXException, CSVStreamException {
+		checkArchive(metadataPath, outputDirPath, hasOutput, debug, includeDefaults, null);
+	}
+
+	/**
+	 * Parses the metadata file for an archive, and then parses and summarises,
+	 * if output is required, the core and extension files, reusing the
+	 * results from the cache for files that have not changed.
+	 * 
+	 * @param metadataPath
+	 *            The path to the metadata file for the archive.
+	 * @param outputDirPath
+	 *            The output directory path if output is required
+	 * @param hasOutput
+	 *            True to generate statistical output and false to simply
+	 *            attempt to parse the files to determine if they are
+	 *            syntactically valid.
+	 * @param debug
+	 *            True to emit debug messages
+	 * @param includeDefaults
+	 *            True to include default values from the metadata file.
+	 * @param cache
+	 *            The cache of previous results, or null to parse every file.
+	 * @throws IOException
+	 *             If there are issues accessing or reading the files.
+	 * @throws SAXException
+	 *             If the metadata file is not valid XML.
+	 * @throws CSVStreamException
+	 *             If there are CSV syntax errors.
+	 */
+	public static void checkArchive(final Path metadataPath, final Path outputDirPath, final boolean hasOutput,
+			final boolean debug, final boolean includeDefaults, final DarwinCoreValidationCache cache)
+			throws IOException, SAXException, CSVStreamException {
+		final DarwinCoreArchiveDocument archiveDocument = parseMetadataXml(metadataPath);
+		if (debug) {
+			System.out.println(archiveDocument.toString());
+		}
+
+		final List<DarwinCoreCoreOrExtension> coreAndExtensions = new ArrayList<>();
+		coreAndExtensions.add(archiveDocument.getCore());
+		coreAndExtensions.addAll(archiveDocument.getExtensions());
+		for (final DarwinCoreCoreOrExtension coreOrExtension : coreAndExtensions) {
+			if (cache != null) {
+				cache.check(coreOrExtension, metadataPath, outputDirPath, hasOutput, debug, includeDefaults);
+			} else {
+				checkCoreOrExtension(coreOrExtension, metadataPath, outputDirPath, hasOutput, debug,
+						includeDefaults);
 			}
-		} finally {
-			FileUtils.deleteQuietly(tempDir.toFile());
 		}
 	}
 
@@ -221,20 +368,29 @@ public class DarwinCoreArchiveChecker {
 		final List<String> coreOrExtensionFields = coreOrExtension.getFields().stream().map(f -> f.getTerm())
 				.collect(Collectors.toList());
 		return Unchecked.consumer(inputReader -> {
-			// FIXME: We only support a single file currently
-			final String coreOrExtensionFileName = coreOrExtension.getFiles().getLocations().get(0);
-			final Path coreOrExtensionFilePath = metadataPath.resolveSibling(coreOrExtensionFileName).normalize()
-					.toAbsolutePath();
-			try (final Writer summaryWriter = Files.newBufferedWriter(
+			final Path coreOrExtensionFilePath = coreOrExtension.getDataPath(metadataPath);
+			try (final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.SUMMARISE,
+					coreOrExtensionFilePath.toString());
+					final Writer summaryWriter = Files.newBufferedWriter(
 					outputDirPath.resolve("Statistics-" + coreOrExtensionFilePath.getFileName().toString()),
 					coreOrExtension.getEncoding());
 					final Writer mappingWriter = Files.newBufferedWriter(
 							outputDirPath.resolve("Mapping-" + coreOrExtensionFilePath.getFileName().toString()),
 							coreOrExtension.getEncoding());) {
+				// The summariser does not expose its rows, so they are counted
+				// from the characters as they are read, only if they are needed
+				final boolean countRows = span.isEnabled();
+				final RowCountingReader countingReader = countRows ? new RowCountingReader(inputReader, coreOrExtension)
+						: null;
 				// Summarise the core document
-				CSVSummariser.runSummarise(inputReader, CSVStream.defaultMapper(), coreOrExtension.getCsvSchema(),
-						summaryWriter, mappingWriter, 20, true, debug, coreOrExtensionFields,
+				CSVSummariser.runSummarise(countRows ? countingReader : inputReader, CSVStream.defaultMapper(),
+						coreOrExtension.getCsvSchema(), summaryWriter, mappingWriter, 20, true, debug,
+						coreOrExtensionFields,
 						includeDefaults ? coreOrExtension.getDefaultValues() : Collections.emptyList(), coreOrExtension.getIgnoreHeaderLines());
+				if (countRows) {
+					span.addRows(countingReader.getRowCount());
+					span.addBytes(Files.size(coreOrExtensionFilePath));
+				}
 			}
 		});
 	}
@@ -277,7 +433,15 @@ public class DarwinCoreArchiveChecker {
 		final List<String> coreOrExtensionFields = coreOrExtension.getFields().stream().map(f -> f.getTerm())
 				.collect(Collectors.toList());
 		return Unchecked.consumer(inputReader -> {
-			CSVStream.parse(inputReader, headersValidator, lineConverter, resultConsumer, coreOrExtensionFields,
+			// Only wrap the converter when the current span is enabled, to
+			// keep the disabled path identical to the uninstrumented one
+			final DarwinCoreSpan span = DarwinCoreSpan.current();
+			final BiFunction<List<String>, List<String>, T> countingLineConverter = !span.isEnabled() ? lineConverter
+					: (h, l) -> {
+						span.addRows(1);
+						return lineConverter.apply(h, l);
+					};
+			CSVStream.parse(inputReader, headersValidator, countingLineConverter, resultConsumer, coreOrExtensionFields,
 					includeDefaults ? coreOrExtension.getDefaultValues() : Collections.emptyList(),
 					coreOrExtension.getIgnoreHeaderLines(), CSVStream.defaultMapper(), coreOrExtension.getCsvSchema());
 		});
@@ -299,7 +463,9 @@ public class DarwinCoreArchiveChecker {
 
 	/**
 	 * Parses and summarises, if output is required, the files for a
-	 * {@link DarwinCoreCoreOrExtension}.
+	 * {@link DarwinCoreCoreOrExtension}. Files compressed using gzip, bzip2, xz
+	 * or zstd are decompressed as they are read, using
+	 * {@link DarwinCoreCompression}.
 	 * 
 	 * @param coreOrExtension
 	 *            The core or extension to parse
@@ -314,13 +480,15 @@ public class DarwinCoreArchiveChecker {
 	 */
 	public static void parseCoreOrExtension(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
 			final Consumer<Reader> parseFunction) throws IOException {
-		// TODO: Only support a single file currently
-		final String coreOrExtensionFileName = coreOrExtension.getFiles().getLocations().get(0);
-		final Path coreOrExtensionFilePath = metadataPath.resolveSibling(coreOrExtensionFileName).normalize()
-				.toAbsolutePath();
-		try (final Reader inputReader = Files.newBufferedReader(coreOrExtensionFilePath,
-				coreOrExtension.getEncoding());) {
+		final Path coreOrExtensionFilePath = coreOrExtension.getDataPath(metadataPath);
+		try (final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.PARSE,
+				coreOrExtensionFilePath.toString());
+				final Reader inputReader = DarwinCoreCompression.newBufferedReader(coreOrExtensionFilePath,
+						coreOrExtension.getEncoding());) {
 			parseFunction.accept(inputReader);
+			if (span.isEnabled()) {
+				span.addBytes(Files.size(coreOrExtensionFilePath));
+			}
 		}
 	}
 
@@ -341,9 +509,65 @@ public class DarwinCoreArchiveChecker {
 	 */
 	public static void parseCoreOrExtensionSorted(final DarwinCoreCoreOrExtension coreOrExtension,
 			final Path metadataPath, final Consumer<Reader> parseFunction, boolean debug) throws IOException {
-		Function<DarwinCoreCoreOrExtension, Comparator<StringList>> comparator = core -> CSVSorter
-				.getComparator(Arrays.asList(Integer.parseInt(core.getIdOrCoreId() == null ? "0" : core.getIdOrCoreId())));
-		parseCoreOrExtensionSorted(coreOrExtension, metadataPath, parseFunction, comparator, debug);
+		parseCoreOrExtensionSorted(coreOrExtension, metadataPath, parseFunction,
+				DarwinCoreExternalSorter.getDefault(), debug);
+	}
+
+	/**
+	 * Parses and summarises, if output is required, the files for a
+	 * {@link DarwinCoreCoreOrExtension}, after sorting the input by its id or
+	 * coreId field using the given sorter.
+	 * <br>
+	 * The sorted copy is written to the temporary directory for the sorter and
+	 * is deleted after parsing.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to parse
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file locations.
+	 * @param parseFunction
+	 *            The {@link Consumer} which is used to parse the core or
+	 *            extension.
+	 * @param sorter
+	 *            The {@link DarwinCoreExternalSorter} to sort the input with.
+	 * @throws IOException
+	 *             If there are issues accessing or reading the files.
+	 */
+	public static void parseCoreOrExtensionSorted(final DarwinCoreCoreOrExtension coreOrExtension,
+			final Path metadataPath, final Consumer<Reader> parseFunction, final DarwinCoreExternalSorter sorter,
+			boolean debug) throws IOException {
+		final Path coreOrExtensionFilePath = coreOrExtension.getDataPath(metadataPath);
+		final Path sortedCoreOrExtensionFilePath = sorter
+				.createTempFile("sorted-" + coreOrExtensionFilePath.getFileName().toString() + "-", ".tmp");
+		try {
+			try (final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.SORT,
+					coreOrExtensionFilePath.toString());
+					final Reader inputReader = DarwinCoreCompression.newBufferedReader(coreOrExtensionFilePath,
+					coreOrExtension.getEncoding());
+					final Writer sortedWriter = Files.newBufferedWriter(sortedCoreOrExtensionFilePath,
+							coreOrExtension.getEncoding());) {
+				sorter.sort(inputReader, sortedWriter, coreOrExtension.getCsvSchema(),
+						coreOrExtension.getIgnoreHeaderLines(), Arrays.asList(Integer
+								.parseInt(coreOrExtension.getIdOrCoreId() == null ? "0" : coreOrExtension.getIdOrCoreId())),
+						debug);
+				if (span.isEnabled()) {
+					span.addBytes(Files.size(coreOrExtensionFilePath));
+				}
+			}
+
+			try (final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.PARSE,
+					coreOrExtensionFilePath.toString());
+					final Reader inputReader = Files.newBufferedReader(sortedCoreOrExtensionFilePath,
+							coreOrExtension.getEncoding());) {
+				parseFunction.accept(inputReader);
+				if (span.isEnabled()) {
+					span.addBytes(Files.size(coreOrExtensionFilePath));
+				}
+			}
+		} finally {
+			Files.deleteIfExists(sortedCoreOrExtensionFilePath);
+		}
 	}
 
 	/**
@@ -367,17 +591,14 @@ public class DarwinCoreArchiveChecker {
 	public static void parseCoreOrExtensionSorted(final DarwinCoreCoreOrExtension coreOrExtension,
 			final Path metadataPath, final Consumer<Reader> parseFunction,
 			Function<DarwinCoreCoreOrExtension, Comparator<StringList>> comparator, boolean debug) throws IOException {
-		// TODO: Only support a single file currently
-		final String coreOrExtensionFileName = coreOrExtension.getFiles().getLocations().get(0);
-		final Path coreOrExtensionFilePath = metadataPath.resolveSibling(coreOrExtensionFileName).normalize()
-				.toAbsolutePath();
+		final Path coreOrExtensionFilePath = coreOrExtension.getDataPath(metadataPath);
 		final Path sortedCoreOrExtensionFilePath = coreOrExtensionFilePath
 				.resolveSibling("sorted-" + coreOrExtensionFilePath.getFileName().toString());
 
 		// Delete the sorted file if it exists and recreate it
 		Files.deleteIfExists(sortedCoreOrExtensionFilePath);
 
-		try (final Reader otherInputReader = Files.newBufferedReader(coreOrExtensionFilePath,
+		try (final Reader otherInputReader = DarwinCoreCompression.newBufferedReader(coreOrExtensionFilePath,
 				coreOrExtension.getEncoding())) {
 			CsvSchema csvSchema = coreOrExtension.getCsvSchema();
 			CSVSorter.runSorter(otherInputReader, sortedCoreOrExtensionFilePath,
@@ -413,17 +634,42 @@ public class DarwinCoreArchiveChecker {
 	 * @throws IOException
 	 */
 	public static Path checkZip(Path inputPath, Path tempDir) throws IOException {
+		return checkZip(inputPath, tempDir, false);
+	}
+
+	/**
+	 * Extract a ZIP file and find the metadata file in it.
+	 * 
+	 * @param inputPath
+	 *            The ZIP file.
+	 * @param tempDir
+	 *            The directory to extract the ZIP file to.
+	 * @param debug
+	 *            True to print each file as it is extracted.
+	 * @return The path to the extracted metadata file.
+	 * @throws IOException
+	 *             If there is an input-output exception.
+	 * @throws IllegalStateException
+	 *             If there is not exactly one metadata file in the ZIP file.
+	 */
+	public static Path checkZip(Path inputPath, Path tempDir, boolean debug) throws IOException {
 		Path metadataPath = null;
 
-		final FileSystemManager fsManager = VFS.getManager();
-		final FileObject zipFile = fsManager.resolveFile("zip:" + inputPath.toAbsolutePath().toString());
+		try (final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.ZIP_EXTRACT,
+				inputPath.toString());) {
+			if (span.isEnabled()) {
+				span.addBytes(Files.size(inputPath));
+			}
+			final FileSystemManager fsManager = VFS.getManager();
+			final FileObject zipFile = fsManager.resolveFile("zip:" + inputPath.toAbsolutePath().toString());
 
-		final FileObject[] children = zipFile.getChildren();
-		if (children.length == 0) {
-			throw new RuntimeException("No files in zip file: " + inputPath);
-		}
+			final FileObject[] children = zipFile.getChildren();
+			if (children.length == 0) {
+				throw new RuntimeException("No files in zip file: " + inputPath);
+			}
 
-		metadataPath = copyChildrenRecursive(tempDir, metadataPath, children);
+			metadataPath = copyChildrenRecursive(tempDir, metadataPath, children, debug);
+		}
 
 		if (metadataPath == null) {
 			throw new IllegalStateException(
@@ -434,19 +680,22 @@ public class DarwinCoreArchiveChecker {
 	}
 
     private static Path copyChildrenRecursive(Path tempDir, Path metadataPath,
-            final FileObject[] children) throws IOException, FileSystemException {
+            final FileObject[] children, final boolean debug) throws IOException, FileSystemException {
         for (FileObject nextFile : children) {
             String pathName = nextFile.getName().getPath();
             Path nextTempFile = tempDir.resolve("./" + pathName).toAbsolutePath().normalize();
             Files.createDirectories(nextTempFile.getParent());
 		    if(nextFile.isFolder()) {
 		        Files.createDirectories(nextTempFile.getFileName());
-		        copyChildrenRecursive(tempDir, metadataPath, nextFile.getChildren());
+		        copyChildrenRecursive(tempDir, metadataPath, nextFile.getChildren(), debug);
 		    } else if(nextFile.isFile()) {
-    			try (InputStream in = nextFile.getContent().getInputStream();) {
+    			try (final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.ZIP_ENTRY, pathName);
+    					InputStream in = nextFile.getContent().getInputStream();) {
     				String baseName = nextFile.getName().getBaseName();
-    				System.out.println("nextFile=" + nextFile.toString() + " baseName=" + baseName + " pathName=" + pathName
-    						+ " nextTempFile=" + nextTempFile);
+    				if (debug) {
+    					System.out.println("nextFile=" + nextFile.toString() + " baseName=" + baseName + " pathName="
+    							+ pathName + " nextTempFile=" + nextTempFile);
+    				}
     				if (baseName.equalsIgnoreCase(METADATA_XML) || baseName.equalsIgnoreCase(META_XML)) {
     					if (metadataPath != null) {
     						throw new IllegalStateException("Duplicate metadata.xml files found in ZIP file: first="
@@ -455,7 +704,7 @@ public class DarwinCoreArchiveChecker {
     					metadataPath = nextTempFile;
     				}
     
-    				Files.copy(in, nextTempFile);
+    				span.addBytes(Files.copy(in, nextTempFile));
     			}
 		    }
 		}
@@ -510,11 +759,79 @@ public class DarwinCoreArchiveChecker {
 	 */
 	public static DarwinCoreArchiveDocument parseMetadataXml(Path metadataPath)
 			throws IOException, SAXException, IllegalStateException {
-		try (Reader input = Files.newBufferedReader(metadataPath);) {
+		try (DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.METADATA_PARSE,
+				metadataPath.toString());
+				Reader input = Files.newBufferedReader(metadataPath);) {
 			DarwinCoreArchiveDocument result = DarwinCoreMetadataSaxParser.parse(input);
 			result.setMetadataXMLPath(metadataPath);
+			if (span.isEnabled()) {
+				span.addBytes(Files.size(metadataPath));
+			}
 			return result;
 		}
 	}
 
+	/**
+	 * Counts the records in a CSV file as it is read, by finding the line
+	 * terminators that are outside of quoted values, without parsing the
+	 * values. Blank lines and the header lines are not counted.
+	 */
+	private static final class RowCountingReader extends FilterReader {
+
+		private final char quoteChar;
+		private final char lineEnd;
+		private final int headerLineCount;
+		private boolean inQuotes;
+		private boolean lineHasContent;
+		private long records;
+
+		private RowCountingReader(final Reader in, final DarwinCoreCoreOrExtension coreOrExtension) {
+			super(in);
+			final String linesTerminatedBy = coreOrExtension.getLinesTerminatedBy();
+			this.quoteChar = coreOrExtension.getFieldsEnclosedBy().charAt(0);
+			this.lineEnd = linesTerminatedBy.charAt(linesTerminatedBy.length() - 1);
+			this.headerLineCount = coreOrExtension.getIgnoreHeaderLines();
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int result = super.read();
+			if (result >= 0) {
+				count((char) result);
+			}
+			return result;
+		}
+
+		@Override
+		public int read(final char[] cbuf, final int off, final int len) throws IOException {
+			final int result = super.read(cbuf, off, len);
+			for (int i = 0; i < result; i++) {
+				count(cbuf[off + i]);
+			}
+			return result;
+		}
+
+		private void count(final char next) {
+			if (next == quoteChar) {
+				// Doubled quotes inside a quoted value toggle twice
+				inQuotes = !inQuotes;
+				lineHasContent = true;
+			} else if (next == lineEnd && !inQuotes) {
+				if (lineHasContent) {
+					records++;
+				}
+				lineHasContent = false;
+			} else if (next != '\r') {
+				lineHasContent = true;
+			}
+		}
+
+		/**
+		 * @return The number of records that have been read, not including
+		 *         the header lines.
+		 */
+		private long getRowCount() {
+			return Math.max(0L, records + (lineHasContent ? 1 : 0) - headerLineCount);
+		}
+	}
 }
@@ -31,7 +31,9 @@ import java.io.Writer;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
@@ -43,6 +45,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -54,6 +57,7 @@ import javax.xml.stream.XMLStreamWriter;
 import org.jooq.lambda.Unchecked;
 
 import com.github.ansell.concurrent.jparallel.JParallel;
+import com.github.ansell.csv.stream.CSVStreamException;
 import com.github.ansell.dwca.DarwinCoreCoreOrExtension.CoreOrExtension;
 
 import javanet.staxutils.IndentingXMLStreamWriter;
@@ -132,6 +136,18 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 	 */
 	private Path metadataXMLPath;
 
+	/**
+	 * The id indexes that have been opened for lookups, which are kept for the
+	 * life of this document.
+	 */
+	private final Map<DarwinCoreCoreOrExtension, DarwinCoreIdIndex> idIndexes = new IdentityHashMap<>();
+
+	private volatile boolean rowCacheEnabled;
+
+	private volatile Path cacheDir;
+
+	private volatile DarwinCoreExternalSorter sorter = DarwinCoreExternalSorter.getDefault();
+
 	public Optional<Path> getMetadataXMLPath() {
 		return Optional.ofNullable(metadataXMLPath);
 	}
@@ -140,6 +156,70 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 		this.metadataXMLPath = Objects.requireNonNull(metadataXMLPath, "Metadata XML Path cannot be set to null");
 	}
 
+	/**
+	 * @return True if iterators read the core from a {@link DarwinCoreRowCache}.
+	 */
+	public boolean isRowCacheEnabled() {
+		return rowCacheEnabled;
+	}
+
+	/**
+	 * Set whether iterators read the core from a {@link DarwinCoreRowCache},
+	 * which is written the first time the core is iterated over, and is
+	 * replaced if the core file or its metadata change. This is faster when
+	 * an archive is iterated over more than once, at the cost of disk space
+	 * next to the core file, or in the directory set using
+	 * {@link #setCacheDir(Path)}.
+	 * 
+	 * @param rowCacheEnabled
+	 *            True to use a row cache, and false to parse the core file
+	 *            each time.
+	 */
+	public void setRowCacheEnabled(boolean rowCacheEnabled) {
+		this.rowCacheEnabled = rowCacheEnabled;
+	}
+
+	/**
+	 * @return The directory that id indexes and row caches are kept in, or
+	 *         null if they are kept next to the data files.
+	 */
+	public Path getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * Set the directory that the {@link DarwinCoreIdIndex} and
+	 * {@link DarwinCoreRowCache} files for this archive are kept in, so that
+	 * archives in directories that cannot be written to can be indexed and
+	 * cached. Indexes that have already been opened are not moved.
+	 * 
+	 * @param cacheDir
+	 *            The directory, which is created when it is first needed, or
+	 *            null to keep the files next to the data files.
+	 */
+	public void setCacheDir(Path cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * @return The sorter used by iterators that sort the core by id.
+	 */
+	public DarwinCoreExternalSorter getSorter() {
+		return sorter;
+	}
+
+	/**
+	 * Set the sorter used by iterators that sort the core by id, so that the
+	 * memory budget and temporary directory for sorting can be chosen for
+	 * each document, rather than for every document in the JVM.
+	 * 
+	 * @param sorter
+	 *            The sorter to use.
+	 */
+	public void setSorter(DarwinCoreExternalSorter sorter) {
+		this.sorter = Objects.requireNonNull(sorter, "Sorter cannot be null");
+	}
+
 	public DarwinCoreCoreOrExtension getCore() {
 		if (core == null) {
 			throw new IllegalStateException("Could not find core in this document");
@@ -187,12 +267,103 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 		}
 	}
 
+	/**
+	 * Find the core record with the given id, and the extension records that
+	 * refer to it, including defaults from the metadata.
+	 * 
+	 * @param id
+	 *            The id of the core record.
+	 * @return The records, or {@link Optional#empty()} if there is no core
+	 *         record with the id.
+	 * @throws IOException
+	 *             If the data files or their indexes could not be read.
+	 * @throws CSVStreamException
+	 *             If a record could not be parsed.
+	 * @see #lookup(String, boolean)
+	 */
+	public Optional<DarwinCoreStarRecord> lookup(String id) throws IOException, CSVStreamException {
+		return lookup(id, true);
+	}
+
+	/**
+	 * Find the core record with the given id, and the extension records that
+	 * refer to it, using a {@link DarwinCoreIdIndex} for the core and each
+	 * extension to read the records without scanning the files. Indexes that
+	 * do not exist, or are out of date, are built the first time they are
+	 * needed.
+	 * 
+	 * @param id
+	 *            The id of the core record.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @return The records, or {@link Optional#empty()} if there is no core
+	 *         record with the id. If there is more than one core record with
+	 *         the id, the first one in the file is returned.
+	 * @throws IOException
+	 *             If the data files or their indexes could not be read.
+	 * @throws CSVStreamException
+	 *             If a record could not be parsed.
+	 * @throws IllegalStateException
+	 *             If the core does not have an id, or the metadata path for
+	 *             this document is not known.
+	 */
+	public Optional<DarwinCoreStarRecord> lookup(String id, boolean includeDefaults)
+			throws IOException, CSVStreamException {
+		Objects.requireNonNull(id, "Id cannot be null");
+		final List<List<String>> coreRows = getIdIndex(getCore()).lookup(id, includeDefaults);
+		if (coreRows.isEmpty()) {
+			return Optional.empty();
+		}
+		final List<List<DarwinCoreRecord>> extensionRecords = new ArrayList<>(extensions.size());
+		for (DarwinCoreCoreOrExtension extension : extensions) {
+			final List<DarwinCoreField> extensionFields = extension.getFields();
+			final List<DarwinCoreRecord> nextRecords = new ArrayList<>();
+			for (List<String> nextRow : getIdIndex(extension).lookup(id, includeDefaults)) {
+				nextRecords.add(new DarwinCoreRecordImpl(this, extensionFields, nextRow));
+			}
+			extensionRecords.add(nextRecords);
+		}
+		return Optional.of(new DarwinCoreStarRecord(
+				new DarwinCoreRecordImpl(this, getCore().getFields(), coreRows.get(0)), extensionRecords));
+	}
+
+	private DarwinCoreIdIndex getIdIndex(DarwinCoreCoreOrExtension coreOrExtension) throws IOException {
+		final Path nextMetadataPath = getMetadataXMLPath().orElseThrow(() -> new IllegalStateException(
+				"Metadata XML Path was null, not able to lookup records due to a lack of a file reference point."));
+		synchronized (idIndexes) {
+			DarwinCoreIdIndex result = idIndexes.get(coreOrExtension);
+			if (result == null) {
+				result = DarwinCoreIdIndex.open(coreOrExtension, nextMetadataPath, cacheDir);
+				idIndexes.put(coreOrExtension, result);
+			}
+			return result;
+		}
+	}
+
 	@Override
 	public CloseableIterator<DarwinCoreRecord> iterator() {
 		return iterator(true);
 	}
 
 	public CloseableIterator<DarwinCoreRecord> iterator(boolean includeDefaults) {
+		return iterator(includeDefaults, true);
+	}
+
+	/**
+	 * Iterate over the records in the core of this document.
+	 * 
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @param sortById
+	 *            True to sort the core file by its id field before iterating, and
+	 *            false to iterate in file order, which is only suitable when the
+	 *            file is known to be sorted already, or the order does not
+	 *            matter.
+	 * @return A {@link CloseableIterator} over the records in the core.
+	 */
+	public CloseableIterator<DarwinCoreRecord> iterator(boolean includeDefaults, boolean sortById) {
 		// Dummy sentinel to signal when iteration is complete
 		final DarwinCoreRecord sentinel = new DarwinCoreRecord() {
 			@Override
@@ -212,6 +383,13 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 		};
 		final BlockingQueue<DarwinCoreRecord> pendingResults = new ArrayBlockingQueue<>(1);
 		final DarwinCoreArchiveDocument document = this;
+		final DarwinCoreMetrics metrics = DarwinCoreMetrics.getDefault();
+		// Only written by the parse thread, and read after it completes
+		final AtomicLong parserWaitNanos = new AtomicLong();
+
+		// Share a single field list between all of the records, so that
+		// consumers can cache per-field lookups using its identity
+		final List<DarwinCoreField> coreFields = document.getCore().getFields();
 
 		// Create a parse function
 		BiFunction<List<String>, List<String>, DarwinCoreRecord> lineConverter = (h, l) -> {
@@ -219,12 +397,22 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 			if (Thread.currentThread().isInterrupted()) {
 				throw new IllegalStateException("Interruption occurred during parse");
 			}
-			return new DarwinCoreRecordImpl(document, document.getCore().getFields(), l);
+			return new DarwinCoreRecordImpl(document, coreFields, l);
 		};
 
 		Consumer<DarwinCoreRecord> resultConsumer = l -> {
 			try {
-				pendingResults.put(l);
+				// Only time the handover when the queue is full, so the
+				// common case does not read the clock
+				if (!pendingResults.offer(l)) {
+					final long waitStartNanos = metrics.startPhase();
+					pendingResults.put(l);
+					if (metrics.isEnabled()) {
+						final long waitNanos = System.nanoTime() - waitStartNanos;
+						parserWaitNanos.addAndGet(waitNanos);
+						metrics.addParserWait(waitNanos);
+					}
+				}
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
 				e.printStackTrace();
@@ -233,6 +421,9 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 
 		final Consumer<Reader> parseFunction = DarwinCoreArchiveChecker.createParseFunction(core, h -> {
 		}, lineConverter, resultConsumer, includeDefaults);
+		final boolean useRowCache = rowCacheEnabled;
+		final DarwinCoreExternalSorter useSorter = sorter;
+		final Path useCacheDir = cacheDir;
 
 		return new CloseableIterator<DarwinCoreRecord>() {
 
@@ -240,8 +431,11 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 			private final CountDownLatch startCompleted = new CountDownLatch(1);
 			private final AtomicBoolean closed = new AtomicBoolean(false);
 			private volatile DarwinCoreRecord nextItem;
-			private final ExecutorService executor = Executors.newFixedThreadPool(1);
+			private final ExecutorService executor = Executors.newFixedThreadPool(1,
+					r -> new Thread(r, "dwca-document-parse"));
 			private final AtomicReference<Future<?>> runningJob = new AtomicReference<>();
+			private volatile long consumerStartNanos;
+			private long consumerWaitNanos;
 
 			private void doStart() {
 				if (started.compareAndSet(false, true)) {
@@ -249,13 +443,32 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 						Path nextMetadataPath = document.getMetadataXMLPath()
 								.orElseThrow(() -> new IllegalStateException(
 										"Metadata XML Path was null, not able to iterate due to a lack of a file reference point."));
+						consumerStartNanos = metrics.startPhase();
 						Future<?> previousJob = runningJob.getAndSet(executor.submit(Unchecked.runnable(() -> {
+							final long parseStartNanos = metrics.startPhase();
 							try {
-								DarwinCoreArchiveChecker.parseCoreOrExtensionSorted(document.getCore(),
-										nextMetadataPath, parseFunction, false);
+								if (useRowCache) {
+									DarwinCoreRowCache.parse(document.getCore(), nextMetadataPath, sortById,
+											includeDefaults, useSorter, useCacheDir,
+											l -> resultConsumer.accept(lineConverter.apply(Collections.emptyList(), l)));
+								} else if (sortById) {
+									DarwinCoreArchiveChecker.parseCoreOrExtensionSorted(document.getCore(),
+											nextMetadataPath, parseFunction, useSorter, false);
+								} else {
+									DarwinCoreArchiveChecker.parseCoreOrExtension(document.getCore(),
+											nextMetadataPath, parseFunction);
+								}
 							} catch (Exception e) {
-								e.printStackTrace();
+								// Failures after the iterator is closed are
+								// from cancelling the parse
+								if (!closed.get()) {
+									DarwinCoreRunReport.getDefault().addError(nextMetadataPath.toString(), e);
+									e.printStackTrace();
+								}
 							} finally {
+								if (metrics.isEnabled()) {
+									metrics.addParse(System.nanoTime() - parseStartNanos, parserWaitNanos.get());
+								}
 								// Add a delay for adding the sentinel while the
 								// queue is not yet empty
 								int waitCount = 0;
@@ -287,41 +500,21 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 			@Override
 			public void close() {
 				if (closed.compareAndSet(false, true)) {
-					try {
-						try {
-							// Even if start wasn't called, need to be
-							// consistent given there is no synchronisation or
-							// locking involved other than
-							// AtomicBoolean.compareAndSet, so start anyway here
-							doStart();
-							startCompleted.await();
-						} finally {
-							try {
-								// If the sentinel could not be added in 10
-								// seconds, attempt to clear the queue and try
-								// again until space is available
-								while (!pendingResults.offer(sentinel, 10, TimeUnit.SECONDS)) {
-									pendingResults.clear();
-								}
-							} finally {
-								try {
-									executor.shutdown();
-									executor.awaitTermination(10, TimeUnit.SECONDS);
-									if (!executor.isTerminated()) {
-										executor.shutdownNow();
-									}
-								} finally {
-									Future<?> future = runningJob.getAndSet(null);
-									if (future != null && !future.isDone()) {
-										future.cancel(true);
-									}
-								}
-							}
-						}
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-						e.printStackTrace();
+					if (metrics.isEnabled() && consumerStartNanos != 0L) {
+						metrics.addConsumer(System.nanoTime() - consumerStartNanos, consumerWaitNanos);
+					}
+					// Nothing reads the rest of the results, so stop the
+					// parse, and any sort it is running, straight away
+					if (started.compareAndSet(false, true)) {
+						startCompleted.countDown();
+					}
+					executor.shutdownNow();
+					final Future<?> future = runningJob.getAndSet(null);
+					if (future != null && !future.isDone()) {
+						future.cancel(true);
 					}
+					// Release a parse that is waiting to add a result
+					pendingResults.clear();
 				}
 			}
 
@@ -353,14 +546,25 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 					}
 					if (Thread.currentThread().isInterrupted()) {
 						close();
-						return false;
+						throw new IllegalStateException("Interruption occurred during iteration");
 					}
 					doStart();
 					startCompleted.await();
 					if (nextItem != null) {
 						return true;
 					}
-					DarwinCoreRecord poll = pendingResults.take();
+					// Only time the handover when the queue is empty, so the
+					// common case does not read the clock
+					DarwinCoreRecord poll = pendingResults.poll();
+					if (poll == null) {
+						final long waitStartNanos = metrics.startPhase();
+						poll = pendingResults.take();
+						if (metrics.isEnabled()) {
+							final long waitNanos = System.nanoTime() - waitStartNanos;
+							consumerWaitNanos += waitNanos;
+							metrics.addConsumerWait(waitNanos);
+						}
+					}
 					if (poll == sentinel || poll == null) {
 						close();
 						return false;
@@ -371,7 +575,7 @@ public class DarwinCoreArchiveDocument implements Iterable<DarwinCoreRecord>, Co
 				} catch (InterruptedException e) {
 					close();
 					Thread.currentThread().interrupt();
-					return false;
+					throw new IllegalStateException("Interruption occurred during iteration", e);
 				}
 			}
 		};
@@ -33,11 +33,16 @@ import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -65,6 +70,19 @@ public class DarwinCoreArchiveMerger {
 	public static final String METADATA_XML = "metadata.xml";
 	public static final String META_XML = "meta.xml";
 
+	/**
+	 * The term for an optional field in a changeset archive that marks each row
+	 * as either an upsert or a deletion when performing a delta merge.
+	 */
+	public static final String DELTA_OPERATION_TERM = "dwcaUtilsDeltaOperation";
+
+	/**
+	 * The value of {@link #DELTA_OPERATION_TERM}, matched without regard to case,
+	 * that marks a row as a deletion. All other values, including the empty
+	 * string, mark the row as an upsert.
+	 */
+	public static final String DELTA_OPERATION_DELETE = "delete";
+
 	/**
 	 * Private constructor for static only class
 	 */
@@ -79,8 +97,17 @@ public class DarwinCoreArchiveMerger {
 				.describedAs("The base input Darwin Core Archive file to be merged.");
 		final OptionSpec<File> otherInput = parser.accepts("other-input").withRequiredArg().ofType(File.class)
 				.required().describedAs("The other input Darwin Core Archive file to be merged.");
-		final OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class).required()
-				.describedAs("A directory to output summary and other files to.");
+		final OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class)
+				.describedAs("A directory to output summary and other files to. Required unless output-zip is set.");
+		final OptionSpec<File> outputZip = parser.accepts("output-zip").withRequiredArg().ofType(File.class)
+				.describedAs(
+						"A ZIP file to stream the merged archive into, instead of writing it as plain files to the output directory.");
+		final OptionSpec<Integer> zipCompressionLevel = parser.accepts("zip-compression-level").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(Deflater.DEFAULT_COMPRESSION)
+				.describedAs("The deflate level to use for output-zip, from 0 to 9, or -1 for the default level.");
+		final OptionSpec<Boolean> zipStoreUncompressed = parser.accepts("zip-store-uncompressed").withRequiredArg()
+				.ofType(Boolean.class).defaultsTo(Boolean.FALSE)
+				.describedAs("Set to true to store output-zip entries without compression, for speed.");
 		final OptionSpec<Boolean> includeDefaultsOption = parser.accepts("include-defaults").withRequiredArg()
 				.ofType(Boolean.class).defaultsTo(Boolean.TRUE)
 				.describedAs("Whether to include default values from the meta.xml file in each archive when merging.");
@@ -89,6 +116,33 @@ public class DarwinCoreArchiveMerger {
 		final OptionSpec<Boolean> filterNonVocabularyTermsOption = parser.accepts("remove-non-vocabulary-terms")
 				.withRequiredArg().ofType(Boolean.class).defaultsTo(Boolean.FALSE)
 				.describedAs("Remove terms that do not match vocabularies when merging.");
+		final OptionSpec<Boolean> deltaOption = parser.accepts("delta").withRequiredArg().ofType(Boolean.class)
+				.defaultsTo(Boolean.FALSE).describedAs(
+						"Set to true to apply other-input as a changeset to input, which must be sorted by id, as the output from a previous merge is. Rows in other-input with "
+								+ DELTA_OPERATION_TERM + " set to " + DELTA_OPERATION_DELETE
+								+ " are deleted, all other rows update the fields they contain, or are added to input.");
+		final OptionSpec<Boolean> inputStatisticsOption = parser.accepts("input-statistics").withRequiredArg()
+				.ofType(Boolean.class).defaultsTo(Boolean.FALSE).describedAs(
+						"Set to true to also write statistics and mappings for each input data file, which requires an extra pass over each of them.");
+		final OptionSpec<String> conflictPolicyOption = parser.accepts("conflict-policy").withRequiredArg()
+				.ofType(String.class).describedAs(
+						"A term and the policy for resolving conflicting values for it, as term=policy. May be repeated. Built in policies are prefer-input (the default), prefer-newest, prefer-non-default and concatenate.");
+		final OptionSpec<Long> sortMemoryOption = parser.accepts("sort-memory-mb").withRequiredArg().ofType(Long.class)
+				.defaultsTo(DarwinCoreExternalSorter.DEFAULT_MEMORY_BUDGET >> 20)
+				.describedAs("The approximate heap budget in megabytes for sorting the input archives.");
+		final OptionSpec<Integer> sortThreadsOption = parser.accepts("sort-threads").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(DarwinCoreExternalSorter.DEFAULT_PARALLELISM)
+				.describedAs("The number of sorted runs to generate in parallel.");
+		final OptionSpec<File> sortTempDirOption = parser.accepts("sort-temp-dir").withRequiredArg()
+				.ofType(File.class).describedAs(
+						"A directory for temporary sort files, instead of the default temporary directory.");
+		final OptionSpec<Boolean> metricsOption = parser.accepts("metrics").withRequiredArg().ofType(Boolean.class)
+				.defaultsTo(Boolean.FALSE).describedAs("Set to true to expose runtime metrics through JMX.");
+		final OptionSpec<Integer> metricsLogSecondsOption = parser.accepts("metrics-log-seconds").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(0).describedAs(
+						"The number of seconds between lines of runtime metrics printed to the console, or 0 to not print them.");
+		final OptionSpec<File> reportOption = parser.accepts("report").withRequiredArg().ofType(File.class).describedAs(
+				"A file to write a JSON Lines report for the run to, with row counts, bytes and timings for each file. Runtime metrics are enabled if this is set.");
 
 		OptionSet options = null;
 
@@ -105,11 +159,31 @@ public class DarwinCoreArchiveMerger {
 			return;
 		}
 
-		final boolean debug = debugOption.value(options);
-
-		final boolean filterNonVocabularyTerms = filterNonVocabularyTermsOption.value(options);
-
-		final boolean includeDefaults = includeDefaultsOption.value(options);
+		final boolean delta = deltaOption.value(options);
+
+		final DarwinCoreMergeOptions mergeOptions = new DarwinCoreMergeOptions();
+		mergeOptions.setDebug(debugOption.value(options));
+		mergeOptions.setFilterNonVocabularyTerms(filterNonVocabularyTermsOption.value(options));
+		mergeOptions.setIncludeDefaults(includeDefaultsOption.value(options));
+		mergeOptions.setInputStatistics(inputStatisticsOption.value(options));
+		mergeOptions.setCompressionLevel(zipCompressionLevel.value(options));
+		mergeOptions.setStoreUncompressed(zipStoreUncompressed.value(options));
+		mergeOptions.setSorter(new DarwinCoreExternalSorter(sortMemoryOption.value(options) << 20,
+				sortThreadsOption.value(options),
+				options.has(sortTempDirOption) ? sortTempDirOption.value(options).toPath() : null,
+				DarwinCoreExternalSorter.DEFAULT_READ_BUFFER_SIZE));
+
+		final Map<String, DarwinCoreConflictPolicy> conflictPolicies = new LinkedHashMap<>();
+		for (final String nextConflictPolicy : conflictPolicyOption.values(options)) {
+			final int separator = nextConflictPolicy.lastIndexOf('=');
+			if (separator < 1) {
+				throw new IllegalArgumentException(
+						"Conflict policies must be in the form term=policy: " + nextConflictPolicy);
+			}
+			conflictPolicies.put(nextConflictPolicy.substring(0, separator),
+					DarwinCoreConflictPolicies.forName(nextConflictPolicy.substring(separator + 1)));
+		}
+		mergeOptions.setConflictPolicies(conflictPolicies);
 
 		final Path inputPath = input.value(options).toPath();
 		if (!Files.exists(inputPath)) {
@@ -123,19 +197,48 @@ public class DarwinCoreArchiveMerger {
 					+ otherInputPath.toString());
 		}
 
-		final Path outputDirPath = output.value(options).toPath();
-		if (!Files.exists(outputDirPath)) {
-			throw new FileNotFoundException("Could not find output folder: " + outputDirPath.toString());
+		if (!options.has(output) && !options.has(outputZip)) {
+			System.out.println("One of output or output-zip must be set");
+			parser.printHelpOn(System.out);
+			throw new IllegalArgumentException("One of output or output-zip must be set");
 		}
 
 		final Path tempDir = Files.createTempDirectory("dwca-merge-");
 
+		final DarwinCoreMetrics metrics = DarwinCoreMetrics.startRun(
+				metricsOption.value(options) || options.has(reportOption), metricsLogSecondsOption.value(options),
+				System.out::println);
+		final DarwinCoreRunReport report = DarwinCoreRunReport.start(
+				options.has(reportOption) ? reportOption.value(options).toPath() : null, "dwcamerge", inputPath);
 		try {
+			if (options.has(outputZip)) {
+				final Path outputZipPath = outputZip.value(options).toPath();
+				if (delta) {
+					doDeltaMergeToZip(inputPath, otherInputPath, outputZipPath, tempDir, mergeOptions);
+				} else {
+					doMergeToZip(inputPath, otherInputPath, outputZipPath, tempDir, mergeOptions);
+				}
+				System.out.println("Merged archive written to: " + outputZipPath);
+			} else {
+				final Path outputDirPath = output.value(options).toPath();
+				if (!Files.exists(outputDirPath)) {
+					throw new FileNotFoundException("Could not find output folder: " + outputDirPath.toString());
+				}
 
-			DarwinCoreArchiveDocument result = doMerge(inputPath, otherInputPath, outputDirPath,
-					filterNonVocabularyTerms, includeDefaults, debug);
-			System.out.println("Merged archive description written to: " + result.getMetadataXMLPath());
+				final DarwinCoreArchiveDocument result;
+				if (delta) {
+					result = doDeltaMerge(inputPath, otherInputPath, outputDirPath, mergeOptions);
+				} else {
+					result = doMerge(inputPath, otherInputPath, outputDirPath, mergeOptions);
+				}
+				System.out.println("Merged archive description written to: " + result.getMetadataXMLPath());
+			}
+		} catch (final Exception e) {
+			report.addError(null, e);
+			throw e;
 		} finally {
+			DarwinCoreRunReport.finish(report, metrics);
+			DarwinCoreMetrics.finishRun(metrics);
 			FileUtils.deleteQuietly(tempDir.toFile());
 		}
 	}
@@ -170,25 +273,56 @@ public class DarwinCoreArchiveMerger {
 	 *             If there are CSV errors
 	 * @throws XMLStreamException
 	 *             If there are XML errors
+	 * @see #doMerge(Path, Path, Path, DarwinCoreMergeOptions)
 	 */
-	public static DarwinCoreArchiveDocument doMerge(final Path inputPath, final Path otherInputPath, final Path outputDirPath,
-			final boolean filterNonVocabularyTerms, final boolean includeDefaults, final boolean debug)
+	public static DarwinCoreArchiveDocument doMerge(final Path inputPath, final Path otherInputPath,
+			final Path outputDirPath, final boolean filterNonVocabularyTerms, final boolean includeDefaults,
+			final boolean debug)
 			throws IOException, IllegalStateException, SAXException, CSVStreamException, XMLStreamException {
-		final Path outputArchivePath = outputDirPath.resolve("first-archive");
-		final Path inputMetadataPath = openArchive(inputPath, outputArchivePath);
-		Files.createDirectories(outputArchivePath);
-		final DarwinCoreArchiveDocument inputArchiveDocument = loadArchive(debug, outputArchivePath, inputMetadataPath,
-				includeDefaults);
+		return doMerge(inputPath, otherInputPath, outputDirPath,
+				optionsFor(filterNonVocabularyTerms, includeDefaults, debug));
+	}
+
+	/**
+	 * Merge the archive at inputPath with the archive at otherInputPath, emitting
+	 * the results to a well-formed Darwin Core Archive at outputDirPath. Records
+	 * with the same id are merged, and the output is sorted by id, so it can be
+	 * used as the base for {@link #doDeltaMerge(Path, Path, Path, DarwinCoreMergeOptions)}.
+	 * 
+	 * @param inputPath
+	 *            The input archive
+	 * @param otherInputPath
+	 *            The other input archive
+	 * @param outputDirPath
+	 *            The path where the output should be written
+	 * @param options
+	 *            The settings for the merge
+	 * @return The {@link DarwinCoreArchiveDocument} representing the merged document
+	 * @throws IOException
+	 *             If there are issues while performing IO
+	 * @throws IllegalStateException
+	 *             If there are issues with the archives that prevent them being
+	 *             merged, or a policy cannot be used for its term
+	 * @throws SAXException
+	 *             If there are XML errors
+	 * @throws CSVStreamException
+	 *             If there are CSV errors
+	 * @throws XMLStreamException
+	 *             If there are XML errors
+	 */
+	public static DarwinCoreArchiveDocument doMerge(final Path inputPath, final Path otherInputPath,
+			final Path outputDirPath, final DarwinCoreMergeOptions options)
+			throws IOException, IllegalStateException, SAXException, CSVStreamException, XMLStreamException {
+		final boolean debug = options.isDebug();
+		final DarwinCoreArchiveDocument inputArchiveDocument = openAndLoadArchive(inputPath,
+				outputDirPath.resolve("first-archive"), options);
 		if (debug) {
 			System.out.println("Found an archive with " + inputArchiveDocument.getCore().getFields().size()
 					+ " core fields and " + inputArchiveDocument.getExtensions().size() + " extensions");
 		}
 
-		final Path otherOutputArchivePath = outputDirPath.resolve("other-archive");
-		final Path otherInputMetadataPath = openArchive(otherInputPath, otherOutputArchivePath);
-		Files.createDirectories(otherOutputArchivePath);
-		final DarwinCoreArchiveDocument otherInputArchiveDocument = loadArchive(debug, otherOutputArchivePath,
-				otherInputMetadataPath, includeDefaults);
+		final DarwinCoreArchiveDocument otherInputArchiveDocument = openAndLoadArchive(otherInputPath,
+				outputDirPath.resolve("other-archive"), options);
 		if (debug) {
 			System.out.println("Found another archive with " + otherInputArchiveDocument.getCore().getFields().size()
 					+ " core fields and " + otherInputArchiveDocument.getExtensions().size() + " extensions");
@@ -210,8 +344,8 @@ public class DarwinCoreArchiveMerger {
 		// that we create them
 		Files.createDirectories(mergedOutputCorePath.getParent());
 
-		DarwinCoreArchiveDocument mergedArchiveDocument = doMergeInner(inputArchiveDocument, otherInputArchiveDocument, mergedOutputArchivePath, mergedOutputCorePath,
-				debug, filterNonVocabularyTerms, includeDefaults);
+		DarwinCoreArchiveDocument mergedArchiveDocument = doMergeInner(inputArchiveDocument,
+				otherInputArchiveDocument, mergedOutputArchivePath, mergedOutputCorePath, options);
 		if (debug) {
 			System.out.println("Merged output:");
 			Files.readAllLines(mergedOutputCorePath, StandardCharsets.UTF_8).stream()
@@ -225,11 +359,18 @@ public class DarwinCoreArchiveMerger {
 			final DarwinCoreArchiveDocument otherInputArchiveDocument, final Path mergedOutputArchivePath,
 			Path mergedOutputCorePath, final boolean debug, final boolean filterNonVocabularyTerms,
 			final boolean includeDefaults) throws XMLStreamException, IOException {
+		return doMergeInner(inputArchiveDocument, otherInputArchiveDocument, mergedOutputArchivePath,
+				mergedOutputCorePath, optionsFor(filterNonVocabularyTerms, includeDefaults, debug));
+	}
+
+	public static DarwinCoreArchiveDocument doMergeInner(final DarwinCoreArchiveDocument inputArchiveDocument,
+			final DarwinCoreArchiveDocument otherInputArchiveDocument, final Path mergedOutputArchivePath,
+			Path mergedOutputCorePath, final DarwinCoreMergeOptions options) throws XMLStreamException, IOException {
 		// Check whether it is possible to merge, and throw an exception if it isn't
 		canArchivesBeMergedDirectly(inputArchiveDocument, otherInputArchiveDocument);
 
 		final DarwinCoreArchiveDocument mergedArchiveDocument = mergeFieldSets(inputArchiveDocument,
-				otherInputArchiveDocument, filterNonVocabularyTerms, debug);
+				otherInputArchiveDocument, options.isFilterNonVocabularyTerms(), options.isDebug());
 		DarwinCoreFile mergedOutputCoreDarwinCoreFile = new DarwinCoreFile();
 		mergedArchiveDocument.getCore().setFiles(mergedOutputCoreDarwinCoreFile);
 
@@ -246,167 +387,500 @@ public class DarwinCoreArchiveMerger {
 		}
 
 		try (final Writer outputCoreWriter = Files.newBufferedWriter(mergedOutputCorePath, StandardCharsets.UTF_8,
-				StandardOpenOption.CREATE_NEW);
-				final SequenceWriter outputCoreCsvWriter = CSVStream.newCSVWriter(outputCoreWriter,
-						mergedArchiveDocument.getCore().getCsvSchema());) {
-			outputCoreCsvWriter.write(mergedArchiveDocument.getCore().getFields().stream().map(DarwinCoreField::getTerm)
-					.collect(Collectors.toList()));
+				StandardOpenOption.CREATE_NEW);) {
+			writeMergedCore(mergedArchiveDocument, inputArchiveDocument, otherInputArchiveDocument, outputCoreWriter,
+					options);
 		}
+
+		return mergedArchiveDocument;
+	}
+
+	/**
+	 * Merge the archive at inputPath with the archive at otherInputPath, as for
+	 * {@link #doMerge(Path, Path, Path, DarwinCoreMergeOptions)}, streaming the
+	 * merged meta.xml and core file directly into a new ZIP file at
+	 * outputZipPath, without writing the merged archive to disk as plain files.
+	 * <br>
+	 * The input archives are extracted and sorted under workDirPath, which the
+	 * caller is responsible for removing afterwards. If the ZIP file cannot be
+	 * completed it is deleted.
+	 * 
+	 * @param inputPath
+	 *            The input archive
+	 * @param otherInputPath
+	 *            The other input archive
+	 * @param outputZipPath
+	 *            The ZIP file to create, which must not already exist
+	 * @param workDirPath
+	 *            The directory to use for the extracted and sorted input files
+	 * @param options
+	 *            The settings for the merge, including the compression settings
+	 *            for the ZIP file
+	 * @return The {@link DarwinCoreArchiveDocument} representing the merged
+	 *         document, with file locations relative to the root of the ZIP
+	 *         file
+	 * @throws IOException
+	 *             If there are issues while performing IO
+	 * @throws IllegalStateException
+	 *             If there are issues with the archives that prevent them being
+	 *             merged, or a policy cannot be used for its term
+	 * @throws SAXException
+	 *             If there are XML errors
+	 * @throws CSVStreamException
+	 *             If there are CSV errors
+	 * @throws XMLStreamException
+	 *             If there are XML errors
+	 */
+	public static DarwinCoreArchiveDocument doMergeToZip(final Path inputPath, final Path otherInputPath,
+			final Path outputZipPath, final Path workDirPath, final DarwinCoreMergeOptions options)
+			throws IOException, IllegalStateException, SAXException, CSVStreamException, XMLStreamException {
+		if (Files.exists(outputZipPath)) {
+			throw new IllegalStateException("Output ZIP file already exists, not overwriting it: " + outputZipPath);
+		}
+
+		final DarwinCoreArchiveDocument inputArchiveDocument = openAndLoadArchive(inputPath,
+				workDirPath.resolve("first-archive"), options);
+		final DarwinCoreArchiveDocument otherInputArchiveDocument = openAndLoadArchive(otherInputPath,
+				workDirPath.resolve("other-archive"), options);
+
+		// Check whether it is possible to merge, and throw an exception if it isn't
+		canArchivesBeMergedDirectly(inputArchiveDocument, otherInputArchiveDocument);
+
+		final DarwinCoreArchiveDocument mergedArchiveDocument = mergeFieldSets(inputArchiveDocument,
+				otherInputArchiveDocument, options.isFilterNonVocabularyTerms(), options.isDebug());
+		// Use the original core location to create a new unique entry name to
+		// indicate a merge occurred, keeping any subdirectories
+		final Path originalCoreLocation = Paths.get(inputArchiveDocument.getCore().getFiles().getLocations().get(0))
+				.normalize();
+		final Path mergedCoreLocation = originalCoreLocation
+				.resolveSibling("Merged-" + originalCoreLocation.getFileName().toString());
+		final String mergedCoreEntryName = mergedCoreLocation.toString().replace('\\', '/');
+		final DarwinCoreFile mergedOutputCoreDarwinCoreFile = new DarwinCoreFile();
+		mergedOutputCoreDarwinCoreFile.addLocation(mergedCoreEntryName);
+		mergedArchiveDocument.getCore().setFiles(mergedOutputCoreDarwinCoreFile);
+		mergedArchiveDocument.getCore().setIgnoreHeaderLines(1);
+
+		DarwinCoreArchiveZip.writeArchiveZip(mergedArchiveDocument, mergedCoreEntryName, outputZipPath,
+				options.getCompressionLevel(), options.isStoreUncompressed(),
+				outputCoreWriter -> writeMergedCore(mergedArchiveDocument, inputArchiveDocument,
+						otherInputArchiveDocument, outputCoreWriter, options));
+
+		return mergedArchiveDocument;
+	}
+
+	/**
+	 * Create the options for the original merge methods, which only set these
+	 * values.
+	 */
+	private static DarwinCoreMergeOptions optionsFor(final boolean filterNonVocabularyTerms,
+			final boolean includeDefaults, final boolean debug) {
+		final DarwinCoreMergeOptions result = new DarwinCoreMergeOptions();
+		result.setFilterNonVocabularyTerms(filterNonVocabularyTerms);
+		result.setIncludeDefaults(includeDefaults);
+		result.setDebug(debug);
+		return result;
+	}
+
+	/**
+	 * Write the header line for the merged core, followed by the merged records
+	 * from both input archives, to the given Writer.
+	 * 
+	 * @param mergedArchiveDocument
+	 *            The merged document description
+	 * @param inputArchiveDocument
+	 *            The input archive
+	 * @param otherInputArchiveDocument
+	 *            The other input archive
+	 * @param outputCoreWriter
+	 *            The writer for the merged core file, which is closed by this
+	 *            method
+	 * @param options
+	 *            The settings for the merge
+	 * @throws IOException
+	 *             If there are issues while performing IO
+	 */
+	private static void writeMergedCore(final DarwinCoreArchiveDocument mergedArchiveDocument,
+			final DarwinCoreArchiveDocument inputArchiveDocument,
+			final DarwinCoreArchiveDocument otherInputArchiveDocument, final Writer outputCoreWriter,
+			final DarwinCoreMergeOptions options) throws IOException {
 		try (final CloseableIterator<DarwinCoreRecord> inputIterator = inputArchiveDocument.iterator(false);
 				final CloseableIterator<DarwinCoreRecord> otherInputIterator = otherInputArchiveDocument
 						.iterator(false);
-				final Writer outputCoreWriter = Files.newBufferedWriter(mergedOutputCorePath, StandardCharsets.UTF_8,
-						StandardOpenOption.APPEND);
 				final SequenceWriter outputCoreCsvWriter = CSVStream.newCSVWriter(outputCoreWriter,
 						mergedArchiveDocument.getCore().getCsvSchema());) {
-
-			writeMerge(mergedArchiveDocument, inputIterator, otherInputIterator, outputCoreCsvWriter, includeDefaults);
+			outputCoreCsvWriter.write(mergedArchiveDocument.getCore().getFields().stream().map(DarwinCoreField::getTerm)
+					.collect(Collectors.toList()));
+			writeMerge(mergedArchiveDocument, inputIterator, otherInputIterator, outputCoreCsvWriter, options);
 		}
-
-		return mergedArchiveDocument;
 	}
 
 	public static void writeMerge(final DarwinCoreArchiveDocument mergedArchiveDocument,
 			final CloseableIterator<DarwinCoreRecord> inputIterator,
 			final CloseableIterator<DarwinCoreRecord> otherInputIterator, final SequenceWriter outputCoreCsvWriter,
 			final boolean includeDefaults) throws IOException {
-		int mergedCoreIDField = Integer.parseInt(mergedArchiveDocument.getCore().getIdOrCoreId());
-		DarwinCoreField mergedCoreIndexField = null;
-		for (DarwinCoreField nextMergedField : mergedArchiveDocument.getCore().getFields()) {
-			// NOTE: Darwin Core Archive specification doesn't say that the indexes need to
-			// be unique, so we always pick the first one for consistency
-			if (nextMergedField.getIndex() == mergedCoreIDField) {
-				mergedCoreIndexField = nextMergedField;
-				break;
-			}
+		writeMerge(mergedArchiveDocument, inputIterator, otherInputIterator, outputCoreCsvWriter,
+				optionsFor(false, includeDefaults, false));
+	}
+
+	public static void writeMerge(final DarwinCoreArchiveDocument mergedArchiveDocument,
+			final CloseableIterator<DarwinCoreRecord> inputIterator,
+			final CloseableIterator<DarwinCoreRecord> otherInputIterator, final SequenceWriter outputCoreCsvWriter,
+			final DarwinCoreMergeOptions options) throws IOException {
+		try (final MergeBatches batches = new MergeBatches(mergedArchiveDocument);
+				final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.MERGE, batches.getFile());) {
+			writeMergeRecords(mergedArchiveDocument, inputIterator, otherInputIterator, outputCoreCsvWriter,
+					options.isIncludeDefaults(), options.getConflictPolicies(), batches);
+			span.addRows(batches.getRows());
 		}
-		if (mergedCoreIndexField == null) {
-			throw new IllegalStateException(
-					"Did not find the id field for the merged document using its index: " + mergedCoreIDField);
-		}
-
-		DarwinCoreRecord nextOtherInputRecord = null;
-		// Merge the two iterators before exhausting the other iterator
-		// if it didn't match
-		// Note, both iterators must represent commonly sorted sets in
-		// terms of the id field values
-		// The specific sort order does not matter as long as it is
-		// common to both
-		while (inputIterator.hasNext()) {
-			DarwinCoreRecord nextInputRecord = inputIterator.next();
-			// If we matched last time, we replace the "other" input
-			// record with a new copy this time, otherwise leave it as
-			// it is to be matched later
+	}
+
+	private static void writeMergeRecords(final DarwinCoreArchiveDocument mergedArchiveDocument,
+			final CloseableIterator<DarwinCoreRecord> inputIterator,
+			final CloseableIterator<DarwinCoreRecord> otherInputIterator, final SequenceWriter outputCoreCsvWriter,
+			final boolean includeDefaults, final Map<String, DarwinCoreConflictPolicy> conflictPolicies,
+			final MergeBatches batches) throws IOException {
+		// Compile the merged field layout and the conflict resolvers once, so
+		// the loops below only copy values by column index
+		final DarwinCoreMergeMapping mergeMapping = new DarwinCoreMergeMapping(mergedArchiveDocument.getCore(),
+				includeDefaults, conflictPolicies);
+
+		DarwinCoreRecord nextInputRecord = inputIterator.hasNext() ? inputIterator.next() : null;
+		DarwinCoreRecord nextOtherInputRecord = otherInputIterator.hasNext() ? otherInputIterator.next() : null;
+		// Both iterators must be sorted by their normalised id sort keys, which
+		// is the order produced by DarwinCoreExternalSorter, so that the merged
+		// output is also sorted by id and can be used as the base for a delta
+		// merge
+		byte[] nextInputKey = sortKeyFor(mergeMapping, nextInputRecord, null, "input");
+		byte[] nextOtherInputKey = sortKeyFor(mergeMapping, nextOtherInputRecord, null, "other input");
+		// Set once the current other record has been merged into an input
+		// record, so it is not also emitted by itself
+		boolean otherInputMatched = false;
+
+		while (nextInputRecord != null || nextOtherInputRecord != null) {
+			final int comparison;
 			if (nextOtherInputRecord == null) {
-				if (otherInputIterator.hasNext()) {
-					nextOtherInputRecord = otherInputIterator.next();
+				comparison = -1;
+			} else if (nextInputRecord == null) {
+				comparison = 1;
+			} else {
+				comparison = DarwinCoreSortKey.compare(nextInputKey, nextOtherInputKey);
+			}
+
+			if (comparison < 0) {
+				outputCoreCsvWriter.write(mergeMapping.merge(nextInputRecord, null));
+				batches.addRow();
+			} else if (comparison == 0) {
+				// Found a match, merge the other record into this one, keeping
+				// the other record to match further input records with the
+				// same id
+				outputCoreCsvWriter.write(mergeMapping.merge(nextInputRecord, nextOtherInputRecord));
+				batches.addRow();
+				otherInputMatched = true;
+			} else {
+				if (!otherInputMatched) {
+					outputCoreCsvWriter.write(mergeMapping.merge(nextOtherInputRecord, null));
+					batches.addRow();
 				}
+				nextOtherInputRecord = otherInputIterator.hasNext() ? otherInputIterator.next() : null;
+				nextOtherInputKey = sortKeyFor(mergeMapping, nextOtherInputRecord, nextOtherInputKey, "other input");
+				otherInputMatched = false;
 			}
 
-			List<String> nextMergedValues = getNewValuesList(mergedArchiveDocument.getCore(), includeDefaults);
+			if (comparison <= 0) {
+				nextInputRecord = inputIterator.hasNext() ? inputIterator.next() : null;
+				nextInputKey = sortKeyFor(mergeMapping, nextInputRecord, nextInputKey, "input");
+			}
+		}
+	}
+
+	/**
+	 * Apply a changeset archive to an archive that was previously merged and is
+	 * already sorted by id, emitting the results to a well-formed Darwin Core
+	 * Archive at outputDirPath.
+	 * <br>
+	 * Only the changeset is sorted. The base archive is read once, sequentially,
+	 * in file order, so the cost is dominated by reading the base archive.
+	 * <br>
+	 * Each changeset row updates the base row with the same id, or is added if
+	 * there is no base row with that id. Updates are applied column by column:
+	 * fields that are in the changeset replace the base values, including with
+	 * empty values, and fields that are only in the base archive keep their base
+	 * values. Rows in the changeset where the {@link #DELTA_OPERATION_TERM} field
+	 * is {@link #DELTA_OPERATION_DELETE} remove the base row with that id
+	 * instead. Deletes for ids that are not in the base archive are counted and
+	 * reported. The operation field is not copied to the output.
+	 * 
+	 * @param basePath
+	 *            The previously merged archive, with its core sorted by id
+	 * @param changesetPath
+	 *            The archive containing upserts and deletions
+	 * @param outputDirPath
+	 *            The path where the output should be written
+	 * @param options
+	 *            The settings for the merge. Conflict policies and filtering of
+	 *            non-vocabulary terms are not used for delta merges.
+	 * @return The {@link DarwinCoreArchiveDocument} representing the merged
+	 *         document
+	 * @throws IOException
+	 *             If there are issues while performing IO
+	 * @throws IllegalStateException
+	 *             If there are issues with the archives that prevent them being
+	 *             merged, including the base archive not being sorted by id
+	 * @throws SAXException
+	 *             If there are XML errors
+	 * @throws CSVStreamException
+	 *             If there are CSV errors
+	 * @throws XMLStreamException
+	 *             If there are XML errors
+	 */
+	public static DarwinCoreArchiveDocument doDeltaMerge(final Path basePath, final Path changesetPath,
+			final Path outputDirPath, final DarwinCoreMergeOptions options)
+			throws IOException, IllegalStateException, SAXException, CSVStreamException, XMLStreamException {
+		final DarwinCoreArchiveDocument baseArchiveDocument = openAndLoadArchive(basePath,
+				outputDirPath.resolve("base-archive"), options);
+		final DarwinCoreArchiveDocument changesetArchiveDocument = openAndLoadArchive(changesetPath,
+				outputDirPath.resolve("changeset-archive"), options);
+		final DarwinCoreArchiveDocument mergedArchiveDocument = mergeDeltaFieldSets(baseArchiveDocument,
+				changesetArchiveDocument, options.isDebug());
+
+		final Path mergedOutputArchivePath = outputDirPath.resolve("merged-archive").normalize().toAbsolutePath();
+		final String mergedCoreLocation = mergedArchiveDocument.getCore().getFiles().getLocations().get(0);
+		final Path mergedOutputCorePath = mergedOutputArchivePath.resolve(mergedCoreLocation).normalize()
+				.toAbsolutePath();
+		Files.createDirectories(mergedOutputCorePath.getParent());
+		final Path mergedOutputMetadataPath = mergedOutputArchivePath.resolve(DarwinCoreArchiveChecker.META_XML);
+		mergedArchiveDocument.setMetadataXMLPath(mergedOutputMetadataPath);
+		try (final Writer mergedMetadataWriter = Files.newBufferedWriter(mergedOutputMetadataPath,
+				StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);) {
+			mergedArchiveDocument.toXML(mergedMetadataWriter, true);
+		}
+		try (final Writer outputCoreWriter = Files.newBufferedWriter(mergedOutputCorePath, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE_NEW);) {
+			writeDeltaMergedCore(mergedArchiveDocument, baseArchiveDocument, changesetArchiveDocument,
+					outputCoreWriter, options);
+		}
+		return mergedArchiveDocument;
+	}
 
-			// Find the two key values to check if they are the same
-			// before determining what to do next
-			String nextInputKey = nextInputRecord.valueFor(mergedCoreIndexField.getTerm(), includeDefaults)
-					.orElse(null);
-			String nextOtherInputKey = null;
+	/**
+	 * Apply a changeset archive to an archive that was previously merged and is
+	 * already sorted by id, as for
+	 * {@link #doDeltaMerge(Path, Path, Path, DarwinCoreMergeOptions)}, streaming
+	 * the results directly into a new ZIP file at outputZipPath.
+	 * 
+	 * @param basePath
+	 *            The previously merged archive, with its core sorted by id
+	 * @param changesetPath
+	 *            The archive containing upserts and deletions
+	 * @param outputZipPath
+	 *            The ZIP file to create, which must not already exist
+	 * @param workDirPath
+	 *            The directory to use for the extracted input files
+	 * @param options
+	 *            The settings for the merge, including the compression settings
+	 *            for the ZIP file
+	 * @return The {@link DarwinCoreArchiveDocument} representing the merged
+	 *         document, with file locations relative to the root of the ZIP
+	 *         file
+	 * @throws IOException
+	 *             If there are issues while performing IO
+	 * @throws IllegalStateException
+	 *             If there are issues with the archives that prevent them being
+	 *             merged, including the base archive not being sorted by id
+	 * @throws SAXException
+	 *             If there are XML errors
+	 * @throws CSVStreamException
+	 *             If there are CSV errors
+	 * @throws XMLStreamException
+	 *             If there are XML errors
+	 */
+	public static DarwinCoreArchiveDocument doDeltaMergeToZip(final Path basePath, final Path changesetPath,
+			final Path outputZipPath, final Path workDirPath, final DarwinCoreMergeOptions options)
+			throws IOException, IllegalStateException, SAXException, CSVStreamException, XMLStreamException {
+		if (Files.exists(outputZipPath)) {
+			throw new IllegalStateException("Output ZIP file already exists, not overwriting it: " + outputZipPath);
+		}
+		final DarwinCoreArchiveDocument baseArchiveDocument = openAndLoadArchive(basePath,
+				workDirPath.resolve("base-archive"), options);
+		final DarwinCoreArchiveDocument changesetArchiveDocument = openAndLoadArchive(changesetPath,
+				workDirPath.resolve("changeset-archive"), options);
+		final DarwinCoreArchiveDocument mergedArchiveDocument = mergeDeltaFieldSets(baseArchiveDocument,
+				changesetArchiveDocument, options.isDebug());
+		final String mergedCoreEntryName = Paths
+				.get(mergedArchiveDocument.getCore().getFiles().getLocations().get(0)).normalize().toString()
+				.replace('\\', '/');
+
+		DarwinCoreArchiveZip.writeArchiveZip(mergedArchiveDocument, mergedCoreEntryName, outputZipPath,
+				options.getCompressionLevel(), options.isStoreUncompressed(),
+				outputCoreWriter -> writeDeltaMergedCore(mergedArchiveDocument, baseArchiveDocument,
+						changesetArchiveDocument, outputCoreWriter, options));
+		return mergedArchiveDocument;
+	}
+
+	/**
+	 * Create the description of the result of a delta merge, which keeps the
+	 * base core file location and adds any new fields from the changeset.
+	 */
+	private static DarwinCoreArchiveDocument mergeDeltaFieldSets(final DarwinCoreArchiveDocument baseArchiveDocument,
+			final DarwinCoreArchiveDocument changesetArchiveDocument, final boolean debug) {
+		// Check whether it is possible to merge, and throw an exception if it isn't
+		canArchivesBeMergedDirectly(baseArchiveDocument, changesetArchiveDocument);
 
-			if (nextInputKey == null) {
-				throw new IllegalStateException("Did not find a value for the id field in the input record");
+		final DarwinCoreArchiveDocument mergedArchiveDocument = mergeFieldSets(baseArchiveDocument,
+				changesetArchiveDocument, false, Collections.singleton(DELTA_OPERATION_TERM), debug);
+		final DarwinCoreFile mergedOutputCoreDarwinCoreFile = new DarwinCoreFile();
+		mergedOutputCoreDarwinCoreFile.addLocation(baseArchiveDocument.getCore().getFiles().getLocations().get(0));
+		mergedArchiveDocument.getCore().setFiles(mergedOutputCoreDarwinCoreFile);
+		mergedArchiveDocument.getCore().setIgnoreHeaderLines(1);
+		return mergedArchiveDocument;
+	}
+
+	private static void writeDeltaMergedCore(final DarwinCoreArchiveDocument mergedArchiveDocument,
+			final DarwinCoreArchiveDocument baseArchiveDocument,
+			final DarwinCoreArchiveDocument changesetArchiveDocument, final Writer outputCoreWriter,
+			final DarwinCoreMergeOptions options) throws IOException {
+		// The base archive is read in file order, as it is already sorted, and
+		// only the changeset is sorted here
+		try (final CloseableIterator<DarwinCoreRecord> baseIterator = baseArchiveDocument.iterator(false, false);
+				final CloseableIterator<DarwinCoreRecord> changesetIterator = changesetArchiveDocument
+						.iterator(false);
+				final SequenceWriter outputCoreCsvWriter = CSVStream.newCSVWriter(outputCoreWriter,
+						mergedArchiveDocument.getCore().getCsvSchema());) {
+			outputCoreCsvWriter.write(mergedArchiveDocument.getCore().getFields().stream().map(DarwinCoreField::getTerm)
+					.collect(Collectors.toList()));
+			final long missingDeletes = writeDeltaMerge(mergedArchiveDocument, baseIterator, changesetIterator,
+					outputCoreCsvWriter, options.isIncludeDefaults());
+			if (missingDeletes > 0) {
+				System.out.println("Ignored " + missingDeletes
+						+ " changeset deletes for ids that were not in the base archive");
 			}
+		}
+	}
 
-			if (nextOtherInputRecord != null) {
-				nextOtherInputKey = nextOtherInputRecord.valueFor(mergedCoreIndexField.getTerm(), includeDefaults)
-						.orElse(null);
-				if (nextOtherInputKey == null) {
-					throw new IllegalStateException("Did not find a value for the id field in the other input record");
-				}
+	/**
+	 * Merge join a base iterator, that must be sorted by id, with a changeset
+	 * iterator, that must be sorted in the same order and contain at most one row
+	 * for each id, writing the results to the given writer. Ids are ordered by
+	 * their {@link DarwinCoreSortKey}, which is the order produced by
+	 * {@link DarwinCoreExternalSorter}. Changeset rows are applied to the base
+	 * rows using {@link DarwinCoreMergeMapping#patch(DarwinCoreRecord, DarwinCoreRecord)}.
+	 * 
+	 * @param mergedArchiveDocument
+	 *            The merged document description
+	 * @param baseIterator
+	 *            The records from the previously merged archive
+	 * @param changesetIterator
+	 *            The records from the changeset archive
+	 * @param outputCoreCsvWriter
+	 *            The writer for the merged records
+	 * @param includeDefaults
+	 *            True to include default values when merging, and false to ignore
+	 *            them.
+	 * @return The number of changeset deletes for ids that were not in the base
+	 *         archive, which do not change the output
+	 * @throws IOException
+	 *             If there are issues while performing IO
+	 * @throws IllegalStateException
+	 *             If either iterator is not sorted by id, or the changeset
+	 *             contains more than one row for an id
+	 */
+	public static long writeDeltaMerge(final DarwinCoreArchiveDocument mergedArchiveDocument,
+			final CloseableIterator<DarwinCoreRecord> baseIterator,
+			final CloseableIterator<DarwinCoreRecord> changesetIterator, final SequenceWriter outputCoreCsvWriter,
+			final boolean includeDefaults) throws IOException {
+		try (final MergeBatches batches = new MergeBatches(mergedArchiveDocument);
+				final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.MERGE, batches.getFile());) {
+			final long missingDeletes = writeDeltaMergeRecords(mergedArchiveDocument, baseIterator,
+					changesetIterator, outputCoreCsvWriter, includeDefaults, batches);
+			span.addRows(batches.getRows());
+			return missingDeletes;
+		}
+	}
+
+	private static long writeDeltaMergeRecords(final DarwinCoreArchiveDocument mergedArchiveDocument,
+			final CloseableIterator<DarwinCoreRecord> baseIterator,
+			final CloseableIterator<DarwinCoreRecord> changesetIterator, final SequenceWriter outputCoreCsvWriter,
+			final boolean includeDefaults, final MergeBatches batches) throws IOException {
+		final DarwinCoreMergeMapping mergeMapping = new DarwinCoreMergeMapping(mergedArchiveDocument.getCore(),
+				includeDefaults);
+
+		DarwinCoreRecord nextBaseRecord = baseIterator.hasNext() ? baseIterator.next() : null;
+		DarwinCoreRecord nextChangeRecord = changesetIterator.hasNext() ? changesetIterator.next() : null;
+		// Ids are compared using their normalised sort keys, which is the order
+		// used by DarwinCoreExternalSorter
+		byte[] nextBaseKey = sortKeyFor(mergeMapping, nextBaseRecord, null, "base");
+		byte[] nextChangeKey = sortKeyFor(mergeMapping, nextChangeRecord, null, "changeset");
+		long missingDeletes = 0;
+
+		while (nextBaseRecord != null || nextChangeRecord != null) {
+			final int comparison;
+			if (nextChangeRecord == null) {
+				comparison = -1;
+			} else if (nextBaseRecord == null) {
+				comparison = 1;
+			} else {
+				comparison = DarwinCoreSortKey.compare(nextBaseKey, nextChangeKey);
 			}
 
-			if (nextInputKey.equals(nextOtherInputKey)) {
-				// Found a match, merge the other record into this one!
-				for (int i = 0; i < mergedArchiveDocument.getCore().getFields().size(); i++) {
-					String nextMergedRecordTerm = mergedArchiveDocument.getCore().getFields().get(i).getTerm();
-					String nextMergedValue = nextInputRecord.valueFor(nextMergedRecordTerm, includeDefaults)
-							.orElse(null);
-					// If the original record didn't have a value, check
-					// the other record
-					if (nextMergedValue == null || nextMergedValue.isEmpty()) {
-						if (nextOtherInputRecord != null) {
-							nextMergedValue = nextOtherInputRecord.valueFor(nextMergedRecordTerm, includeDefaults)
-									.orElse(null);
-						}
-					}
-					if (nextMergedValue != null) {
-						nextMergedValues.set(i, nextMergedValue);
-					}
-				}
+			if (comparison < 0) {
+				// Unchanged base record
+				outputCoreCsvWriter.write(mergeMapping.merge(nextBaseRecord, null));
+				batches.addRow();
 			} else {
-				// Else emit the nextInputRecord as the results for this
-				for (int i = 0; i < mergedArchiveDocument.getCore().getFields().size(); i++) {
-					String nextMergedRecordTerm = mergedArchiveDocument.getCore().getFields().get(i).getTerm();
-					String nextMergedValue = nextInputRecord.valueFor(nextMergedRecordTerm, includeDefaults)
-							.orElse(null);
-					if (nextMergedValue != null) {
-						nextMergedValues.set(i, nextMergedValue);
+				// The changeset record updates or deletes the base record with
+				// the same id, or is inserted before the next base record
+				if (isDeltaDelete(nextChangeRecord)) {
+					if (comparison > 0) {
+						missingDeletes++;
 					}
+				} else if (comparison == 0) {
+					outputCoreCsvWriter.write(mergeMapping.patch(nextChangeRecord, nextBaseRecord));
+					batches.addRow();
+				} else {
+					outputCoreCsvWriter.write(mergeMapping.merge(nextChangeRecord, null));
+					batches.addRow();
 				}
-			}
-
-			// DarwinCoreRecordImpl nextMergedRecord = new
-			// DarwinCoreRecordImpl(mergedArchiveDocument,
-			// mergedArchiveDocument.getCore().getFields(), nextMergedValues);
-			outputCoreCsvWriter.write(nextMergedValues);
-		}
-		// Emit an unmatched record from the loop above if applicable,
-		// and then go through the rest of the other input iterator
-		if (nextOtherInputRecord != null) {
-			List<String> nextMergedValues = getNewValuesList(mergedArchiveDocument.getCore(), includeDefaults);
-			for (int i = 0; i < mergedArchiveDocument.getCore().getFields().size(); i++) {
-				String nextMergedRecordTerm = mergedArchiveDocument.getCore().getFields().get(i).getTerm();
-				String nextMergedValue = nextOtherInputRecord.valueFor(nextMergedRecordTerm, includeDefaults)
-						.orElse(null);
-				if (nextMergedValue != null) {
-					nextMergedValues.set(i, nextMergedValue);
+				final String changeId = mergeMapping.idFor(nextChangeRecord);
+				nextChangeRecord = changesetIterator.hasNext() ? changesetIterator.next() : null;
+				final byte[] followingChangeKey = sortKeyFor(mergeMapping, nextChangeRecord, nextChangeKey,
+						"changeset");
+				if (followingChangeKey != null && Arrays.equals(followingChangeKey, nextChangeKey)) {
+					throw new IllegalStateException("Found more than one changeset record for id: " + changeId);
 				}
+				nextChangeKey = followingChangeKey;
 			}
-			// DarwinCoreRecordImpl nextMergedRecord = new
-			// DarwinCoreRecordImpl(mergedArchiveDocument,
-			// mergedArchiveDocument.getCore().getFields(), nextMergedValues);
-			outputCoreCsvWriter.write(nextMergedValues);
-		}
-		// Deal with any records that were not matched during the loop
-		// above by simply adding them to the result
-		while (otherInputIterator.hasNext()) {
-			nextOtherInputRecord = otherInputIterator.next();
-			List<String> nextMergedValues = getNewValuesList(mergedArchiveDocument.getCore(), includeDefaults);
-			for (int i = 0; i < mergedArchiveDocument.getCore().getFields().size(); i++) {
-				String nextMergedRecordTerm = mergedArchiveDocument.getCore().getFields().get(i).getTerm();
-				String nextMergedValue = nextOtherInputRecord.valueFor(nextMergedRecordTerm, includeDefaults)
-						.orElse(null);
-				if (nextMergedValue != null) {
-					nextMergedValues.set(i, nextMergedValue);
-				}
+
+			if (comparison <= 0) {
+				nextBaseRecord = baseIterator.hasNext() ? baseIterator.next() : null;
+				nextBaseKey = sortKeyFor(mergeMapping, nextBaseRecord, nextBaseKey, "base");
 			}
-			// DarwinCoreRecordImpl nextMergedRecord = new
-			// DarwinCoreRecordImpl(mergedArchiveDocument,
-			// mergedArchiveDocument.getCore().getFields(), nextMergedValues);
-			outputCoreCsvWriter.write(nextMergedValues);
 		}
+		return missingDeletes;
 	}
 
-	private static List<String> getNewValuesList(DarwinCoreCoreOrExtension core, boolean includeDefaults) {
-		if (includeDefaults) {
-			return new ArrayList<>(core.getDefaultValues());
-		} else {
-			List<String> nextMergedValues = new ArrayList<>(core.getFields().size());
-			for (int initialSetup = 0; initialSetup < core.getFields().size(); initialSetup++) {
-				// Setup all of the initial merged values to the empty
-				// string
-				nextMergedValues.add("");
-			}
-			return nextMergedValues;
+	/**
+	 * Find the sort key for the id of a record in a merge, checking that it does
+	 * not sort before the previous id from the same input.
+	 */
+	private static byte[] sortKeyFor(final DarwinCoreMergeMapping mergeMapping, final DarwinCoreRecord record,
+			final byte[] previousKey, final String inputName) {
+		if (record == null) {
+			return null;
+		}
+		final String id = mergeMapping.idFor(record);
+		if (id == null) {
+			throw new IllegalStateException("Did not find a value for the id field in the " + inputName + " record");
 		}
+		final byte[] result = DarwinCoreSortKey.encode(id);
+		if (previousKey != null && DarwinCoreSortKey.compare(result, previousKey) < 0) {
+			throw new IllegalStateException("The " + inputName + " archive is not sorted by id: found " + id);
+		}
+		return result;
+	}
+
+	private static boolean isDeltaDelete(final DarwinCoreRecord changeRecord) {
+		return changeRecord.valueFor(DELTA_OPERATION_TERM, false).map(DELTA_OPERATION_DELETE::equalsIgnoreCase)
+				.orElse(Boolean.FALSE);
 	}
 
 	/**
@@ -431,6 +905,33 @@ public class DarwinCoreArchiveMerger {
 	 */
 	private static DarwinCoreArchiveDocument mergeFieldSets(DarwinCoreArchiveDocument inputArchiveDocument,
 			DarwinCoreArchiveDocument otherInputArchiveDocument, boolean filterNonVocabularyTerms, boolean debug) {
+		return mergeFieldSets(inputArchiveDocument, otherInputArchiveDocument, filterNonVocabularyTerms,
+				Collections.emptySet(), debug);
+	}
+
+	/**
+	 * Merge the descriptions of two documents as for
+	 * {@link #mergeFieldSets(DarwinCoreArchiveDocument, DarwinCoreArchiveDocument, boolean, boolean)},
+	 * leaving out the given terms from the other document.
+	 * 
+	 * @param inputArchiveDocument
+	 *            The reference archive to merge.
+	 * @param otherInputArchiveDocument
+	 *            The archive to merge into the reference archive.
+	 * @param filterNonVocabularyTerms
+	 *            True to filter out non vocabulary terms or false to keep terms
+	 *            even if they never matched vocabulary terms.
+	 * @param excludedOtherTerms
+	 *            Terms in the other archive that are not copied into the merged
+	 *            document.
+	 * @param debug
+	 *            True to verbosely debug and false otherwise.
+	 * @return A merged description of a document that has merged the field sets
+	 *         from both documents.
+	 */
+	private static DarwinCoreArchiveDocument mergeFieldSets(DarwinCoreArchiveDocument inputArchiveDocument,
+			DarwinCoreArchiveDocument otherInputArchiveDocument, boolean filterNonVocabularyTerms,
+			Set<String> excludedOtherTerms, boolean debug) {
 		DarwinCoreArchiveDocument result = new DarwinCoreArchiveDocument();
 
 		DarwinCoreCoreOrExtension resultCore = DarwinCoreCoreOrExtension.newCore();
@@ -531,6 +1032,10 @@ public class DarwinCoreArchiveMerger {
 				}
 			}
 
+			if (excludedOtherTerms.contains(nextField.getTerm())) {
+				continue;
+			}
+
 			if (filterNonVocabularyTerms && nextField.getVocabulary() == null) {
 				// If the vocabulary is missing and they want to filter it out,
 				// then ignore it at this point
@@ -645,29 +1150,47 @@ public class DarwinCoreArchiveMerger {
 		}
 	}
 
+	private static DarwinCoreArchiveDocument openAndLoadArchive(final Path inputPath, final Path extractDirPath,
+			final DarwinCoreMergeOptions options)
+			throws IOException, SAXException, IllegalStateException, CSVStreamException {
+		final Path inputMetadataPath = openArchive(inputPath, extractDirPath, options.isDebug());
+		Files.createDirectories(extractDirPath);
+		final DarwinCoreArchiveDocument result = loadArchive(options.isDebug(), extractDirPath, inputMetadataPath,
+				options.isIncludeDefaults(), options.isInputStatistics());
+		result.setSorter(options.getSorter());
+		return result;
+	}
+
+	/**
+	 * Parse the metadata for an archive, and if inputStatistics is true, also
+	 * summarise each of its data files into outputDirPath. The data files are
+	 * otherwise only read by the merge itself, so they are not read twice.
+	 */
 	private static DarwinCoreArchiveDocument loadArchive(final boolean debug, final Path outputDirPath,
-			final Path inputMetadataPath, final boolean includeDefaults)
+			final Path inputMetadataPath, final boolean includeDefaults, final boolean inputStatistics)
 			throws IOException, SAXException, IllegalStateException, CSVStreamException {
 		DarwinCoreArchiveDocument inputArchiveDocument = DarwinCoreArchiveChecker.parseMetadataXml(inputMetadataPath);
 		if (debug) {
 			System.out.println(inputArchiveDocument.toString());
 		}
 
-		DarwinCoreCoreOrExtension core = inputArchiveDocument.getCore();
-		DarwinCoreArchiveChecker.checkCoreOrExtension(core, inputMetadataPath, outputDirPath, true, debug,
-				includeDefaults);
-		for (DarwinCoreCoreOrExtension extension : inputArchiveDocument.getExtensions()) {
-			DarwinCoreArchiveChecker.checkCoreOrExtension(extension, inputMetadataPath, outputDirPath, true, debug,
+		if (inputStatistics) {
+			DarwinCoreCoreOrExtension core = inputArchiveDocument.getCore();
+			DarwinCoreArchiveChecker.checkCoreOrExtension(core, inputMetadataPath, outputDirPath, true, debug,
 					includeDefaults);
+			for (DarwinCoreCoreOrExtension extension : inputArchiveDocument.getExtensions()) {
+				DarwinCoreArchiveChecker.checkCoreOrExtension(extension, inputMetadataPath, outputDirPath, true, debug,
+						includeDefaults);
+			}
 		}
 		return inputArchiveDocument;
 	}
 
-	private static Path openArchive(final Path inputPath, final Path tempDir)
+	private static Path openArchive(final Path inputPath, final Path tempDir, final boolean debug)
 			throws IOException, IllegalStateException {
 		final Path inputMetadataPath;
 		if (inputPath.getFileName().toString().contains(".zip")) {
-			inputMetadataPath = DarwinCoreArchiveChecker.checkZip(inputPath, tempDir);
+			inputMetadataPath = DarwinCoreArchiveChecker.checkZip(inputPath, tempDir, debug);
 			if (inputMetadataPath == null) {
 				throw new IllegalStateException(
 						"Did not find a metadata file in the input ZIP file: " + inputPath.toAbsolutePath().toString());
@@ -684,11 +1207,9 @@ public class DarwinCoreArchiveMerger {
 		int headerLineCount = coreOrExtension.getIgnoreHeaderLines();
 		List<String> coreOrExtensionFields = coreOrExtension.getFields().stream().map(f -> f.getTerm())
 				.collect(Collectors.toList());
-		// TODO: Only support a single file currently
-		String coreOrExtensionFileName = coreOrExtension.getFiles().getLocations().get(0);
-		Path coreOrExtensionFilePath = metadataPath.resolveSibling(coreOrExtensionFileName).normalize()
-				.toAbsolutePath();
-		try (Reader inputReader = Files.newBufferedReader(coreOrExtensionFilePath, coreOrExtension.getEncoding());) {
+		Path coreOrExtensionFilePath = coreOrExtension.getDataPath(metadataPath);
+		try (Reader inputReader = DarwinCoreCompression.newBufferedReader(coreOrExtensionFilePath,
+				coreOrExtension.getEncoding());) {
 			if (hasOutput) {
 				try (Writer summaryWriter = Files.newBufferedWriter(
 						outputDirPath.resolve("Statistics-" + coreOrExtensionFilePath.getFileName().toString()),
@@ -710,4 +1231,48 @@ public class DarwinCoreArchiveMerger {
 		}
 	}
 
+	/**
+	 * Counts the merged rows as they are written, and records each batch of
+	 * rows as a {@link DarwinCoreSpan.Phase#MERGE_BATCH} span.
+	 */
+	private static final class MergeBatches implements AutoCloseable {
+
+		private static final int BATCH_ROWS = 1 << 16;
+
+		private final String file;
+		private long rows;
+		private int batchRows;
+		private DarwinCoreSpan span;
+
+		private MergeBatches(final DarwinCoreArchiveDocument mergedArchiveDocument) {
+			final DarwinCoreCoreOrExtension core = mergedArchiveDocument.getCore();
+			this.file = core == null || core.getFiles() == null || core.getFiles().getLocations().isEmpty() ? null
+					: core.getFiles().getLocations().get(0);
+			this.span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.MERGE_BATCH, file);
+		}
+
+		private void addRow() {
+			rows++;
+			if (++batchRows == BATCH_ROWS) {
+				span.addRows(batchRows);
+				span.close();
+				batchRows = 0;
+				span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.MERGE_BATCH, file);
+			}
+		}
+
+		private long getRows() {
+			return rows;
+		}
+
+		private String getFile() {
+			return file;
+		}
+
+		@Override
+		public void close() {
+			span.addRows(batchRows);
+			span.close();
+		}
+	}
 }
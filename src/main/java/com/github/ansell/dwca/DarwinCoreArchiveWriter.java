@@ -0,0 +1,712 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.github.ansell.csv.stream.CSVStream;
+
+/**
+ * Writes a
+ * <a href="http://rs.tdwg.org/dwc/terms/guides/text/">Darwin Core Archive</a>
+ * from records, without writing intermediate CSV files that need to be read
+ * again to generate the metadata.
+ * <p>
+ * The metadata is written from the {@link DarwinCoreArchiveDocument} given
+ * when the writer is opened, and the core and each extension has a
+ * {@link RowWriter}, which can be used at the same time, including from
+ * different threads. Rows are collected into batches, which are handed over to
+ * a thread for each file through a bounded queue, so producers are blocked,
+ * rather than using more memory, if they get ahead of the disk.
+ * <p>
+ * If the output path ends in ".zip", the archive is written as a ZIP file. The
+ * core is streamed directly into the ZIP file, while the extensions are
+ * written to temporary files next to it, which are copied into the ZIP file
+ * when the writer is closed, as ZIP entries can only be written one at a time.
+ * ZIP files use the same Zip64 and compression settings as
+ * {@link DarwinCoreArchiveMerger}.
+ * <p>
+ * If any of the files could not be written, the partial output is deleted
+ * when the writer is closed, so that an incomplete archive is never left
+ * behind. The writer cannot tell whether the producers finished writing their
+ * rows, so callers must call {@link #abort()} instead of, or after,
+ * {@link #close()} if they fail part way through, for example:
+ * 
+ * <pre>
+ * try (DarwinCoreArchiveWriter writer = DarwinCoreArchiveWriter.open(outputPath, document);) {
+ * 	try {
+ * 		writeRows(writer);
+ * 	} catch (IOException | RuntimeException e) {
+ * 		writer.abort();
+ * 		throw e;
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreArchiveWriter implements Closeable {
+
+	/**
+	 * The default number of rows in each batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+
+	/**
+	 * The default number of batches that can be waiting to be written for
+	 * each file.
+	 */
+	public static final int DEFAULT_QUEUED_BATCHES = 4;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Marks the end of the rows for a file, compared by identity.
+	 */
+	private static final List<List<String>> END = new ArrayList<>(0);
+
+	private final DarwinCoreArchiveDocument document;
+	private final Path outputPath;
+	private final ZipArchiveOutputStream zipOutput;
+	private final Path spoolDir;
+	private final List<Path> createdDirectories;
+	private final ExecutorService executor;
+	private final RowWriter coreWriter;
+	private final List<RowWriter> extensionWriters;
+	private boolean closed;
+	private boolean aborted;
+
+	private DarwinCoreArchiveWriter(final DarwinCoreArchiveDocument document, final Path outputPath,
+			final ZipArchiveOutputStream zipOutput, final Path spoolDir, final List<Path> createdDirectories,
+			final int batchSize, final int queuedBatches) throws IOException {
+		this.document = document;
+		this.outputPath = outputPath;
+		this.zipOutput = zipOutput;
+		this.spoolDir = spoolDir;
+		this.createdDirectories = createdDirectories;
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(document.getExtensions().size() + 1, r -> {
+			final Thread result = new Thread(r, "dwca-archive-writer-" + threadCount.incrementAndGet());
+			result.setDaemon(true);
+			return result;
+		});
+		final List<RowWriter> startedWriters = new ArrayList<>();
+		try {
+			final OutputStream coreOutput;
+			if (zipOutput != null) {
+				zipOutput.putArchiveEntry(new ZipArchiveEntry(locationOf(document.getCore())));
+				coreOutput = DarwinCoreArchiveZip.newEntryOutput(zipOutput);
+			} else {
+				final Path corePath = outputPath.resolve(locationOf(document.getCore()));
+				if (corePath.getParent() != null) {
+					createDirectories(corePath.getParent(), createdDirectories);
+				}
+				coreOutput = Files.newOutputStream(corePath);
+			}
+			this.coreWriter = new RowWriter(document.getCore(), coreOutput, batchSize, queuedBatches);
+			startedWriters.add(this.coreWriter);
+			for (final DarwinCoreCoreOrExtension nextExtension : document.getExtensions()) {
+				final Path nextPath = (zipOutput != null ? spoolDir : outputPath).resolve(locationOf(nextExtension));
+				if (nextPath.getParent() != null) {
+					createDirectories(nextPath.getParent(), createdDirectories);
+				}
+				startedWriters.add(
+						new RowWriter(nextExtension, Files.newOutputStream(nextPath), batchSize, queuedBatches));
+			}
+			for (final RowWriter nextWriter : startedWriters) {
+				nextWriter.start(executor);
+			}
+		} catch (final IOException | RuntimeException e) {
+			executor.shutdownNow();
+			for (final RowWriter nextWriter : startedWriters) {
+				addFailure(null, nextWriter.output::close);
+			}
+			throw e;
+		}
+		this.extensionWriters = Collections.unmodifiableList(startedWriters.subList(1, startedWriters.size()));
+	}
+
+	/**
+	 * Open a writer for an archive, writing the metadata for the document
+	 * straight away.
+	 * 
+	 * @param outputPath
+	 *            The directory to write the archive into, or, if the file name
+	 *            ends in ".zip", the ZIP file to write.
+	 * @param document
+	 *            The document declaring the core and extensions. Each must have
+	 *            a single relative file location, and the fields with an index
+	 *            define the columns of the file.
+	 * @return A writer for the archive, which must be closed to complete the
+	 *         archive, or aborted to delete it.
+	 * @throws IOException
+	 *             If the output could not be created.
+	 * @throws IllegalArgumentException
+	 *             If the document cannot be written as an archive.
+	 */
+	public static DarwinCoreArchiveWriter open(final Path outputPath, final DarwinCoreArchiveDocument document)
+			throws IOException {
+		return open(outputPath, document, DEFAULT_BATCH_SIZE, DEFAULT_QUEUED_BATCHES);
+	}
+
+	/**
+	 * Open a writer for an archive, writing the metadata for the document
+	 * straight away.
+	 * 
+	 * @param outputPath
+	 *            The directory to write the archive into, or, if the file name
+	 *            ends in ".zip", the ZIP file to write.
+	 * @param document
+	 *            The document declaring the core and extensions. Each must have
+	 *            a single relative file location, and the fields with an index
+	 *            define the columns of the file.
+	 * @param batchSize
+	 *            The number of rows in each batch handed to the thread writing
+	 *            a file.
+	 * @param queuedBatches
+	 *            The number of batches for each file that can be waiting to be
+	 *            written before producers are blocked.
+	 * @return A writer for the archive, which must be closed to complete the
+	 *         archive, or aborted to delete it.
+	 * @throws IOException
+	 *             If the output could not be created.
+	 * @throws IllegalArgumentException
+	 *             If the document cannot be written as an archive.
+	 */
+	public static DarwinCoreArchiveWriter open(final Path outputPath, final DarwinCoreArchiveDocument document,
+			final int batchSize, final int queuedBatches) throws IOException {
+		return open(outputPath, document, batchSize, queuedBatches, Deflater.DEFAULT_COMPRESSION, false);
+	}
+
+	/**
+	 * Open a writer for an archive, writing the metadata for the document
+	 * straight away.
+	 * 
+	 * @param outputPath
+	 *            The directory to write the archive into, or, if the file name
+	 *            ends in ".zip", the ZIP file to write.
+	 * @param document
+	 *            The document declaring the core and extensions. Each must have
+	 *            a single relative file location, and the fields with an index
+	 *            define the columns of the file.
+	 * @param batchSize
+	 *            The number of rows in each batch handed to the thread writing
+	 *            a file.
+	 * @param queuedBatches
+	 *            The number of batches for each file that can be waiting to be
+	 *            written before producers are blocked.
+	 * @param compressionLevel
+	 *            The deflate level from 0 to 9, or -1 for the default level.
+	 *            Ignored if storeUncompressed is true, or if the archive is not
+	 *            written as a ZIP file.
+	 * @param storeUncompressed
+	 *            True to write the ZIP entries using the STORED method, and
+	 *            false to deflate them.
+	 * @return A writer for the archive, which must be closed to complete the
+	 *         archive, or aborted to delete it.
+	 * @throws IOException
+	 *             If the output could not be created.
+	 * @throws IllegalArgumentException
+	 *             If the document cannot be written as an archive.
+	 */
+	public static DarwinCoreArchiveWriter open(final Path outputPath, final DarwinCoreArchiveDocument document,
+			final int batchSize, final int queuedBatches, final int compressionLevel,
+			final boolean storeUncompressed) throws IOException {
+		DarwinCoreArchiveZip.checkCompressionLevel(compressionLevel);
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+		}
+		if (queuedBatches < 1) {
+			throw new IllegalArgumentException("Queued batches must be positive: " + queuedBatches);
+		}
+		if (document.getCore() == null) {
+			throw new IllegalArgumentException("The document does not have a core");
+		}
+		final List<String> locations = new ArrayList<>();
+		locations.add(DarwinCoreArchiveChecker.META_XML);
+		checkWritable(document.getCore(), locations);
+		for (final DarwinCoreCoreOrExtension nextExtension : document.getExtensions()) {
+			checkWritable(nextExtension, locations);
+		}
+
+		final boolean zip = outputPath.getFileName().toString().endsWith(".zip");
+		final Path directory = zip ? outputPath.toAbsolutePath().getParent() : outputPath;
+		final List<Path> createdDirectories = new ArrayList<>();
+		if (directory != null) {
+			createDirectories(directory, createdDirectories);
+		}
+		Path spoolDir = null;
+		ZipArchiveOutputStream zipOutput = null;
+		try {
+			if (zip) {
+				spoolDir = Files.createTempDirectory(directory, outputPath.getFileName().toString() + "-");
+				zipOutput = DarwinCoreArchiveZip.newZipOutput(outputPath, compressionLevel, storeUncompressed);
+				zipOutput.putArchiveEntry(new ZipArchiveEntry(DarwinCoreArchiveChecker.META_XML));
+				writeMetadata(document, DarwinCoreArchiveZip.newEntryOutput(zipOutput));
+				zipOutput.closeArchiveEntry();
+			} else {
+				try (final OutputStream metadataOutput = Files
+						.newOutputStream(outputPath.resolve(DarwinCoreArchiveChecker.META_XML));) {
+					writeMetadata(document, metadataOutput);
+				}
+			}
+			return new DarwinCoreArchiveWriter(document, outputPath, zipOutput, spoolDir, createdDirectories,
+					batchSize, queuedBatches);
+		} catch (final IOException | RuntimeException e) {
+			if (zipOutput != null) {
+				addFailure(null, zipOutput::close);
+			}
+			if (spoolDir != null) {
+				final Path toDelete = spoolDir;
+				addFailure(null, () -> deleteRecursively(toDelete));
+			}
+			addFailure(null, () -> deleteOutput(document, outputPath, zip, createdDirectories));
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The document describing the archive.
+	 */
+	public DarwinCoreArchiveDocument getDocument() {
+		return document;
+	}
+
+	/**
+	 * @return The path that the archive is being written to.
+	 */
+	public Path getOutputPath() {
+		return outputPath;
+	}
+
+	/**
+	 * @return The writer for the core file.
+	 */
+	public RowWriter getCoreWriter() {
+		return coreWriter;
+	}
+
+	/**
+	 * @param index
+	 *            The index of the extension in the document.
+	 * @return The writer for the extension file.
+	 */
+	public RowWriter getExtensionWriter(final int index) {
+		return extensionWriters.get(index);
+	}
+
+	/**
+	 * @param rowType
+	 *            The row type of the extension.
+	 * @return The writer for the first extension with the given row type.
+	 * @throws IllegalArgumentException
+	 *             If there is no extension with the row type.
+	 */
+	public RowWriter getExtensionWriter(final String rowType) {
+		for (final RowWriter nextWriter : extensionWriters) {
+			if (rowType.equals(nextWriter.getCoreOrExtension().getRowType())) {
+				return nextWriter;
+			}
+		}
+		throw new IllegalArgumentException("No extension with row type: " + rowType);
+	}
+
+	/**
+	 * Finish writing each of the files and complete the archive. Rows must
+	 * not be written after the writer is closed.
+	 * 
+	 * @throws IOException
+	 *             If any of the files could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		finish(false);
+	}
+
+	/**
+	 * Stop writing the archive and delete the output, for when the rows could
+	 * not all be produced. Rows must not be written after the writer is
+	 * aborted. If the writer was already closed, the completed archive is
+	 * deleted, and if it was already aborted, this does nothing.
+	 * 
+	 * @throws IOException
+	 *             If the files could not be closed or deleted.
+	 */
+	public void abort() throws IOException {
+		if (aborted) {
+			return;
+		}
+		if (closed) {
+			aborted = true;
+			deleteOutput(document, outputPath, zipOutput != null, createdDirectories);
+			return;
+		}
+		finish(true);
+	}
+
+	private void finish(final boolean abort) throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		aborted = abort;
+		IOException failure = null;
+		try {
+			for (final RowWriter nextWriter : allWriters()) {
+				failure = addFailure(failure, nextWriter::finish);
+			}
+			for (final RowWriter nextWriter : allWriters()) {
+				failure = addFailure(failure, nextWriter::await);
+			}
+			if (zipOutput != null) {
+				if (failure == null && !abort) {
+					failure = addFailure(failure, this::copySpooledExtensions);
+				}
+				failure = addFailure(failure, zipOutput::close);
+			}
+		} finally {
+			executor.shutdownNow();
+			if (spoolDir != null) {
+				failure = addFailure(failure, () -> deleteRecursively(spoolDir));
+			}
+			if (failure != null || abort) {
+				failure = addFailure(failure,
+						() -> deleteOutput(document, outputPath, zipOutput != null, createdDirectories));
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private List<RowWriter> allWriters() {
+		final List<RowWriter> result = new ArrayList<>(extensionWriters.size() + 1);
+		result.add(coreWriter);
+		result.addAll(extensionWriters);
+		return result;
+	}
+
+	private void copySpooledExtensions() throws IOException {
+		zipOutput.closeArchiveEntry();
+		for (final DarwinCoreCoreOrExtension nextExtension : document.getExtensions()) {
+			final String location = locationOf(nextExtension);
+			zipOutput.putArchiveEntry(new ZipArchiveEntry(location));
+			Files.copy(spoolDir.resolve(location), zipOutput);
+			zipOutput.closeArchiveEntry();
+		}
+		zipOutput.finish();
+	}
+
+	private interface IOAction {
+		void run() throws IOException;
+	}
+
+	private static IOException addFailure(final IOException failure, final IOAction action) {
+		try {
+			action.run();
+			return failure;
+		} catch (final IOException | RuntimeException e) {
+			if (failure == null) {
+				return e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+			}
+			failure.addSuppressed(e);
+			return failure;
+		}
+	}
+
+	/**
+	 * Create a directory and any missing parents, recording the directories
+	 * that were created so that they can be removed if the archive is not
+	 * completed.
+	 */
+	private static void createDirectories(final Path directory, final List<Path> createdDirectories)
+			throws IOException {
+		final List<Path> missing = new ArrayList<>();
+		for (Path next = directory.toAbsolutePath(); next != null && !Files.exists(next); next = next.getParent()) {
+			missing.add(next);
+		}
+		Files.createDirectories(directory);
+		// Record parents before their children
+		Collections.reverse(missing);
+		createdDirectories.addAll(missing);
+	}
+
+	/**
+	 * Delete the files for an archive that could not be completed, followed by
+	 * the directories that were created for them.
+	 */
+	private static void deleteOutput(final DarwinCoreArchiveDocument document, final Path outputPath,
+			final boolean zip, final List<Path> createdDirectories) throws IOException {
+		if (zip) {
+			Files.deleteIfExists(outputPath);
+		} else {
+			Files.deleteIfExists(outputPath.resolve(DarwinCoreArchiveChecker.META_XML));
+			Files.deleteIfExists(outputPath.resolve(locationOf(document.getCore())));
+			for (final DarwinCoreCoreOrExtension nextExtension : document.getExtensions()) {
+				Files.deleteIfExists(outputPath.resolve(locationOf(nextExtension)));
+			}
+		}
+		for (int i = createdDirectories.size() - 1; i >= 0; i--) {
+			Files.deleteIfExists(createdDirectories.get(i));
+		}
+	}
+
+	private static void deleteRecursively(final Path directory) throws IOException {
+		final List<Path> paths = new ArrayList<>();
+		try (final Stream<Path> walk = Files.walk(directory);) {
+			walk.forEach(paths::add);
+		}
+		// Delete children before their parents
+		Collections.reverse(paths);
+		for (final Path nextPath : paths) {
+			Files.deleteIfExists(nextPath);
+		}
+	}
+
+	private static void writeMetadata(final DarwinCoreArchiveDocument document, final OutputStream output)
+			throws IOException {
+		try (final Writer metadataWriter = new BufferedWriter(
+				new OutputStreamWriter(output, StandardCharsets.UTF_8));) {
+			document.toXML(metadataWriter, false);
+		} catch (final XMLStreamException e) {
+			throw new IOException("Could not write metadata", e);
+		}
+	}
+
+	private static String locationOf(final DarwinCoreCoreOrExtension coreOrExtension) {
+		return coreOrExtension.getFiles().getLocations().get(0);
+	}
+
+	private static void checkWritable(final DarwinCoreCoreOrExtension coreOrExtension, final List<String> locations) {
+		if (coreOrExtension.getFiles() == null || coreOrExtension.getFiles().getLocations().size() != 1) {
+			throw new IllegalArgumentException(
+					"Each core and extension must have exactly one file location: " + coreOrExtension.getRowType());
+		}
+		final String location = locationOf(coreOrExtension);
+		final String normalised = location.replace('\\', '/');
+		if (normalised.isEmpty() || normalised.startsWith("/") || normalised.contains(":")
+				|| ("/" + normalised + "/").contains("/../")) {
+			throw new IllegalArgumentException("File locations must be relative to the archive: " + location);
+		}
+		if (locations.contains(normalised)) {
+			throw new IllegalArgumentException("File location is used more than once: " + location);
+		}
+		locations.add(normalised);
+		if (coreOrExtension.getIgnoreHeaderLines() > 1) {
+			throw new IllegalArgumentException(
+					"Only a single header line can be written: " + coreOrExtension.getIgnoreHeaderLines());
+		}
+		if (coreOrExtension.getFields().stream().noneMatch(f -> f.getIndex() != null)) {
+			throw new IllegalArgumentException("No fields with an index for: " + location);
+		}
+	}
+
+	/**
+	 * Writes the rows for the core or an extension.
+	 */
+	public static final class RowWriter {
+
+		private final DarwinCoreCoreOrExtension coreOrExtension;
+		private final OutputStream output;
+		private final int batchSize;
+		private final int columnCount;
+		private final BlockingQueue<List<List<String>>> batches;
+		private List<List<String>> currentBatch;
+		private long rowCount;
+		private boolean finished;
+		private Future<?> writerJob;
+		private volatile Throwable failure;
+
+		private RowWriter(final DarwinCoreCoreOrExtension coreOrExtension, final OutputStream output,
+				final int batchSize, final int queuedBatches) {
+			this.coreOrExtension = coreOrExtension;
+			this.output = output;
+			this.batchSize = batchSize;
+			int maxIndex = -1;
+			for (final DarwinCoreField nextField : coreOrExtension.getFields()) {
+				if (nextField.getIndex() != null) {
+					maxIndex = Math.max(maxIndex, nextField.getIndex());
+				}
+			}
+			this.columnCount = maxIndex + 1;
+			this.batches = new ArrayBlockingQueue<>(queuedBatches);
+			this.currentBatch = new ArrayList<>(batchSize);
+		}
+
+		private void start(final ExecutorService executor) {
+			writerJob = executor.submit(() -> {
+				try {
+					writeBatches();
+				} catch (final Throwable e) {
+					failure = e;
+					// The output is not closed if the writer could not be created
+					addFailure(null, output::close);
+					// Unblock any producers waiting for space
+					batches.clear();
+				}
+			});
+		}
+
+		private void writeBatches() throws IOException, InterruptedException {
+			try (final Writer writer = new BufferedWriter(
+					new OutputStreamWriter(output, coreOrExtension.getEncoding()), BUFFER_SIZE);
+					final SequenceWriter csvWriter = CSVStream.newCSVWriter(writer,
+							coreOrExtension.getCsvSchema());) {
+				if (coreOrExtension.getIgnoreHeaderLines() > 0) {
+					final List<String> headers = new ArrayList<>(Collections.nCopies(columnCount, ""));
+					for (final DarwinCoreField nextField : coreOrExtension.getFields()) {
+						if (nextField.getIndex() != null) {
+							headers.set(nextField.getIndex(), nextField.getTerm());
+						}
+					}
+					csvWriter.write(headers);
+				}
+				List<List<String>> nextBatch;
+				while ((nextBatch = batches.take()) != END) {
+					for (final List<String> nextRow : nextBatch) {
+						csvWriter.write(nextRow);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return The core or extension that this writer is writing.
+		 */
+		public DarwinCoreCoreOrExtension getCoreOrExtension() {
+			return coreOrExtension;
+		}
+
+		/**
+		 * @return The number of rows that have been written, not including
+		 *         the header line.
+		 */
+		public synchronized long getRowCount() {
+			return rowCount;
+		}
+
+		/**
+		 * Write a row, with a value for each column, in index order.
+		 * 
+		 * @param row
+		 *            The values for the row. Empty strings are written for
+		 *            empty values.
+		 * @throws IOException
+		 *             If a previous batch for this file could not be written.
+		 * @throws IllegalArgumentException
+		 *             If the row does not have a value for each column.
+		 * @throws IllegalStateException
+		 *             If the writer has been closed.
+		 */
+		public synchronized void write(final List<String> row) throws IOException {
+			if (finished) {
+				throw new IllegalStateException("The archive writer has been closed");
+			}
+			if (row.size() != columnCount) {
+				throw new IllegalArgumentException(
+						"Expected " + columnCount + " values for " + locationOf(coreOrExtension) + " but found "
+								+ row.size());
+			}
+			checkFailure();
+			currentBatch.add(new ArrayList<>(row));
+			rowCount++;
+			if (currentBatch.size() >= batchSize) {
+				put(currentBatch);
+				currentBatch = new ArrayList<>(batchSize);
+			}
+		}
+
+		private void put(final List<List<String>> batch) throws IOException {
+			try {
+				// Check for failures while waiting, as the writer thread stops
+				// taking batches when it fails
+				while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+					checkFailure();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while writing " + locationOf(coreOrExtension), e);
+			}
+		}
+
+		private void checkFailure() throws IOException {
+			final Throwable nextFailure = failure;
+			if (nextFailure != null) {
+				throw new IOException("Failed to write " + locationOf(coreOrExtension), nextFailure);
+			}
+		}
+
+		private synchronized void finish() throws IOException {
+			if (!finished) {
+				finished = true;
+				if (!currentBatch.isEmpty()) {
+					put(currentBatch);
+					currentBatch = null;
+				}
+				put(END);
+			}
+		}
+
+		private void await() throws IOException {
+			try {
+				writerJob.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while writing " + locationOf(coreOrExtension), e);
+			} catch (final ExecutionException e) {
+				throw new IOException("Failed to write " + locationOf(coreOrExtension), e.getCause());
+			}
+			checkFailure();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+/**
+ * Creates the ZIP files written by {@link DarwinCoreArchiveMerger} and
+ * {@link DarwinCoreArchiveWriter}, so that they use the same Zip64 and
+ * compression settings.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+final class DarwinCoreArchiveZip {
+
+	/**
+	 * The size of the character buffer used when streaming entries into a ZIP
+	 * file.
+	 */
+	static final int ENTRY_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Writes the data for a core file to the given Writer.
+	 */
+	@FunctionalInterface
+	interface CoreFileWriter {
+		void write(Writer outputCoreWriter) throws IOException;
+	}
+
+	/**
+	 * Private constructor for static only class
+	 */
+	private DarwinCoreArchiveZip() {
+	}
+
+	/**
+	 * @param compressionLevel
+	 *            The deflate level to check.
+	 * @throws IllegalArgumentException
+	 *             If the level is not from 0 to 9, or -1 for the default level.
+	 */
+	static void checkCompressionLevel(final int compressionLevel) {
+		if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Compression level must be between -1 and 9: " + compressionLevel);
+		}
+	}
+
+	/**
+	 * Create a ZIP file, using Zip64 extensions only if entries or the file
+	 * become too large for the original format.
+	 * 
+	 * @param outputZipPath
+	 *            The ZIP file to create.
+	 * @param compressionLevel
+	 *            The deflate level from 0 to 9, or -1 for the default level.
+	 *            Ignored if storeUncompressed is true.
+	 * @param storeUncompressed
+	 *            True to write the entries using the STORED method, and false
+	 *            to deflate them.
+	 * @return The stream for the ZIP file, which must be finished and closed
+	 *         after use.
+	 * @throws IOException
+	 *             If the file could not be created.
+	 * @throws IllegalArgumentException
+	 *             If the compression level is not valid.
+	 */
+	static ZipArchiveOutputStream newZipOutput(final Path outputZipPath, final int compressionLevel,
+			final boolean storeUncompressed) throws IOException {
+		checkCompressionLevel(compressionLevel);
+		// Writing to a file rather than a stream allows STORED entries and
+		// Zip64 headers to be patched after each entry is streamed
+		final ZipArchiveOutputStream result = new ZipArchiveOutputStream(outputZipPath.toFile());
+		result.setUseZip64(Zip64Mode.AsNeeded);
+		result.setMethod(storeUncompressed ? ZipArchiveOutputStream.STORED : ZipArchiveOutputStream.DEFLATED);
+		result.setLevel(compressionLevel);
+		return result;
+	}
+
+	/**
+	 * Create a stream for the current entry in the given ZIP stream that leaves
+	 * the ZIP stream open when it is closed.
+	 */
+	static OutputStream newEntryOutput(final ZipArchiveOutputStream zipOut) {
+		return new CloseShieldOutputStream(zipOut);
+	}
+
+	/**
+	 * Create a buffered writer for the current entry in the given ZIP stream
+	 * that leaves the ZIP stream open when it is closed.
+	 */
+	static Writer newEntryWriter(final ZipArchiveOutputStream zipOut) {
+		return new BufferedWriter(new OutputStreamWriter(newEntryOutput(zipOut), StandardCharsets.UTF_8),
+				ENTRY_BUFFER_SIZE);
+	}
+
+	/**
+	 * Stream the meta.xml for the given document, followed by its core file,
+	 * into a new ZIP file, which is deleted if it could not be completed.
+	 */
+	static void writeArchiveZip(final DarwinCoreArchiveDocument document, final String coreEntryName,
+			final Path outputZipPath, final int compressionLevel, final boolean storeUncompressed,
+			final CoreFileWriter coreFileWriter) throws IOException, XMLStreamException {
+		try {
+			try (final ZipArchiveOutputStream zipOut = newZipOutput(outputZipPath, compressionLevel,
+					storeUncompressed);) {
+				zipOut.putArchiveEntry(new ZipArchiveEntry(DarwinCoreArchiveChecker.META_XML));
+				try (final Writer metadataWriter = newEntryWriter(zipOut);) {
+					document.toXML(metadataWriter, true);
+				}
+				zipOut.closeArchiveEntry();
+
+				zipOut.putArchiveEntry(new ZipArchiveEntry(coreEntryName));
+				try (final Writer outputCoreWriter = newEntryWriter(zipOut);) {
+					coreFileWriter.write(outputCoreWriter);
+				}
+				zipOut.closeArchiveEntry();
+				zipOut.finish();
+			}
+		} catch (final IOException | XMLStreamException | RuntimeException e) {
+			try {
+				Files.deleteIfExists(outputZipPath);
+			} catch (final IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Checks many Darwin Core Archives concurrently in a single JVM.
+ * <p>
+ * Archives are checked on a work-stealing pool, starting with the largest
+ * archives, so that a large archive is not left until the end of a batch
+ * after all of the small archives have finished. Extracting ZIP files is
+ * limited separately from the number of threads, so that the threads that
+ * are parsing are not starved of I/O by many concurrent extractions.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreBatchChecker {
+
+	/**
+	 * The default number of ZIP files that are extracted at the same time.
+	 */
+	public static final int DEFAULT_IO_CONCURRENCY = 4;
+
+	/**
+	 * The result of checking an archive.
+	 */
+	public static final class BatchResult {
+
+		private final Path input;
+		private final long bytes;
+		private final long elapsedNanos;
+		private final Throwable error;
+
+		private BatchResult(final Path input, final long bytes, final long elapsedNanos, final Throwable error) {
+			this.input = input;
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+			this.error = error;
+		}
+
+		public Path getInput() {
+			return input;
+		}
+
+		/**
+		 * @return The size of the archive, which is used to schedule the
+		 *         largest archives first.
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		/**
+		 * @return The reason the check failed, or null if it succeeded.
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+	}
+
+	/**
+	 * Private constructor for static only class
+	 */
+	private DarwinCoreBatchChecker() {
+	}
+
+	/**
+	 * Find the archives to check.
+	 * 
+	 * @param inputPath
+	 *            Either a folder, which is searched for ZIP files and for
+	 *            folders directly containing a meta.xml or metadata.xml file,
+	 *            or a file listing archives with one path on each line. Paths
+	 *            in a list are resolved against the folder containing the list,
+	 *            and blank lines and lines starting with # are ignored.
+	 * @return The archives, in the order they were found.
+	 * @throws IOException
+	 *             If the folder or list could not be read.
+	 */
+	public static List<Path> findArchives(final Path inputPath) throws IOException {
+		final List<Path> result = new ArrayList<>();
+		if (Files.isDirectory(inputPath)) {
+			try (final DirectoryStream<Path> children = Files.newDirectoryStream(inputPath);) {
+				for (final Path nextChild : children) {
+					if (Files.isDirectory(nextChild)) {
+						if (Files.exists(nextChild.resolve(DarwinCoreArchiveChecker.META_XML))
+								|| Files.exists(nextChild.resolve(DarwinCoreArchiveChecker.METADATA_XML))) {
+							result.add(nextChild);
+						}
+					} else if (nextChild.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".zip")) {
+						result.add(nextChild);
+					}
+				}
+			}
+			Collections.sort(result);
+		} else {
+			for (final String nextLine : Files.readAllLines(inputPath, StandardCharsets.UTF_8)) {
+				final String nextArchive = nextLine.trim();
+				if (!nextArchive.isEmpty() && !nextArchive.startsWith("#")) {
+					result.add(inputPath.toAbsolutePath().resolveSibling(nextArchive).normalize());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Check archives concurrently, printing a line for each archive as it
+	 * finishes, and adding it to the {@link DarwinCoreRunReport} for the run.
+	 * 
+	 * @param archives
+	 *            The archives to check, each of which is either a ZIP file, a
+	 *            folder or a metadata file.
+	 * @param tempDir
+	 *            The directory to extract ZIP files to.
+	 * @param outputDirPath
+	 *            The directory to write the statistics for each archive to, in
+	 *            a folder named after the archive, or null to only parse the
+	 *            archives.
+	 * @param debug
+	 *            True to emit debug messages
+	 * @param includeDefaults
+	 *            True to include default values from the metadata files.
+	 * @param threads
+	 *            The number of archives to check at the same time.
+	 * @param ioConcurrency
+	 *            The number of ZIP files to extract at the same time.
+	 * @return The results in the order that the archives were given.
+	 * @throws IOException
+	 *             If the size of an archive could not be found.
+	 * @throws IllegalArgumentException
+	 *             If threads or ioConcurrency are not positive.
+	 * @throws IllegalStateException
+	 *             If any of the archives failed the check, after all of the
+	 *             archives have been checked.
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting for the checks.
+	 */
+	public static List<BatchResult> checkArchives(final List<Path> archives, final Path tempDir,
+			final Path outputDirPath, final boolean debug, final boolean includeDefaults, final int threads,
+			final int ioConcurrency) throws IOException, InterruptedException {
+		return checkArchives(archives, tempDir, outputDirPath, debug, includeDefaults, threads, ioConcurrency, null);
+	}
+
+	/**
+	 * Check archives concurrently, printing a line for each archive as it
+	 * finishes, and adding it to the {@link DarwinCoreRunReport} for the run,
+	 * while reusing cached results for files that have not changed.
+	 * 
+	 * @param archives
+	 *            The archives to check, each of which is either a ZIP file, a
+	 *            folder or a metadata file.
+	 * @param tempDir
+	 *            The directory to extract ZIP files to.
+	 * @param outputDirPath
+	 *            The directory to write the statistics for each archive to, in
+	 *            a folder named after the archive, or null to only parse the
+	 *            archives.
+	 * @param debug
+	 *            True to emit debug messages
+	 * @param includeDefaults
+	 *            True to include default values from the metadata files.
+	 * @param threads
+	 *            The number of archives to check at the same time.
+	 * @param ioConcurrency
+	 *            The number of ZIP files to extract at the same time.
+	 * @param cache
+	 *            The cache of previous results, or null to parse every file.
+	 * @return The results in the order that the archives were given.
+	 * @throws IOException
+	 *             If the size of an archive could not be found.
+	 * @throws IllegalArgumentException
+	 *             If threads or ioConcurrency are not positive.
+	 * @throws IllegalStateException
+	 *             If any of the archives failed the check, after all of the
+	 *             archives have been checked.
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting for the checks.
+	 */
+	public static List<BatchResult> checkArchives(final List<Path> archives, final Path tempDir,
+			final Path outputDirPath, final boolean debug, final boolean includeDefaults, final int threads,
+			final int ioConcurrency, final DarwinCoreValidationCache cache) throws IOException, InterruptedException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Batch threads must be positive: " + threads);
+		}
+		if (ioConcurrency < 1) {
+			throw new IllegalArgumentException("Batch I/O concurrency must be positive: " + ioConcurrency);
+		}
+		final long startNanos = System.nanoTime();
+		final List<Path> outputDirs = outputDirs(archives, outputDirPath);
+		final long[] sizes = new long[archives.size()];
+		final List<Integer> largestFirst = new ArrayList<>(archives.size());
+		for (int i = 0; i < archives.size(); i++) {
+			sizes[i] = archiveSize(archives.get(i));
+			largestFirst.add(i);
+		}
+		largestFirst.sort(Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+
+		// Each worker takes the largest archive that has not been started, so
+		// the order is kept no matter which workers finish first
+		final Queue<Integer> pending = new ConcurrentLinkedQueue<>(largestFirst);
+		final BatchResult[] results = new BatchResult[archives.size()];
+		final Semaphore extractPermits = new Semaphore(ioConcurrency);
+		final ExecutorService executor = Executors.newWorkStealingPool(threads);
+		try {
+			final List<Future<?>> workers = new ArrayList<>(threads);
+			for (int i = 0; i < Math.min(threads, archives.size()); i++) {
+				workers.add(executor.submit(() -> {
+					Integer next;
+					while ((next = pending.poll()) != null) {
+						results[next] = checkArchive(archives.get(next), sizes[next], tempDir, outputDirs.get(next),
+								debug, includeDefaults, extractPermits, cache);
+					}
+					return null;
+				}));
+			}
+			for (final Future<?> nextWorker : workers) {
+				try {
+					nextWorker.get();
+				} catch (final ExecutionException e) {
+					throw new IllegalStateException("Batch worker failed", e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		int failedCount = 0;
+		for (final BatchResult nextResult : results) {
+			if (!nextResult.isSuccess()) {
+				failedCount++;
+			}
+		}
+		System.out.println("Checked " + archives.size() + " archives in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms, " + failedCount + " failed");
+		if (failedCount > 0) {
+			throw new IllegalStateException(failedCount + " of " + archives.size() + " archives failed the check");
+		}
+		final List<BatchResult> result = new ArrayList<>(results.length);
+		Collections.addAll(result, results);
+		return result;
+	}
+
+	private static BatchResult checkArchive(final Path archive, final long bytes, final Path tempDir,
+			final Path outputDir, final boolean debug, final boolean includeDefaults,
+			final Semaphore extractPermits, final DarwinCoreValidationCache cache) {
+		final long startNanos = System.nanoTime();
+		Throwable error = null;
+		Path archiveTempDir = null;
+		try {
+			archiveTempDir = Files.createTempDirectory(tempDir, "archive-");
+			final Path metadataPath;
+			extractPermits.acquire();
+			try {
+				metadataPath = DarwinCoreArchiveChecker.resolveMetadataPath(archive, archiveTempDir);
+			} finally {
+				extractPermits.release();
+			}
+			if (outputDir != null) {
+				Files.createDirectories(outputDir);
+			}
+			DarwinCoreArchiveChecker.checkArchive(metadataPath, outputDir != null ? outputDir : archiveTempDir,
+					outputDir != null, debug, includeDefaults, cache);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error = e;
+		} catch (final Exception e) {
+			error = e;
+		} finally {
+			if (archiveTempDir != null) {
+				FileUtils.deleteQuietly(archiveTempDir.toFile());
+			}
+		}
+		final long elapsedNanos = System.nanoTime() - startNanos;
+		DarwinCoreRunReport.getDefault().addArchive(archive.toString(), bytes, elapsedNanos, error);
+		if (error == null) {
+			System.out.println("Checked " + archive + " in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms");
+		} else {
+			System.out.println("Failed to check " + archive + ": "
+					+ (error.getMessage() != null ? error.getMessage() : error.toString()));
+		}
+		return new BatchResult(archive, bytes, elapsedNanos, error);
+	}
+
+	/**
+	 * @return The output folder for each archive, named after the archive,
+	 *         with a number added to names that have already been used.
+	 */
+	private static List<Path> outputDirs(final List<Path> archives, final Path outputDirPath) {
+		final List<Path> result = new ArrayList<>(archives.size());
+		final Set<String> usedNames = new HashSet<>();
+		for (final Path nextArchive : archives) {
+			if (outputDirPath == null) {
+				result.add(null);
+				continue;
+			}
+			// Name metadata files after the folder they are in
+			final Path namePath = Files.isDirectory(nextArchive)
+					|| nextArchive.getFileName().toString().contains(".zip") ? nextArchive
+							: nextArchive.toAbsolutePath().getParent();
+			final String baseName = namePath.getFileName().toString();
+			String nextName = baseName;
+			for (int i = 2; !usedNames.add(nextName); i++) {
+				nextName = baseName + "-" + i;
+			}
+			result.add(outputDirPath.resolve(nextName));
+		}
+		return result;
+	}
+
+	/**
+	 * @return The size of a ZIP file, or the total size of the files in a
+	 *         folder, or in the folder containing a metadata file.
+	 */
+	private static long archiveSize(final Path archive) throws IOException {
+		if (!Files.exists(archive)) {
+			// Reported as a failure when it is checked
+			return 0L;
+		}
+		if (!Files.isDirectory(archive) && archive.getFileName().toString().contains(".zip")) {
+			return Files.size(archive);
+		}
+		final Path folder = Files.isDirectory(archive) ? archive : archive.toAbsolutePath().getParent();
+		try (final Stream<Path> files = Files.walk(folder);) {
+			return files.filter(Files::isRegularFile).mapToLong(nextFile -> {
+				try {
+					return Files.size(nextFile);
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).sum();
+		}
+	}
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+
+/**
+ * Infers the type of each column in a CSV file, and the date format for
+ * columns containing dates, by streaming through the file once.
+ * <p>
+ * Each value is classified by scanning its characters without creating any
+ * objects, and only a fixed amount of state is kept for each column, so the
+ * memory used does not depend on the size of the file.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreColumnProfiler {
+
+	/**
+	 * The types that can be inferred for a column.
+	 */
+	public enum ColumnType {
+		/**
+		 * Every value in the column was empty.
+		 */
+		EMPTY,
+
+		/**
+		 * Every non-empty value was an integer with at most 18 digits, so it
+		 * can be parsed as a long.
+		 */
+		INTEGER,
+
+		/**
+		 * Every non-empty value was a decimal number, possibly with an
+		 * exponent, or an integer.
+		 */
+		DECIMAL,
+
+		/**
+		 * Every non-empty value was a date matching the same pattern.
+		 */
+		DATE,
+
+		/**
+		 * The values did not all fit any of the other types.
+		 */
+		TEXT
+	}
+
+	/**
+	 * The date patterns that can be detected, in order of preference where
+	 * values match more than one pattern. Patterns use the
+	 * {@link java.time.format.DateTimeFormatter} syntax used by
+	 * {@link DarwinCoreCoreOrExtension#setDateFormat(String)}.
+	 */
+	private enum DatePattern {
+		ISO_LOCAL_DATE(DarwinCoreCoreOrExtension.DEFAULT_DATE_FORMAT_PATTERN, 5, 8, '-'),
+
+		YEAR_MONTH_DAY_SLASH("yyyy/MM/dd", 5, 8, '/'),
+
+		DAY_MONTH_YEAR_SLASH("dd/MM/yyyy", 3, 0, '/'),
+
+		MONTH_DAY_YEAR_SLASH("MM/dd/yyyy", 0, 3, '/'),
+
+		DAY_MONTH_YEAR_DASH("dd-MM-yyyy", 3, 0, '-');
+
+		private final String pattern;
+		private final int monthOffset;
+		private final int dayOffset;
+		private final char separator;
+
+		DatePattern(String pattern, int monthOffset, int dayOffset, char separator) {
+			this.pattern = pattern;
+			this.monthOffset = monthOffset;
+			this.dayOffset = dayOffset;
+			this.separator = separator;
+		}
+
+		/**
+		 * Checks the separators, the digits, and the ranges of the month and day.
+		 * The value must already be known to be 10 characters long.
+		 */
+		boolean matches(final String value) {
+			for (int i = 0; i < 10; i++) {
+				final char nextChar = value.charAt(i);
+				if (pattern.charAt(i) == '-' || pattern.charAt(i) == '/') {
+					if (nextChar != separator) {
+						return false;
+					}
+				} else if (nextChar < '0' || nextChar > '9') {
+					return false;
+				}
+			}
+			final int month = twoDigits(value, monthOffset);
+			final int day = twoDigits(value, dayOffset);
+			return month >= 1 && month <= 12 && day >= 1 && day <= 31;
+		}
+
+		private static int twoDigits(final String value, final int offset) {
+			return (value.charAt(offset) - '0') * 10 + (value.charAt(offset + 1) - '0');
+		}
+	}
+
+	private static final DatePattern[] DATE_PATTERNS = DatePattern.values();
+
+	private static final int ALL_DATE_PATTERNS = (1 << DATE_PATTERNS.length) - 1;
+
+	/**
+	 * The most digits in an integer that always fit in a long.
+	 */
+	private static final int MAXIMUM_INTEGER_DIGITS = 18;
+
+	private final long maxRows;
+
+	/**
+	 * Create a profiler.
+	 * 
+	 * @param maxRows
+	 *            The maximum number of rows to read from each file, or 0 to read
+	 *            every row.
+	 */
+	public DarwinCoreColumnProfiler(long maxRows) {
+		if (maxRows < 0) {
+			throw new IllegalArgumentException("Maximum rows must not be negative: " + maxRows);
+		}
+		this.maxRows = maxRows == 0 ? Long.MAX_VALUE : maxRows;
+	}
+
+	/**
+	 * The inferred type for one column in a file.
+	 */
+	public static final class ColumnProfile {
+
+		private final int index;
+		private final String name;
+		private final ColumnType type;
+		private final String dateFormat;
+		private final long emptyCount;
+
+		private ColumnProfile(int index, String name, ColumnType type, String dateFormat, long emptyCount) {
+			this.index = index;
+			this.name = name;
+			this.type = type;
+			this.dateFormat = dateFormat;
+			this.emptyCount = emptyCount;
+		}
+
+		/**
+		 * @return The 0-based index of the column.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return The header for the column.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The inferred type of the column.
+		 */
+		public ColumnType getType() {
+			return type;
+		}
+
+		/**
+		 * @return The date pattern for the column if its type is
+		 *         {@link ColumnType#DATE}, or {@link Optional#empty()}.
+		 */
+		public Optional<String> getDateFormat() {
+			return Optional.ofNullable(dateFormat);
+		}
+
+		/**
+		 * @return The number of rows with an empty value.
+		 */
+		public long getEmptyCount() {
+			return emptyCount;
+		}
+
+		@Override
+		public String toString() {
+			return index + " " + name + " type=" + type + (dateFormat == null ? "" : " dateFormat=" + dateFormat)
+					+ " emptyCount=" + emptyCount;
+		}
+	}
+
+	/**
+	 * The result of profiling a file.
+	 */
+	public static final class Result {
+
+		private final long rowCount;
+		private final List<ColumnProfile> columns;
+		private final String dateFormat;
+
+		private Result(long rowCount, List<ColumnProfile> columns, String dateFormat) {
+			this.rowCount = rowCount;
+			this.columns = Collections.unmodifiableList(columns);
+			this.dateFormat = dateFormat;
+		}
+
+		/**
+		 * @return The number of rows that were profiled.
+		 */
+		public long getRowCount() {
+			return rowCount;
+		}
+
+		/**
+		 * @return The profile for each column.
+		 */
+		public List<ColumnProfile> getColumns() {
+			return columns;
+		}
+
+		/**
+		 * @return The date pattern used by the most date columns, preferring the
+		 *         first pattern to reach that number of columns, or
+		 *         {@link Optional#empty()} if there were no date columns.
+		 */
+		public Optional<String> getDateFormat() {
+			return Optional.ofNullable(dateFormat);
+		}
+	}
+
+	/**
+	 * Profile the columns in a CSV file.
+	 * 
+	 * @param csvPath
+	 *            The file, which must have a single header line, and may be
+	 *            compressed.
+	 * @param encoding
+	 *            The character encoding of the file.
+	 * @param headers
+	 *            The headers for the columns in the file.
+	 * @return The profile for each column, and the date format for the file.
+	 * @throws IOException
+	 *             If there was an IO exception reading the file.
+	 */
+	public Result profile(final Path csvPath, final Charset encoding, final List<String> headers)
+			throws IOException {
+		final int columnCount = headers.size();
+		final long[] emptyCounts = new long[columnCount];
+		final boolean[] sawText = new boolean[columnCount];
+		final boolean[] sawDecimal = new boolean[columnCount];
+		final boolean[] sawNumber = new boolean[columnCount];
+		final boolean[] sawDate = new boolean[columnCount];
+		final int[] dateCandidates = new int[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			dateCandidates[i] = ALL_DATE_PATTERNS;
+		}
+		long rowCount = 0;
+		try (final MappingIterator<String[]> rows = DarwinCoreMetadataGenerator.readRows(csvPath, encoding);) {
+			// Skip the header line
+			if (rows.hasNext()) {
+				rows.next();
+			}
+			while (rowCount < maxRows && rows.hasNext()) {
+				final String[] nextRow = rows.next();
+				for (int i = 0; i < columnCount; i++) {
+					final String nextValue = i < nextRow.length ? nextRow[i] : "";
+					if (nextValue.isEmpty()) {
+						emptyCounts[i]++;
+					} else if (!sawText[i]) {
+						final int numberType = scanNumber(nextValue);
+						if (numberType != NOT_A_NUMBER) {
+							sawNumber[i] = true;
+							sawDecimal[i] |= numberType == DECIMAL_NUMBER;
+						} else {
+							dateCandidates[i] &= matchDatePatterns(nextValue);
+							sawDate[i] = true;
+						}
+						// Numbers and dates cannot be mixed, and dates must all
+						// share a pattern
+						sawText[i] = (sawDate[i] && (sawNumber[i] || dateCandidates[i] == 0));
+					}
+				}
+				rowCount++;
+			}
+		}
+
+		final List<ColumnProfile> columns = new ArrayList<>(columnCount);
+		final int[] dateFormatCounts = new int[DATE_PATTERNS.length];
+		DatePattern dateFormat = null;
+		for (int i = 0; i < columnCount; i++) {
+			final ColumnType nextType;
+			DatePattern nextDatePattern = null;
+			if (sawText[i]) {
+				nextType = ColumnType.TEXT;
+			} else if (sawDate[i]) {
+				nextType = ColumnType.DATE;
+				nextDatePattern = DATE_PATTERNS[Integer.numberOfTrailingZeros(dateCandidates[i])];
+				dateFormatCounts[nextDatePattern.ordinal()]++;
+				// Use the format for the most date columns, preferring earlier
+				// columns for ties
+				if (dateFormat == null
+						|| dateFormatCounts[nextDatePattern.ordinal()] > dateFormatCounts[dateFormat.ordinal()]) {
+					dateFormat = nextDatePattern;
+				}
+			} else if (sawDecimal[i]) {
+				nextType = ColumnType.DECIMAL;
+			} else if (sawNumber[i]) {
+				nextType = ColumnType.INTEGER;
+			} else {
+				nextType = ColumnType.EMPTY;
+			}
+			columns.add(new ColumnProfile(i, headers.get(i), nextType,
+					nextDatePattern == null ? null : nextDatePattern.pattern, emptyCounts[i]));
+		}
+		return new Result(rowCount, columns, dateFormat == null ? null : dateFormat.pattern);
+	}
+
+	static final int NOT_A_NUMBER = 0;
+	static final int INTEGER_NUMBER = 1;
+	static final int DECIMAL_NUMBER = 2;
+
+	/**
+	 * Scan a value to see if it is a number, accepting an optional sign, digits
+	 * with an optional decimal point, and an optional exponent.
+	 * 
+	 * @param value
+	 *            The non-empty value to scan.
+	 * @return {@link #INTEGER_NUMBER} for an integer that fits in a long,
+	 *         {@link #DECIMAL_NUMBER} for any other number, or
+	 *         {@link #NOT_A_NUMBER}.
+	 */
+	static int scanNumber(final String value) {
+		final int length = value.length();
+		int i = 0;
+		if (value.charAt(0) == '-' || value.charAt(0) == '+') {
+			i++;
+		}
+		int digits = 0;
+		while (i < length && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+			i++;
+			digits++;
+		}
+		if (i == length) {
+			if (digits == 0) {
+				return NOT_A_NUMBER;
+			}
+			return digits <= MAXIMUM_INTEGER_DIGITS ? INTEGER_NUMBER : DECIMAL_NUMBER;
+		}
+		if (value.charAt(i) == '.') {
+			i++;
+			while (i < length && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return NOT_A_NUMBER;
+		}
+		if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+			i++;
+			if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+				i++;
+			}
+			int exponentDigits = 0;
+			while (i < length && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+				i++;
+				exponentDigits++;
+			}
+			if (exponentDigits == 0) {
+				return NOT_A_NUMBER;
+			}
+		}
+		return i == length ? DECIMAL_NUMBER : NOT_A_NUMBER;
+	}
+
+	/**
+	 * Find the date patterns that match a value.
+	 * 
+	 * @param value
+	 *            The non-empty value to check.
+	 * @return A bit set with the ordinal of each matching {@link DatePattern}
+	 *         set.
+	 */
+	static int matchDatePatterns(final String value) {
+		if (value.length() != 10) {
+			return 0;
+		}
+		int result = 0;
+		for (final DatePattern nextPattern : DATE_PATTERNS) {
+			if (nextPattern.matches(value)) {
+				result |= 1 << nextPattern.ordinal();
+			}
+		}
+		return result;
+	}
+}
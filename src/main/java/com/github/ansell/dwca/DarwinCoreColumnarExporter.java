@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.jooq.lambda.Unchecked;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Converts the core and extensions of a Darwin Core Archive to Apache Arrow
+ * IPC files, so that analyses that only need a few columns do not need to
+ * parse the whole of each CSV file each time, and so that the files can be
+ * read by other tools that support Arrow.
+ * <p>
+ * Each core or extension file is converted to a file in the output directory
+ * with the same base name and the {@link DarwinCoreColumnarWriter#FILE_SUFFIX}
+ * extension. The columns are named using the terms of the
+ * {@link DarwinCoreField}s in the metadata. Each file is read once before it
+ * is converted to find the columns with few distinct values, which are
+ * dictionary encoded.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ * @see DarwinCoreColumnarReader
+ */
+public final class DarwinCoreColumnarExporter {
+
+	/**
+	 * Private constructor for static only class
+	 */
+	private DarwinCoreColumnarExporter() {
+	}
+
+	public static void main(String... args) throws Exception {
+		final OptionParser parser = new OptionParser();
+
+		final OptionSpec<Void> help = parser.accepts("help").forHelp();
+		final OptionSpec<File> input = parser.accepts("input").withRequiredArg().ofType(File.class).required()
+				.describedAs("The input Darwin Core Archive file, folder or metadata file to be converted.");
+		final OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class).required()
+				.describedAs("The directory to write the columnar files to.");
+		final OptionSpec<File> tempDirOption = parser.accepts("temp-dir").withRequiredArg().ofType(File.class)
+				.describedAs("A directory to to write temporary files to.");
+		final OptionSpec<Boolean> includeDefaultsOption = parser.accepts("include-defaults").withRequiredArg()
+				.ofType(Boolean.class).defaultsTo(Boolean.TRUE)
+				.describedAs("Whether to include default values from the meta.xml file in the columnar files.");
+		final OptionSpec<Integer> blockRowsOption = parser.accepts("block-rows").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(DarwinCoreColumnarWriter.DEFAULT_BLOCK_ROWS)
+				.describedAs("The number of rows in each block, which bounds the memory used while converting.");
+		final OptionSpec<Integer> dictionaryLimitOption = parser.accepts("dictionary-limit").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(DarwinCoreColumnarWriter.DEFAULT_DICTIONARY_LIMIT).describedAs(
+						"The maximum number of distinct values in a column for it to be dictionary encoded, or 0 to disable dictionary encoding.");
+
+		OptionSet options = null;
+
+		try {
+			options = parser.parse(args);
+		} catch (final OptionException e) {
+			System.out.println(e.getMessage());
+			parser.printHelpOn(System.out);
+			throw e;
+		}
+
+		if (options.has(help)) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+
+		final Path inputPath = input.value(options).toPath().toAbsolutePath().normalize();
+		if (!Files.exists(inputPath)) {
+			throw new FileNotFoundException(
+					"Could not find input Darwin Core Archive file or metadata file: " + inputPath.toString());
+		}
+		final Path outputDirPath = Files.createDirectories(output.value(options).toPath().toAbsolutePath().normalize());
+
+		final Path tempDir;
+		if (options.has(tempDirOption)) {
+			tempDir = Files.createTempDirectory(tempDirOption.value(options).toPath(), "dwca-columnar-")
+					.toAbsolutePath().normalize();
+		} else {
+			tempDir = Files.createTempDirectory("dwca-columnar-").toAbsolutePath().normalize();
+		}
+
+		try {
+			final Path metadataPath = DarwinCoreArchiveChecker.resolveMetadataPath(inputPath, tempDir);
+			final DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+			for (final Path nextOutput : export(document, outputDirPath, blockRowsOption.value(options),
+					dictionaryLimitOption.value(options), includeDefaultsOption.value(options))) {
+				System.out.println("Wrote: " + nextOutput);
+			}
+		} finally {
+			FileUtils.deleteQuietly(tempDir.toFile());
+		}
+	}
+
+	/**
+	 * Convert the core and each extension of a document to columnar files.
+	 * 
+	 * @param document
+	 *            The document to convert, which must have a metadata path to
+	 *            find its files from.
+	 * @param outputDirPath
+	 *            The directory to write the columnar files to.
+	 * @param blockRows
+	 *            The number of rows in each block.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @return The columnar files, starting with the file for the core,
+	 *         followed by the files for each extension in order.
+	 * @throws IOException
+	 *             If the files could not be read or written.
+	 * @throws IllegalStateException
+	 *             If the metadata path for the document is not known.
+	 */
+	public static List<Path> export(final DarwinCoreArchiveDocument document, final Path outputDirPath,
+			final int blockRows, final boolean includeDefaults) throws IOException {
+		return export(document, outputDirPath, blockRows, DarwinCoreColumnarWriter.DEFAULT_DICTIONARY_LIMIT,
+				includeDefaults);
+	}
+
+	/**
+	 * Convert the core and each extension of a document to columnar files.
+	 * 
+	 * @param document
+	 *            The document to convert, which must have a metadata path to
+	 *            find its files from.
+	 * @param outputDirPath
+	 *            The directory to write the columnar files to.
+	 * @param blockRows
+	 *            The number of rows in each block.
+	 * @param dictionaryLimit
+	 *            The maximum number of distinct values in a column for it to
+	 *            be dictionary encoded, or 0 to disable dictionary encoding.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @return The columnar files, starting with the file for the core,
+	 *         followed by the files for each extension in order.
+	 * @throws IOException
+	 *             If the files could not be read or written.
+	 * @throws IllegalStateException
+	 *             If the metadata path for the document is not known.
+	 * @throws IllegalArgumentException
+	 *             If the dictionary limit is not valid.
+	 */
+	public static List<Path> export(final DarwinCoreArchiveDocument document, final Path outputDirPath,
+			final int blockRows, final int dictionaryLimit, final boolean includeDefaults) throws IOException {
+		checkDictionaryLimit(dictionaryLimit);
+		final Path metadataPath = document.getMetadataXMLPath().orElseThrow(() -> new IllegalStateException(
+				"Metadata XML Path was null, not able to convert due to a lack of a file reference point."));
+		final List<DarwinCoreCoreOrExtension> coreAndExtensions = new ArrayList<>();
+		coreAndExtensions.add(document.getCore());
+		coreAndExtensions.addAll(document.getExtensions());
+
+		final List<Path> result = new ArrayList<>(coreAndExtensions.size());
+		final Set<String> usedNames = new HashSet<>();
+		for (final DarwinCoreCoreOrExtension nextCoreOrExtension : coreAndExtensions) {
+			final String baseName = FilenameUtils
+					.getBaseName(nextCoreOrExtension.getDataPath(metadataPath).getFileName().toString());
+			String nextName = baseName;
+			for (int i = 2; !usedNames.add(nextName); i++) {
+				nextName = baseName + "-" + i;
+			}
+			final Path nextOutputPath = outputDirPath.resolve(nextName + DarwinCoreColumnarWriter.FILE_SUFFIX);
+			export(nextCoreOrExtension, metadataPath, nextOutputPath, blockRows, dictionaryLimit, includeDefaults);
+			result.add(nextOutputPath);
+		}
+		return result;
+	}
+
+	/**
+	 * Convert a core or extension to a columnar file.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to convert.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param outputPath
+	 *            The columnar file to write.
+	 * @param blockRows
+	 *            The number of rows in each block.
+	 * @param dictionaryLimit
+	 *            The maximum number of distinct values in a column for it to
+	 *            be dictionary encoded, or 0 to disable dictionary encoding.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @return The number of rows written.
+	 * @throws IOException
+	 *             If the files could not be read or written.
+	 * @throws IllegalArgumentException
+	 *             If the dictionary limit is not valid.
+	 */
+	public static long export(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final Path outputPath, final int blockRows, final int dictionaryLimit, final boolean includeDefaults)
+			throws IOException {
+		checkDictionaryLimit(dictionaryLimit);
+		final List<String> columns = coreOrExtension.getFields().stream().map(f -> f.getTerm())
+				.collect(Collectors.toList());
+		final Map<String, Collection<String>> dictionaries = dictionaryLimit == 0 ? new HashMap<>()
+				: findDictionaries(coreOrExtension, metadataPath, columns, dictionaryLimit, includeDefaults);
+		try (final DarwinCoreColumnarWriter writer = new DarwinCoreColumnarWriter(outputPath, columns, blockRows,
+				dictionaries);) {
+			final Consumer<Reader> parseFunction = DarwinCoreArchiveChecker.createParseFunction(coreOrExtension,
+					h -> {
+					}, (h, l) -> l, Unchecked.consumer(writer::write), includeDefaults);
+			DarwinCoreArchiveChecker.parseCoreOrExtension(coreOrExtension, metadataPath, parseFunction);
+			return writer.getRowCount();
+		}
+	}
+
+	private static void checkDictionaryLimit(final int dictionaryLimit) {
+		if (dictionaryLimit < 0 || dictionaryLimit > DarwinCoreColumnarWriter.MAX_DICTIONARY_LIMIT) {
+			throw new IllegalArgumentException("Dictionary limit must be between 0 and "
+					+ DarwinCoreColumnarWriter.MAX_DICTIONARY_LIMIT + ": " + dictionaryLimit);
+		}
+	}
+
+	/**
+	 * Read a core or extension to find the columns that have at most the
+	 * dictionary limit of distinct non-empty values, where on average each
+	 * value is repeated, so that a dictionary would make the column smaller.
+	 * 
+	 * @return The sorted distinct values for each column that should be
+	 *         dictionary encoded.
+	 */
+	private static Map<String, Collection<String>> findDictionaries(final DarwinCoreCoreOrExtension coreOrExtension,
+			final Path metadataPath, final List<String> columns, final int dictionaryLimit,
+			final boolean includeDefaults) throws IOException {
+		final List<Set<String>> distinctValues = new ArrayList<>(columns.size());
+		for (int i = 0; i < columns.size(); i++) {
+			distinctValues.add(new HashSet<>());
+		}
+		final long[] nonEmptyCounts = new long[columns.size()];
+		final Consumer<Reader> parseFunction = DarwinCoreArchiveChecker.createParseFunction(coreOrExtension, h -> {
+		}, (h, l) -> l, l -> {
+			for (int i = 0; i < l.size(); i++) {
+				final String nextValue = l.get(i);
+				final Set<String> nextValues = distinctValues.get(i);
+				if (nextValue != null && !nextValue.isEmpty()) {
+					nonEmptyCounts[i]++;
+					// Stop collecting values for columns that are over the limit
+					if (nextValues != null && nextValues.add(nextValue) && nextValues.size() > dictionaryLimit) {
+						distinctValues.set(i, null);
+					}
+				}
+			}
+		}, includeDefaults);
+		DarwinCoreArchiveChecker.parseCoreOrExtension(coreOrExtension, metadataPath, parseFunction);
+		final Map<String, Collection<String>> result = new HashMap<>();
+		for (int i = 0; i < columns.size(); i++) {
+			final Set<String> nextValues = distinctValues.get(i);
+			// Dictionaries are found by column name, so a name that is used
+			// for more than one column is not dictionary encoded
+			if (nextValues != null && !nextValues.isEmpty() && nextValues.size() * 2L <= nonEmptyCounts[i]
+					&& columns.indexOf(columns.get(i)) == columns.lastIndexOf(columns.get(i))) {
+				result.put(columns.get(i), new TreeSet<>(nextValues));
+			}
+		}
+		return result;
+	}
+}
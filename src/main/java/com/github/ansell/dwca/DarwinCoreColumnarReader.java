@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BaseIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.InvalidArrowFileException;
+import org.apache.arrow.vector.ipc.message.ArrowBlock;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads Apache Arrow IPC files written by {@link DarwinCoreColumnarWriter}.
+ * <p>
+ * Only the columns that are requested are converted to strings, and blocks
+ * can be skipped using the statistics in the footer metadata without reading
+ * them. The values of dictionary encoded columns are only converted to strings
+ * once for each scan.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreColumnarReader implements Closeable {
+
+	/**
+	 * The statistics for a block, which are read from the footer metadata.
+	 */
+	public static final class Block {
+
+		private final List<String> columns;
+		private final int rows;
+		private final int[] emptyCounts;
+		private final String[] mins;
+		private final String[] maxes;
+
+		private Block(final List<String> columns, final int rows) {
+			this.columns = columns;
+			this.rows = rows;
+			this.emptyCounts = new int[columns.size()];
+			this.mins = new String[columns.size()];
+			this.maxes = new String[columns.size()];
+		}
+
+		/**
+		 * @return The number of rows in the block.
+		 */
+		public int getRows() {
+			return rows;
+		}
+
+		/**
+		 * @param column
+		 *            The name of a column.
+		 * @return The number of empty values for the column in this block.
+		 */
+		public int getEmptyCount(final String column) {
+			return emptyCounts[columnIndex(columns, column)];
+		}
+
+		/**
+		 * @param column
+		 *            The name of a column.
+		 * @return The smallest non-empty value for the column in this block,
+		 *         comparing values as strings, or {@link Optional#empty()} if
+		 *         all of the values are empty.
+		 */
+		public Optional<String> getMin(final String column) {
+			return Optional.ofNullable(mins[columnIndex(columns, column)]);
+		}
+
+		/**
+		 * @param column
+		 *            The name of a column.
+		 * @return The largest non-empty value for the column in this block,
+		 *         comparing values as strings, or {@link Optional#empty()} if
+		 *         all of the values are empty.
+		 */
+		public Optional<String> getMax(final String column) {
+			return Optional.ofNullable(maxes[columnIndex(columns, column)]);
+		}
+	}
+
+	private final BufferAllocator allocator;
+	private final ArrowFileReader reader;
+	private final List<String> columns;
+	private final List<DictionaryEncoding> dictionaryEncodings;
+	private final List<Block> blocks;
+	private final List<ArrowBlock> recordBlocks;
+	private final long rowCount;
+
+	private DarwinCoreColumnarReader(final BufferAllocator allocator, final ArrowFileReader reader,
+			final List<String> columns, final List<DictionaryEncoding> dictionaryEncodings, final List<Block> blocks,
+			final List<ArrowBlock> recordBlocks) {
+		this.allocator = allocator;
+		this.reader = reader;
+		this.columns = columns;
+		this.dictionaryEncodings = dictionaryEncodings;
+		this.blocks = blocks;
+		this.recordBlocks = recordBlocks;
+		long rows = 0;
+		for (final Block nextBlock : blocks) {
+			rows += nextBlock.getRows();
+		}
+		this.rowCount = rows;
+	}
+
+	/**
+	 * Open a columnar file and read its footer.
+	 * 
+	 * @param inputPath
+	 *            The file to read.
+	 * @return A reader for the file, which must be closed after use.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 * @throws IllegalStateException
+	 *             If the file is not a complete columnar file.
+	 */
+	public static DarwinCoreColumnarReader open(final Path inputPath) throws IOException {
+		final BufferAllocator allocator = new RootAllocator();
+		ArrowFileReader reader = null;
+		try {
+			reader = new ArrowFileReader(FileChannel.open(inputPath, StandardOpenOption.READ), allocator);
+			final List<Field> fields;
+			final List<ArrowBlock> recordBlocks;
+			final Map<String, String> metadata;
+			try {
+				fields = reader.getVectorSchemaRoot().getSchema().getFields();
+				recordBlocks = reader.getRecordBlocks();
+				metadata = reader.getMetaData();
+			} catch (final InvalidArrowFileException e) {
+				throw new IllegalStateException("Not a complete columnar file: " + inputPath, e);
+			}
+			final List<String> columns = new ArrayList<>(fields.size());
+			final List<DictionaryEncoding> dictionaryEncodings = new ArrayList<>(fields.size());
+			for (final Field nextField : fields) {
+				final DictionaryEncoding nextEncoding = nextField.getDictionary();
+				final ArrowType valueType = nextEncoding == null ? nextField.getType()
+						: reader.getDictionaryVectors().get(nextEncoding.getId()).getVectorType();
+				if (!(valueType instanceof ArrowType.Utf8)) {
+					throw new IllegalStateException(
+							"Column " + nextField.getName() + " is not a string column in " + inputPath);
+				}
+				columns.add(nextField.getName());
+				dictionaryEncodings.add(nextEncoding);
+			}
+			final List<String> unmodifiableColumns = Collections.unmodifiableList(columns);
+			final String blocksJson = metadata.get(DarwinCoreColumnarWriter.BLOCKS_METADATA_KEY);
+			if (blocksJson == null) {
+				throw new IllegalStateException("Not a columnar file, block statistics were missing: " + inputPath);
+			}
+			final List<Block> blocks = readBlocks(unmodifiableColumns, blocksJson);
+			if (blocks.size() != recordBlocks.size()) {
+				throw new IllegalStateException("Block statistics did not match the record batches: expected "
+						+ recordBlocks.size() + ", found " + blocks.size() + " in " + inputPath);
+			}
+			return new DarwinCoreColumnarReader(allocator, reader, unmodifiableColumns, dictionaryEncodings,
+					Collections.unmodifiableList(blocks), recordBlocks);
+		} catch (final IOException | RuntimeException e) {
+			try {
+				if (reader != null) {
+					reader.close();
+				}
+			} finally {
+				allocator.close();
+			}
+			throw e;
+		}
+	}
+
+	private static List<Block> readBlocks(final List<String> columns, final String blocksJson) throws IOException {
+		final List<Block> result = new ArrayList<>();
+		try (final JsonParser parser = new JsonFactory().createParser(blocksJson);) {
+			expect(parser, JsonToken.START_ARRAY);
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				Block nextBlock = null;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					final String nextField = parser.getCurrentName();
+					parser.nextToken();
+					if ("rows".equals(nextField)) {
+						nextBlock = new Block(columns, parser.getIntValue());
+					} else if ("columns".equals(nextField) && nextBlock != null) {
+						for (int i = 0; parser.nextToken() == JsonToken.START_OBJECT; i++) {
+							if (i >= columns.size()) {
+								throw new IllegalStateException("Block statistics had too many columns");
+							}
+							while (parser.nextToken() == JsonToken.FIELD_NAME) {
+								final String nextStatistic = parser.getCurrentName();
+								parser.nextToken();
+								if ("empty".equals(nextStatistic)) {
+									nextBlock.emptyCounts[i] = parser.getIntValue();
+								} else if ("min".equals(nextStatistic)) {
+									nextBlock.mins[i] = parser.getText();
+								} else if ("max".equals(nextStatistic)) {
+									nextBlock.maxes[i] = parser.getText();
+								} else {
+									parser.skipChildren();
+								}
+							}
+						}
+					} else {
+						parser.skipChildren();
+					}
+				}
+				if (nextBlock == null) {
+					throw new IllegalStateException("Block statistics were missing the number of rows");
+				}
+				result.add(nextBlock);
+			}
+		}
+		return result;
+	}
+
+	private static void expect(final JsonParser parser, final JsonToken expected) throws IOException {
+		final JsonToken nextToken = parser.nextToken();
+		if (nextToken != expected) {
+			throw new IllegalStateException("Invalid block statistics: expected " + expected + ", found " + nextToken);
+		}
+	}
+
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @param column
+	 *            The name of a column.
+	 * @return True if the column is dictionary encoded.
+	 * @throws IllegalArgumentException
+	 *             If the column is not in the file.
+	 */
+	public boolean isDictionaryEncoded(final String column) {
+		return dictionaryEncodings.get(columnIndex(columns, column)) != null;
+	}
+
+	/**
+	 * @return The blocks in the file, in row order.
+	 */
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * @return The total number of rows in the file.
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Read the values of some of the columns for every row.
+	 * 
+	 * @param selectedColumns
+	 *            The names of the columns to read.
+	 * @param consumer
+	 *            Accepts the values for each row, in the same order as the
+	 *            selected columns.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 * @throws IllegalArgumentException
+	 *             If any of the columns are not in the file.
+	 */
+	public void scan(final List<String> selectedColumns, final Consumer<List<String>> consumer) throws IOException {
+		scan(selectedColumns, b -> true, consumer);
+	}
+
+	/**
+	 * Read the values of some of the columns for the rows in the blocks that
+	 * match a filter, without reading the other blocks.
+	 * 
+	 * @param selectedColumns
+	 *            The names of the columns to read.
+	 * @param blockFilter
+	 *            Returns true for blocks that should be read, based on their
+	 *            statistics.
+	 * @param consumer
+	 *            Accepts the values for each row, in the same order as the
+	 *            selected columns. Empty values are given as empty strings.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 * @throws IllegalArgumentException
+	 *             If any of the columns are not in the file.
+	 */
+	public void scan(final List<String> selectedColumns, final Predicate<Block> blockFilter,
+			final Consumer<List<String>> consumer) throws IOException {
+		final int[] selectedIndexes = new int[selectedColumns.size()];
+		for (int i = 0; i < selectedIndexes.length; i++) {
+			selectedIndexes[i] = columnIndex(columns, selectedColumns.get(i));
+		}
+		final VectorSchemaRoot root = reader.getVectorSchemaRoot();
+		final FieldVector[] selectedVectors = new FieldVector[selectedIndexes.length];
+		final String[][] selectedDictionaries = new String[selectedIndexes.length][];
+		for (int i = 0; i < selectedIndexes.length; i++) {
+			selectedVectors[i] = root.getVector(selectedIndexes[i]);
+			final DictionaryEncoding nextEncoding = dictionaryEncodings.get(selectedIndexes[i]);
+			if (nextEncoding != null) {
+				selectedDictionaries[i] = readDictionary(reader.getDictionaryVectors().get(nextEncoding.getId()));
+			}
+		}
+		for (int blockIndex = 0; blockIndex < blocks.size(); blockIndex++) {
+			if (!blockFilter.test(blocks.get(blockIndex))) {
+				continue;
+			}
+			if (!reader.loadRecordBatch(recordBlocks.get(blockIndex))) {
+				throw new IllegalStateException("Could not read block " + blockIndex);
+			}
+			for (int row = 0; row < root.getRowCount(); row++) {
+				final String[] nextRow = new String[selectedIndexes.length];
+				for (int i = 0; i < selectedIndexes.length; i++) {
+					if (selectedVectors[i].isNull(row)) {
+						nextRow[i] = "";
+					} else if (selectedDictionaries[i] != null) {
+						nextRow[i] = selectedDictionaries[i][(int) ((BaseIntVector) selectedVectors[i])
+								.getValueAsLong(row)];
+					} else {
+						nextRow[i] = new String(((VarCharVector) selectedVectors[i]).get(row), StandardCharsets.UTF_8);
+					}
+				}
+				consumer.accept(Arrays.asList(nextRow));
+			}
+		}
+	}
+
+	private static String[] readDictionary(final Dictionary dictionary) {
+		final VarCharVector vector = (VarCharVector) dictionary.getVector();
+		final String[] result = new String[vector.getValueCount()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = new String(vector.get(i), StandardCharsets.UTF_8);
+		}
+		return result;
+	}
+
+	private static int columnIndex(final List<String> columns, final String column) {
+		final int result = columns.indexOf(column);
+		if (result < 0) {
+			throw new IllegalArgumentException("Column not found: " + column);
+		}
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			reader.close();
+		} finally {
+			allocator.close();
+		}
+	}
+}
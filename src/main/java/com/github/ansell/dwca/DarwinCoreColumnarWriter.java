@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BaseIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes rows to an Apache Arrow IPC file, which can be read by
+ * {@link DarwinCoreColumnarReader}, or by any other Arrow implementation,
+ * without parsing the other columns.
+ * <p>
+ * Each column is a nullable UTF-8 string column, and empty values are written
+ * as nulls. Columns can be dictionary encoded if all of their values are known
+ * before the file is written, as the Arrow IPC file format only allows one
+ * dictionary for each column in the whole file. Rows are buffered into blocks of a fixed number of rows, and each
+ * block is written as one record batch, so memory use is bounded by the size
+ * of a block. The number of rows, the number of empty values and the minimum
+ * and maximum non-empty values of each column in each block are recorded as
+ * JSON in the footer metadata under {@link #BLOCKS_METADATA_KEY}, so that
+ * blocks can be skipped without reading them.
+ * <p>
+ * Apache Arrow is an optional dependency, and must be on the classpath to use
+ * this class. On Java 9 and later Arrow needs
+ * {@code --add-opens=java.base/java.nio=ALL-UNNAMED} to access direct
+ * buffers.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreColumnarWriter implements Closeable {
+
+	/**
+	 * The file name suffix for columnar files.
+	 */
+	public static final String FILE_SUFFIX = ".arrow";
+
+	/**
+	 * The default number of rows in each block.
+	 */
+	public static final int DEFAULT_BLOCK_ROWS = 1 << 16;
+
+	/**
+	 * The default maximum number of distinct values in a dictionary encoded
+	 * column.
+	 */
+	public static final int DEFAULT_DICTIONARY_LIMIT = 1 << 10;
+
+	/**
+	 * The largest dictionary, so that codes fit in two bytes.
+	 */
+	public static final int MAX_DICTIONARY_LIMIT = Short.MAX_VALUE;
+
+	/**
+	 * The key in the footer metadata for the statistics for each block.
+	 */
+	public static final String BLOCKS_METADATA_KEY = "dwca.blocks";
+
+	private final List<String> columns;
+	private final int blockRows;
+	private final BufferAllocator allocator;
+	private final VectorSchemaRoot root;
+	private final List<FieldVector> vectors;
+	/**
+	 * The code for each value of each dictionary encoded column, or null for
+	 * columns that are not dictionary encoded.
+	 */
+	private final List<Map<String, Integer>> dictionaryCodes;
+	private final DictionaryProvider.MapDictionaryProvider dictionaryProvider;
+	private final int[] rowCodes;
+	private final ArrowFileWriter writer;
+	/**
+	 * The footer metadata, which is only read by the Arrow writer when it is
+	 * ended, so the block statistics can be added after the last block.
+	 */
+	private final Map<String, String> footerMetadata = new HashMap<>();
+	private final StringWriter blocksJson = new StringWriter();
+	private final JsonGenerator blocksGenerator;
+	private final int[] emptyCounts;
+	private final String[] mins;
+	private final String[] maxes;
+	private int blockRowCount;
+	private long rowCount;
+	private boolean closed;
+
+	/**
+	 * Create a writer.
+	 * 
+	 * @param outputPath
+	 *            The file to write, which is replaced if it exists.
+	 * @param columns
+	 *            The names of the columns.
+	 * @param blockRows
+	 *            The number of rows in each block.
+	 * @throws IOException
+	 *             If the file could not be created.
+	 * @throws IllegalArgumentException
+	 *             If there are no columns, or the block size is not valid.
+	 */
+	public DarwinCoreColumnarWriter(final Path outputPath, final List<String> columns, final int blockRows)
+			throws IOException {
+		this(outputPath, columns, blockRows, Collections.emptyMap());
+	}
+
+	/**
+	 * Create a writer with some of the columns dictionary encoded.
+	 * 
+	 * @param outputPath
+	 *            The file to write, which is replaced if it exists.
+	 * @param columns
+	 *            The names of the columns.
+	 * @param blockRows
+	 *            The number of rows in each block.
+	 * @param dictionaries
+	 *            The non-empty values for each column that is to be
+	 *            dictionary encoded, which must include every non-empty value
+	 *            that will be written to that column.
+	 * @throws IOException
+	 *             If the file could not be created.
+	 * @throws IllegalArgumentException
+	 *             If there are no columns, the block size is not valid, or a
+	 *             dictionary is not for one of the columns, is empty or is
+	 *             larger than {@link #MAX_DICTIONARY_LIMIT}.
+	 */
+	public DarwinCoreColumnarWriter(final Path outputPath, final List<String> columns, final int blockRows,
+			final Map<String, ? extends Collection<String>> dictionaries) throws IOException {
+		if (columns.isEmpty()) {
+			throw new IllegalArgumentException("There must be at least one column");
+		}
+		if (blockRows < 1) {
+			throw new IllegalArgumentException("Block rows must be positive: " + blockRows);
+		}
+		this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+		this.blockRows = blockRows;
+		this.emptyCounts = new int[columns.size()];
+		this.mins = new String[columns.size()];
+		this.maxes = new String[columns.size()];
+		for (final Map.Entry<String, ? extends Collection<String>> nextDictionary : dictionaries.entrySet()) {
+			if (!columns.contains(nextDictionary.getKey())) {
+				throw new IllegalArgumentException("Dictionary was not for a column: " + nextDictionary.getKey());
+			}
+			final int size = nextDictionary.getValue().size();
+			if (size < 1 || size > MAX_DICTIONARY_LIMIT) {
+				throw new IllegalArgumentException("Dictionary size must be between 1 and " + MAX_DICTIONARY_LIMIT
+						+ ": " + size + " for " + nextDictionary.getKey());
+			}
+		}
+		this.rowCodes = new int[columns.size()];
+		this.allocator = new RootAllocator();
+		this.dictionaryProvider = new DictionaryProvider.MapDictionaryProvider();
+		VectorSchemaRoot nextRoot = null;
+		FileChannel channel = null;
+		try {
+			final List<Field> fields = new ArrayList<>(columns.size());
+			final List<Map<String, Integer>> nextDictionaryCodes = new ArrayList<>(columns.size());
+			for (final String nextColumn : columns) {
+				final Collection<String> nextValues = dictionaries.get(nextColumn);
+				if (nextValues == null) {
+					fields.add(Field.nullable(nextColumn, ArrowType.Utf8.INSTANCE));
+					nextDictionaryCodes.add(null);
+				} else {
+					final DictionaryEncoding encoding = new DictionaryEncoding(fields.size(), false,
+							new ArrowType.Int(nextValues.size() <= Byte.MAX_VALUE ? 8 : 16, true));
+					final Map<String, Integer> codes = new HashMap<>();
+					final VarCharVector dictionaryVector = new VarCharVector(nextColumn, allocator);
+					dictionaryProvider.put(new Dictionary(dictionaryVector, encoding));
+					dictionaryVector.allocateNew(nextValues.size());
+					for (final String nextValue : nextValues) {
+						if (nextValue == null || nextValue.isEmpty()) {
+							throw new IllegalArgumentException(
+									"Dictionary for " + nextColumn + " contained an empty value");
+						}
+						if (codes.putIfAbsent(nextValue, codes.size()) == null) {
+							dictionaryVector.setSafe(codes.size() - 1, nextValue.getBytes(StandardCharsets.UTF_8));
+						}
+					}
+					dictionaryVector.setValueCount(codes.size());
+					fields.add(new Field(nextColumn, new FieldType(true, encoding.getIndexType(), encoding), null));
+					nextDictionaryCodes.add(codes);
+				}
+			}
+			nextRoot = VectorSchemaRoot.create(new Schema(fields), allocator);
+			final List<FieldVector> nextVectors = new ArrayList<>(columns.size());
+			for (int i = 0; i < columns.size(); i++) {
+				final FieldVector nextVector = nextRoot.getVector(i);
+				if (nextVector instanceof VarCharVector) {
+					((VarCharVector) nextVector).allocateNew(Math.min(blockRows, 1 << 12));
+				} else {
+					nextVector.setInitialCapacity(blockRows);
+					nextVector.allocateNew();
+				}
+				nextVectors.add(nextVector);
+			}
+			channel = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE);
+			this.writer = new ArrowFileWriter(nextRoot, dictionaryProvider, channel, footerMetadata);
+			this.writer.start();
+			this.root = nextRoot;
+			this.vectors = nextVectors;
+			this.dictionaryCodes = nextDictionaryCodes;
+			this.blocksGenerator = new JsonFactory().createGenerator(blocksJson);
+			this.blocksGenerator.writeStartArray();
+		} catch (final IOException | RuntimeException e) {
+			if (channel != null) {
+				channel.close();
+			}
+			if (nextRoot != null) {
+				nextRoot.close();
+			}
+			dictionaryProvider.close();
+			allocator.close();
+			throw e;
+		}
+	}
+
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return The number of rows that have been written.
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Write a row.
+	 * 
+	 * @param row
+	 *            The values for the row, in the same order as the columns.
+	 *            Null values are written as empty values.
+	 * @throws IOException
+	 *             If the row completed a block which could not be written.
+	 * @throws IllegalArgumentException
+	 *             If the row does not have a value for each column, or a
+	 *             value is not in the dictionary for its column.
+	 * @throws IllegalStateException
+	 *             If the writer has been closed.
+	 */
+	public void write(final List<String> row) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Writer has been closed");
+		}
+		if (row.size() != columns.size()) {
+			throw new IllegalArgumentException(
+					"Row size was different to the columns: expected " + columns.size() + ", found " + row.size());
+		}
+		// Look up the dictionary codes before changing the block, so that a
+		// value that is not in a dictionary does not leave a partial row
+		for (int i = 0; i < row.size(); i++) {
+			final String nextValue = row.get(i);
+			final Map<String, Integer> codes = dictionaryCodes.get(i);
+			if (codes != null && nextValue != null && !nextValue.isEmpty()) {
+				final Integer code = codes.get(nextValue);
+				if (code == null) {
+					throw new IllegalArgumentException(
+							"Value was not in the dictionary for " + columns.get(i) + ": " + nextValue);
+				}
+				rowCodes[i] = code;
+			}
+		}
+		for (int i = 0; i < row.size(); i++) {
+			final String nextValue = row.get(i);
+			if (nextValue == null || nextValue.isEmpty()) {
+				vectors.get(i).setNull(blockRowCount);
+				emptyCounts[i]++;
+			} else {
+				if (dictionaryCodes.get(i) != null) {
+					((BaseIntVector) vectors.get(i)).setWithPossibleTruncate(blockRowCount, rowCodes[i]);
+				} else {
+					((VarCharVector) vectors.get(i)).setSafe(blockRowCount, nextValue.getBytes(StandardCharsets.UTF_8));
+				}
+				if (mins[i] == null || nextValue.compareTo(mins[i]) < 0) {
+					mins[i] = nextValue;
+				}
+				if (maxes[i] == null || nextValue.compareTo(maxes[i]) > 0) {
+					maxes[i] = nextValue;
+				}
+			}
+		}
+		blockRowCount++;
+		rowCount++;
+		if (blockRowCount == blockRows) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		for (final FieldVector nextVector : vectors) {
+			nextVector.setValueCount(blockRowCount);
+		}
+		root.setRowCount(blockRowCount);
+		writer.writeBatch();
+
+		blocksGenerator.writeStartObject();
+		blocksGenerator.writeNumberField("rows", blockRowCount);
+		blocksGenerator.writeArrayFieldStart("columns");
+		for (int i = 0; i < columns.size(); i++) {
+			blocksGenerator.writeStartObject();
+			blocksGenerator.writeNumberField("empty", emptyCounts[i]);
+			if (mins[i] != null) {
+				blocksGenerator.writeStringField("min", mins[i]);
+				blocksGenerator.writeStringField("max", maxes[i]);
+			}
+			blocksGenerator.writeEndObject();
+			emptyCounts[i] = 0;
+			mins[i] = null;
+			maxes[i] = null;
+		}
+		blocksGenerator.writeEndArray();
+		blocksGenerator.writeEndObject();
+
+		for (final FieldVector nextVector : vectors) {
+			nextVector.reset();
+		}
+		root.setRowCount(0);
+		blockRowCount = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (blockRowCount > 0) {
+				writeBlock();
+			}
+			blocksGenerator.writeEndArray();
+			blocksGenerator.close();
+			footerMetadata.put(BLOCKS_METADATA_KEY, blocksJson.toString());
+			writer.end();
+		} finally {
+			try {
+				writer.close();
+			} finally {
+				root.close();
+				dictionaryProvider.close();
+				allocator.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,653 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZUtils;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+/**
+ * Opens core and extension files that may be compressed, detecting gzip,
+ * bzip2, xz and zstd files using the magic bytes at the start of the file, so
+ * that compressed files can be parsed without decompressing them to disk
+ * first. Files that do not start with one of the magic byte sequences are
+ * opened as plain text.
+ * <p>
+ * Gzip files made up of independent blocks that record their compressed size,
+ * such as the BGZF files written by bgzip, are decompressed in parallel, with
+ * the blocks returned in order. The other formats can only be decompressed in
+ * order, so they are decompressed on a separate thread, ahead of the parser.
+ * Decompressing xz and zstd files requires the optional xz and zstd-jni
+ * libraries to be on the classpath.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreCompression {
+
+	/**
+	 * The compression formats that can be detected.
+	 */
+	public enum Format {
+		/**
+		 * Not compressed.
+		 */
+		NONE,
+
+		/**
+		 * Gzip, including block gzip files.
+		 */
+		GZIP,
+
+		/**
+		 * Bzip2.
+		 */
+		BZIP2,
+
+		/**
+		 * XZ, which requires the xz library.
+		 */
+		XZ,
+
+		/**
+		 * Zstandard, which requires the zstd-jni library.
+		 */
+		ZSTD
+	}
+
+	/**
+	 * The default number of threads used to decompress block gzip files.
+	 */
+	public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The number of buffers that are decompressed ahead of the reader for
+	 * formats that can only be decompressed in order.
+	 */
+	private static final int READ_AHEAD_BUFFERS = 4;
+
+	/**
+	 * The maximum uncompressed size of a single gzip block. BGZF blocks are at
+	 * most 64KiB, but larger blocks are accepted up to this limit.
+	 */
+	private static final int MAX_BLOCK_SIZE = 1 << 24;
+
+	private static final int GZIP_FLAG_EXTRA = 0x04;
+
+	private static final int GZIP_HEADER_SIZE = 12;
+
+	private static final int GZIP_TRAILER_SIZE = 8;
+
+	/**
+	 * The largest possible gzip header with an extra field and no file name
+	 * or comment.
+	 */
+	private static final int MAX_HEADER_SIZE = GZIP_HEADER_SIZE + 0xffff;
+
+	private static final byte[] GZIP_MAGIC = new byte[] { 0x1f, (byte) 0x8b };
+
+	private static final byte[] BZIP2_MAGIC = new byte[] { 'B', 'Z', 'h' };
+
+	private static final byte[] XZ_MAGIC = new byte[] { (byte) 0xfd, '7', 'z', 'X', 'Z', 0x00 };
+
+	private static final byte[] ZSTD_MAGIC = new byte[] { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd };
+
+	/**
+	 * Private constructor for static only class
+	 */
+	private DarwinCoreCompression() {
+	}
+
+	/**
+	 * Detect the compression format of a file using its magic bytes.
+	 * 
+	 * @param path
+	 *            The path to the file.
+	 * @return The compression format of the file, or {@link Format#NONE} if
+	 *         it is not compressed in one of the supported formats.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public static Format detect(final Path path) throws IOException {
+		final byte[] header = new byte[GZIP_HEADER_SIZE];
+		final int length;
+		try (final InputStream input = Files.newInputStream(path);) {
+			length = readFully(input, header, 0, header.length);
+		}
+		if (startsWith(header, length, GZIP_MAGIC)) {
+			return Format.GZIP;
+		} else if (startsWith(header, length, BZIP2_MAGIC)) {
+			return Format.BZIP2;
+		} else if (startsWith(header, length, XZ_MAGIC)) {
+			return Format.XZ;
+		} else if (startsWith(header, length, ZSTD_MAGIC)) {
+			return Format.ZSTD;
+		}
+		return Format.NONE;
+	}
+
+	/**
+	 * Checks whether a file is a gzip file made up of blocks that record their
+	 * compressed size in the header, such as the BGZF files written by bgzip,
+	 * so it can be decompressed in parallel.
+	 * 
+	 * @param path
+	 *            The path to the file.
+	 * @return True if the first gzip member in the file records its size, and
+	 *         false otherwise.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public static boolean isBlockGzip(final Path path) throws IOException {
+		try (final InputStream input = new BufferedInputStream(Files.newInputStream(path));) {
+			return readBlockHeader(input) > 0;
+		} catch (final EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Open a file, decompressing it as it is read if it is compressed, using
+	 * {@link #DEFAULT_PARALLELISM} threads to decompress block gzip files.
+	 * 
+	 * @param path
+	 *            The path to the file.
+	 * @return An {@link InputStream} containing the uncompressed bytes.
+	 * @throws IOException
+	 *             If the file could not be opened.
+	 * @throws IllegalStateException
+	 *             If the library needed to decompress the file is not
+	 *             available.
+	 */
+	public static InputStream newInputStream(final Path path) throws IOException {
+		return newInputStream(path, DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * Open a file, decompressing it as it is read if it is compressed.
+	 * 
+	 * @param path
+	 *            The path to the file.
+	 * @param parallelism
+	 *            The number of threads to use to decompress block gzip files.
+	 *            If this is 1, all files are decompressed on the thread that
+	 *            reads the stream.
+	 * @return An {@link InputStream} containing the uncompressed bytes.
+	 * @throws IOException
+	 *             If the file could not be opened.
+	 * @throws IllegalStateException
+	 *             If the library needed to decompress the file is not
+	 *             available.
+	 */
+	public static InputStream newInputStream(final Path path, final int parallelism) throws IOException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+		}
+		final Format format = detect(path);
+		if (format == Format.NONE) {
+			return Files.newInputStream(path);
+		}
+		if (format == Format.GZIP && parallelism > 1 && isBlockGzip(path)) {
+			return new BlockGzipInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE),
+					parallelism);
+		}
+		if (format == Format.XZ && !XZUtils.isXZCompressionAvailable()) {
+			throw new IllegalStateException("The xz library is required to read this file: " + path);
+		}
+		if (format == Format.ZSTD && !ZstdUtils.isZstdCompressionAvailable()) {
+			throw new IllegalStateException("The zstd-jni library is required to read this file: " + path);
+		}
+
+		final InputStream input = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+		final InputStream result;
+		try {
+			switch (format) {
+			case GZIP:
+				result = new GZIPInputStream(input, BUFFER_SIZE);
+				break;
+			case BZIP2:
+				result = new BZip2CompressorInputStream(input, true);
+				break;
+			case XZ:
+				result = new XZCompressorInputStream(input, true);
+				break;
+			case ZSTD:
+				result = new ZstdCompressorInputStream(input);
+				break;
+			default:
+				throw new IllegalStateException("Unrecognised compression format: " + format);
+			}
+		} catch (final IOException | RuntimeException e) {
+			input.close();
+			throw e;
+		}
+		return parallelism > 1 ? new ReadAheadInputStream(result, path.getFileName().toString()) : result;
+	}
+
+	/**
+	 * Open a text file, decompressing it as it is read if it is compressed.
+	 * Malformed input for the charset is reported as an error when it is read,
+	 * in the same way as {@link Files#newBufferedReader(Path, Charset)}.
+	 * 
+	 * @param path
+	 *            The path to the file.
+	 * @param charset
+	 *            The charset used to decode the uncompressed bytes.
+	 * @return A {@link BufferedReader} containing the uncompressed text.
+	 * @throws IOException
+	 *             If the file could not be opened.
+	 * @throws IllegalStateException
+	 *             If the library needed to decompress the file is not
+	 *             available.
+	 */
+	public static BufferedReader newBufferedReader(final Path path, final Charset charset) throws IOException {
+		if (detect(path) == Format.NONE) {
+			return Files.newBufferedReader(path, charset);
+		}
+		return new BufferedReader(new InputStreamReader(newInputStream(path), charset.newDecoder()), BUFFER_SIZE);
+	}
+
+	private static boolean startsWith(final byte[] header, final int length, final byte[] magic) {
+		if (length < magic.length) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if (header[i] != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int readFully(final InputStream input, final byte[] buffer, final int offset, final int length)
+			throws IOException {
+		int total = 0;
+		while (total < length) {
+			final int next = input.read(buffer, offset + total, length - total);
+			if (next < 0) {
+				break;
+			}
+			total += next;
+		}
+		return total;
+	}
+
+	/**
+	 * Reads the header of a gzip member, returning the total size of the
+	 * member from the BC extra subfield.
+	 * 
+	 * @param input
+	 *            The stream, positioned at the start of a gzip member.
+	 * @return The total size of the member in bytes, including the header, or
+	 *         -1 if the header does not record the size of the member.
+	 * @throws EOFException
+	 *             If the stream ends before the header.
+	 */
+	private static int readBlockHeader(final InputStream input) throws IOException {
+		final byte[] header = new byte[GZIP_HEADER_SIZE];
+		final int length = readFully(input, header, 0, header.length);
+		if (length < header.length) {
+			throw new EOFException("Truncated gzip header");
+		}
+		// Members with a file name, comment or header checksum do not have the
+		// fixed layout that the block size is relative to
+		if (!startsWith(header, length, GZIP_MAGIC) || header[2] != 8 || header[3] != GZIP_FLAG_EXTRA) {
+			return -1;
+		}
+		final int extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+		final byte[] extra = new byte[extraLength];
+		if (readFully(input, extra, 0, extraLength) < extraLength) {
+			throw new EOFException("Truncated gzip header");
+		}
+		int position = 0;
+		while (position + 4 <= extraLength) {
+			final int subfieldLength = (extra[position + 2] & 0xff) | (extra[position + 3] & 0xff) << 8;
+			if (extra[position] == 'B' && extra[position + 1] == 'C' && subfieldLength == 2
+					&& position + 6 <= extraLength) {
+				return ((extra[position + 4] & 0xff) | (extra[position + 5] & 0xff) << 8) + 1;
+			}
+			position += 4 + subfieldLength;
+		}
+		return -1;
+	}
+
+	/**
+	 * Decompresses a block gzip file, reading the compressed blocks in order
+	 * and inflating them in parallel, while keeping a bounded number of blocks
+	 * in flight.
+	 */
+	private static final class BlockGzipInputStream extends InputStream {
+
+		private final InputStream input;
+		private final ExecutorService executor;
+		private final int maxPending;
+		private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+		private boolean inputFinished;
+		private byte[] current = new byte[0];
+		private int position;
+
+		private BlockGzipInputStream(final InputStream input, final int parallelism) {
+			this.input = input;
+			final AtomicInteger threadCount = new AtomicInteger();
+			this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+				final Thread result = new Thread(r, "dwca-gzip-inflate-" + threadCount.incrementAndGet());
+				result.setDaemon(true);
+				return result;
+			});
+			this.maxPending = parallelism * 2;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return current[position++] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			final int count = Math.min(length, current.length - position);
+			System.arraycopy(current, position, buffer, offset, count);
+			position += count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return current.length - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			executor.shutdownNow();
+			pending.clear();
+			input.close();
+		}
+
+		/**
+		 * Makes sure that the current block has bytes left to read, unless the
+		 * end of the file has been reached.
+		 * 
+		 * @return True if there are bytes left in the current block, and false
+		 *         at the end of the file.
+		 */
+		private boolean fill() throws IOException {
+			while (position >= current.length) {
+				submitBlocks();
+				final Future<byte[]> next = pending.poll();
+				if (next == null) {
+					return false;
+				}
+				try {
+					current = next.get();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while decompressing", e);
+				} catch (final ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw new IOException(e.getCause().getMessage(), e.getCause());
+					}
+					throw new IOException("Failed to decompress block", e.getCause());
+				}
+				position = 0;
+			}
+			return true;
+		}
+
+		private void submitBlocks() throws IOException {
+			while (!inputFinished && pending.size() < maxPending) {
+				input.mark(1);
+				if (input.read() < 0) {
+					inputFinished = true;
+					break;
+				}
+				input.reset();
+				// Read the header twice, once to find the size of the block and
+				// again as part of the block
+				input.mark(MAX_HEADER_SIZE);
+				final int blockSize = readBlockHeader(input);
+				if (blockSize < 0) {
+					throw new IOException("Gzip member does not record its block size");
+				}
+				input.reset();
+				final byte[] block = new byte[blockSize];
+				if (readFully(input, block, 0, blockSize) < blockSize) {
+					throw new EOFException("Truncated gzip block");
+				}
+				pending.add(executor.submit(() -> inflate(block)));
+			}
+		}
+
+		/**
+		 * Inflates a single block, checking the size and CRC from the trailer.
+		 * 
+		 * @param block
+		 *            The complete gzip member, including the header and
+		 *            trailer.
+		 * @return The uncompressed bytes.
+		 */
+		private static byte[] inflate(final byte[] block) throws IOException {
+			final int extraLength = (block[10] & 0xff) | (block[11] & 0xff) << 8;
+			final int dataOffset = GZIP_HEADER_SIZE + extraLength;
+			final int trailerOffset = block.length - GZIP_TRAILER_SIZE;
+			if (trailerOffset < dataOffset) {
+				throw new IOException("Invalid gzip block size: " + block.length);
+			}
+			final long expectedCrc = readInt(block, trailerOffset) & 0xffffffffL;
+			final long expectedSize = readInt(block, trailerOffset + 4) & 0xffffffffL;
+			if (expectedSize > MAX_BLOCK_SIZE) {
+				throw new IOException("Gzip block is too large: " + expectedSize);
+			}
+			final byte[] result = new byte[(int) expectedSize];
+			final Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(block, dataOffset, trailerOffset - dataOffset);
+				int size = 0;
+				while (size < result.length && !inflater.finished()) {
+					final int next = inflater.inflate(result, size, result.length - size);
+					if (next == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					size += next;
+				}
+				if (size != result.length || !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+					throw new IOException("Gzip block size did not match the size in the trailer");
+				}
+			} catch (final DataFormatException e) {
+				throw new IOException("Corrupt gzip block", e);
+			} finally {
+				inflater.end();
+			}
+			final CRC32 crc = new CRC32();
+			crc.update(result, 0, result.length);
+			if (crc.getValue() != expectedCrc) {
+				throw new IOException("Gzip block CRC did not match the CRC in the trailer");
+			}
+			return result;
+		}
+
+		private static int readInt(final byte[] buffer, final int offset) {
+			return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8 | (buffer[offset + 2] & 0xff) << 16
+					| (buffer[offset + 3] & 0xff) << 24;
+		}
+	}
+
+	/**
+	 * Reads a stream on a separate thread into a bounded queue of buffers, so
+	 * that formats that can only be decompressed in order are decompressed
+	 * while the previous buffers are being parsed.
+	 */
+	private static final class ReadAheadInputStream extends InputStream {
+
+		private static final Chunk END = new Chunk(new byte[0], 0, null);
+
+		private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(READ_AHEAD_BUFFERS);
+		private final Thread thread;
+		private volatile boolean closed;
+		private Chunk current = new Chunk(new byte[0], 0, null);
+		private int position;
+
+		private ReadAheadInputStream(final InputStream source, final String name) {
+			this.thread = new Thread(() -> {
+				try (final InputStream input = source;) {
+					while (!closed) {
+						final byte[] buffer = new byte[BUFFER_SIZE];
+						final int length = readFully(input, buffer, 0, buffer.length);
+						if (length > 0) {
+							chunks.put(new Chunk(buffer, length, null));
+						}
+						if (length < buffer.length) {
+							break;
+						}
+					}
+					chunks.put(END);
+				} catch (final InterruptedException e) {
+					// Closed by the reader
+				} catch (final IOException | RuntimeException e) {
+					if (!closed) {
+						try {
+							chunks.put(new Chunk(null, 0, e));
+						} catch (final InterruptedException e1) {
+							// Closed by the reader
+						}
+					}
+				}
+			}, "dwca-decompress-" + name);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return current.buffer[position++] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			final int count = Math.min(length, current.length - position);
+			System.arraycopy(current.buffer, position, buffer, offset, count);
+			position += count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return current.length - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				thread.interrupt();
+				try {
+					thread.join();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				chunks.clear();
+			}
+		}
+
+		private boolean fill() throws IOException {
+			while (position >= current.length) {
+				if (current == END) {
+					return false;
+				}
+				if (closed) {
+					throw new IOException("Stream closed");
+				}
+				try {
+					current = chunks.take();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while decompressing", e);
+				}
+				position = 0;
+				if (current.error != null) {
+					final Exception error = current.error;
+					current = END;
+					throw new IOException(error.getMessage(), error);
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class Chunk {
+		private final byte[] buffer;
+		private final int length;
+		private final Exception error;
+
+		private Chunk(final byte[] buffer, final int length, final Exception error) {
+			this.buffer = buffer;
+			this.length = length;
+			this.error = error;
+		}
+	}
+}
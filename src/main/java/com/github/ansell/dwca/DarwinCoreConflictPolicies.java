@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.util.ServiceLoader;
+
+import org.eclipse.rdf4j.model.vocabulary.DCTERMS;
+
+/**
+ * The built in {@link DarwinCoreConflictPolicy} implementations.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public enum DarwinCoreConflictPolicies implements DarwinCoreConflictPolicy {
+
+	/**
+	 * Take the value from the input archive, falling back to the other input
+	 * archive if it is empty. This is the default policy.
+	 */
+	PREFER_INPUT("prefer-input") {
+		@Override
+		public DarwinCoreConflictResolver compile(final DarwinCoreField mergedField,
+				final DarwinCoreMergeMapping mergeMapping) {
+			return (value, record, otherValue, otherRecord) -> isEmpty(value) ? otherValue : value;
+		}
+	},
+
+	/**
+	 * Take the value from the record with the latest
+	 * <code>dcterms:modified</code> value, falling back to the other record if
+	 * it is empty. Modified values are compared as strings, which orders ISO
+	 * 8601 dates correctly, and the input archive wins ties.
+	 */
+	PREFER_NEWEST("prefer-newest") {
+		@Override
+		public DarwinCoreConflictResolver compile(final DarwinCoreField mergedField,
+				final DarwinCoreMergeMapping mergeMapping) {
+			final int modifiedColumn = mergeMapping.getMergedColumn(MODIFIED_TERM);
+			if (modifiedColumn == DarwinCoreMergeMapping.MISSING) {
+				throw new IllegalStateException("Cannot prefer the newest value for " + mergedField.getTerm()
+						+ " as the merged core does not contain the term: " + MODIFIED_TERM);
+			}
+			return (value, record, otherValue, otherRecord) -> {
+				final String modified = mergeMapping.getMergedValue(record, modifiedColumn);
+				final String otherModified = mergeMapping.getMergedValue(otherRecord, modifiedColumn);
+				final boolean otherIsNewer = !isEmpty(otherModified)
+						&& (isEmpty(modified) || otherModified.compareTo(modified) > 0);
+				if (otherIsNewer) {
+					return isEmpty(otherValue) ? value : otherValue;
+				}
+				return isEmpty(value) ? otherValue : value;
+			};
+		}
+	},
+
+	/**
+	 * Take the first value, checking the input archive before the other input
+	 * archive, that is neither empty nor equal to the default value for the
+	 * field in the merged core.
+	 */
+	PREFER_NON_DEFAULT("prefer-non-default") {
+		@Override
+		public DarwinCoreConflictResolver compile(final DarwinCoreField mergedField,
+				final DarwinCoreMergeMapping mergeMapping) {
+			final String defaultValue = mergedField.getDefault();
+			return (value, record, otherValue, otherRecord) -> {
+				if (!isEmpty(value) && !value.equals(defaultValue)) {
+					return value;
+				}
+				if (!isEmpty(otherValue) && !otherValue.equals(defaultValue)) {
+					return otherValue;
+				}
+				return isEmpty(value) ? otherValue : value;
+			};
+		}
+	},
+
+	/**
+	 * Join the values from both archives using the delimitedBy attribute of
+	 * the field in the merged core. Empty values are skipped, and identical
+	 * values are only included once.
+	 */
+	CONCATENATE("concatenate") {
+		@Override
+		public DarwinCoreConflictResolver compile(final DarwinCoreField mergedField,
+				final DarwinCoreMergeMapping mergeMapping) {
+			final String delimiter = mergedField.getDelimitedBy();
+			if (delimiter == null || delimiter.isEmpty()) {
+				throw new IllegalStateException(
+						"Cannot concatenate values for " + mergedField.getTerm() + " as it does not set delimitedBy");
+			}
+			return (value, record, otherValue, otherRecord) -> {
+				if (isEmpty(value)) {
+					return otherValue;
+				}
+				if (isEmpty(otherValue) || value.equals(otherValue)) {
+					return value;
+				}
+				return value + delimiter + otherValue;
+			};
+		}
+	};
+
+	/**
+	 * The term used by {@link #PREFER_NEWEST} to find the modification date
+	 * for each record.
+	 */
+	public static final String MODIFIED_TERM = DCTERMS.NAMESPACE + "modified";
+
+	private final String name;
+
+	private DarwinCoreConflictPolicies(final String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Find a policy by name, checking the built in policies before those
+	 * registered using {@link ServiceLoader}.
+	 * 
+	 * @param name
+	 *            The name of the policy.
+	 * @return The policy with the given name.
+	 * @throws IllegalArgumentException
+	 *             If there is no policy with the given name.
+	 */
+	public static DarwinCoreConflictPolicy forName(final String name) {
+		for (final DarwinCoreConflictPolicies nextPolicy : values()) {
+			if (nextPolicy.getName().equals(name)) {
+				return nextPolicy;
+			}
+		}
+		for (final DarwinCoreConflictPolicy nextPolicy : ServiceLoader.load(DarwinCoreConflictPolicy.class)) {
+			if (nextPolicy.getName().equals(name)) {
+				return nextPolicy;
+			}
+		}
+		throw new IllegalArgumentException("Could not find a conflict policy named: " + name);
+	}
+
+	private static boolean isEmpty(final String value) {
+		return value == null || value.isEmpty();
+	}
+}
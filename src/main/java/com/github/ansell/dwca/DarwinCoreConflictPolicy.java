@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+/**
+ * A named strategy for resolving conflicts between values for the same term
+ * when merging records with the same id.
+ * <p>
+ * Custom policies can be registered using {@link java.util.ServiceLoader} and
+ * are then found by name using
+ * {@link DarwinCoreConflictPolicies#forName(String)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public interface DarwinCoreConflictPolicy {
+
+	/**
+	 * @return The name used to select this policy, for example on the command
+	 *         line.
+	 */
+	String getName();
+
+	/**
+	 * Create the resolver for a single column in the merged output. This is
+	 * called once for each column that uses this policy before any records are
+	 * merged.
+	 * 
+	 * @param mergedField
+	 *            The field in the merged core.
+	 * @param mergeMapping
+	 *            The mapping for the merged core, which can be used to locate
+	 *            other columns that this policy depends on.
+	 * @return A resolver for the column.
+	 * @throws IllegalStateException
+	 *             If this policy cannot be used for the given field.
+	 */
+	DarwinCoreConflictResolver compile(DarwinCoreField mergedField, DarwinCoreMergeMapping mergeMapping);
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+/**
+ * Chooses the merged value for a single output column when records with the
+ * same id are found in both archives being merged.
+ * <p>
+ * Resolvers are created once per merge by a {@link DarwinCoreConflictPolicy}
+ * and then called for every matching pair of records, so they should do any
+ * term lookups when they are created rather than in
+ * {@link #resolve(String, DarwinCoreRecord, String, DarwinCoreRecord)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@FunctionalInterface
+public interface DarwinCoreConflictResolver {
+
+	/**
+	 * Choose the merged value for this column.
+	 * 
+	 * @param value
+	 *            The value from the input record, or null if the input archive
+	 *            does not contain this field.
+	 * @param record
+	 *            The record from the input archive.
+	 * @param otherValue
+	 *            The value from the other input record, or null if the other
+	 *            input archive does not contain this field.
+	 * @param otherRecord
+	 *            The record with the same id from the other input archive.
+	 * @return The merged value, or null to leave the default value for the
+	 *         column in place.
+	 */
+	String resolve(String value, DarwinCoreRecord record, String otherValue, DarwinCoreRecord otherRecord);
+}
@@ -28,6 +28,7 @@ package com.github.ansell.dwca;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -320,6 +321,19 @@ public class DarwinCoreCoreOrExtension implements ConstraintChecked {
 		this.files = files;
 	}
 
+	/**
+	 * Find the data file for this core or extension, which is located relative
+	 * to the metadata file.
+	 * 
+	 * @param metadataPath
+	 *            The path to the metadata file for the archive.
+	 * @return The normalised absolute path to the data file.
+	 */
+	public Path getDataPath(Path metadataPath) {
+		// TODO: Only support a single file currently
+		return metadataPath.resolveSibling(getFiles().getLocations().get(0)).normalize().toAbsolutePath();
+	}
+
 	public List<DarwinCoreField> getFields() {
 		if (this.fields.isEmpty()) {
 			throw new IllegalStateException("No fields present");
@@ -363,7 +377,10 @@ public class DarwinCoreCoreOrExtension implements ConstraintChecked {
 		}
 		writer.writeAttribute(DarwinCoreArchiveConstants.ROW_TYPE, this.getRowType());
 		if (showDefaults || this.getFieldsTerminatedBy() != DEFAULT_FIELDS_TERMINATED_BY) {
-			writer.writeAttribute(DarwinCoreArchiveConstants.FIELDS_TERMINATED_BY, this.getFieldsTerminatedBy());
+			// Tabs in attributes are normalised to spaces by XML parsers, so
+			// they are escaped in the form that setFieldsTerminatedBy reads
+			writer.writeAttribute(DarwinCoreArchiveConstants.FIELDS_TERMINATED_BY,
+					this.getFieldsTerminatedBy().replace("\t", "\\t").replace("\b", "\\b"));
 		}
 		if (showDefaults || this.getLinesTerminatedBy() != DEFAULT_LINES_TERMINATED_BY) {
 			writer.writeAttribute(DarwinCoreArchiveConstants.LINES_TERMINATED_BY,
@@ -0,0 +1,978 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.VFS;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * A long running server that accepts check, generate and merge jobs over HTTP
+ * on the loopback interface, so that many small jobs do not each pay for JVM
+ * startup, class loading and vocabulary parsing.
+ * <p>
+ * Every request must have an {@code Authorization: Bearer <token>} header with
+ * the token for the daemon, so that other users on the same machine cannot
+ * run jobs as the user running the daemon. The token is generated when the
+ * daemon starts, and the command line daemon writes it to a file that only
+ * its user can read.
+ * <p>
+ * Jobs are submitted by posting the command line arguments for
+ * {@link DarwinCoreArchiveChecker}, {@link DarwinCoreMetadataGenerator} or
+ * {@link DarwinCoreArchiveMerger}, one argument per line, to /jobs/check,
+ * /jobs/generate or /jobs/merge. The response contains the id of the job,
+ * which can be polled using GET /jobs/{id} and cancelled using DELETE
+ * /jobs/{id}. Jobs are run by a fixed number of threads, with a bounded queue,
+ * and jobs that are submitted when the queue is full are rejected with a 503
+ * response.
+ * <p>
+ * Jobs run in the same JVM, so console output is captured for each job by
+ * replacing {@link System#out} and {@link System#err} with streams that send
+ * output from the thread running a job, and from threads that it starts, to
+ * that job. The output, including the findings of check jobs, is returned in
+ * the status of the job, up to a maximum size. Output from other threads is
+ * written to the console of the daemon. The runtime metrics and run report that are enabled
+ * by the --metrics, --metrics-log-seconds and --report options of the tools
+ * are shared by the whole JVM, so a job that uses any of them waits for the
+ * other running jobs to finish, and runs by itself, while still counting as
+ * running. Each job uses its own temporary directory and sorter settings.
+ * <p>
+ * Cancelling a running job interrupts it, which stops any archive parsing and
+ * sorting that it started in other threads before the job finishes.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreDaemon implements Closeable {
+
+	/**
+	 * The default port to listen on.
+	 */
+	public static final int DEFAULT_PORT = 8765;
+
+	/**
+	 * The default number of jobs that are run at the same time.
+	 */
+	public static final int DEFAULT_MAX_JOBS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The default number of jobs that can be waiting to run.
+	 */
+	public static final int DEFAULT_MAX_QUEUED_JOBS = 64;
+
+	/**
+	 * The default number of finished jobs that are remembered for status
+	 * requests.
+	 */
+	public static final int DEFAULT_JOB_HISTORY = 1000;
+
+	/**
+	 * The default maximum number of bytes of console output that are kept for
+	 * each job.
+	 */
+	public static final int DEFAULT_MAX_JOB_OUTPUT = 1 << 18;
+
+	/**
+	 * The default file that the command line daemon writes its token to.
+	 */
+	public static final Path DEFAULT_TOKEN_FILE = Paths.get(System.getProperty("user.home"), ".dwca-daemon-token");
+
+	/**
+	 * The console output of the job running on the current thread, which is
+	 * inherited by threads that the job starts.
+	 */
+	private static final InheritableThreadLocal<JobOutput> CURRENT_OUTPUT = new InheritableThreadLocal<>();
+
+	/**
+	 * The options of the tools that change state shared by the whole JVM.
+	 */
+	private static final List<String> GLOBAL_STATE_OPTIONS = Collections
+			.unmodifiableList(Arrays.asList("metrics", "metrics-log-seconds", "report"));
+
+	/**
+	 * The tools that jobs can run.
+	 */
+	public enum Tool {
+
+		/**
+		 * Run {@link DarwinCoreArchiveChecker#main(String...)}.
+		 */
+		CHECK {
+			@Override
+			void run(final String... args) throws Exception {
+				DarwinCoreArchiveChecker.main(args);
+			}
+		},
+
+		/**
+		 * Run {@link DarwinCoreMetadataGenerator#main(String...)}.
+		 */
+		GENERATE {
+			@Override
+			void run(final String... args) throws Exception {
+				DarwinCoreMetadataGenerator.main(args);
+			}
+		},
+
+		/**
+		 * Run {@link DarwinCoreArchiveMerger#main(String...)}.
+		 */
+		MERGE {
+			@Override
+			void run(final String... args) throws Exception {
+				DarwinCoreArchiveMerger.main(args);
+			}
+		};
+
+		abstract void run(String... args) throws Exception;
+
+		/**
+		 * @return The name of the tool as it is used in the job URLs.
+		 */
+		public String getName() {
+			return name().toLowerCase(Locale.ENGLISH);
+		}
+
+		/**
+		 * @param name
+		 *            The name of the tool as it is used in the job URLs.
+		 * @return The tool with the given name.
+		 * @throws IllegalArgumentException
+		 *             If there is no tool with the given name.
+		 */
+		public static Tool forName(final String name) {
+			for (final Tool nextTool : values()) {
+				if (nextTool.getName().equals(name)) {
+					return nextTool;
+				}
+			}
+			throw new IllegalArgumentException("Unknown tool: " + name);
+		}
+	}
+
+	/**
+	 * The states that a job moves through. Each job starts as
+	 * {@link #QUEUED}, and finishes as one of {@link #SUCCEEDED},
+	 * {@link #FAILED} or {@link #CANCELLED}.
+	 */
+	public enum JobStatus {
+		QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+		/**
+		 * @return True if a job with this status will not change status again.
+		 */
+		public boolean isFinished() {
+			return this != QUEUED && this != RUNNING;
+		}
+	}
+
+	/**
+	 * The console output of a job, which is truncated at a maximum size.
+	 */
+	private static final class JobOutput {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final int maxBytes;
+		private boolean truncated;
+		private boolean closed;
+
+		private JobOutput(final int maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		/**
+		 * @return False if the job has finished, so the output belongs on the
+		 *         console of the daemon.
+		 */
+		private synchronized boolean write(final byte[] b, final int off, final int len) {
+			if (closed) {
+				return false;
+			}
+			final int kept = Math.min(len, maxBytes - bytes.size());
+			bytes.write(b, off, kept);
+			truncated |= kept < len;
+			return true;
+		}
+
+		private synchronized void close() {
+			closed = true;
+		}
+
+		private synchronized String getText() {
+			return new String(bytes.toByteArray(), Charset.defaultCharset());
+		}
+
+		private synchronized boolean isTruncated() {
+			return truncated;
+		}
+	}
+
+	/**
+	 * Sends console output to the job running on the current thread, or to
+	 * the console if there is no job.
+	 */
+	private static final class JobOutputStream extends OutputStream {
+
+		private final PrintStream console;
+
+		private JobOutputStream(final PrintStream console) {
+			this.console = console;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			final JobOutput output = CURRENT_OUTPUT.get();
+			if (output == null || !output.write(b, off, len)) {
+				console.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			console.flush();
+		}
+	}
+
+	/**
+	 * A job that has been accepted by the daemon.
+	 */
+	public static final class Job {
+
+		private final String id;
+		private final Tool tool;
+		private final List<String> args;
+		private final AtomicReference<JobStatus> status = new AtomicReference<>(JobStatus.QUEUED);
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private final Semaphore admitted;
+		private final ReadWriteLock globalState;
+		private final JobOutput output;
+		private volatile String error;
+		private volatile Future<?> future;
+
+		private Job(final String id, final Tool tool, final List<String> args, final Semaphore admitted,
+				final ReadWriteLock globalState, final int maxOutput) {
+			this.id = id;
+			this.admitted = admitted;
+			this.globalState = globalState;
+			this.output = new JobOutput(maxOutput);
+			this.tool = tool;
+			this.args = Collections.unmodifiableList(new ArrayList<>(args));
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public Tool getTool() {
+			return tool;
+		}
+
+		public List<String> getArgs() {
+			return args;
+		}
+
+		public JobStatus getStatus() {
+			return status.get();
+		}
+
+		/**
+		 * @return The message for the exception that caused the job to fail,
+		 *         or null if it did not fail.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * @return The console output of the job so far, including the findings
+		 *         of check jobs.
+		 */
+		public String getOutput() {
+			return output.getText();
+		}
+
+		/**
+		 * @return True if some of the console output of the job was not kept
+		 *         because it was larger than the maximum size.
+		 */
+		public boolean isOutputTruncated() {
+			return output.isTruncated();
+		}
+
+		/**
+		 * Wait for the job to finish.
+		 * 
+		 * @param timeout
+		 *            The maximum time to wait.
+		 * @param unit
+		 *            The unit for the timeout.
+		 * @return True if the job finished, and false if the timeout expired.
+		 * @throws InterruptedException
+		 *             If the thread was interrupted while waiting.
+		 */
+		public boolean await(final long timeout, final TimeUnit unit) throws InterruptedException {
+			return finished.await(timeout, unit);
+		}
+
+		private void run() {
+			if (!status.compareAndSet(JobStatus.QUEUED, JobStatus.RUNNING)) {
+				return;
+			}
+			JobStatus result = JobStatus.SUCCEEDED;
+			CURRENT_OUTPUT.set(output);
+			try {
+				final Lock lock = changesGlobalState(args) ? globalState.writeLock() : globalState.readLock();
+				lock.lockInterruptibly();
+				try {
+					tool.run(args.toArray(new String[args.size()]));
+				} finally {
+					lock.unlock();
+				}
+			} catch (final Throwable e) {
+				error = e.getClass().getName() + ": " + e.getMessage();
+				result = JobStatus.FAILED;
+			} finally {
+				System.out.flush();
+				System.err.flush();
+				output.close();
+				CURRENT_OUTPUT.remove();
+				// A job that was cancelled while running stays cancelled
+				status.compareAndSet(JobStatus.RUNNING, result);
+				// Clear any interrupt from cancellation before the thread is
+				// reused for the next job
+				Thread.interrupted();
+				// Make room for another job before anyone waiting for this
+				// job is told that it has finished
+				admitted.release();
+				finished.countDown();
+			}
+		}
+
+		private boolean cancel() {
+			if (status.compareAndSet(JobStatus.QUEUED, JobStatus.CANCELLED)) {
+				future.cancel(false);
+				output.close();
+				admitted.release();
+				finished.countDown();
+				return true;
+			}
+			if (status.compareAndSet(JobStatus.RUNNING, JobStatus.CANCELLED)) {
+				// Reading files through NIO channels fails as soon as the
+				// thread is interrupted
+				future.cancel(true);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private final HttpServer server;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Semaphore admitted;
+
+	// Fair, so that jobs that change global state are not starved by a stream
+	// of other jobs
+	private final ReadWriteLock globalState = new ReentrantReadWriteLock(true);
+
+	private final int jobHistory;
+
+	private final int maxJobOutput;
+
+	private final byte[] token;
+
+	private final Map<String, Job> jobs = new LinkedHashMap<>();
+
+	private final AtomicLong nextJobId = new AtomicLong();
+
+	/**
+	 * Create a daemon that listens on the loopback interface, with a new
+	 * random token. It does not accept requests until {@link #start()} is
+	 * called.
+	 * 
+	 * @param port
+	 *            The port to listen on, or 0 to choose a free port.
+	 * @param maxJobs
+	 *            The number of jobs to run at the same time.
+	 * @param maxQueuedJobs
+	 *            The number of jobs that can be waiting to run, before new jobs
+	 *            are rejected.
+	 * @param jobHistory
+	 *            The number of finished jobs to remember for status requests.
+	 * @throws IOException
+	 *             If the port could not be bound.
+	 * @throws IllegalArgumentException
+	 *             If any of the limits are not valid.
+	 */
+	public DarwinCoreDaemon(final int port, final int maxJobs, final int maxQueuedJobs, final int jobHistory)
+			throws IOException {
+		this(port, maxJobs, maxQueuedJobs, jobHistory, DEFAULT_MAX_JOB_OUTPUT, generateToken());
+	}
+
+	/**
+	 * Create a daemon that listens on the loopback interface. It does not
+	 * accept requests until {@link #start()} is called.
+	 * 
+	 * @param port
+	 *            The port to listen on, or 0 to choose a free port.
+	 * @param maxJobs
+	 *            The number of jobs to run at the same time.
+	 * @param maxQueuedJobs
+	 *            The number of jobs that can be waiting to run, before new jobs
+	 *            are rejected.
+	 * @param jobHistory
+	 *            The number of finished jobs to remember for status requests.
+	 * @param maxJobOutput
+	 *            The maximum number of bytes of console output to keep for
+	 *            each job.
+	 * @param token
+	 *            The token that every request must have.
+	 * @throws IOException
+	 *             If the port could not be bound.
+	 * @throws IllegalArgumentException
+	 *             If any of the limits are not valid, or the token is empty.
+	 */
+	public DarwinCoreDaemon(final int port, final int maxJobs, final int maxQueuedJobs, final int jobHistory,
+			final int maxJobOutput, final String token) throws IOException {
+		if (maxJobs < 1) {
+			throw new IllegalArgumentException("Maximum jobs must be positive: " + maxJobs);
+		}
+		if (maxQueuedJobs < 0) {
+			throw new IllegalArgumentException("Maximum queued jobs cannot be negative: " + maxQueuedJobs);
+		}
+		if (jobHistory < 0) {
+			throw new IllegalArgumentException("Job history cannot be negative: " + jobHistory);
+		}
+		if (maxJobOutput < 0) {
+			throw new IllegalArgumentException("Maximum job output cannot be negative: " + maxJobOutput);
+		}
+		if (token.isEmpty()) {
+			throw new IllegalArgumentException("Token cannot be empty");
+		}
+		this.jobHistory = jobHistory;
+		this.maxJobOutput = maxJobOutput;
+		this.token = token.getBytes(StandardCharsets.UTF_8);
+		captureConsoleOutput();
+		// Jobs are admitted here rather than by bounding the executor queue,
+		// which would reject jobs until a thread that has finished a job gets
+		// back to the queue
+		this.admitted = new Semaphore(maxJobs + maxQueuedJobs);
+		final AtomicInteger threadCount = new AtomicInteger();
+		final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+		this.executor = new ThreadPoolExecutor(maxJobs, maxJobs, 0L, TimeUnit.MILLISECONDS, queue, r -> {
+			final Thread result = new Thread(r, "dwca-daemon-job-" + threadCount.incrementAndGet());
+			result.setDaemon(true);
+			return result;
+		});
+		// Keep the job threads warm for the life of the daemon
+		this.executor.prestartAllCoreThreads();
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.createContext("/jobs", this::handleJobs);
+		this.server.createContext("/health", this::handleHealth);
+	}
+
+	public static void main(String... args) throws Exception {
+		final OptionParser parser = new OptionParser();
+
+		final OptionSpec<Void> help = parser.accepts("help").forHelp();
+		final OptionSpec<Integer> portOption = parser.accepts("port").withRequiredArg().ofType(Integer.class)
+				.defaultsTo(DEFAULT_PORT).describedAs("The port to listen on, on the loopback interface.");
+		final OptionSpec<Integer> maxJobsOption = parser.accepts("max-jobs").withRequiredArg().ofType(Integer.class)
+				.defaultsTo(DEFAULT_MAX_JOBS).describedAs("The number of jobs to run at the same time.");
+		final OptionSpec<Integer> maxQueuedJobsOption = parser.accepts("max-queued-jobs").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(DEFAULT_MAX_QUEUED_JOBS)
+				.describedAs("The number of jobs that can be waiting to run before new jobs are rejected.");
+		final OptionSpec<Integer> jobHistoryOption = parser.accepts("job-history").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(DEFAULT_JOB_HISTORY)
+				.describedAs("The number of finished jobs to remember for status requests.");
+		final OptionSpec<Integer> maxJobOutputOption = parser.accepts("max-job-output").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(DEFAULT_MAX_JOB_OUTPUT)
+				.describedAs("The maximum number of bytes of console output to keep for each job.");
+		final OptionSpec<File> tokenFileOption = parser.accepts("token-file").withRequiredArg().ofType(File.class)
+				.defaultsTo(DEFAULT_TOKEN_FILE.toFile()).describedAs(
+						"The file to write the token to, which must be sent in an \"Authorization: Bearer\" header with each request.");
+		final OptionSpec<Boolean> warmUpOption = parser.accepts("warm-up").withRequiredArg().ofType(Boolean.class)
+				.defaultsTo(Boolean.TRUE)
+				.describedAs("Set to false to not load the vocabularies and check a small archive before listening.");
+
+		OptionSet options = null;
+
+		try {
+			options = parser.parse(args);
+		} catch (final OptionException e) {
+			System.out.println(e.getMessage());
+			parser.printHelpOn(System.out);
+			throw e;
+		}
+
+		if (options.has(help)) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+
+		if (warmUpOption.value(options)) {
+			warmUp();
+		}
+
+		final String token = generateToken();
+		final Path tokenFile = tokenFileOption.value(options).toPath().toAbsolutePath().normalize();
+		final DarwinCoreDaemon daemon = new DarwinCoreDaemon(portOption.value(options),
+				maxJobsOption.value(options), maxQueuedJobsOption.value(options), jobHistoryOption.value(options),
+				maxJobOutputOption.value(options), token);
+		writeTokenFile(tokenFile, token);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			daemon.close();
+			FileUtils.deleteQuietly(tokenFile.toFile());
+		}, "dwca-daemon-shutdown"));
+		daemon.start();
+		System.out.println("Token written to: " + tokenFile);
+		System.out.println("Listening on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+				+ daemon.getPort() + "/");
+	}
+
+	/**
+	 * @return A new random token, with 256 bits from a {@link SecureRandom}.
+	 */
+	public static String generateToken() {
+		final byte[] result = new byte[32];
+		new SecureRandom().nextBytes(result);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(result);
+	}
+
+	/**
+	 * Write a token to a file that only the current user can read or write,
+	 * replacing the file if it exists. On file systems without POSIX
+	 * permissions the file is created with the default permissions.
+	 * 
+	 * @param tokenFile
+	 *            The file to write.
+	 * @param token
+	 *            The token.
+	 * @throws IOException
+	 *             If the file could not be written.
+	 */
+	public static void writeTokenFile(final Path tokenFile, final String token) throws IOException {
+		final Path parent = tokenFile.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		// Create a new file rather than changing the permissions of an
+		// existing file, so the token is never readable by other users
+		Files.deleteIfExists(tokenFile);
+		if (tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(tokenFile, PosixFilePermissions
+					.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+		} else {
+			Files.createFile(tokenFile);
+		}
+		Files.write(tokenFile, token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Replace {@link System#out} and {@link System#err}, unless they have
+	 * already been replaced, so that console output from jobs can be captured.
+	 */
+	private static synchronized void captureConsoleOutput() {
+		try {
+			if (!(System.out instanceof JobPrintStream)) {
+				System.setOut(new JobPrintStream(System.out));
+			}
+			if (!(System.err instanceof JobPrintStream)) {
+				System.setErr(new JobPrintStream(System.err));
+			}
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException("Default charset was not supported", e);
+		}
+	}
+
+	private static final class JobPrintStream extends PrintStream {
+
+		private JobPrintStream(final PrintStream console) throws UnsupportedEncodingException {
+			super(new JobOutputStream(console), true, Charset.defaultCharset().name());
+		}
+	}
+
+	/**
+	 * Load the vocabularies, the VFS manager and the classes used to check an
+	 * archive, by generating and checking a small archive, so that the first
+	 * jobs do not pay for them.
+	 * 
+	 * @throws Exception
+	 *             If the warm up check fails.
+	 */
+	public static void warmUp() throws Exception {
+		DarwinCoreMetadataGenerator.getCachedDefaultVocabularies();
+		VFS.getManager();
+		final Path warmUpDir = Files.createTempDirectory("dwca-daemon-warm-up-");
+		try {
+			final DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+			generator.setCoreRows(100);
+			generator.setExtensionCount(1);
+			generator.generate(warmUpDir.resolve("archive"));
+			DarwinCoreArchiveChecker.main("--input", warmUpDir.resolve("archive")
+					.resolve(DarwinCoreArchiveChecker.META_XML).toString(), "--temp-dir", warmUpDir.toString());
+		} finally {
+			FileUtils.deleteQuietly(warmUpDir.toFile());
+		}
+	}
+
+	/**
+	 * Start accepting requests.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * @return The token that every request must have.
+	 */
+	public String getToken() {
+		return new String(token, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The port that the daemon is listening on.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Submit a job.
+	 * 
+	 * @param tool
+	 *            The tool to run.
+	 * @param args
+	 *            The command line arguments for the tool.
+	 * @return The job, which has been queued.
+	 * @throws RejectedExecutionException
+	 *             If the maximum number of jobs are already waiting to run, or
+	 *             the daemon has been closed.
+	 */
+	public Job submit(final Tool tool, final List<String> args) {
+		if (!admitted.tryAcquire()) {
+			throw new RejectedExecutionException("Too many jobs are waiting to run");
+		}
+		final Job result = new Job(Long.toString(nextJobId.incrementAndGet()), tool, args, admitted,
+				globalState, maxJobOutput);
+		synchronized (jobs) {
+			try {
+				result.future = executor.submit(result::run);
+			} catch (final RejectedExecutionException e) {
+				admitted.release();
+				throw e;
+			}
+			jobs.put(result.getId(), result);
+			pruneJobs();
+		}
+		return result;
+	}
+
+	/**
+	 * @param id
+	 *            The id of a job.
+	 * @return The job with the given id, or null if there is no job with that
+	 *         id, or it has finished and been forgotten.
+	 */
+	public Job getJob(final String id) {
+		synchronized (jobs) {
+			return jobs.get(id);
+		}
+	}
+
+	/**
+	 * Cancel a job. A queued job is not run, and a running job is interrupted.
+	 * 
+	 * @param id
+	 *            The id of a job.
+	 * @return The job, or null if there is no job with that id.
+	 */
+	public Job cancel(final String id) {
+		final Job result = getJob(id);
+		if (result != null) {
+			result.cancel();
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of jobs that are running.
+	 */
+	public int getRunningJobs() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return The number of jobs that are waiting to run.
+	 */
+	public int getQueuedJobs() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Check whether the arguments for a job use any of the options that change
+	 * state shared by the whole JVM, including unambiguous abbreviations of
+	 * them.
+	 * 
+	 * @param args
+	 *            The command line arguments for a job.
+	 * @return True if the job must run by itself.
+	 */
+	static boolean changesGlobalState(final List<String> args) {
+		for (final String nextArg : args) {
+			if (!nextArg.startsWith("-")) {
+				continue;
+			}
+			String name = nextArg.startsWith("--") ? nextArg.substring(2) : nextArg.substring(1);
+			final int separator = name.indexOf('=');
+			if (separator >= 0) {
+				name = name.substring(0, separator);
+			}
+			if (name.isEmpty()) {
+				continue;
+			}
+			for (final String nextOption : GLOBAL_STATE_OPTIONS) {
+				if (nextOption.startsWith(name)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void pruneJobs() {
+		int finishedCount = 0;
+		for (final Job nextJob : jobs.values()) {
+			if (nextJob.getStatus().isFinished()) {
+				finishedCount++;
+			}
+		}
+		final Iterator<Job> iterator = jobs.values().iterator();
+		while (finishedCount > jobHistory && iterator.hasNext()) {
+			if (iterator.next().getStatus().isFinished()) {
+				iterator.remove();
+				finishedCount--;
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting requests and cancel all of the jobs that have not
+	 * finished.
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdown();
+		synchronized (jobs) {
+			for (final Job nextJob : jobs.values()) {
+				nextJob.cancel();
+			}
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Check the token for a request, sending a 401 response if it is missing
+	 * or wrong.
+	 * 
+	 * @return True if the request has the token.
+	 */
+	private boolean authorised(final HttpExchange exchange) throws IOException {
+		final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		// Compare in constant time so the token cannot be found by timing
+		if (authorization != null && authorization.startsWith("Bearer ") && MessageDigest.isEqual(token,
+				authorization.substring("Bearer ".length()).trim().getBytes(StandardCharsets.UTF_8))) {
+			return true;
+		}
+		exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+		sendError(exchange, 401, "Missing or invalid token");
+		return false;
+	}
+
+	private void handleJobs(final HttpExchange exchange) throws IOException {
+		try {
+			if (!authorised(exchange)) {
+				return;
+			}
+			final String path = exchange.getRequestURI().getPath();
+			final String name = path.startsWith("/jobs/") ? path.substring("/jobs/".length()) : "";
+			final String method = exchange.getRequestMethod();
+			if (name.isEmpty() || name.contains("/")) {
+				sendError(exchange, 404, "Not found: " + path);
+			} else if ("POST".equals(method)) {
+				final Tool tool;
+				try {
+					tool = Tool.forName(name);
+				} catch (final IllegalArgumentException e) {
+					sendError(exchange, 404, e.getMessage());
+					return;
+				}
+				final List<String> jobArgs = new ArrayList<>();
+				for (final String nextLine : IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8)
+						.split("\r?\n")) {
+					if (!nextLine.isEmpty()) {
+						jobArgs.add(nextLine);
+					}
+				}
+				try {
+					sendJob(exchange, 202, submit(tool, jobArgs));
+				} catch (final RejectedExecutionException e) {
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					sendError(exchange, 503, "Too many jobs are queued");
+				}
+			} else if ("GET".equals(method) || "DELETE".equals(method)) {
+				final Job job = "GET".equals(method) ? getJob(name) : cancel(name);
+				if (job == null) {
+					sendError(exchange, 404, "Unknown job: " + name);
+				} else {
+					sendJob(exchange, 200, job);
+				}
+			} else {
+				sendError(exchange, 405, "Method not allowed: " + method);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleHealth(final HttpExchange exchange) throws IOException {
+		try {
+			if (!authorised(exchange)) {
+				return;
+			}
+			final StringWriter result = new StringWriter();
+			try (final JsonGenerator generator = new JsonFactory().createGenerator(result);) {
+				generator.writeStartObject();
+				generator.writeStringField("status", "ok");
+				generator.writeNumberField("running", getRunningJobs());
+				generator.writeNumberField("queued", getQueuedJobs());
+				generator.writeEndObject();
+			}
+			send(exchange, 200, result.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void sendJob(final HttpExchange exchange, final int status, final Job job) throws IOException {
+		final StringWriter result = new StringWriter();
+		try (final JsonGenerator generator = new JsonFactory().createGenerator(result);) {
+			generator.writeStartObject();
+			generator.writeStringField("id", job.getId());
+			generator.writeStringField("tool", job.getTool().getName());
+			generator.writeStringField("status", job.getStatus().name());
+			if (job.getError() != null) {
+				generator.writeStringField("error", job.getError());
+			}
+			generator.writeStringField("output", job.getOutput());
+			if (job.isOutputTruncated()) {
+				generator.writeBooleanField("outputTruncated", true);
+			}
+			generator.writeEndObject();
+		}
+		send(exchange, status, result.toString());
+	}
+
+	private static void sendError(final HttpExchange exchange, final int status, final String message)
+			throws IOException {
+		final StringWriter result = new StringWriter();
+		try (final JsonGenerator generator = new JsonFactory().createGenerator(result);) {
+			generator.writeStartObject();
+			generator.writeStringField("error", message);
+			generator.writeEndObject();
+		}
+		send(exchange, status, result.toString());
+	}
+
+	private static void send(final HttpExchange exchange, final int status, final String json) throws IOException {
+		final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (final OutputStream output = exchange.getResponseBody();) {
+			output.write(body);
+		}
+	}
+}
@@ -0,0 +1,622 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.github.ansell.csv.stream.CSVStream;
+
+/**
+ * An external merge sorter for the CSV files in Darwin Core Archives.
+ * <p>
+ * Rows are read into runs that fit within a share of the memory budget. Each
+ * full run is sorted and spilled to a compressed temporary file on a bounded
+ * pool of threads while the next run is being read. The spilled runs are then
+ * merged using large read-ahead buffers for each run. The number of runs merged
+ * at once is limited by the memory budget and the number of open files, so if
+ * there are more runs than that, groups of runs are first merged into longer
+ * runs, in as many passes as needed, before the final k-way merge. Inputs that
+ * fit in a single run are sorted in memory without spilling.
+ * <p>
+ * The key columns for each row are encoded once into a
+ * {@link DarwinCoreSortKey}, and rows are ordered by comparing the keys as
+ * unsigned bytes, which is the same order used by the merger. The keys are
+ * stored in the spill files so they are not encoded again while merging. The
+ * sort is stable, so rows with equal keys keep their original order.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreExternalSorter {
+
+	/**
+	 * The default memory budget, a quarter of the maximum heap size.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+	/**
+	 * The default number of runs to sort and spill concurrently.
+	 */
+	public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The default size of the read-ahead buffer for each run during the merge.
+	 */
+	public static final int DEFAULT_READ_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The smallest run size, to avoid creating very large numbers of spill
+	 * files when the memory budget is small.
+	 */
+	private static final long MINIMUM_RUN_BUDGET = 1L << 16;
+
+	/**
+	 * The size of the buffers used for compressing and decompressing spill
+	 * files.
+	 */
+	private static final int SPILL_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The approximate heap used by each run while it is being merged, in
+	 * addition to its read-ahead buffer, for the decompression buffer and the
+	 * inflater window.
+	 */
+	private static final int RUN_MERGE_OVERHEAD = SPILL_BUFFER_SIZE + (1 << 15);
+
+	/**
+	 * The largest number of runs to merge at once, to limit the number of open
+	 * files.
+	 */
+	private static final int MAXIMUM_FAN_IN = 512;
+
+	/**
+	 * The number of seconds to wait for spill threads to stop when a sort
+	 * fails or is interrupted.
+	 */
+	private static final long SPILL_TERMINATION_SECONDS = 10;
+
+	private static final DarwinCoreExternalSorter DEFAULT_SORTER = new DarwinCoreExternalSorter(
+			DEFAULT_MEMORY_BUDGET, DEFAULT_PARALLELISM, null, DEFAULT_READ_BUFFER_SIZE);
+
+	private final long memoryBudget;
+	private final int parallelism;
+	private final Path tempDir;
+	private final int readBufferSize;
+
+	/**
+	 * Create a sorter.
+	 * 
+	 * @param memoryBudget
+	 *            The approximate number of bytes of heap to use for rows that
+	 *            are being read and sorted.
+	 * @param parallelism
+	 *            The maximum number of runs to sort and spill concurrently.
+	 * @param tempDir
+	 *            The directory to create spill files in, or null to use the
+	 *            default temporary directory.
+	 * @param readBufferSize
+	 *            The size of the read-ahead buffer for each run during the
+	 *            merge.
+	 * @throws IllegalArgumentException
+	 *             If any of the sizes are not positive.
+	 */
+	public DarwinCoreExternalSorter(final long memoryBudget, final int parallelism, final Path tempDir,
+			final int readBufferSize) {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+		}
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+		}
+		if (readBufferSize <= 0) {
+			throw new IllegalArgumentException("Read buffer size must be positive: " + readBufferSize);
+		}
+		this.memoryBudget = memoryBudget;
+		this.parallelism = parallelism;
+		this.tempDir = tempDir;
+		this.readBufferSize = readBufferSize;
+	}
+
+	/**
+	 * @return The sorter used when one is not specified, with the default
+	 *         memory budget, parallelism and temporary directory. Other settings
+	 *         are used for a document through
+	 *         {@link DarwinCoreArchiveDocument#setSorter(DarwinCoreExternalSorter)}.
+	 */
+	public static DarwinCoreExternalSorter getDefault() {
+		return DEFAULT_SORTER;
+	}
+
+	/**
+	 * @return The largest number of runs that are merged at once, based on the
+	 *         memory needed to read each run.
+	 */
+	int getMergeFanIn() {
+		return (int) Math.min(MAXIMUM_FAN_IN, Math.max(2, memoryBudget / (readBufferSize + RUN_MERGE_OVERHEAD)));
+	}
+
+	/**
+	 * @return The directory spill files are created in, or null if the default
+	 *         temporary directory is used.
+	 */
+	public Path getTempDir() {
+		return tempDir;
+	}
+
+	/**
+	 * Create a temporary file in the directory used by this sorter.
+	 * 
+	 * @param prefix
+	 *            The prefix for the file name.
+	 * @param suffix
+	 *            The suffix for the file name.
+	 * @return The path to the new, empty, file.
+	 * @throws IOException
+	 *             If the file could not be created.
+	 */
+	public Path createTempFile(final String prefix, final String suffix) throws IOException {
+		if (tempDir == null) {
+			return Files.createTempFile(prefix, suffix);
+		}
+		Files.createDirectories(tempDir);
+		return Files.createTempFile(tempDir, prefix, suffix);
+	}
+
+	/**
+	 * Sort the CSV rows from input by the given key columns and write them to
+	 * output, after copying the header lines unchanged.
+	 * 
+	 * @param input
+	 *            The CSV file to sort.
+	 * @param output
+	 *            The writer for the sorted CSV file, which is flushed but not
+	 *            closed.
+	 * @param csvSchema
+	 *            The schema for both the input and output.
+	 * @param headerLineCount
+	 *            The number of header lines at the start of the input that are
+	 *            not sorted.
+	 * @param keyColumns
+	 *            The columns to sort by, in order of precedence.
+	 * @param debug
+	 *            True to emit debug information to the console
+	 * @throws IOException
+	 *             If there are issues reading or writing, including spill files.
+	 */
+	public void sort(final Reader input, final Writer output, final CsvSchema csvSchema, final int headerLineCount,
+			final List<Integer> keyColumns, final boolean debug) throws IOException {
+		final int[] columns = keyColumns.stream().mapToInt(Integer::intValue).toArray();
+		final long runBudget = Math.max(MINIMUM_RUN_BUDGET, memoryBudget / (parallelism + 1));
+		final CsvMapper mapper = CSVStream.defaultMapper();
+		mapper.enable(CsvParser.Feature.WRAP_AS_ARRAY);
+
+		final List<String[]> headerRows = new ArrayList<>(headerLineCount);
+		final List<Future<SpillRun>> spillRuns = new ArrayList<>();
+		final List<Path> mergedRunPaths = new ArrayList<>();
+		final Semaphore runsInFlight = new Semaphore(parallelism);
+		ExecutorService executor = null;
+		try (final MappingIterator<String[]> rows = mapper.readerFor(String[].class).with(csvSchema)
+				.readValues(input);) {
+			while (headerRows.size() < headerLineCount && rows.hasNext()) {
+				headerRows.add(rows.next());
+			}
+
+			List<SortRow> nextRun = new ArrayList<>();
+			long nextRunSize = 0;
+			while (rows.hasNext()) {
+				checkInterrupted();
+				final String[] nextValues = rows.next();
+				final SortRow nextRow = new SortRow(DarwinCoreSortKey.encode(nextValues, columns), nextValues);
+				nextRun.add(nextRow);
+				nextRunSize += nextRow.estimateSize();
+				if (nextRunSize >= runBudget) {
+					if (executor == null) {
+						executor = Executors.newFixedThreadPool(parallelism,
+								r -> new Thread(r, "dwca-sort-spill"));
+					}
+					spillRuns.add(spill(executor, runsInFlight, nextRun));
+					nextRun = new ArrayList<>();
+					nextRunSize = 0;
+				}
+			}
+
+			final SequenceWriter csvWriter = CSVStream.newCSVWriter(output, csvSchema);
+			for (final String[] nextHeaderRow : headerRows) {
+				csvWriter.write(Arrays.asList(nextHeaderRow));
+			}
+			if (spillRuns.isEmpty()) {
+				// Everything fit in memory
+				nextRun.sort(SortRow.COMPARATOR);
+				for (final SortRow nextRow : nextRun) {
+					csvWriter.write(Arrays.asList(nextRow.values));
+				}
+			} else {
+				if (!nextRun.isEmpty()) {
+					spillRuns.add(spill(executor, runsInFlight, nextRun));
+				}
+				nextRun = null;
+				final List<SpillRun> completedRuns = new ArrayList<>(spillRuns.size());
+				for (final Future<SpillRun> nextSpillRun : spillRuns) {
+					completedRuns.add(await(nextSpillRun));
+				}
+				final List<SpillRun> finalRuns = mergePasses(completedRuns, mergedRunPaths, debug);
+				if (debug) {
+					System.out.println("Merging " + finalRuns.size() + " sorted runs");
+				}
+				mergeRuns(finalRuns, nextRow -> csvWriter.write(Arrays.asList(nextRow.values)));
+			}
+			csvWriter.flush();
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+				// Wait for runs that are being written to stop, so that their
+				// files are not created after they are deleted below
+				awaitTermination(executor);
+			}
+			for (final Future<SpillRun> nextSpillRun : spillRuns) {
+				deleteSpillFile(nextSpillRun);
+			}
+			for (final Path nextMergedRunPath : mergedRunPaths) {
+				Files.deleteIfExists(nextMergedRunPath);
+			}
+		}
+	}
+
+	/**
+	 * Merge consecutive groups of runs into longer runs until there are few
+	 * enough to merge at once. Groups are merged in order, so rows with equal
+	 * keys keep their original order.
+	 * 
+	 * @param runs
+	 *            The sorted runs, in input order.
+	 * @param mergedRunPaths
+	 *            The list to add the path of each new run to, so it can be
+	 *            removed if the sort fails.
+	 * @param debug
+	 *            True to emit debug information to the console
+	 * @return The runs to use for the final merge, in input order.
+	 * @throws IOException
+	 *             If there are issues reading or writing spill files.
+	 */
+	private List<SpillRun> mergePasses(final List<SpillRun> runs, final List<Path> mergedRunPaths,
+			final boolean debug) throws IOException {
+		final int fanIn = getMergeFanIn();
+		List<SpillRun> nextRuns = runs;
+		while (nextRuns.size() > fanIn) {
+			if (debug) {
+				System.out.println("Merging " + nextRuns.size() + " sorted runs in groups of " + fanIn);
+			}
+			final List<SpillRun> mergedRuns = new ArrayList<>((nextRuns.size() + fanIn - 1) / fanIn);
+			for (int start = 0; start < nextRuns.size(); start += fanIn) {
+				final List<SpillRun> group = nextRuns.subList(start, Math.min(start + fanIn, nextRuns.size()));
+				if (group.size() == 1) {
+					mergedRuns.add(group.get(0));
+					continue;
+				}
+				final Path mergedPath = createTempFile("dwca-sort-", ".run.gz");
+				mergedRunPaths.add(mergedPath);
+				long rowCount = 0;
+				try (final DataOutputStream spillOutput = newSpillOutput(mergedPath);) {
+					mergeRuns(group, nextRow -> writeSpillRow(spillOutput, nextRow));
+				}
+				for (final SpillRun nextRun : group) {
+					rowCount += nextRun.rowCount;
+					// Remove each input run as soon as it has been merged, to
+					// limit the disk space used
+					Files.deleteIfExists(nextRun.path);
+				}
+				final long spillBytes = Files.size(mergedPath);
+				DarwinCoreMetrics.getDefault().addSpill(spillBytes);
+				mergedRuns.add(new SpillRun(mergedPath, rowCount, spillBytes));
+			}
+			nextRuns = mergedRuns;
+		}
+		return nextRuns;
+	}
+
+	private Future<SpillRun> spill(final ExecutorService executor, final Semaphore runsInFlight,
+			final List<SortRow> run) throws IOException {
+		// Block the reader until there is a free slot, to keep within the
+		// memory budget
+		try {
+			runsInFlight.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to spill a sorted run");
+		}
+		try {
+			return executor.submit(() -> {
+				try (final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.SORT_RUN, null);) {
+					run.sort(SortRow.COMPARATOR);
+					final Path spillPath = createTempFile("dwca-sort-", ".run.gz");
+					try (final DataOutputStream spillOutput = newSpillOutput(spillPath);) {
+						for (final SortRow nextRow : run) {
+							checkInterrupted();
+							writeSpillRow(spillOutput, nextRow);
+						}
+					} catch (final IOException | RuntimeException e) {
+						Files.deleteIfExists(spillPath);
+						throw e;
+					}
+					final long spillBytes = Files.size(spillPath);
+					span.addRows(run.size());
+					span.addBytes(spillBytes);
+					return new SpillRun(spillPath, run.size(), spillBytes);
+				} finally {
+					runsInFlight.release();
+				}
+			});
+		} catch (final RuntimeException e) {
+			runsInFlight.release();
+			throw e;
+		}
+	}
+
+	private static DataOutputStream newSpillOutput(final Path spillPath) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FastGZIPOutputStream(Files.newOutputStream(spillPath)), SPILL_BUFFER_SIZE));
+	}
+
+	private static void writeSpillRow(final DataOutputStream spillOutput, final SortRow nextRow) throws IOException {
+		spillOutput.writeInt(nextRow.key.length);
+		spillOutput.write(nextRow.key);
+		spillOutput.writeInt(nextRow.values.length);
+		for (final String nextValue : nextRow.values) {
+			final byte[] nextBytes = nextValue.getBytes(StandardCharsets.UTF_8);
+			spillOutput.writeInt(nextBytes.length);
+			spillOutput.write(nextBytes);
+		}
+	}
+
+	private void mergeRuns(final List<SpillRun> runs, final RowConsumer output) throws IOException {
+		// Ties are broken by run number so that the merge is stable
+		final PriorityQueue<RunCursor> cursors = new PriorityQueue<>(runs.size(),
+				Comparator.comparing((RunCursor cursor) -> cursor.current, SortRow.COMPARATOR)
+						.thenComparingInt(cursor -> cursor.runNumber));
+		try (final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.SORT_MERGE, null);) {
+			for (final SpillRun nextRun : runs) {
+				span.addRows(nextRun.rowCount);
+				span.addBytes(nextRun.bytes);
+			}
+			for (int i = 0; i < runs.size(); i++) {
+				final RunCursor nextCursor = new RunCursor(runs.get(i), i, readBufferSize);
+				if (nextCursor.advance()) {
+					cursors.add(nextCursor);
+				} else {
+					nextCursor.close();
+				}
+			}
+			while (!cursors.isEmpty()) {
+				checkInterrupted();
+				final RunCursor nextCursor = cursors.poll();
+				output.accept(nextCursor.current);
+				if (nextCursor.advance()) {
+					cursors.add(nextCursor);
+				} else {
+					nextCursor.close();
+				}
+			}
+		} finally {
+			for (final RunCursor nextCursor : cursors) {
+				nextCursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Stop sorting if the thread has been interrupted, such as when a job is
+	 * cancelled, rather than only when the next read or write fails.
+	 * 
+	 * @throws InterruptedIOException
+	 *             If the current thread has been interrupted.
+	 */
+	private static void checkInterrupted() throws InterruptedIOException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Interrupted while sorting");
+		}
+	}
+
+	/**
+	 * Wait for the spill threads to stop after they have been interrupted,
+	 * keeping the interrupt status of the current thread.
+	 * 
+	 * @param executor
+	 *            The executor that has been shut down.
+	 */
+	private static void awaitTermination(final ExecutorService executor) {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SPILL_TERMINATION_SECONDS);
+		boolean interrupted = false;
+		try {
+			long remaining;
+			// Give up rather than hang if a run does not stop
+			while (!executor.isTerminated() && (remaining = deadline - System.nanoTime()) > 0) {
+				try {
+					executor.awaitTermination(remaining, TimeUnit.NANOSECONDS);
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static SpillRun await(final Future<SpillRun> spillRun) throws IOException {
+		try {
+			return spillRun.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a sorted run");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException("Could not sort run", e.getCause());
+		}
+	}
+
+	private static void deleteSpillFile(final Future<SpillRun> spillRun) {
+		if (spillRun.isDone() && !spillRun.isCancelled()) {
+			try {
+				Files.deleteIfExists(spillRun.get().path);
+			} catch (final Exception e) {
+				// Ignore, the run failed or the file is already gone
+			}
+		} else {
+			spillRun.cancel(true);
+		}
+	}
+
+	/**
+	 * Receives the rows from a merge, in order.
+	 */
+	@FunctionalInterface
+	private interface RowConsumer {
+		void accept(SortRow row) throws IOException;
+	}
+
+	/**
+	 * A row with its encoded sort key.
+	 */
+	private static final class SortRow {
+		private static final Comparator<SortRow> COMPARATOR = (o1, o2) -> DarwinCoreSortKey.compare(o1.key,
+				o2.key);
+
+		private final byte[] key;
+		private final String[] values;
+
+		private SortRow(final byte[] key, final String[] values) {
+			this.key = key;
+			this.values = values;
+		}
+
+		/**
+		 * Estimates the heap used by the row, including the key, array and
+		 * strings.
+		 */
+		private long estimateSize() {
+			long result = 48 + key.length + 8L * values.length;
+			for (final String nextValue : values) {
+				result += 40 + 2L * nextValue.length();
+			}
+			return result;
+		}
+	}
+
+	private static final class SpillRun {
+		private final Path path;
+		private final long rowCount;
+		private final long bytes;
+
+		private SpillRun(final Path path, final long rowCount, final long bytes) {
+			this.path = path;
+			this.rowCount = rowCount;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final class RunCursor implements Closeable {
+		private final DataInputStream input;
+		private final int runNumber;
+		private long remaining;
+		private SortRow current;
+
+		private RunCursor(final SpillRun run, final int runNumber, final int readBufferSize) throws IOException {
+			this.input = new DataInputStream(new BufferedInputStream(
+					new GZIPInputStream(Files.newInputStream(run.path), SPILL_BUFFER_SIZE), readBufferSize));
+			this.runNumber = runNumber;
+			this.remaining = run.rowCount;
+		}
+
+		private boolean advance() throws IOException {
+			if (remaining == 0) {
+				current = null;
+				return false;
+			}
+			remaining--;
+			final byte[] nextKey = new byte[input.readInt()];
+			input.readFully(nextKey);
+			final String[] nextValues = new String[input.readInt()];
+			for (int i = 0; i < nextValues.length; i++) {
+				final byte[] nextBytes = new byte[input.readInt()];
+				input.readFully(nextBytes);
+				nextValues[i] = new String(nextBytes, StandardCharsets.UTF_8);
+			}
+			current = new SortRow(nextKey, nextValues);
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+
+	/**
+	 * Spill files are read back once, so favour speed over size.
+	 */
+	private static final class FastGZIPOutputStream extends GZIPOutputStream {
+		private FastGZIPOutputStream(final OutputStream out) throws IOException {
+			super(out, SPILL_BUFFER_SIZE);
+			def.setLevel(Deflater.BEST_SPEED);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+/**
+ * Emits Java Flight Recorder events for the phases of archive processing, so
+ * they can be correlated with GC and I/O activity in recordings.
+ * <p>
+ * Each event carries the name of the file being processed, and the number of
+ * rows and bytes processed where they are known. Events are only created when
+ * a recording has enabled them, and on JVMs without Flight Recorder no event
+ * classes are loaded, so {@link #begin(EventType, String)} returns a shared
+ * {@link Span} that does nothing. The events are begun by
+ * {@link DarwinCoreSpan}, which records each phase once for the metrics, the
+ * run report and Flight Recorder.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreFlightRecorder {
+
+	/**
+	 * The phases that events are emitted for.
+	 */
+	public enum EventType {
+
+		/**
+		 * Extracting a ZIP file, with the size of the ZIP file.
+		 */
+		ZIP_OPEN,
+
+		/**
+		 * Parsing a meta.xml file, with the size of the file.
+		 */
+		METADATA_PARSE,
+
+		/**
+		 * Parsing a core or extension file, with the number of rows and the
+		 * size of the file.
+		 */
+		FILE_PARSE,
+
+		/**
+		 * Sorting a run and spilling it to disk, with the number of rows and
+		 * the compressed size of the spill file.
+		 */
+		SORT_RUN,
+
+		/**
+		 * Merging spilled runs, with the number of rows and the total
+		 * compressed size of the spill files.
+		 */
+		SORT_MERGE,
+
+		/**
+		 * Writing a batch of merged rows, with the number of rows.
+		 */
+		MERGE_BATCH,
+
+		/**
+		 * Summarising a core or extension file, with the size of the file.
+		 */
+		SUMMARISE
+	}
+
+	/**
+	 * A phase that may be recorded as an event, which is committed when the
+	 * span is closed.
+	 */
+	public static class Span implements AutoCloseable {
+
+		private static final Span DISABLED = new Span();
+
+		Span() {
+		}
+
+		/**
+		 * @return True if this span is being recorded.
+		 */
+		public boolean isEnabled() {
+			return false;
+		}
+
+		/**
+		 * @param rows
+		 *            The number of rows to add to this span.
+		 */
+		public void addRows(long rows) {
+		}
+
+		/**
+		 * @param bytes
+		 *            The number of bytes to add to this span.
+		 */
+		public void addBytes(long bytes) {
+		}
+
+		/**
+		 * End the span and commit the event, if it is being recorded.
+		 */
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * True if the Flight Recorder API is available in this JVM.
+	 */
+	private static final boolean AVAILABLE = isAvailable();
+
+	/**
+	 * Private constructor for static only class
+	 */
+	private DarwinCoreFlightRecorder() {
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, DarwinCoreFlightRecorder.class.getClassLoader());
+			return true;
+		} catch (final ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param type
+	 *            The type of event.
+	 * @return True if events of the given type are currently being recorded.
+	 */
+	public static boolean isEnabled(final EventType type) {
+		return AVAILABLE && DarwinCoreJfrEvents.isEnabled(type);
+	}
+
+	/**
+	 * Begin a span for an event.
+	 * 
+	 * @param type
+	 *            The type of event.
+	 * @param file
+	 *            The name of the file being processed, or null if there is no
+	 *            single file.
+	 * @return A span to add rows and bytes to, which must be closed to commit
+	 *         the event.
+	 */
+	public static Span begin(final EventType type, final String file) {
+		if (!isEnabled(type)) {
+			return Span.DISABLED;
+		}
+		return DarwinCoreJfrEvents.begin(type, file);
+	}
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.github.ansell.csv.stream.CSVStream;
+import com.github.ansell.csv.stream.CSVStreamException;
+
+/**
+ * A sidecar index from the id or coreId of each row in a core or extension
+ * file to the position of the row in the file, so that the rows for an id can
+ * be read without scanning the file.
+ * <p>
+ * The index is written next to the data file, with {@link #INDEX_SUFFIX}
+ * added to its name, or to a separate index directory, for data files in
+ * directories that cannot be written to. After a short header, it is an array
+ * of fixed size entries, each containing a 64-bit hash of the id, followed by
+ * the byte offset and length of the row in the data file. Entries are sorted
+ * by hash, and rows with the same hash stay in file order, so the index is
+ * memory mapped, in segments that each fit in a single buffer, and searched in
+ * place, without loading it onto the heap. Hashes can collide, so rows are
+ * checked against the id after they are read.
+ * <p>
+ * The header records the size and modification time of the data file, and a
+ * fingerprint of the id or coreId column and the dialect used to find the
+ * rows, and an index that does not match its data file or its metadata is
+ * rebuilt when it is opened.
+ * Indexes can only be built for uncompressed files in encodings where the
+ * line ending, field separator and quote characters are single bytes, such as
+ * UTF-8 and ISO-8859-1.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreIdIndex {
+
+	/**
+	 * The suffix added to the name of a data file to name its index.
+	 */
+	public static final String INDEX_SUFFIX = ".idx";
+
+	private static final int MAGIC = 0x44574958;
+
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 40;
+
+	/**
+	 * The size of each entry: the hash, the offset and the length.
+	 */
+	private static final int ENTRY_SIZE = 20;
+
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The number of entries in each mapped segment of an index, which keeps
+	 * each segment well within the size of a single buffer.
+	 */
+	static final int DEFAULT_SEGMENT_ENTRIES = 1 << 25;
+
+	/**
+	 * The largest array that can be allocated on most JVMs.
+	 */
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+	private final DarwinCoreCoreOrExtension coreOrExtension;
+	private final Path dataPath;
+	private final int idColumn;
+	private final ByteBuffer[] segments;
+	private final int segmentEntries;
+	private final int entryCount;
+
+	private DarwinCoreIdIndex(final DarwinCoreCoreOrExtension coreOrExtension, final Path dataPath,
+			final int idColumn, final ByteBuffer[] segments, final int segmentEntries, final int entryCount) {
+		this.coreOrExtension = coreOrExtension;
+		this.dataPath = dataPath;
+		this.idColumn = idColumn;
+		this.segments = segments;
+		this.segmentEntries = segmentEntries;
+		this.entryCount = entryCount;
+	}
+
+	/**
+	 * @param dataPath
+	 *            The path to a core or extension file.
+	 * @return The path to the index for the file.
+	 */
+	public static Path indexPathFor(final Path dataPath) {
+		return indexPathFor(dataPath, null);
+	}
+
+	/**
+	 * @param dataPath
+	 *            The path to a core or extension file.
+	 * @param indexDir
+	 *            The directory to keep the index in, or null to keep it next
+	 *            to the data file.
+	 * @return The path to the index for the file.
+	 */
+	public static Path indexPathFor(final Path dataPath, final Path indexDir) {
+		return sidecarPathFor(dataPath, indexDir, INDEX_SUFFIX);
+	}
+
+	/**
+	 * Name a file that is kept alongside a data file, either next to it, or in
+	 * a separate directory shared by many data files, where the name includes
+	 * a hash of the absolute path to the data file so that data files with the
+	 * same name in different archives do not share the file.
+	 * 
+	 * @param dataPath
+	 *            The path to a core or extension file.
+	 * @param directory
+	 *            The directory to keep the file in, or null to keep it next to
+	 *            the data file.
+	 * @param suffix
+	 *            The suffix to add to the name of the data file.
+	 * @return The path to the file.
+	 */
+	static Path sidecarPathFor(final Path dataPath, final Path directory, final String suffix) {
+		final String fileName = dataPath.getFileName().toString();
+		if (directory == null) {
+			return dataPath.resolveSibling(fileName + suffix);
+		}
+		return directory.resolve(fileName + "-"
+				+ Long.toHexString(hash(dataPath.toAbsolutePath().normalize().toString())) + suffix);
+	}
+
+	/**
+	 * Open the index for a core or extension, building it first if it does
+	 * not exist, or if it does not match the data file.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to open the index for.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @return The index.
+	 * @throws IOException
+	 *             If the index could not be built or read.
+	 * @throws IllegalStateException
+	 *             If the core or extension does not have an id or coreId, or
+	 *             its file cannot be indexed.
+	 */
+	public static DarwinCoreIdIndex open(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath)
+			throws IOException {
+		return open(coreOrExtension, metadataPath, null);
+	}
+
+	/**
+	 * Open the index for a core or extension, as for
+	 * {@link #open(DarwinCoreCoreOrExtension, Path)}, keeping the index in the
+	 * given directory.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to open the index for.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param indexDir
+	 *            The directory to keep the index in, or null to keep it next
+	 *            to the data file.
+	 * @return The index.
+	 * @throws IOException
+	 *             If the index could not be built or read.
+	 * @throws IllegalStateException
+	 *             If the core or extension does not have an id or coreId, or
+	 *             its file cannot be indexed.
+	 */
+	public static DarwinCoreIdIndex open(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final Path indexDir) throws IOException {
+		return open(coreOrExtension, metadataPath, indexDir, DEFAULT_SEGMENT_ENTRIES);
+	}
+
+	static DarwinCoreIdIndex open(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final Path indexDir, final int segmentEntries) throws IOException {
+		final Path dataPath = coreOrExtension.getDataPath(metadataPath);
+		final Path indexPath = indexPathFor(dataPath, indexDir);
+		if (!Files.exists(indexPath) || !isCurrent(indexPath, dataPath, fingerprint(coreOrExtension))) {
+			build(coreOrExtension, metadataPath, indexDir);
+		}
+		try (final FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ);) {
+			final long indexSize = channel.size();
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0) {
+					throw new IllegalStateException("Truncated Darwin Core id index: " + indexPath);
+				}
+			}
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IllegalStateException("Not a Darwin Core id index: " + indexPath);
+			}
+			final int entryCount = header.getInt(36);
+			if (indexSize != HEADER_SIZE + (long) entryCount * ENTRY_SIZE) {
+				throw new IllegalStateException("Truncated Darwin Core id index: " + indexPath);
+			}
+			// Each segment starts on an entry boundary, so no entry is split
+			// between segments. The mappings stay valid after the channel is
+			// closed.
+			final ByteBuffer[] segments = new ByteBuffer[(int) ((entryCount + (long) segmentEntries - 1)
+					/ segmentEntries)];
+			for (int i = 0; i < segments.length; i++) {
+				final long firstEntry = (long) i * segmentEntries;
+				final long nextSegmentEntries = Math.min(segmentEntries, entryCount - firstEntry);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + firstEntry * ENTRY_SIZE,
+						nextSegmentEntries * ENTRY_SIZE);
+			}
+			return new DarwinCoreIdIndex(coreOrExtension, dataPath, header.getInt(32), segments, segmentEntries,
+					entryCount);
+		}
+	}
+
+	/**
+	 * Build the index for a core or extension, replacing any existing index.
+	 * <p>
+	 * The entries are sorted in memory before they are written, using about 28
+	 * bytes of heap for each row in the file.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to index.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @return The path to the index.
+	 * @throws IOException
+	 *             If the data file could not be read or the index could not be
+	 *             written.
+	 * @throws IllegalStateException
+	 *             If the core or extension does not have an id or coreId, or
+	 *             its file cannot be indexed.
+	 */
+	public static Path build(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath)
+			throws IOException {
+		return build(coreOrExtension, metadataPath, null);
+	}
+
+	/**
+	 * Build the index for a core or extension, as for
+	 * {@link #build(DarwinCoreCoreOrExtension, Path)}, in the given directory.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to index.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param indexDir
+	 *            The directory to keep the index in, which is created if it
+	 *            does not exist, or null to keep it next to the data file.
+	 * @return The path to the index.
+	 * @throws IOException
+	 *             If the data file could not be read or the index could not be
+	 *             written.
+	 * @throws IllegalStateException
+	 *             If the core or extension does not have an id or coreId, or
+	 *             its file cannot be indexed.
+	 */
+	public static Path build(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final Path indexDir) throws IOException {
+		if (coreOrExtension.getIdOrCoreId() == null) {
+			throw new IllegalStateException("Cannot index a core or extension without an id or coreId: "
+					+ coreOrExtension.getFiles().getLocations());
+		}
+		final Path dataPath = coreOrExtension.getDataPath(metadataPath);
+		if (DarwinCoreCompression.detect(dataPath) != DarwinCoreCompression.Format.NONE) {
+			// Offsets into a compressed file cannot be read without
+			// decompressing everything before them
+			throw new IllegalStateException("Cannot index a compressed file: " + dataPath);
+		}
+		final Path indexPath = indexPathFor(dataPath, indexDir);
+		if (indexDir != null) {
+			Files.createDirectories(indexDir);
+		}
+		final long dataSize = Files.size(dataPath);
+		final long dataLastModified = Files.getLastModifiedTime(dataPath).toMillis();
+		final int idColumn = Integer.parseInt(coreOrExtension.getIdOrCoreId());
+
+		final RowScanner scanner = new RowScanner(coreOrExtension, idColumn);
+		try (final InputStream input = Files.newInputStream(dataPath);) {
+			scanner.scan(input);
+		}
+
+		final long[] hashes = scanner.hashes;
+		final int[] order = sortByHash(hashes, scanner.count);
+
+		// Write a temporary file and move it into place, so that readers never
+		// see a partially written index
+		final Path tempPath = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(),
+				".tmp");
+		try {
+			try (final OutputStream output = Files.newOutputStream(tempPath);) {
+				final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE - READ_BUFFER_SIZE % ENTRY_SIZE)
+						.order(ByteOrder.BIG_ENDIAN);
+				buffer.putInt(MAGIC);
+				buffer.putInt(VERSION);
+				buffer.putLong(dataSize);
+				buffer.putLong(dataLastModified);
+				buffer.putLong(fingerprint(coreOrExtension));
+				buffer.putInt(idColumn);
+				buffer.putInt(order.length);
+				for (final int nextRow : order) {
+					if (buffer.remaining() < ENTRY_SIZE) {
+						output.write(buffer.array(), 0, buffer.position());
+						buffer.clear();
+					}
+					buffer.putLong(hashes[nextRow]);
+					buffer.putLong(scanner.offsets[nextRow]);
+					buffer.putInt(scanner.lengths[nextRow]);
+				}
+				output.write(buffer.array(), 0, buffer.position());
+			}
+			Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+		return indexPath;
+	}
+
+	/**
+	 * @return The number of rows in the index.
+	 */
+	public int size() {
+		return entryCount;
+	}
+
+	/**
+	 * Read the rows with the given id or coreId, using the index to find them.
+	 * 
+	 * @param id
+	 *            The id to find.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @return The values for each row with the id, in file order, or an empty
+	 *         list if there are no rows with the id.
+	 * @throws IOException
+	 *             If the data file could not be read.
+	 * @throws CSVStreamException
+	 *             If a row could not be parsed.
+	 */
+	public List<List<String>> lookup(final String id, final boolean includeDefaults)
+			throws IOException, CSVStreamException {
+		final long hash = hash(id);
+		int first = findFirst(hash);
+		if (first >= entryCount || hashAt(first) != hash) {
+			return Collections.emptyList();
+		}
+		final List<String> fieldTerms = coreOrExtension.getFields().stream().map(f -> f.getTerm())
+				.collect(Collectors.toList());
+		final List<String> defaultValues = includeDefaults ? coreOrExtension.getDefaultValues()
+				: Collections.emptyList();
+		final Charset encoding = coreOrExtension.getEncoding();
+		final List<List<String>> result = new ArrayList<>();
+		try (final FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.READ);) {
+			for (int i = first; i < entryCount && hashAt(i) == hash; i++) {
+				final ByteBuffer segment = segments[i / segmentEntries];
+				final int position = entryPosition(i);
+				final long offset = segment.getLong(position + 8);
+				final ByteBuffer row = ByteBuffer.allocate(segment.getInt(position + 16));
+				while (row.hasRemaining()) {
+					if (channel.read(row, offset + row.position()) < 0) {
+						throw new IllegalStateException("Data file is shorter than its index: " + dataPath);
+					}
+				}
+				String rowText = new String(row.array(), encoding);
+				if (rowText.endsWith("\r")) {
+					rowText = rowText.substring(0, rowText.length() - 1);
+				}
+				CSVStream.parse(new StringReader(rowText), h -> {
+				}, (h, l) -> l, l -> {
+					// Check the id, as different ids may have the same hash
+					if (idColumn < l.size() && id.equals(l.get(idColumn))) {
+						result.add(l);
+					}
+				}, fieldTerms, defaultValues, 0, CSVStream.defaultMapper(), coreOrExtension.getCsvSchema());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sort the rows by hash with a bottom up merge sort, which is stable, so
+	 * rows with the same hash stay in file order.
+	 * 
+	 * @return The row numbers in hash order.
+	 */
+	private static int[] sortByHash(final long[] hashes, final int count) {
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		int[] merged = new int[count];
+		for (int width = 1; width < count; width *= 2) {
+			for (int low = 0; low < count; low += 2 * width) {
+				final int mid = Math.min(low + width, count);
+				final int high = Math.min(low + 2 * width, count);
+				int left = low;
+				int right = mid;
+				for (int i = low; i < high; i++) {
+					if (left < mid && (right >= high || hashes[order[left]] <= hashes[order[right]])) {
+						merged[i] = order[left++];
+					} else {
+						merged[i] = order[right++];
+					}
+				}
+			}
+			final int[] swap = order;
+			order = merged;
+			merged = swap;
+		}
+		return order;
+	}
+
+	/**
+	 * @return The position of the first entry with the given hash, or of the
+	 *         first entry with a larger hash if there are none.
+	 */
+	private int findFirst(final long hash) {
+		int low = 0;
+		int high = entryCount;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (hashAt(mid) < hash) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private long hashAt(final int entry) {
+		return segments[entry / segmentEntries].getLong(entryPosition(entry));
+	}
+
+	/**
+	 * @return The position of an entry in its segment.
+	 */
+	private int entryPosition(final int entry) {
+		return (entry % segmentEntries) * ENTRY_SIZE;
+	}
+
+	private static boolean isCurrent(final Path indexPath, final Path dataPath, final long fingerprint)
+			throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		try (final FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ);) {
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					return false;
+				}
+			}
+		}
+		return header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getLong(8) == Files.size(dataPath)
+				&& header.getLong(16) == Files.getLastModifiedTime(dataPath).toMillis()
+				&& header.getLong(24) == fingerprint;
+	}
+
+	/**
+	 * @return A fingerprint of the id or coreId column and the dialect used to
+	 *         find the rows, which must match for an index to be reused.
+	 */
+	private static long fingerprint(final DarwinCoreCoreOrExtension coreOrExtension) {
+		final StringBuilder result = new StringBuilder();
+		result.append(coreOrExtension.getIdOrCoreId()).append('\n');
+		result.append(coreOrExtension.getEncoding().name()).append('\n');
+		result.append(coreOrExtension.getFieldsTerminatedBy()).append('\n');
+		result.append(coreOrExtension.getFieldsEnclosedBy()).append('\n');
+		result.append(coreOrExtension.getLinesTerminatedBy()).append('\n');
+		result.append(coreOrExtension.getIgnoreHeaderLines()).append('\n');
+		return DarwinCoreIdInference.fingerprint(result.toString());
+	}
+
+	/**
+	 * Hash an id, using the same fingerprint as {@link DarwinCoreIdInference}.
+	 */
+	static long hash(final String id) {
+		return DarwinCoreIdInference.fingerprint(id);
+	}
+
+	/**
+	 * Finds the rows in a data file, and the id for each row, by scanning the
+	 * bytes using the same quoting rules as the CSV parser, without decoding
+	 * any values other than the ids.
+	 */
+	private static final class RowScanner {
+
+		private static final int FIELD_START = 0;
+		private static final int UNQUOTED = 1;
+		private static final int QUOTED = 2;
+		private static final int QUOTE_IN_QUOTED = 3;
+
+		private final Charset encoding;
+		private final int idColumn;
+		private final byte lineEnd;
+		private final byte separator;
+		private final byte quote;
+		private int headerLinesRemaining;
+
+		private long[] hashes = new long[1024];
+		private long[] offsets = new long[1024];
+		private int[] lengths = new int[1024];
+		private int count;
+
+		private int state = FIELD_START;
+		private int column;
+		private long rowStart;
+		private byte[] id = new byte[64];
+		private int idLength;
+
+		private RowScanner(final DarwinCoreCoreOrExtension coreOrExtension, final int idColumn) {
+			this.encoding = coreOrExtension.getEncoding();
+			this.idColumn = idColumn;
+			this.lineEnd = lineEndFor(coreOrExtension.getLinesTerminatedBy());
+			this.separator = singleByte(coreOrExtension.getFieldsTerminatedBy().substring(0, 1));
+			this.quote = singleByte(coreOrExtension.getFieldsEnclosedBy().substring(0, 1));
+			this.headerLinesRemaining = coreOrExtension.getIgnoreHeaderLines();
+		}
+
+		/**
+		 * Rows end at the last character of the line terminator. For "\r\n",
+		 * the carriage return is removed from the end of each row after it is
+		 * found, as it is for "\n" files that contain "\r\n" line endings.
+		 */
+		private byte lineEndFor(final String linesTerminatedBy) {
+			if (linesTerminatedBy.length() == 1 || linesTerminatedBy.equals("\r\n")) {
+				return singleByte(linesTerminatedBy.substring(linesTerminatedBy.length() - 1));
+			}
+			throw new IllegalStateException(
+					"Cannot index files with the line terminator '" + linesTerminatedBy + "'");
+		}
+
+		private byte singleByte(final String character) {
+			final byte[] encoded = character.getBytes(encoding);
+			if (encoded.length != 1) {
+				throw new IllegalStateException("Cannot index files with the encoding " + encoding
+						+ " as the character '" + character + "' is not a single byte");
+			}
+			return encoded[0];
+		}
+
+		private void scan(final InputStream input) throws IOException {
+			final byte[] buffer = new byte[READ_BUFFER_SIZE];
+			long position = 0;
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				for (int i = 0; i < read; i++) {
+					final byte next = buffer[i];
+					switch (state) {
+					case FIELD_START:
+						if (next == quote) {
+							state = QUOTED;
+						} else if (next == separator) {
+							column++;
+						} else if (next == lineEnd) {
+							endRow(position + i);
+						} else {
+							append(next);
+							state = UNQUOTED;
+						}
+						break;
+					case QUOTED:
+						if (next == quote) {
+							state = QUOTE_IN_QUOTED;
+						} else {
+							append(next);
+						}
+						break;
+					case QUOTE_IN_QUOTED:
+						if (next == quote) {
+							// A doubled quote is a literal quote
+							append(next);
+							state = QUOTED;
+							break;
+						}
+						// Characters after the closing quote are kept, as they
+						// are by the parser
+					case UNQUOTED:
+						if (next == separator) {
+							column++;
+							state = FIELD_START;
+						} else if (next == lineEnd) {
+							endRow(position + i);
+						} else {
+							append(next);
+							state = UNQUOTED;
+						}
+						break;
+					default:
+						throw new IllegalStateException("Unknown scanner state: " + state);
+					}
+				}
+				position += read;
+			}
+			if (position > rowStart) {
+				endRow(position);
+			}
+		}
+
+		private void append(final byte next) {
+			if (column == idColumn) {
+				if (idLength == id.length) {
+					id = Arrays.copyOf(id, idLength * 2);
+				}
+				id[idLength++] = next;
+			}
+		}
+
+		private void endRow(final long rowEnd) {
+			long length = rowEnd - rowStart;
+			if (length > 0 && column == idColumn && idLength > 0 && id[idLength - 1] == '\r') {
+				idLength--;
+			}
+			if (headerLinesRemaining > 0) {
+				headerLinesRemaining--;
+			} else if (length > 0) {
+				if (length > Integer.MAX_VALUE) {
+					throw new IllegalStateException("Row is too long to index at offset " + rowStart);
+				}
+				if (count == hashes.length) {
+					if (count == MAX_ARRAY_LENGTH) {
+						throw new IllegalStateException("Too many rows to index: " + count);
+					}
+					final int newLength = (int) Math.min(MAX_ARRAY_LENGTH, count * 2L);
+					hashes = Arrays.copyOf(hashes, newLength);
+					offsets = Arrays.copyOf(offsets, newLength);
+					lengths = Arrays.copyOf(lengths, newLength);
+				}
+				hashes[count] = hash(new String(id, 0, idLength, encoding));
+				offsets[count] = rowStart;
+				lengths[count] = (int) length;
+				count++;
+			}
+			rowStart = rowEnd + 1;
+			state = FIELD_START;
+			column = 0;
+			idLength = 0;
+		}
+	}
+}
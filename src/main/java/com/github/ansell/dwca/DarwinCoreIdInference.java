@@ -0,0 +1,522 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+
+/**
+ * Suggests the id column for a core file, and the coreId column for extension
+ * files, based on the number of distinct values in each column.
+ * <p>
+ * Each file is streamed once to estimate the cardinality of every column using
+ * a HyperLogLog sketch. Columns in a core file without empty values whose
+ * estimate is close to the number of rows are then confirmed to be unique in a
+ * second pass, using sets of 64-bit fingerprints, for as many candidates as fit
+ * in the memory budget. The leftmost confirmed column is suggested as the id.
+ * <p>
+ * For extension files, the fingerprints of the core ids are used to count how
+ * many values in each extension column refer to a core id, and the column with
+ * the most references is suggested as the coreId.
+ * <p>
+ * Fingerprints are 64-bit hashes, so two different values may very rarely share
+ * a fingerprint, in which case a unique column is reported as not unique.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreIdInference {
+
+	/**
+	 * The default memory budget for fingerprint sets, a quarter of the maximum
+	 * heap size.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+	/**
+	 * The default maximum number of columns to confirm exactly in each core
+	 * file.
+	 */
+	public static final int DEFAULT_CANDIDATE_COUNT = 3;
+
+	/**
+	 * The fraction of the row count that a cardinality estimate must reach for
+	 * a column to be confirmed exactly, well below the error of the estimate.
+	 */
+	private static final double CANDIDATE_THRESHOLD = 0.95;
+
+	/**
+	 * The value used for exact cardinalities and core id references that were
+	 * not computed.
+	 */
+	public static final long NOT_COMPUTED = -1;
+
+	private final long memoryBudget;
+	private final int candidateCount;
+
+	/**
+	 * Create an id inference pass.
+	 * 
+	 * @param memoryBudget
+	 *            The approximate number of bytes of heap to use for the
+	 *            fingerprint sets.
+	 * @param candidateCount
+	 *            The maximum number of columns to confirm exactly in each core
+	 *            file.
+	 */
+	public DarwinCoreIdInference(long memoryBudget, int candidateCount) {
+		if (memoryBudget < 0) {
+			throw new IllegalArgumentException("Memory budget must not be negative: " + memoryBudget);
+		}
+		if (candidateCount < 1) {
+			throw new IllegalArgumentException("Candidate count must be positive: " + candidateCount);
+		}
+		this.memoryBudget = memoryBudget;
+		this.candidateCount = candidateCount;
+	}
+
+	/**
+	 * The statistics for one column in a file.
+	 */
+	public static final class ColumnStatistics {
+
+		private final int index;
+		private final String name;
+		private final long estimatedCardinality;
+		private final long emptyCount;
+		private final long exactCardinality;
+		private final long coreIdReferences;
+
+		private ColumnStatistics(int index, String name, long estimatedCardinality, long emptyCount,
+				long exactCardinality, long coreIdReferences) {
+			this.index = index;
+			this.name = name;
+			this.estimatedCardinality = estimatedCardinality;
+			this.emptyCount = emptyCount;
+			this.exactCardinality = exactCardinality;
+			this.coreIdReferences = coreIdReferences;
+		}
+
+		/**
+		 * @return The 0-based index of the column.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return The header for the column.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The estimated number of distinct non-empty values.
+		 */
+		public long getEstimatedCardinality() {
+			return estimatedCardinality;
+		}
+
+		/**
+		 * @return The number of rows with an empty value.
+		 */
+		public long getEmptyCount() {
+			return emptyCount;
+		}
+
+		/**
+		 * @return The exact number of distinct values, or
+		 *         {@link DarwinCoreIdInference#NOT_COMPUTED} if the column was
+		 *         not confirmed exactly.
+		 */
+		public long getExactCardinality() {
+			return exactCardinality;
+		}
+
+		/**
+		 * @return The number of non-empty values that are ids in the core file,
+		 *         or {@link DarwinCoreIdInference#NOT_COMPUTED} if the file was
+		 *         not compared to the core ids.
+		 */
+		public long getCoreIdReferences() {
+			return coreIdReferences;
+		}
+
+		@Override
+		public String toString() {
+			return index + " " + name + " estimatedCardinality=" + estimatedCardinality + " emptyCount=" + emptyCount
+					+ (exactCardinality == NOT_COMPUTED ? "" : " exactCardinality=" + exactCardinality)
+					+ (coreIdReferences == NOT_COMPUTED ? "" : " coreIdReferences=" + coreIdReferences);
+		}
+	}
+
+	/**
+	 * The result of inferring the id or coreId column for a file.
+	 */
+	public static final class Result {
+
+		private final long rowCount;
+		private final List<ColumnStatistics> columns;
+		private final Integer suggestedIndex;
+		private final FingerprintSet idFingerprints;
+
+		private Result(long rowCount, List<ColumnStatistics> columns, Integer suggestedIndex,
+				FingerprintSet idFingerprints) {
+			this.rowCount = rowCount;
+			this.columns = Collections.unmodifiableList(columns);
+			this.suggestedIndex = suggestedIndex;
+			this.idFingerprints = idFingerprints;
+		}
+
+		/**
+		 * @return The number of rows after the header line.
+		 */
+		public long getRowCount() {
+			return rowCount;
+		}
+
+		/**
+		 * @return The statistics for each column.
+		 */
+		public List<ColumnStatistics> getColumns() {
+			return columns;
+		}
+
+		/**
+		 * @return The suggested index for the id or coreId column, or
+		 *         {@link Optional#empty()} if no column was suitable.
+		 */
+		public Optional<Integer> getSuggestedIndex() {
+			return Optional.ofNullable(suggestedIndex);
+		}
+	}
+
+	/**
+	 * Infer the id column for a core file.
+	 * 
+	 * @param csvPath
+	 *            The core file, which must have a single header line, and may
+	 *            be compressed.
+	 * @param encoding
+	 *            The character encoding of the file.
+	 * @param headers
+	 *            The headers for the columns in the file.
+	 * @param knownIdIndex
+	 *            The index of the id column if it is already known, in which case
+	 *            only its fingerprints are collected, or null to infer it.
+	 * @return The statistics for each column, and the suggested id index.
+	 * @throws IOException
+	 *             If there was an IO exception reading the file.
+	 */
+	public Result inferId(final Path csvPath, final Charset encoding, final List<String> headers,
+			final Integer knownIdIndex) throws IOException {
+		final int columnCount = headers.size();
+		final HyperLogLog[] sketches = new HyperLogLog[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			sketches[i] = new HyperLogLog();
+		}
+		final long[] emptyCounts = new long[columnCount];
+		long rowCount = 0;
+		try (final MappingIterator<String[]> rows = openRows(csvPath, encoding);) {
+			while (rows.hasNext()) {
+				final String[] nextRow = rows.next();
+				for (int i = 0; i < columnCount; i++) {
+					final String nextValue = i < nextRow.length ? nextRow[i] : "";
+					if (nextValue.isEmpty()) {
+						emptyCounts[i]++;
+					} else {
+						sketches[i].add(fingerprint(nextValue));
+					}
+				}
+				rowCount++;
+			}
+		}
+
+		// Choose the candidates, leftmost first, and fit as many as possible
+		// within the memory budget
+		final List<Integer> candidates = new ArrayList<>();
+		if (knownIdIndex != null) {
+			if (knownIdIndex >= 0 && knownIdIndex < columnCount) {
+				candidates.add(knownIdIndex);
+			}
+		} else {
+			for (int i = 0; i < columnCount && candidates.size() < candidateCount; i++) {
+				if (emptyCounts[i] == 0 && rowCount > 0
+						&& sketches[i].estimate() >= CANDIDATE_THRESHOLD * rowCount) {
+					candidates.add(i);
+				}
+			}
+		}
+		final long setCapacity = FingerprintSet.capacityFor(rowCount);
+		final int affordableSets = (int) Math.min(candidates.size(),
+				setCapacity < 0 ? 0 : memoryBudget / (setCapacity * Long.BYTES));
+		final FingerprintSet[] exactSets = new FingerprintSet[affordableSets];
+		for (int i = 0; i < affordableSets; i++) {
+			exactSets[i] = new FingerprintSet((int) setCapacity);
+		}
+		if (affordableSets > 0) {
+			try (final MappingIterator<String[]> rows = openRows(csvPath, encoding);) {
+				while (rows.hasNext()) {
+					final String[] nextRow = rows.next();
+					for (int i = 0; i < affordableSets; i++) {
+						final int nextColumn = candidates.get(i);
+						final String nextValue = nextColumn < nextRow.length ? nextRow[nextColumn] : "";
+						exactSets[i].add(fingerprint(nextValue));
+					}
+				}
+			}
+		}
+
+		final List<ColumnStatistics> columns = new ArrayList<>(columnCount);
+		for (int i = 0; i < columnCount; i++) {
+			final int candidateIndex = candidates.indexOf(i);
+			final long exactCardinality = candidateIndex >= 0 && candidateIndex < affordableSets
+					? exactSets[candidateIndex].size()
+					: NOT_COMPUTED;
+			columns.add(new ColumnStatistics(i, headers.get(i), sketches[i].estimate(), emptyCounts[i],
+					exactCardinality, NOT_COMPUTED));
+		}
+		if (knownIdIndex != null) {
+			return new Result(rowCount, columns, knownIdIndex, affordableSets > 0 ? exactSets[0] : null);
+		}
+		for (int i = 0; i < affordableSets; i++) {
+			if (exactSets[i].size() == rowCount) {
+				return new Result(rowCount, columns, candidates.get(i), exactSets[i]);
+			}
+		}
+		return new Result(rowCount, columns, null, null);
+	}
+
+	/**
+	 * Infer the coreId column for an extension file, using the ids from the
+	 * core file.
+	 * 
+	 * @param csvPath
+	 *            The extension file, which must have a single header line, and
+	 *            may be compressed.
+	 * @param encoding
+	 *            The character encoding of the file.
+	 * @param headers
+	 *            The headers for the columns in the file.
+	 * @param coreResult
+	 *            The result of calling
+	 *            {@link #inferId(Path, Charset, List, Integer)} on the core
+	 *            file.
+	 * @return The statistics for each column, and the suggested coreId index,
+	 *         which is only present if the core ids were available and at
+	 *         least one value in the extension refers to a core id.
+	 * @throws IOException
+	 *             If there was an IO exception reading the file.
+	 */
+	public Result inferCoreId(final Path csvPath, final Charset encoding, final List<String> headers,
+			final Result coreResult) throws IOException {
+		final FingerprintSet coreIds = coreResult.idFingerprints;
+		final int columnCount = headers.size();
+		final HyperLogLog[] sketches = new HyperLogLog[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			sketches[i] = new HyperLogLog();
+		}
+		final long[] emptyCounts = new long[columnCount];
+		final long[] coreIdReferences = new long[columnCount];
+		long rowCount = 0;
+		try (final MappingIterator<String[]> rows = openRows(csvPath, encoding);) {
+			while (rows.hasNext()) {
+				final String[] nextRow = rows.next();
+				for (int i = 0; i < columnCount; i++) {
+					final String nextValue = i < nextRow.length ? nextRow[i] : "";
+					if (nextValue.isEmpty()) {
+						emptyCounts[i]++;
+					} else {
+						final long nextFingerprint = fingerprint(nextValue);
+						sketches[i].add(nextFingerprint);
+						if (coreIds != null && coreIds.contains(nextFingerprint)) {
+							coreIdReferences[i]++;
+						}
+					}
+				}
+				rowCount++;
+			}
+		}
+
+		final List<ColumnStatistics> columns = new ArrayList<>(columnCount);
+		Integer suggestedIndex = null;
+		for (int i = 0; i < columnCount; i++) {
+			columns.add(new ColumnStatistics(i, headers.get(i), sketches[i].estimate(), emptyCounts[i],
+					NOT_COMPUTED, coreIds == null ? NOT_COMPUTED : coreIdReferences[i]));
+			if (coreIds != null && coreIdReferences[i] > 0
+					&& (suggestedIndex == null || coreIdReferences[i] > coreIdReferences[suggestedIndex])) {
+				suggestedIndex = i;
+			}
+		}
+		return new Result(rowCount, columns, suggestedIndex, null);
+	}
+
+	private static MappingIterator<String[]> openRows(final Path csvPath, final Charset encoding)
+			throws IOException {
+		final MappingIterator<String[]> rows = DarwinCoreMetadataGenerator.readRows(csvPath, encoding);
+		// Skip the header line
+		if (rows.hasNext()) {
+			rows.next();
+		}
+		return rows;
+	}
+
+	/**
+	 * Compute a 64-bit fingerprint for a value, using FNV-1a over the characters
+	 * followed by the MurmurHash3 finalizer to spread the bits.
+	 * 
+	 * @param value
+	 *            The value to fingerprint.
+	 * @return The fingerprint for the value.
+	 */
+	static long fingerprint(final String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * A HyperLogLog sketch with 2^14 registers, for a standard error of about
+	 * 0.8%.
+	 */
+	static final class HyperLogLog {
+
+		private static final int PRECISION = 14;
+		private static final int REGISTER_COUNT = 1 << PRECISION;
+		private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+
+		private final byte[] registers = new byte[REGISTER_COUNT];
+
+		void add(final long hash) {
+			final int register = (int) (hash >>> (Long.SIZE - PRECISION));
+			final int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+			if (rank > registers[register]) {
+				registers[register] = (byte) rank;
+			}
+		}
+
+		long estimate() {
+			double sum = 0;
+			int zeroRegisters = 0;
+			for (final byte nextRegister : registers) {
+				sum += 1.0 / (1L << nextRegister);
+				if (nextRegister == 0) {
+					zeroRegisters++;
+				}
+			}
+			double estimate = ALPHA * REGISTER_COUNT * REGISTER_COUNT / sum;
+			// Use linear counting for small cardinalities
+			if (estimate <= 2.5 * REGISTER_COUNT && zeroRegisters > 0) {
+				estimate = REGISTER_COUNT * Math.log((double) REGISTER_COUNT / zeroRegisters);
+			}
+			return Math.round(estimate);
+		}
+	}
+
+	/**
+	 * An open addressing hash set of fingerprints, sized up front for the
+	 * number of rows in a file so that it never needs to grow.
+	 */
+	static final class FingerprintSet {
+
+		private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+		private final long[] slots;
+		private final int mask;
+		private boolean containsZero;
+		private int size;
+
+		FingerprintSet(final int capacity) {
+			this.slots = new long[capacity];
+			this.mask = capacity - 1;
+		}
+
+		/**
+		 * @param entries
+		 *            The maximum number of fingerprints to be added.
+		 * @return The power of two capacity that keeps the set at most half
+		 *         full, or -1 if it would be too large for an array.
+		 */
+		static long capacityFor(final long entries) {
+			final long capacity = Math.max(16L, Long.highestOneBit(Math.max(1L, entries) * 2 - 1) << 1);
+			return capacity > MAXIMUM_CAPACITY ? -1 : capacity;
+		}
+
+		boolean add(final long fingerprint) {
+			if (fingerprint == 0) {
+				final boolean added = !containsZero;
+				containsZero = true;
+				if (added) {
+					size++;
+				}
+				return added;
+			}
+			int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+			while (slots[slot] != 0) {
+				if (slots[slot] == fingerprint) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = fingerprint;
+			size++;
+			return true;
+		}
+
+		boolean contains(final long fingerprint) {
+			if (fingerprint == 0) {
+				return containsZero;
+			}
+			int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+			while (slots[slot] != 0) {
+				if (slots[slot] == fingerprint) {
+					return true;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return false;
+		}
+
+		int size() {
+			return size;
+		}
+	}
+}
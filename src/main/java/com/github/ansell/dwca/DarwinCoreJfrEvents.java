@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.github.ansell.dwca.DarwinCoreFlightRecorder.EventType;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Java Flight Recorder event classes for {@link DarwinCoreFlightRecorder}.
+ * <p>
+ * This is the only class that refers to the jdk.jfr API, and it is only loaded
+ * after {@link DarwinCoreFlightRecorder} has checked that the API is available.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+final class DarwinCoreJfrEvents {
+
+	private static final Map<EventType, jdk.jfr.EventType> EVENT_TYPES = new EnumMap<>(EventType.class);
+
+	private static final Map<EventType, Supplier<ArchiveEvent>> FACTORIES = new EnumMap<>(EventType.class);
+
+	static {
+		register(EventType.ZIP_OPEN, ZipOpenEvent.class, ZipOpenEvent::new);
+		register(EventType.METADATA_PARSE, MetadataParseEvent.class, MetadataParseEvent::new);
+		register(EventType.FILE_PARSE, FileParseEvent.class, FileParseEvent::new);
+		register(EventType.SORT_RUN, SortRunEvent.class, SortRunEvent::new);
+		register(EventType.SORT_MERGE, SortMergeEvent.class, SortMergeEvent::new);
+		register(EventType.MERGE_BATCH, MergeBatchEvent.class, MergeBatchEvent::new);
+		register(EventType.SUMMARISE, SummariseEvent.class, SummariseEvent::new);
+	}
+
+	/**
+	 * Private constructor for static only class
+	 */
+	private DarwinCoreJfrEvents() {
+	}
+
+	private static void register(EventType type, Class<? extends ArchiveEvent> eventClass,
+			Supplier<ArchiveEvent> factory) {
+		EVENT_TYPES.put(type, jdk.jfr.EventType.getEventType(eventClass));
+		FACTORIES.put(type, factory);
+	}
+
+	static boolean isEnabled(EventType type) {
+		return EVENT_TYPES.get(type).isEnabled();
+	}
+
+	static DarwinCoreFlightRecorder.Span begin(EventType type, String file) {
+		final ArchiveEvent event = FACTORIES.get(type).get();
+		event.file = file;
+		event.begin();
+		return new DarwinCoreFlightRecorder.Span() {
+			@Override
+			public boolean isEnabled() {
+				return true;
+			}
+
+			@Override
+			public void addRows(long rows) {
+				event.rows += rows;
+			}
+
+			@Override
+			public void addBytes(long bytes) {
+				event.bytes += bytes;
+			}
+
+			@Override
+			public void close() {
+				event.commit();
+			}
+		};
+	}
+
+	abstract static class ArchiveEvent extends Event {
+
+		@Label("File")
+		@Description("The file being processed")
+		String file;
+
+		@Label("Rows")
+		@Description("The number of rows processed, or 0 if not known")
+		long rows;
+
+		@Label("Bytes")
+		@Description("The number of bytes processed, or 0 if not known")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("com.github.ansell.dwca.ZipOpen")
+	@Label("Zip Open")
+	@Category("Darwin Core Archive")
+	static final class ZipOpenEvent extends ArchiveEvent {
+	}
+
+	@Name("com.github.ansell.dwca.MetadataParse")
+	@Label("Metadata Parse")
+	@Category("Darwin Core Archive")
+	static final class MetadataParseEvent extends ArchiveEvent {
+	}
+
+	@Name("com.github.ansell.dwca.FileParse")
+	@Label("File Parse")
+	@Category("Darwin Core Archive")
+	static final class FileParseEvent extends ArchiveEvent {
+	}
+
+	@Name("com.github.ansell.dwca.SortRun")
+	@Label("Sort Run")
+	@Category("Darwin Core Archive")
+	static final class SortRunEvent extends ArchiveEvent {
+	}
+
+	@Name("com.github.ansell.dwca.SortMerge")
+	@Label("Sort Merge")
+	@Category("Darwin Core Archive")
+	static final class SortMergeEvent extends ArchiveEvent {
+	}
+
+	@Name("com.github.ansell.dwca.MergeBatch")
+	@Label("Merge Batch")
+	@Category("Darwin Core Archive")
+	static final class MergeBatchEvent extends ArchiveEvent {
+	}
+
+	@Name("com.github.ansell.dwca.Summarise")
+	@Label("Summarise")
+	@Category("Darwin Core Archive")
+	static final class SummariseEvent extends ArchiveEvent {
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A merged core description compiled into integer column maps, so that rows
+ * from the input archives can be copied into the merged row layout without
+ * searching for terms or allocating per row.
+ * <p>
+ * The column map for an input is compiled the first time a record with a
+ * given field list is seen and is reused for every following record that
+ * shares the same field list instance, which is the case for all records
+ * produced by {@link DarwinCoreArchiveDocument#iterator(boolean)}.
+ * <p>
+ * The row returned by {@link #merge(DarwinCoreRecord, DarwinCoreRecord)} is
+ * reused for each call, so it must be written out or copied before the next
+ * call. Instances are not thread-safe.
+ * <p>
+ * When records with the same id are merged, each column is resolved using the
+ * {@link DarwinCoreConflictResolver} compiled for it when the mapping was
+ * created, so custom {@link DarwinCoreConflictPolicy} implementations do not
+ * need an extra pass over the data.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreMergeMapping {
+
+	/**
+	 * Marker for a column that is not present, both in the column maps for the
+	 * inputs and as the result of {@link #getMergedColumn(String)}.
+	 */
+	public static final int MISSING = -1;
+
+	private final List<DarwinCoreField> mergedFields;
+	private final boolean includeDefaults;
+	private final int mergedIdColumn;
+	private final String[] defaultRow;
+	private final String[] row;
+	private final List<String> rowView;
+	private final DarwinCoreConflictResolver[] resolvers;
+
+	// Two slots, one for each side of a merge, keyed on the identity of the
+	// field list for the records from that side
+	private final Object[] cachedFields = new Object[2];
+	private final int[][] cachedColumns = new int[2][];
+	private int nextCacheSlot = 0;
+
+	/**
+	 * Compile the given merged core into a mapping.
+	 * 
+	 * @param mergedCore
+	 *            The core from the merged document, which defines the output
+	 *            column layout.
+	 * @param includeDefaults
+	 *            True to prefill each row with the default values from the
+	 *            merged core and substitute defaults for empty input values,
+	 *            and false to use the empty string.
+	 * @throws IllegalStateException
+	 *             If the id field for the merged core cannot be found.
+	 */
+	public DarwinCoreMergeMapping(final DarwinCoreCoreOrExtension mergedCore, final boolean includeDefaults) {
+		this(mergedCore, includeDefaults, Collections.emptyMap());
+	}
+
+	/**
+	 * Compile the given merged core into a mapping, using the given policies to
+	 * resolve conflicts between records with the same id.
+	 * 
+	 * @param mergedCore
+	 *            The core from the merged document, which defines the output
+	 *            column layout.
+	 * @param includeDefaults
+	 *            True to prefill each row with the default values from the
+	 *            merged core and substitute defaults for empty input values,
+	 *            and false to use the empty string.
+	 * @param conflictPolicies
+	 *            The policies to use for each term. Terms that are not in the
+	 *            map use {@link DarwinCoreConflictPolicies#PREFER_INPUT}.
+	 * @throws IllegalStateException
+	 *             If the id field for the merged core cannot be found, or one
+	 *             of the policies cannot be used for its term.
+	 * @throws IllegalArgumentException
+	 *             If there are policies for terms that are not in the merged
+	 *             core.
+	 */
+	public DarwinCoreMergeMapping(final DarwinCoreCoreOrExtension mergedCore, final boolean includeDefaults,
+			final Map<String, DarwinCoreConflictPolicy> conflictPolicies) {
+		this.mergedFields = mergedCore.getFields();
+		this.includeDefaults = includeDefaults;
+		this.mergedIdColumn = findIdColumn(mergedCore, mergedFields);
+		this.defaultRow = new String[mergedFields.size()];
+		if (includeDefaults) {
+			mergedCore.getDefaultValues().toArray(this.defaultRow);
+		} else {
+			Arrays.fill(this.defaultRow, "");
+		}
+		this.row = new String[mergedFields.size()];
+		this.rowView = Collections.unmodifiableList(Arrays.asList(this.row));
+		final Set<String> unknownTerms = new TreeSet<>(conflictPolicies.keySet());
+		for (final DarwinCoreField nextMergedField : mergedFields) {
+			unknownTerms.remove(nextMergedField.getTerm());
+		}
+		if (!unknownTerms.isEmpty()) {
+			throw new IllegalArgumentException(
+					"Conflict policies were given for terms that are not in the merged archive: " + unknownTerms);
+		}
+		this.resolvers = new DarwinCoreConflictResolver[mergedFields.size()];
+		for (int i = 0; i < resolvers.length; i++) {
+			final DarwinCoreField nextMergedField = mergedFields.get(i);
+			resolvers[i] = conflictPolicies
+					.getOrDefault(nextMergedField.getTerm(), DarwinCoreConflictPolicies.PREFER_INPUT)
+					.compile(nextMergedField, this);
+		}
+	}
+
+	private static int findIdColumn(final DarwinCoreCoreOrExtension mergedCore,
+			final List<DarwinCoreField> mergedFields) {
+		int mergedCoreIDField = Integer.parseInt(mergedCore.getIdOrCoreId());
+		for (int i = 0; i < mergedFields.size(); i++) {
+			// NOTE: Darwin Core Archive specification doesn't say that the
+			// indexes need to be unique, so we always pick the first one for
+			// consistency
+			Integer nextIndex = mergedFields.get(i).getIndex();
+			if (nextIndex != null && nextIndex == mergedCoreIDField) {
+				return i;
+			}
+		}
+		throw new IllegalStateException(
+				"Did not find the id field for the merged document using its index: " + mergedCoreIDField);
+	}
+
+	/**
+	 * @return The fields in the merged core, in output column order.
+	 */
+	public List<DarwinCoreField> getMergedFields() {
+		return mergedFields;
+	}
+
+	/**
+	 * Find the column in the merged output for the given term.
+	 * 
+	 * @param term
+	 *            The term to find.
+	 * @return The index of the first merged column with the term, or
+	 *         {@link #MISSING} if the merged core does not contain the term.
+	 */
+	public int getMergedColumn(final String term) {
+		for (int i = 0; i < mergedFields.size(); i++) {
+			if (mergedFields.get(i).getTerm().equals(term)) {
+				return i;
+			}
+		}
+		return MISSING;
+	}
+
+	/**
+	 * Find the value in the given record for a column in the merged output.
+	 * 
+	 * @param record
+	 *            The record from one of the inputs.
+	 * @param mergedColumn
+	 *            The index of the column in the merged output.
+	 * @return The value, or null if the record does not contain the field for
+	 *         the column.
+	 */
+	public String getMergedValue(final DarwinCoreRecord record, final int mergedColumn) {
+		return valueFor(record, columnsFor(record)[mergedColumn]);
+	}
+
+	/**
+	 * Find the value of the merged id field in the given record.
+	 * 
+	 * @param record
+	 *            The record from one of the inputs.
+	 * @return The id value, or null if the record does not contain the id
+	 *         field.
+	 */
+	public String idFor(final DarwinCoreRecord record) {
+		int inputColumn = columnsFor(record)[mergedIdColumn];
+		if (inputColumn == MISSING) {
+			return null;
+		}
+		return record.valueAt(inputColumn, includeDefaults);
+	}
+
+	/**
+	 * Fill the reusable output row from the given record. If there is a record
+	 * with the same id from the other input, the value for each column is
+	 * chosen by the conflict resolver for that column, which by default falls
+	 * back to the other record for values that are empty in the first record.
+	 * 
+	 * @param record
+	 *            The record to take values from.
+	 * @param fallbackRecord
+	 *            The record with the same id from the other input, or null if
+	 *            there was no matching record.
+	 * @return A view of the reusable output row, in merged column order, that
+	 *         is overwritten by the next call to this method.
+	 */
+	public List<String> merge(final DarwinCoreRecord record, final DarwinCoreRecord fallbackRecord) {
+		System.arraycopy(defaultRow, 0, row, 0, row.length);
+		final int[] columns = columnsFor(record);
+		final int[] fallbackColumns = fallbackRecord != null ? columnsFor(fallbackRecord) : null;
+		for (int i = 0; i < row.length; i++) {
+			String nextMergedValue = valueFor(record, columns[i]);
+			if (fallbackColumns != null) {
+				nextMergedValue = resolvers[i].resolve(nextMergedValue, record,
+						valueFor(fallbackRecord, fallbackColumns[i]), fallbackRecord);
+			}
+			if (nextMergedValue != null) {
+				row[i] = nextMergedValue;
+			}
+		}
+		return rowView;
+	}
+
+	/**
+	 * Fill the reusable output row from the given record, taking the values for
+	 * any columns that the record does not have a field for from the base
+	 * record. Unlike {@link #merge(DarwinCoreRecord, DarwinCoreRecord)}, empty
+	 * values in the record replace the base values, and conflict resolvers are
+	 * not used.
+	 * 
+	 * @param record
+	 *            The record to take values from.
+	 * @param baseRecord
+	 *            The record with the same id that is being updated.
+	 * @return A view of the reusable output row, in merged column order, that
+	 *         is overwritten by the next call to this method.
+	 */
+	public List<String> patch(final DarwinCoreRecord record, final DarwinCoreRecord baseRecord) {
+		System.arraycopy(defaultRow, 0, row, 0, row.length);
+		final int[] columns = columnsFor(record);
+		final int[] baseColumns = columnsFor(baseRecord);
+		for (int i = 0; i < row.length; i++) {
+			final String nextMergedValue = columns[i] != MISSING ? valueFor(record, columns[i])
+					: valueFor(baseRecord, baseColumns[i]);
+			if (nextMergedValue != null) {
+				row[i] = nextMergedValue;
+			}
+		}
+		return rowView;
+	}
+
+	private String valueFor(final DarwinCoreRecord record, final int inputColumn) {
+		if (inputColumn == MISSING) {
+			return null;
+		}
+		return record.valueAt(inputColumn, includeDefaults);
+	}
+
+	private int[] columnsFor(final DarwinCoreRecord record) {
+		final List<DarwinCoreField> inputFields = record.getFields();
+		for (int slot = 0; slot < cachedFields.length; slot++) {
+			if (cachedFields[slot] == inputFields) {
+				return cachedColumns[slot];
+			}
+		}
+		final int[] result = compileColumns(inputFields);
+		cachedFields[nextCacheSlot] = inputFields;
+		cachedColumns[nextCacheSlot] = result;
+		nextCacheSlot = (nextCacheSlot + 1) % cachedFields.length;
+		return result;
+	}
+
+	private int[] compileColumns(final List<DarwinCoreField> inputFields) {
+		final int[] result = new int[mergedFields.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = MISSING;
+			final String nextMergedTerm = mergedFields.get(i).getTerm();
+			// Match the first field with the term, consistent with
+			// DarwinCoreRecord.valueFor
+			for (int j = 0; j < inputFields.size(); j++) {
+				if (inputFields.get(j).getTerm().equals(nextMergedTerm)) {
+					result[i] = j;
+					break;
+				}
+			}
+		}
+		return result;
+	}
+}
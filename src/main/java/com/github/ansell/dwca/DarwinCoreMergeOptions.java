@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * The settings for a merge or delta merge by {@link DarwinCoreArchiveMerger}.
+ * <p>
+ * The defaults match the behaviour of the original merge methods: all terms
+ * are kept, default values are included, conflicts are resolved using
+ * {@link DarwinCoreConflictPolicies#PREFER_INPUT}, the inputs are sorted with
+ * {@link DarwinCoreExternalSorter#getDefault()} without writing statistics for
+ * them, and ZIP entries are deflated at the default level.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreMergeOptions {
+
+	private boolean filterNonVocabularyTerms = false;
+	private boolean includeDefaults = true;
+	private Map<String, DarwinCoreConflictPolicy> conflictPolicies = Collections.emptyMap();
+	private boolean inputStatistics = false;
+	private DarwinCoreExternalSorter sorter;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private boolean storeUncompressed = false;
+	private boolean debug = false;
+
+	/**
+	 * @return True to filter out terms that cannot be matched to a vocabulary,
+	 *         and false to include all terms.
+	 */
+	public boolean isFilterNonVocabularyTerms() {
+		return filterNonVocabularyTerms;
+	}
+
+	public void setFilterNonVocabularyTerms(final boolean filterNonVocabularyTerms) {
+		this.filterNonVocabularyTerms = filterNonVocabularyTerms;
+	}
+
+	/**
+	 * @return True to include default values from the metadata for each input
+	 *         when merging, and false to ignore them.
+	 */
+	public boolean isIncludeDefaults() {
+		return includeDefaults;
+	}
+
+	public void setIncludeDefaults(final boolean includeDefaults) {
+		this.includeDefaults = includeDefaults;
+	}
+
+	/**
+	 * @return The conflict policy for each term, with terms that are not
+	 *         included using {@link DarwinCoreConflictPolicies#PREFER_INPUT}.
+	 *         Each term must be in the merged archive.
+	 */
+	public Map<String, DarwinCoreConflictPolicy> getConflictPolicies() {
+		return conflictPolicies;
+	}
+
+	public void setConflictPolicies(final Map<String, DarwinCoreConflictPolicy> conflictPolicies) {
+		this.conflictPolicies = Collections.unmodifiableMap(new LinkedHashMap<>(conflictPolicies));
+	}
+
+	/**
+	 * @return True to also write statistics and mappings for each input data
+	 *         file, which requires an extra pass over each of them, and false
+	 *         to only read them once while merging.
+	 */
+	public boolean isInputStatistics() {
+		return inputStatistics;
+	}
+
+	public void setInputStatistics(final boolean inputStatistics) {
+		this.inputStatistics = inputStatistics;
+	}
+
+	/**
+	 * @return The sorter to use for the input archives, which is
+	 *         {@link DarwinCoreExternalSorter#getDefault()} unless another
+	 *         sorter has been set.
+	 */
+	public DarwinCoreExternalSorter getSorter() {
+		return sorter != null ? sorter : DarwinCoreExternalSorter.getDefault();
+	}
+
+	public void setSorter(final DarwinCoreExternalSorter sorter) {
+		this.sorter = Objects.requireNonNull(sorter, "Sorter cannot be null");
+	}
+
+	/**
+	 * @return The deflate level for merges into ZIP files, from 0 to 9, or -1
+	 *         for the default level.
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public void setCompressionLevel(final int compressionLevel) {
+		DarwinCoreArchiveZip.checkCompressionLevel(compressionLevel);
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @return True to write ZIP entries using the STORED method, and false to
+	 *         deflate them.
+	 */
+	public boolean isStoreUncompressed() {
+		return storeUncompressed;
+	}
+
+	public void setStoreUncompressed(final boolean storeUncompressed) {
+		this.storeUncompressed = storeUncompressed;
+	}
+
+	/**
+	 * @return True to emit debug information to the console.
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+
+	public void setDebug(final boolean debug) {
+		this.debug = debug;
+	}
+}
@@ -29,22 +29,30 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -52,7 +60,7 @@ import java.util.stream.Collectors;
 
 import javax.xml.stream.XMLStreamException;
 
-import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.io.output.NullWriter;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Model;
@@ -67,7 +75,11 @@ import org.jooq.lambda.function.Consumer3;
 import org.jooq.lambda.function.Consumer4;
 import org.xml.sax.SAXException;
 
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.github.ansell.csv.stream.CSVStream;
 import com.github.ansell.csv.sum.CSVSummariser;
 import com.github.ansell.jdefaultdict.JDefaultDict;
@@ -91,6 +103,8 @@ public class DarwinCoreMetadataGenerator {
 	private static final String ALA_HEADING_REQUESTED_FIELD = "Requested field";
 	private static final String ALA_HEADING_COLUMN_NAME = "Column name";
 
+	private static volatile Map<String, Map<String, List<IRI>>> cachedDefaultVocabularies;
+
 	/**
 	 * Private constructor for static only class
 	 */
@@ -132,6 +146,27 @@ public class DarwinCoreMetadataGenerator {
 		final OptionSpec<File> checkMissingTerms = parser.accepts("missing-terms-report").withRequiredArg()
 				.ofType(File.class).describedAs(
 						"The file to write a report detailing which terms were missing or present, after possibly matching case-insensitively and using override headers/ala headers.");
+		final OptionSpec<Boolean> inferIds = parser.accepts("infer-ids").withRequiredArg().ofType(Boolean.class)
+				.defaultsTo(Boolean.FALSE).describedAs(
+						"Set to true to read the core and extension files to suggest the id and coreId indexes based on the cardinality of each column. An explicit core-id-index is kept.");
+		final OptionSpec<Long> inferIdsMemoryMb = parser.accepts("infer-ids-memory-mb").withRequiredArg()
+				.ofType(Long.class).defaultsTo(DarwinCoreIdInference.DEFAULT_MEMORY_BUDGET >> 20)
+				.describedAs("The approximate number of megabytes of heap to use when confirming id columns.");
+		final OptionSpec<Boolean> inferTypes = parser.accepts("infer-types").withRequiredArg().ofType(Boolean.class)
+				.defaultsTo(Boolean.FALSE).describedAs(
+						"Set to true to read the core and extension files to report the type of each column and set the dateFormat from date columns.");
+		final OptionSpec<Long> inferTypesMaxRows = parser.accepts("infer-types-max-rows").withRequiredArg()
+				.ofType(Long.class).defaultsTo(0L)
+				.describedAs("The maximum number of rows to read from each file when inferring types, or 0 for all rows.");
+		final OptionSpec<Integer> threads = parser.accepts("threads").withRequiredArg().ofType(Integer.class)
+				.defaultsTo(Runtime.getRuntime().availableProcessors())
+				.describedAs("The maximum number of core and extension files to scan concurrently.");
+		final OptionSpec<Boolean> summarise = parser.accepts("summarise").withRequiredArg().ofType(Boolean.class)
+				.defaultsTo(Boolean.FALSE).describedAs(
+						"Set to true to read the whole core file and print statistics about its fields before generating the metadata.");
+		final OptionSpec<String> encodingOption = parser.accepts("encoding").withRequiredArg().ofType(String.class)
+				.defaultsTo(StandardCharsets.UTF_8.name()).describedAs(
+						"The character encoding of the input and extension files, which may be gzip, bzip2 or xz compressed.");
 		final OptionSpec<Boolean> debug = parser.accepts("debug").withRequiredArg().ofType(Boolean.class)
 				.defaultsTo(Boolean.FALSE).describedAs("Set to true to debug.");
 
@@ -172,8 +207,9 @@ public class DarwinCoreMetadataGenerator {
 		final int headerLineCountInt = headerLineCount.value(options);
 		final boolean showDefaultsBoolean = showDefaults.value(options);
 		final boolean debugBoolean = debug.value(options);
+		final Charset encoding = Charset.forName(encodingOption.value(options));
 
-		final Map<String, Map<String, List<IRI>>> vocabMap = getDefaultVocabularies();
+		final Map<String, Map<String, List<IRI>>> vocabMap = getCachedDefaultVocabularies();
 
 		// Defaults to null, with any strings in the file overriding that
 		final AtomicReference<List<String>> overrideHeadersList = new AtomicReference<>();
@@ -247,11 +283,15 @@ public class DarwinCoreMetadataGenerator {
 			}
 		}
 
-		try (final Reader inputReader = Files.newBufferedReader(inputPath, StandardCharsets.UTF_8);
-				final OutputStream statisticsStream = debugBoolean ? System.out : new NullOutputStream();
-				final Writer statisticsOutput = new OutputStreamWriter(statisticsStream, StandardCharsets.UTF_8);) {
-			CSVSummariser.runSummarise(inputReader, statisticsOutput, new NullWriter(), 20, true, debugBoolean,
-					overrideHeadersList.get(), headerLineCountInt);
+		// The statistics pass reads the whole core file, so only run it when
+		// requested
+		if (summarise.value(options)) {
+			try (final Reader inputReader = DarwinCoreCompression.newBufferedReader(inputPath, encoding);
+					final Writer statisticsOutput = new OutputStreamWriter(new CloseShieldOutputStream(System.out),
+							StandardCharsets.UTF_8);) {
+				CSVSummariser.runSummarise(inputReader, statisticsOutput, new NullWriter(), 20, true, debugBoolean,
+						overrideHeadersList.get(), headerLineCountInt);
+			}
 		}
 
 		List<String> missingTermsCsvFileHeaders = Arrays.asList("vocab", "term", "iris", "present");
@@ -272,15 +312,75 @@ public class DarwinCoreMetadataGenerator {
 					throw new RuntimeException(e);
 				}
 			};
+			final DarwinCoreIdInference idInference = inferIds.value(options)
+					? new DarwinCoreIdInference(inferIdsMemoryMb.value(options) << 20,
+							DarwinCoreIdInference.DEFAULT_CANDIDATE_COUNT)
+					: null;
+			final DarwinCoreColumnProfiler columnProfiler = inferTypes.value(options)
+					? new DarwinCoreColumnProfiler(inferTypesMaxRows.value(options))
+					: null;
             generateMetadata(inputPath, outputPath, extensionPaths, showDefaultsBoolean, vocabMap,
 					overrideHeadersList.get(), coreIdIndexValue, matchCaseInsensitive.value(options),
-					checkMissingTermsConsumer, debugBoolean, coreRowTypeURI);
+					checkMissingTermsConsumer, debugBoolean, coreRowTypeURI, idInference, columnProfiler,
+					threads.value(options), encoding);
 		} finally {
 			missingTermsWriter.close();
 		}
 	}
 
+	/**
+	 * Get the default vocabularies, from the precompiled snapshot if it is on
+	 * the classpath, and otherwise by parsing the RDF vocabularies.
+	 * 
+	 * @return A map from vocabulary IRIs to local names to the IRIs of terms
+	 *         with that local name.
+	 * @throws IOException
+	 *             If there was an error reading the snapshot or the
+	 *             vocabularies.
+	 */
 	public static Map<String, Map<String, List<IRI>>> getDefaultVocabularies() throws IOException {
+		final Map<String, Map<String, List<IRI>>> snapshot = DarwinCoreVocabularySnapshot.loadDefault();
+		if (snapshot != null) {
+			return snapshot;
+		}
+		return parseDefaultVocabularies();
+	}
+
+	/**
+	 * Get the default vocabularies, loading them using
+	 * {@link #getDefaultVocabularies()} the first time this is called, and
+	 * returning the same unmodifiable map after that, so that long running
+	 * processes only load them once.
+	 * 
+	 * @return An unmodifiable map from vocabulary IRIs to local names to the
+	 *         IRIs of terms with that local name.
+	 * @throws IOException
+	 *             If there was an error reading the snapshot or the
+	 *             vocabularies.
+	 */
+	public static Map<String, Map<String, List<IRI>>> getCachedDefaultVocabularies() throws IOException {
+		Map<String, Map<String, List<IRI>>> result = cachedDefaultVocabularies;
+		if (result == null) {
+			synchronized (DarwinCoreMetadataGenerator.class) {
+				result = cachedDefaultVocabularies;
+				if (result == null) {
+					result = Collections.unmodifiableMap(getDefaultVocabularies());
+					cachedDefaultVocabularies = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Parse the default vocabularies from the RDF files on the classpath.
+	 * 
+	 * @return A map from vocabulary IRIs to local names to the IRIs of terms
+	 *         with that local name.
+	 * @throws IOException
+	 *             If there was an error reading the vocabularies.
+	 */
+	public static Map<String, Map<String, List<IRI>>> parseDefaultVocabularies() throws IOException {
 		final Map<String, Map<String, List<IRI>>> vocabMap = new JDefaultDict<>(
 				k -> new JDefaultDict<>(l -> new ArrayList<>()));
 
@@ -312,6 +412,45 @@ public class DarwinCoreMetadataGenerator {
 			final Integer coreIDIndex, final boolean matchCaseInsensitive,
 			final Consumer4<String, String, List<IRI>, Boolean> checkMissingTermsConsumer, final boolean debugBoolean, String coreRowTypeURI)
 			throws IOException, XMLStreamException, SAXException {
+		return generateMetadata(inputPath, outputPath, extensionPaths, showDefaults, vocabMap, coreOverrideHeaders,
+				coreIDIndex, matchCaseInsensitive, checkMissingTermsConsumer, debugBoolean, coreRowTypeURI, null, null,
+				1, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Generate a metadata file for the given core and extension files,
+	 * optionally reading the files to suggest the id and coreId columns and to
+	 * infer column types.
+	 * <p>
+	 * If idInference is not null, the id for the core is inferred unless
+	 * coreIDIndex is set, and the coreId for each extension is inferred from the
+	 * core ids, falling back to the first column. The cardinality of each column
+	 * is printed to System.out along with the suggestions.
+	 * <p>
+	 * If columnProfiler is not null, the type of each column is printed to
+	 * System.out, and the dateFormat for each file is set from its date columns.
+	 * <p>
+	 * The core and extension files are scanned concurrently using up to
+	 * parallelism threads, and the document is then assembled in the order the
+	 * files were given, so the result is the same for any parallelism.
+	 * <p>
+	 * The files are read using encoding, and may be compressed with any of the
+	 * formats supported by {@link DarwinCoreCompression}. The encoding is
+	 * recorded for the core and each extension in the metadata.
+	 * 
+	 * @return The document that was written to the output path.
+	 */
+	public static DarwinCoreArchiveDocument generateMetadata(final Path inputPath, final Path outputPath,
+			final List<Path> extensionPaths, final boolean showDefaults,
+			final Map<String, Map<String, List<IRI>>> vocabMap, final List<String> coreOverrideHeaders,
+			final Integer coreIDIndex, final boolean matchCaseInsensitive,
+			final Consumer4<String, String, List<IRI>, Boolean> checkMissingTermsConsumer, final boolean debugBoolean,
+			String coreRowTypeURI, final DarwinCoreIdInference idInference,
+			final DarwinCoreColumnProfiler columnProfiler, final int parallelism, final Charset encoding)
+			throws IOException, XMLStreamException, SAXException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+		}
 		final Map<DarwinCoreCoreOrExtension, List<String>> extensionFields = new JDefaultDict<>(k -> new ArrayList<>());
 		final DarwinCoreArchiveDocument result = new DarwinCoreArchiveDocument();
 		final DarwinCoreCoreOrExtension core = DarwinCoreCoreOrExtension.newCore();
@@ -320,6 +459,7 @@ public class DarwinCoreMetadataGenerator {
 		    core.setIdOrCoreId(Integer.toString(coreIDIndex));
 		}
 		core.setIgnoreHeaderLines(1);
+		core.setEncoding(encoding);
 		core.setLinesTerminatedBy("\n");
 		core.setFieldsTerminatedBy(",");
 		result.setCore(core);
@@ -327,40 +467,92 @@ public class DarwinCoreMetadataGenerator {
 		coreFile.addLocation(inputPath.getFileName().toString());
 		result.getCore().setFiles(coreFile);
 
-		List<String> coreHeaders = new ArrayList<>();
-		if (coreOverrideHeaders != null) {
-			coreHeaders.addAll(coreOverrideHeaders);
-		}
-		try (Reader inputStreamReader = Files.newBufferedReader(inputPath);) {
-			CSVStream.parse(inputStreamReader, h -> {
-				if (coreOverrideHeaders == null) {
-					coreHeaders.addAll(h);
+		// Scan the core and extension files independently, and then assemble
+		// the document from the scans in a fixed order so the result does not
+		// depend on which scans finish first
+		final ExecutorService executor = parallelism > 1
+				? Executors.newFixedThreadPool(Math.min(parallelism, extensionPaths.size() + 1))
+				: null;
+		final Executor scanExecutor = executor != null ? executor : Runnable::run;
+		final CompletableFuture<FileScan> coreScan;
+		final List<CompletableFuture<FileScan>> extensionScans = new ArrayList<>(extensionPaths.size());
+		try {
+			coreScan = scanAsync(() -> {
+				final List<String> headers = coreOverrideHeaders != null ? new ArrayList<>(coreOverrideHeaders)
+						: readHeaders(inputPath, encoding);
+				return new FileScan(headers,
+						idInference != null ? idInference.inferId(inputPath, encoding, headers, coreIDIndex) : null,
+						columnProfiler != null ? columnProfiler.profile(inputPath, encoding, headers) : null);
+			}, scanExecutor);
+			for (final Path nextExtensionPath : extensionPaths) {
+				final CompletableFuture<FileScan> nextScan = scanAsync(() -> {
+					final List<String> headers = readHeaders(nextExtensionPath, encoding);
+					return new FileScan(headers, null,
+							columnProfiler != null ? columnProfiler.profile(nextExtensionPath, encoding, headers)
+									: null);
+				}, scanExecutor);
+				if (idInference != null) {
+					// The coreId inference needs the ids from the core
+					extensionScans.add(nextScan.thenCombineAsync(coreScan,
+							(extensionScan, scannedCore) -> extensionScan.withIdResult(scan(
+									() -> idInference.inferCoreId(nextExtensionPath, encoding, extensionScan.headers,
+											scannedCore.idResult))),
+							scanExecutor));
+				} else {
+					extensionScans.add(nextScan);
 				}
-			}, (h, l) -> l, l -> {
-			});
+			}
+			awaitScan(coreScan);
+			for (final CompletableFuture<FileScan> nextScan : extensionScans) {
+				awaitScan(nextScan);
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
 		}
 
-		populateFields(coreHeaders, vocabMap, core, matchCaseInsensitive);
+		final FileScan coreFileScan = awaitScan(coreScan);
+		final List<String> coreHeaders = coreFileScan.headers;
+		final DarwinCoreTermIndex termIndex = DarwinCoreTermIndex.build(vocabMap);
+		populateFields(coreHeaders, termIndex, core, matchCaseInsensitive);
+
+		if (coreFileScan.idResult != null) {
+			printIdInference(inputPath, coreFileScan.idResult, "id");
+			if (coreIDIndex == null && coreFileScan.idResult.getSuggestedIndex().isPresent()) {
+				core.setIdOrCoreId(Integer.toString(coreFileScan.idResult.getSuggestedIndex().get()));
+			}
+		}
+		if (coreFileScan.profile != null) {
+			applyProfile(inputPath, coreFileScan.profile, core);
+		}
 
 		extensionFields.put(core, coreHeaders);
 
-		for (final Path nextExtensionPath : extensionPaths) {
+		for (int i = 0; i < extensionPaths.size(); i++) {
+			final Path nextExtensionPath = extensionPaths.get(i);
+			final FileScan nextExtensionScan = awaitScan(extensionScans.get(i));
 			final DarwinCoreCoreOrExtension nextExtension = DarwinCoreCoreOrExtension.newExtension();
 			nextExtension.setRowType(DarwinCoreArchiveConstants.MULTIMEDIA_RECORD);
-			// TODO: Choose this from a predefined list such as "catalogNumber"
-			// Could also csvsum to get likely primary keys based on uniqueness
 			nextExtension.setIdOrCoreId("0");
 			nextExtension.setIgnoreHeaderLines(1);
+			nextExtension.setEncoding(encoding);
 			final DarwinCoreFile nextExtensionFile = new DarwinCoreFile();
 			nextExtensionFile.addLocation(nextExtensionPath.getFileName().toString());
 			nextExtension.setFiles(nextExtensionFile);
 
-			List<String> nextExtensionHeaders = new ArrayList<>();
-			try (Reader inputStreamReader = Files.newBufferedReader(nextExtensionPath);) {
-				CSVStream.parse(inputStreamReader, h -> nextExtensionHeaders.addAll(h), (h, l) -> l, l -> {
-				});
+			List<String> nextExtensionHeaders = nextExtensionScan.headers;
+			if (nextExtensionScan.idResult != null) {
+				printIdInference(nextExtensionPath, nextExtensionScan.idResult, "coreId");
+				if (nextExtensionScan.idResult.getSuggestedIndex().isPresent()) {
+					nextExtension
+							.setIdOrCoreId(Integer.toString(nextExtensionScan.idResult.getSuggestedIndex().get()));
+				}
+			}
+			if (nextExtensionScan.profile != null) {
+				applyProfile(nextExtensionPath, nextExtensionScan.profile, nextExtension);
 			}
-			populateFields(nextExtensionHeaders, vocabMap, nextExtension, matchCaseInsensitive);
+			populateFields(nextExtensionHeaders, termIndex, nextExtension, matchCaseInsensitive);
 			// We completely ignore empty files
 			if (!nextExtension.getFields().isEmpty()) {
 				result.addExtension(nextExtension);
@@ -418,6 +610,145 @@ public class DarwinCoreMetadataGenerator {
 		return result;
 	}
 
+	/**
+	 * The results of scanning a single core or extension file.
+	 */
+	private static final class FileScan {
+
+		private final List<String> headers;
+		private final DarwinCoreIdInference.Result idResult;
+		private final DarwinCoreColumnProfiler.Result profile;
+
+		private FileScan(List<String> headers, DarwinCoreIdInference.Result idResult,
+				DarwinCoreColumnProfiler.Result profile) {
+			this.headers = headers;
+			this.idResult = idResult;
+			this.profile = profile;
+		}
+
+		private FileScan withIdResult(DarwinCoreIdInference.Result nextIdResult) {
+			return new FileScan(headers, nextIdResult, profile);
+		}
+	}
+
+	/**
+	 * A scan of a file, which may throw an IOException.
+	 */
+	@FunctionalInterface
+	private interface Scan<T> {
+		T get() throws IOException;
+	}
+
+	private static <T> T scan(final Scan<T> scan) {
+		try {
+			return scan.get();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static <T> CompletableFuture<T> scanAsync(final Scan<T> scan, final Executor executor) {
+		return CompletableFuture.supplyAsync(() -> scan(scan), executor);
+	}
+
+	private static <T> T awaitScan(final CompletableFuture<T> scan) throws IOException {
+		try {
+			return scan.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a file to be scanned");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IOException("Could not scan file", e.getCause());
+		}
+	}
+
+	private static void applyProfile(final Path csvPath, final DarwinCoreColumnProfiler.Result profile,
+			final DarwinCoreCoreOrExtension coreOrExtension) {
+		System.out.println("Column types for " + csvPath.getFileName() + " from " + profile.getRowCount() + " rows:");
+		for (final DarwinCoreColumnProfiler.ColumnProfile nextColumn : profile.getColumns()) {
+			System.out.println("\t" + nextColumn);
+		}
+		if (profile.getDateFormat().isPresent()) {
+			final String dateFormat = profile.getDateFormat().get();
+			System.out.println("Detected dateFormat for " + csvPath.getFileName() + ": " + dateFormat);
+			// Keep the default pattern instance so it is only written when
+			// showing defaults
+			if (!dateFormat.equals(DarwinCoreCoreOrExtension.DEFAULT_DATE_FORMAT_PATTERN)) {
+				coreOrExtension.setDateFormat(dateFormat);
+			}
+		}
+	}
+
+	private static void printIdInference(final Path csvPath, final DarwinCoreIdInference.Result idResult,
+			final String idType) {
+		System.out.println("Column cardinalities for " + csvPath.getFileName() + " with " + idResult.getRowCount()
+				+ " rows:");
+		for (final DarwinCoreIdInference.ColumnStatistics nextColumn : idResult.getColumns()) {
+			System.out.println("\t" + nextColumn);
+		}
+		if (idResult.getSuggestedIndex().isPresent()) {
+			System.out.println("Suggested " + idType + " index for " + csvPath.getFileName() + ": "
+					+ idResult.getSuggestedIndex().get());
+		} else {
+			System.out.println("Could not suggest an " + idType + " index for " + csvPath.getFileName());
+		}
+	}
+
+	/**
+	 * Read the header line from a CSV file, without reading the rest of the file.
+	 * 
+	 * @param csvPath
+	 *            The path to the CSV file, which may be compressed.
+	 * @param encoding
+	 *            The character encoding of the file.
+	 * @return The headers from the first line of the file, or an empty list if
+	 *         the file is empty.
+	 * @throws IOException
+	 *             If there was an IO exception reading the file
+	 */
+	public static List<String> readHeaders(final Path csvPath, final Charset encoding) throws IOException {
+		try (final MappingIterator<String[]> rows = readRows(csvPath, encoding);) {
+			if (!rows.hasNext()) {
+				return new ArrayList<>();
+			}
+			return new ArrayList<>(Arrays.asList(rows.next()));
+		}
+	}
+
+	/**
+	 * Open a streaming iterator over the rows of a CSV file, starting with the
+	 * header line.
+	 * 
+	 * @param csvPath
+	 *            The path to the CSV file, which may be compressed.
+	 * @param encoding
+	 *            The character encoding of the file.
+	 * @return An iterator over the rows, which closes the file when it is
+	 *         closed.
+	 * @throws IOException
+	 *             If there was an IO exception opening the file
+	 */
+	static MappingIterator<String[]> readRows(final Path csvPath, final Charset encoding) throws IOException {
+		final CsvMapper mapper = CSVStream.defaultMapper();
+		mapper.enable(CsvParser.Feature.WRAP_AS_ARRAY);
+		final Reader inputReader = DarwinCoreCompression.newBufferedReader(csvPath, encoding);
+		try {
+			return mapper.readerFor(String[].class).with(CsvSchema.emptySchema()).readValues(inputReader);
+		} catch (IOException | RuntimeException e) {
+			inputReader.close();
+			throw e;
+		}
+	}
+
 	/**
 	 * Parse an RDF vocabulary into the given vocabMap.
 	 * 
@@ -469,45 +800,41 @@ public class DarwinCoreMetadataGenerator {
 	 */
 	public static void populateFields(final List<String> headers, Map<String, Map<String, List<IRI>>> vocabMap,
 			DarwinCoreCoreOrExtension coreOrExtension, boolean matchCaseInsensitive) throws IOException {
+		populateFields(headers, DarwinCoreTermIndex.build(vocabMap), coreOrExtension, matchCaseInsensitive);
+	}
+
+	/**
+	 * Populate field names for a core or extension from the given file, using
+	 * an index that can be reused across files.
+	 * 
+	 * @param headers
+	 *            The headers to use
+	 * @param termIndex
+	 *            The index over the vocabularies that will be used to map the
+	 *            field names to IRIs.
+	 * @param coreOrExtension
+	 *            The core or extension representing the given file which we need to
+	 *            add the fields to.
+	 * @param matchCaseInsensitive
+	 *            If true, attempts to match terms to the vocabulary without regard
+	 *            to the case, defaults to false
+	 * @throws IOException
+	 *             If there was an IO exception accessing the file
+	 */
+	public static void populateFields(final List<String> headers, DarwinCoreTermIndex termIndex,
+			DarwinCoreCoreOrExtension coreOrExtension, boolean matchCaseInsensitive) throws IOException {
 
 		for (int i = 0; i < headers.size(); i++) {
 			String nextHeader = headers.get(i);
 			DarwinCoreField nextField = new DarwinCoreField();
-			// Check if the field maps to DWC
-			// If it is DWC, give it that vocabulary
+			// Check if the field maps to a vocabulary using either the local name or the
+			// full IRI
+			// If it does, give it that vocabulary
 			nextField.setIndex(i);
-			String vocabulary = null;
-			IRI fullIRI = null;
-			for (String nextVocabulary : vocabMap.keySet()) {
-				for (Entry<String, List<IRI>> nextLocalNameIRI : vocabMap.get(nextVocabulary).entrySet()) {
-					if (nextLocalNameIRI.getKey().equals(nextHeader)
-							|| (matchCaseInsensitive && nextLocalNameIRI.getKey().equalsIgnoreCase(nextHeader))) {
-						vocabulary = nextVocabulary;
-						fullIRI = nextLocalNameIRI.getValue().iterator().next();
-					} else {
-						// Support them using the full IRI for the field name
-						for (IRI nextTermIRI : nextLocalNameIRI.getValue()) {
-							if (nextTermIRI.stringValue().equals(nextHeader) || (matchCaseInsensitive
-									&& nextTermIRI.stringValue().equalsIgnoreCase(nextHeader))) {
-								vocabulary = nextVocabulary;
-								fullIRI = nextTermIRI;
-								break;
-							}
-						}
-					}
-					if (vocabulary != null) {
-						break;
-					}
-				}
-				if (vocabulary != null) {
-					break;
-				}
-			}
-			if (vocabulary != null) {
-				nextField.setVocabulary(vocabulary);
-			}
-			if (fullIRI != null) {
-				nextField.setTerm(fullIRI.toString());
+			Optional<DarwinCoreTermIndex.Match> match = termIndex.find(nextHeader, matchCaseInsensitive);
+			if (match.isPresent()) {
+				nextField.setVocabulary(match.get().getVocabulary());
+				nextField.setTerm(match.get().getTerm().toString());
 			}
 			// Else add it without vocabulary
 			else {
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics for checking, iterating, sorting and merging archives.
+ * <p>
+ * The default registry is disabled, and every method that records a metric
+ * returns immediately after checking a final field, so the instrumentation in
+ * the hot paths costs almost nothing unless {@link #enable()} has been called.
+ * The enabled registry is registered with the platform MBean server under
+ * {@link #OBJECT_NAME}, and can also print a summary line periodically.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreMetrics implements DarwinCoreMetricsMXBean {
+
+	/**
+	 * The name the enabled registry is registered under in the platform MBean
+	 * server.
+	 */
+	public static final String OBJECT_NAME = "com.github.ansell.dwca:type=DarwinCoreMetrics";
+
+	/**
+	 * Phase for extracting a ZIP file.
+	 */
+	public static final String PHASE_ZIP_EXTRACT = "zip-extract";
+
+	/**
+	 * Phase for parsing a meta.xml file.
+	 */
+	public static final String PHASE_METADATA_PARSE = "metadata-parse";
+
+	/**
+	 * Phase for sorting a core or extension file.
+	 */
+	public static final String PHASE_SORT = "sort";
+
+	/**
+	 * Phase for parsing, and possibly summarising, a core or extension file.
+	 */
+	public static final String PHASE_PARSE = "parse";
+
+	/**
+	 * Phase for merging two cores.
+	 */
+	public static final String PHASE_MERGE = "merge";
+
+	private static final DarwinCoreMetrics DISABLED = new DarwinCoreMetrics(false);
+
+	private static volatile DarwinCoreMetrics defaultMetrics = DISABLED;
+
+	private final boolean enabled;
+
+	private final LongAdder records = new LongAdder();
+	private final LongAdder recordsWritten = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder parseNanos = new LongAdder();
+	private final LongAdder consumerNanos = new LongAdder();
+	private final LongAdder parserWaitNanos = new LongAdder();
+	private final LongAdder consumerWaitNanos = new LongAdder();
+	private final LongAdder spills = new LongAdder();
+	private final LongAdder spillBytes = new LongAdder();
+	private final Map<String, LongAdder> phaseNanos = new ConcurrentHashMap<>();
+
+	private volatile long resetNanos = System.nanoTime();
+
+	private ScheduledExecutorService logExecutor;
+
+	private Consumer<String> logConsumer;
+
+	private DarwinCoreMetrics(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return The registry that metrics are recorded in, which is a disabled
+	 *         registry unless {@link #enable()} has been called.
+	 */
+	public static DarwinCoreMetrics getDefault() {
+		return defaultMetrics;
+	}
+
+	/**
+	 * Enable metrics by replacing the default registry with a new enabled
+	 * registry, and registering it with the platform MBean server, replacing
+	 * any previously registered registry.
+	 * 
+	 * @return The enabled registry.
+	 * @throws IllegalStateException
+	 *             If the registry could not be registered with the platform
+	 *             MBean server.
+	 */
+	public static synchronized DarwinCoreMetrics enable() {
+		disable();
+		final DarwinCoreMetrics result = new DarwinCoreMetrics(true);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(result, new ObjectName(OBJECT_NAME));
+		} catch (final JMException e) {
+			throw new IllegalStateException("Could not register metrics with JMX", e);
+		}
+		defaultMetrics = result;
+		return result;
+	}
+
+	/**
+	 * Disable metrics by replacing the default registry with a disabled
+	 * registry, stopping any periodic logging, and unregistering from the
+	 * platform MBean server.
+	 * 
+	 * @throws IllegalStateException
+	 *             If the registry could not be unregistered from the platform
+	 *             MBean server.
+	 */
+	public static synchronized void disable() {
+		final DarwinCoreMetrics previous = defaultMetrics;
+		defaultMetrics = DISABLED;
+		previous.stopLogging();
+		try {
+			final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName objectName = new ObjectName(OBJECT_NAME);
+			if (mBeanServer.isRegistered(objectName)) {
+				mBeanServer.unregisterMBean(objectName);
+			}
+		} catch (final JMException e) {
+			throw new IllegalStateException("Could not unregister metrics from JMX", e);
+		}
+	}
+
+	/**
+	 * Enable metrics for a command line run if either of the metrics options
+	 * were set.
+	 * 
+	 * @param expose
+	 *            True to enable metrics and expose them through JMX.
+	 * @param logSeconds
+	 *            The number of seconds between summary lines, or 0 to not log
+	 *            summary lines. Metrics are enabled if this is positive.
+	 * @param log
+	 *            The consumer for summary lines.
+	 * @return The registry for the run, which must be passed to
+	 *         {@link #finishRun(DarwinCoreMetrics)} when the run completes.
+	 * @throws IllegalArgumentException
+	 *             If logSeconds is negative.
+	 */
+	public static DarwinCoreMetrics startRun(final boolean expose, final int logSeconds,
+			final Consumer<String> log) {
+		if (logSeconds < 0) {
+			throw new IllegalArgumentException("Metrics log interval cannot be negative: " + logSeconds);
+		}
+		if (!expose && logSeconds == 0) {
+			return getDefault();
+		}
+		final DarwinCoreMetrics result = enable();
+		if (logSeconds > 0) {
+			result.startLogging(logSeconds, TimeUnit.SECONDS, log);
+		}
+		return result;
+	}
+
+	/**
+	 * Stop logging and disable metrics that were enabled by
+	 * {@link #startRun(boolean, int, Consumer)}.
+	 * 
+	 * @param metrics
+	 *            The registry returned by
+	 *            {@link #startRun(boolean, int, Consumer)}.
+	 */
+	public static synchronized void finishRun(final DarwinCoreMetrics metrics) {
+		if (metrics.isEnabled() && metrics == defaultMetrics) {
+			disable();
+		} else {
+			metrics.stopLogging();
+		}
+	}
+
+	/**
+	 * @return True if this registry records metrics, and false if all of the
+	 *         recording methods do nothing.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return The start time to pass to {@link #endPhase(String, long)}, or 0
+	 *         if this registry is disabled.
+	 */
+	public long startPhase() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Add the time since the given start time to a phase.
+	 * 
+	 * @param phase
+	 *            The name of the phase.
+	 * @param startNanos
+	 *            The start time from {@link #startPhase()}.
+	 */
+	public void endPhase(final String phase, final long startNanos) {
+		if (enabled) {
+			phaseNanos.computeIfAbsent(phase, p -> new LongAdder()).add(System.nanoTime() - startNanos);
+		}
+	}
+
+	public void addRecords(final long count) {
+		if (enabled) {
+			records.add(count);
+		}
+	}
+
+	public void addRecordsWritten(final long count) {
+		if (enabled) {
+			recordsWritten.add(count);
+		}
+	}
+
+	public void addBytes(final long count) {
+		if (enabled) {
+			bytes.add(count);
+		}
+	}
+
+	/**
+	 * Add the time taken by an iterator parse thread.
+	 * 
+	 * @param elapsedNanos
+	 *            The total time the parse thread ran for.
+	 * @param waitNanos
+	 *            The part of the total time spent waiting for the consumer,
+	 *            which was already added using {@link #addParserWait(long)}.
+	 */
+	public void addParse(final long elapsedNanos, final long waitNanos) {
+		if (enabled) {
+			parseNanos.add(elapsedNanos - waitNanos);
+		}
+	}
+
+	/**
+	 * Add the time taken by an iterator consumer.
+	 * 
+	 * @param elapsedNanos
+	 *            The total time from the start to the end of the iteration.
+	 * @param waitNanos
+	 *            The part of the total time spent waiting for the parser, which
+	 *            was already added using {@link #addConsumerWait(long)}.
+	 */
+	public void addConsumer(final long elapsedNanos, final long waitNanos) {
+		if (enabled) {
+			consumerNanos.add(elapsedNanos - waitNanos);
+		}
+	}
+
+	public void addParserWait(final long nanos) {
+		if (enabled) {
+			parserWaitNanos.add(nanos);
+		}
+	}
+
+	public void addConsumerWait(final long nanos) {
+		if (enabled) {
+			consumerWaitNanos.add(nanos);
+		}
+	}
+
+	public void addSpill(final long spillFileBytes) {
+		if (enabled) {
+			spills.increment();
+			spillBytes.add(spillFileBytes);
+		}
+	}
+
+	@Override
+	public long getRecords() {
+		return records.sum();
+	}
+
+	@Override
+	public long getRecordsWritten() {
+		return recordsWritten.sum();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	@Override
+	public double getRecordsPerSecond() {
+		return perSecond(getRecords());
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		return perSecond(getBytes());
+	}
+
+	private double perSecond(final long count) {
+		final long elapsedNanos = System.nanoTime() - resetNanos;
+		return elapsedNanos > 0 ? count * 1e9 / elapsedNanos : 0.0;
+	}
+
+	@Override
+	public long getParseMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(parseNanos.sum());
+	}
+
+	@Override
+	public long getConsumerMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(consumerNanos.sum());
+	}
+
+	@Override
+	public long getParserWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(parserWaitNanos.sum());
+	}
+
+	@Override
+	public long getConsumerWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(consumerWaitNanos.sum());
+	}
+
+	@Override
+	public long getSpills() {
+		return spills.sum();
+	}
+
+	@Override
+	public long getSpillBytes() {
+		return spillBytes.sum();
+	}
+
+	@Override
+	public Map<String, Long> getPhaseMillis() {
+		final Map<String, Long> result = new TreeMap<>();
+		phaseNanos.forEach((phase, nanos) -> result.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos.sum())));
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		records.reset();
+		recordsWritten.reset();
+		bytes.reset();
+		parseNanos.reset();
+		consumerNanos.reset();
+		parserWaitNanos.reset();
+		consumerWaitNanos.reset();
+		spills.reset();
+		spillBytes.reset();
+		phaseNanos.clear();
+		resetNanos = System.nanoTime();
+	}
+
+	/**
+	 * @return A single line summarising the current metrics.
+	 */
+	public String summary() {
+		return String.format(
+				"metrics records=%d records/s=%.1f bytes=%d bytes/s=%.1f written=%d parse-ms=%d consumer-ms=%d parser-wait-ms=%d consumer-wait-ms=%d spills=%d spill-bytes=%d phases-ms=%s",
+				getRecords(), getRecordsPerSecond(), getBytes(), getBytesPerSecond(), getRecordsWritten(),
+				getParseMillis(), getConsumerMillis(), getParserWaitMillis(), getConsumerWaitMillis(), getSpills(),
+				getSpillBytes(), getPhaseMillis());
+	}
+
+	/**
+	 * Start sending a {@link #summary()} line to the given consumer
+	 * periodically, on a daemon thread, until {@link #stopLogging()} is called.
+	 * 
+	 * @param period
+	 *            The time between lines.
+	 * @param unit
+	 *            The unit for the period.
+	 * @param log
+	 *            The consumer for each line.
+	 * @throws IllegalStateException
+	 *             If this registry is disabled or is already logging.
+	 */
+	public synchronized void startLogging(final long period, final TimeUnit unit, final Consumer<String> log) {
+		if (!enabled) {
+			throw new IllegalStateException("Cannot log metrics when they are disabled");
+		}
+		if (logExecutor != null) {
+			throw new IllegalStateException("Metrics are already being logged");
+		}
+		logConsumer = Objects.requireNonNull(log, "Log consumer cannot be null");
+		logExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread result = new Thread(r, "dwca-metrics-log");
+			result.setDaemon(true);
+			return result;
+		});
+		logExecutor.scheduleAtFixedRate(() -> log.accept(summary()), period, period, unit);
+	}
+
+	/**
+	 * Stop periodic logging, if it was started, sending a final summary line.
+	 */
+	public synchronized void stopLogging() {
+		if (logExecutor != null) {
+			logExecutor.shutdownNow();
+			logExecutor = null;
+			logConsumer.accept(summary());
+			logConsumer = null;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link DarwinCoreMetrics}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public interface DarwinCoreMetricsMXBean {
+
+	/**
+	 * @return The number of records parsed from core and extension files.
+	 */
+	long getRecords();
+
+	/**
+	 * @return The number of records written by merges.
+	 */
+	long getRecordsWritten();
+
+	/**
+	 * @return The number of bytes in the core and extension files that have
+	 *         been parsed.
+	 */
+	long getBytes();
+
+	/**
+	 * @return The number of records parsed per second since the metrics were
+	 *         last reset.
+	 */
+	double getRecordsPerSecond();
+
+	/**
+	 * @return The number of bytes parsed per second since the metrics were last
+	 *         reset.
+	 */
+	double getBytesPerSecond();
+
+	/**
+	 * @return The time iterator parse threads spent parsing, not including the
+	 *         time waiting for consumers to take records.
+	 */
+	long getParseMillis();
+
+	/**
+	 * @return The time iterator consumers spent between records, not including
+	 *         the time waiting for records to be parsed.
+	 */
+	long getConsumerMillis();
+
+	/**
+	 * @return The time iterator parse threads spent waiting for consumers to
+	 *         take records, which is high when consumers are the bottleneck.
+	 */
+	long getParserWaitMillis();
+
+	/**
+	 * @return The time iterator consumers spent waiting for records to be
+	 *         parsed, which is high when parsing is the bottleneck.
+	 */
+	long getConsumerWaitMillis();
+
+	/**
+	 * @return The number of sorted runs spilled to disk by external sorts.
+	 */
+	long getSpills();
+
+	/**
+	 * @return The compressed size of the sorted runs spilled to disk.
+	 */
+	long getSpillBytes();
+
+	/**
+	 * @return The total time spent in each phase, by phase name.
+	 */
+	Map<String, Long> getPhaseMillis();
+
+	/**
+	 * Reset all of the metrics to zero.
+	 */
+	void reset();
+}
@@ -57,4 +57,23 @@ public interface DarwinCoreRecord {
 	 * @return The value to return
 	 */
 	Optional<String> valueFor(String term, boolean includeDefaults);
+
+	/**
+	 * Return the value at the given position in {@link #getFields()}, using the
+	 * same rules for empty values and defaults as
+	 * {@link #valueFor(String, boolean)}, without searching for the term.
+	 * 
+	 * @param index
+	 *            The position in {@link #getFields()} to return the value for
+	 * @param includeDefaults
+	 *            Whether to include defaults when the value would otherwise be
+	 *            empty
+	 * @return The value to return, or the empty string if there was no value
+	 *         and no default was used
+	 * @throws IndexOutOfBoundsException
+	 *             If the index is not a valid position in {@link #getFields()}
+	 */
+	default String valueAt(int index, boolean includeDefaults) {
+		return valueFor(getFields().get(index).getTerm(), includeDefaults).orElse("");
+	}
 }
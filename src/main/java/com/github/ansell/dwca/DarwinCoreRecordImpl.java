@@ -79,18 +79,7 @@ public final class DarwinCoreRecordImpl implements DarwinCoreRecord {
 		}
 		for (int i = 0; i < values.size(); i++) {
 			if (fields.get(i).getTerm().equals(term)) {
-				String result = values.get(i);
-				if (result == null || result.isEmpty()) {
-					if (includeDefaults && fields.get(i).hasDefault()) {
-						return Optional.of(fields.get(i).getDefault());
-					} else {
-						// Null should not occur, but if it does,
-						// wrap it with empty string
-						return Optional.of("");
-					}
-				} else {
-					return Optional.of(result);
-				}
+				return Optional.of(valueAt(i, includeDefaults));
 			}
 		}
 		// Optional.empty is reserved for when the term did not
@@ -98,4 +87,19 @@ public final class DarwinCoreRecordImpl implements DarwinCoreRecord {
 		return Optional.empty();
 	}
 
+	@Override
+	public String valueAt(int index, boolean includeDefaults) {
+		String result = values.get(index);
+		if (result == null || result.isEmpty()) {
+			if (includeDefaults && fields.get(index).hasDefault()) {
+				return fields.get(index).getDefault();
+			} else {
+				// Null should not occur, but if it does,
+				// wrap it with empty string
+				return "";
+			}
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,659 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.jooq.lambda.Unchecked;
+
+/**
+ * A cache of the parsed rows of a core or extension file, in a compact binary
+ * form that is much faster to read than the CSV file, for archives that are
+ * iterated over more than once.
+ * <p>
+ * The cache is written next to the data file, with {@link #CACHE_SUFFIX} or
+ * {@link #SORTED_CACHE_SUFFIX} added to its name, depending on whether the
+ * rows were sorted by id, or to a separate cache directory, for data files in
+ * directories that cannot be written to. It starts with a fingerprint of the data file and of
+ * the metadata used to parse it, and a cache with a different fingerprint is
+ * ignored and replaced. Each row is written as its length followed by its
+ * values, and each value is either a string, or a reference to an earlier
+ * value in the same column, for columns where values are often repeated.
+ * Values are cached without defaults, which are substituted when the cache is
+ * read, so that one cache can be used with and without defaults.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreRowCache {
+
+	/**
+	 * The suffix added to the name of a data file to name the cache of its
+	 * rows in file order.
+	 */
+	public static final String CACHE_SUFFIX = ".rows";
+
+	/**
+	 * The suffix added to the name of a data file to name the cache of its
+	 * rows sorted by id.
+	 */
+	public static final String SORTED_CACHE_SUFFIX = ".sorted.rows";
+
+	private static final int MAGIC = 0x44574352;
+
+	private static final int VERSION = 1;
+
+	private static final int TAG_EMPTY = 0;
+	private static final int TAG_LITERAL = 1;
+	private static final int TAG_DICTIONARY_LITERAL = 2;
+	private static final int TAG_DICTIONARY_REFERENCE = 3;
+
+	/**
+	 * The longest value, in bytes, that is added to a dictionary.
+	 */
+	private static final int MAX_DICTIONARY_VALUE_BYTES = 256;
+
+	/**
+	 * The maximum number of values in the dictionary for each column.
+	 */
+	private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+	/**
+	 * The number of values in a column before the dictionary is checked to see
+	 * whether it is being used.
+	 */
+	private static final int DICTIONARY_TRIAL_VALUES = 1 << 10;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Private constructor for static only class
+	 */
+	private DarwinCoreRowCache() {
+	}
+
+	/**
+	 * @param dataPath
+	 *            The path to a core or extension file.
+	 * @param sorted
+	 *            True for the cache of rows sorted by id, and false for the
+	 *            cache of rows in file order.
+	 * @return The path to the cache for the file.
+	 */
+	public static Path cachePathFor(final Path dataPath, final boolean sorted) {
+		return cachePathFor(dataPath, sorted, null);
+	}
+
+	/**
+	 * @param dataPath
+	 *            The path to a core or extension file.
+	 * @param sorted
+	 *            True for the cache of rows sorted by id, and false for the
+	 *            cache of rows in file order.
+	 * @param cacheDir
+	 *            The directory to keep the cache in, or null to keep it next
+	 *            to the data file.
+	 * @return The path to the cache for the file.
+	 */
+	public static Path cachePathFor(final Path dataPath, final boolean sorted, final Path cacheDir) {
+		return DarwinCoreIdIndex.sidecarPathFor(dataPath, cacheDir, sorted ? SORTED_CACHE_SUFFIX : CACHE_SUFFIX);
+	}
+
+	/**
+	 * Check whether the cache for a core or extension exists and was created
+	 * from the current data file and metadata.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param sorted
+	 *            True for the cache of rows sorted by id, and false for the
+	 *            cache of rows in file order.
+	 * @return True if the cache can be used.
+	 * @throws IOException
+	 *             If the data file or the cache could not be read.
+	 */
+	public static boolean isCurrent(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted) throws IOException {
+		return isCurrent(coreOrExtension, metadataPath, sorted, null);
+	}
+
+	/**
+	 * Check whether the cache for a core or extension in the given directory
+	 * exists and was created from the current data file and metadata.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param sorted
+	 *            True for the cache of rows sorted by id, and false for the
+	 *            cache of rows in file order.
+	 * @param cacheDir
+	 *            The directory the cache is kept in, or null if it is kept
+	 *            next to the data file.
+	 * @return True if the cache can be used.
+	 * @throws IOException
+	 *             If the data file or the cache could not be read.
+	 */
+	public static boolean isCurrent(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted, final Path cacheDir) throws IOException {
+		final Path dataPath = coreOrExtension.getDataPath(metadataPath);
+		final Path cachePath = cachePathFor(dataPath, sorted, cacheDir);
+		if (!Files.exists(cachePath)) {
+			return false;
+		}
+		try (final DataInputStream input = new DataInputStream(Files.newInputStream(cachePath));) {
+			return input.readInt() == MAGIC && input.readInt() == VERSION
+					&& input.readLong() == fingerprint(coreOrExtension, dataPath);
+		} catch (final EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Parse a core or extension, reading from its cache if it is current, and
+	 * otherwise parsing the data file and writing the cache while the rows
+	 * are being parsed.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to parse.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param sorted
+	 *            True to parse the rows sorted by id, and false to parse them
+	 *            in file order.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @param rowConsumer
+	 *            Accepts the values for each row.
+	 * @throws IOException
+	 *             If the files could not be read, or the cache could not be
+	 *             written.
+	 */
+	public static void parse(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted, final boolean includeDefaults, final Consumer<List<String>> rowConsumer)
+			throws IOException {
+		parse(coreOrExtension, metadataPath, sorted, includeDefaults, DarwinCoreExternalSorter.getDefault(),
+				rowConsumer);
+	}
+
+	/**
+	 * Parse a core or extension, as for
+	 * {@link #parse(DarwinCoreCoreOrExtension, Path, boolean, boolean, Consumer)},
+	 * using the given sorter if the rows need to be sorted before they are
+	 * cached.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to parse.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param sorted
+	 *            True to parse the rows sorted by id, and false to parse them
+	 *            in file order.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @param sorter
+	 *            The sorter to use if the rows are sorted.
+	 * @param rowConsumer
+	 *            Accepts the values for each row.
+	 * @throws IOException
+	 *             If the files could not be read, or the cache could not be
+	 *             written.
+	 */
+	public static void parse(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted, final boolean includeDefaults, final DarwinCoreExternalSorter sorter,
+			final Consumer<List<String>> rowConsumer) throws IOException {
+		parse(coreOrExtension, metadataPath, sorted, includeDefaults, sorter, null, rowConsumer);
+	}
+
+	/**
+	 * Parse a core or extension, as for
+	 * {@link #parse(DarwinCoreCoreOrExtension, Path, boolean, boolean, DarwinCoreExternalSorter, Consumer)},
+	 * keeping the cache in the given directory.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to parse.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param sorted
+	 *            True to parse the rows sorted by id, and false to parse them
+	 *            in file order.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @param sorter
+	 *            The sorter to use if the rows are sorted.
+	 * @param cacheDir
+	 *            The directory to keep the cache in, or null to keep it next
+	 *            to the data file.
+	 * @param rowConsumer
+	 *            Accepts the values for each row.
+	 * @throws IOException
+	 *             If the files could not be read, or the cache could not be
+	 *             written.
+	 */
+	public static void parse(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted, final boolean includeDefaults, final DarwinCoreExternalSorter sorter,
+			final Path cacheDir, final Consumer<List<String>> rowConsumer) throws IOException {
+		if (isCurrent(coreOrExtension, metadataPath, sorted, cacheDir)) {
+			read(coreOrExtension, metadataPath, sorted, includeDefaults, cacheDir, rowConsumer);
+		} else {
+			final List<String> defaultValues = coreOrExtension.getDefaultValues();
+			materialise(coreOrExtension, metadataPath, sorted, sorter, cacheDir,
+					l -> rowConsumer.accept(includeDefaults ? withDefaults(l, defaultValues) : l));
+		}
+	}
+
+	/**
+	 * Parse the data file for a core or extension and write its cache,
+	 * replacing any existing cache.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to parse.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param sorted
+	 *            True to cache the rows sorted by id, and false to cache them
+	 *            in file order.
+	 * @return The path to the cache.
+	 * @throws IOException
+	 *             If the data file could not be read, or the cache could not
+	 *             be written.
+	 */
+	public static Path materialise(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted) throws IOException {
+		return materialise(coreOrExtension, metadataPath, sorted, null);
+	}
+
+	/**
+	 * Parse the data file for a core or extension and write its cache in the
+	 * given directory, replacing any existing cache.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to parse.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param sorted
+	 *            True to cache the rows sorted by id, and false to cache them
+	 *            in file order.
+	 * @param cacheDir
+	 *            The directory to keep the cache in, which is created if it
+	 *            does not exist, or null to keep it next to the data file.
+	 * @return The path to the cache.
+	 * @throws IOException
+	 *             If the data file could not be read, or the cache could not
+	 *             be written.
+	 */
+	public static Path materialise(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted, final Path cacheDir) throws IOException {
+		return materialise(coreOrExtension, metadataPath, sorted, DarwinCoreExternalSorter.getDefault(), cacheDir,
+				l -> {
+				});
+	}
+
+	private static Path materialise(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted, final DarwinCoreExternalSorter sorter, final Path cacheDir,
+			final Consumer<List<String>> rowConsumer) throws IOException {
+		final Path dataPath = coreOrExtension.getDataPath(metadataPath);
+		final Path cachePath = cachePathFor(dataPath, sorted, cacheDir);
+		if (cacheDir != null) {
+			Files.createDirectories(cacheDir);
+		}
+		final long fingerprint = fingerprint(coreOrExtension, dataPath);
+		// Write a temporary file and move it into place, so that a cache is
+		// only used if it is complete
+		final Path tempPath = Files.createTempFile(cachePath.getParent(), cachePath.getFileName().toString(),
+				".tmp");
+		try {
+			try (final RowWriter writer = new RowWriter(Files.newOutputStream(tempPath),
+					coreOrExtension.getFields().size(), fingerprint);) {
+				final Consumer<Reader> parseFunction = DarwinCoreArchiveChecker.createParseFunction(coreOrExtension,
+						h -> {
+						}, (h, l) -> l, Unchecked.consumer(l -> {
+							writer.write(l);
+							rowConsumer.accept(l);
+						}), false);
+				if (sorted) {
+					DarwinCoreArchiveChecker.parseCoreOrExtensionSorted(coreOrExtension, metadataPath, parseFunction,
+							sorter, false);
+				} else {
+					DarwinCoreArchiveChecker.parseCoreOrExtension(coreOrExtension, metadataPath, parseFunction);
+				}
+			}
+			Files.move(tempPath, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+		return cachePath;
+	}
+
+	/**
+	 * Read the rows for a core or extension from its cache.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to read.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param sorted
+	 *            True to read the cache of rows sorted by id, and false to read
+	 *            the cache of rows in file order.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @param rowConsumer
+	 *            Accepts the values for each row.
+	 * @return The number of rows that were read.
+	 * @throws IOException
+	 *             If the cache could not be read.
+	 * @throws IllegalStateException
+	 *             If the cache is not current, or is not complete.
+	 */
+	public static long read(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted, final boolean includeDefaults, final Consumer<List<String>> rowConsumer)
+			throws IOException {
+		return read(coreOrExtension, metadataPath, sorted, includeDefaults, null, rowConsumer);
+	}
+
+	/**
+	 * Read the rows for a core or extension from its cache in the given
+	 * directory.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to read.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param sorted
+	 *            True to read the cache of rows sorted by id, and false to read
+	 *            the cache of rows in file order.
+	 * @param includeDefaults
+	 *            True to substitute default values from the metadata for empty
+	 *            values.
+	 * @param cacheDir
+	 *            The directory the cache is kept in, or null if it is kept
+	 *            next to the data file.
+	 * @param rowConsumer
+	 *            Accepts the values for each row.
+	 * @return The number of rows that were read.
+	 * @throws IOException
+	 *             If the cache could not be read.
+	 * @throws IllegalStateException
+	 *             If the cache is not current, or is not complete.
+	 */
+	public static long read(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean sorted, final boolean includeDefaults, final Path cacheDir,
+			final Consumer<List<String>> rowConsumer) throws IOException {
+		final Path dataPath = coreOrExtension.getDataPath(metadataPath);
+		final Path cachePath = cachePathFor(dataPath, sorted, cacheDir);
+		final int columnCount = coreOrExtension.getFields().size();
+		final List<String> defaultValues = coreOrExtension.getDefaultValues();
+		long rows = 0;
+		try (final DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.PARSE, cachePath.toString());
+				final DataInputStream input = new DataInputStream(
+						new BufferedInputStream(Files.newInputStream(cachePath), BUFFER_SIZE));) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION
+					|| input.readLong() != fingerprint(coreOrExtension, dataPath) || input.readInt() != columnCount) {
+				throw new IllegalStateException("Row cache is not current: " + cachePath);
+			}
+			final List<List<String>> dictionaries = new ArrayList<>(columnCount);
+			for (int i = 0; i < columnCount; i++) {
+				dictionaries.add(new ArrayList<>());
+			}
+			byte[] rowBytes = new byte[256];
+			// The position in the row, which is advanced as values are read
+			final int[] position = new int[1];
+			int rowLength;
+			while ((rowLength = readVarInt(input)) > 0) {
+				// Enable interruption to fail the read before it completes
+				if (Thread.currentThread().isInterrupted()) {
+					throw new IllegalStateException("Interruption occurred during read");
+				}
+				if (rowLength > rowBytes.length) {
+					rowBytes = new byte[Math.max(rowLength, rowBytes.length * 2)];
+				}
+				input.readFully(rowBytes, 0, rowLength);
+				final String[] values = new String[columnCount];
+				position[0] = 0;
+				for (int i = 0; i < columnCount; i++) {
+					final int tag = readVarInt(rowBytes, position);
+					final String nextValue;
+					if (tag == TAG_EMPTY) {
+						nextValue = "";
+					} else if (tag >= TAG_DICTIONARY_REFERENCE) {
+						nextValue = dictionaries.get(i).get(tag - TAG_DICTIONARY_REFERENCE);
+					} else {
+						final int length = readVarInt(rowBytes, position);
+						nextValue = new String(rowBytes, position[0], length, StandardCharsets.UTF_8);
+						position[0] += length;
+						if (tag == TAG_DICTIONARY_LITERAL) {
+							dictionaries.get(i).add(nextValue);
+						}
+					}
+					values[i] = includeDefaults && nextValue.isEmpty() ? defaultValues.get(i) : nextValue;
+				}
+				rows++;
+				span.addRows(1);
+				rowConsumer.accept(Arrays.asList(values));
+			}
+			if (input.readLong() != rows) {
+				throw new IllegalStateException("Row cache is not complete: " + cachePath);
+			}
+			if (span.isEnabled()) {
+				span.addBytes(Files.size(cachePath));
+			}
+		} catch (final EOFException e) {
+			throw new IllegalStateException("Row cache is not complete: " + cachePath, e);
+		}
+		return rows;
+	}
+
+	private static List<String> withDefaults(final List<String> values, final List<String> defaultValues) {
+		final List<String> result = new ArrayList<>(values);
+		for (int i = 0; i < result.size(); i++) {
+			if (result.get(i).isEmpty()) {
+				result.set(i, defaultValues.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return A fingerprint of the size and modification time of the data
+	 *         file, and of the parts of the metadata that change how it is
+	 *         parsed.
+	 */
+	private static long fingerprint(final DarwinCoreCoreOrExtension coreOrExtension, final Path dataPath)
+			throws IOException {
+		final StringBuilder result = new StringBuilder();
+		result.append(Files.size(dataPath)).append('\n');
+		result.append(Files.getLastModifiedTime(dataPath).toMillis()).append('\n');
+		result.append(coreOrExtension.getEncoding().name()).append('\n');
+		result.append(coreOrExtension.getFieldsTerminatedBy()).append('\n');
+		result.append(coreOrExtension.getFieldsEnclosedBy()).append('\n');
+		result.append(coreOrExtension.getLinesTerminatedBy()).append('\n');
+		result.append(coreOrExtension.getIgnoreHeaderLines()).append('\n');
+		result.append(coreOrExtension.getIdOrCoreId()).append('\n');
+		for (final DarwinCoreField nextField : coreOrExtension.getFields()) {
+			result.append(nextField.getIndex()).append('\n');
+			result.append(nextField.getTerm()).append('\n');
+			result.append(nextField.getDefault()).append('\n');
+		}
+		return DarwinCoreIdInference.fingerprint(result.toString());
+	}
+
+	private static void writeVarInt(final OutputStream output, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.write(value);
+	}
+
+	private static int readVarInt(final InputStream input) throws IOException {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int next = input.read();
+			if (next < 0) {
+				throw new EOFException();
+			}
+			result |= (next & 0x7F) << shift;
+			if ((next & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IllegalStateException("Invalid length in row cache");
+	}
+
+	/**
+	 * Read a variable length int from a row, and advance the position past
+	 * it.
+	 */
+	private static int readVarInt(final byte[] bytes, final int[] position) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int next = bytes[position[0]++];
+			result |= (next & 0x7F) << shift;
+			if ((next & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IllegalStateException("Invalid value in row cache");
+	}
+
+	/**
+	 * Writes rows to a cache, choosing for each column whether to add values
+	 * to its dictionary, based on how often the dictionary has been used.
+	 */
+	private static final class RowWriter implements AutoCloseable {
+
+		private final DataOutputStream output;
+		private final int columnCount;
+		private final List<Map<String, Integer>> dictionaries;
+		private final int[] seen;
+		private final int[] hits;
+		private final boolean[] open;
+		private final ByteArrayOutputStream row = new ByteArrayOutputStream(256);
+		private long rows;
+
+		private RowWriter(final OutputStream output, final int columnCount, final long fingerprint)
+				throws IOException {
+			this.output = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+			this.columnCount = columnCount;
+			this.dictionaries = new ArrayList<>(columnCount);
+			for (int i = 0; i < columnCount; i++) {
+				this.dictionaries.add(new HashMap<>());
+			}
+			this.seen = new int[columnCount];
+			this.hits = new int[columnCount];
+			this.open = new boolean[columnCount];
+			Arrays.fill(this.open, true);
+			this.output.writeInt(MAGIC);
+			this.output.writeInt(VERSION);
+			this.output.writeLong(fingerprint);
+			this.output.writeInt(columnCount);
+		}
+
+		private void write(final List<String> values) throws IOException {
+			if (values.size() != columnCount) {
+				throw new IllegalArgumentException(
+						"Row size was different to the fields: expected " + columnCount + ", found " + values.size());
+			}
+			row.reset();
+			for (int i = 0; i < columnCount; i++) {
+				final String nextValue = values.get(i);
+				if (nextValue == null || nextValue.isEmpty()) {
+					writeVarInt(row, TAG_EMPTY);
+					continue;
+				}
+				final Map<String, Integer> dictionary = dictionaries.get(i);
+				final Integer code = dictionary.get(nextValue);
+				seen[i]++;
+				if (code != null) {
+					hits[i]++;
+					writeVarInt(row, TAG_DICTIONARY_REFERENCE + code);
+					continue;
+				}
+				final byte[] bytes = nextValue.getBytes(StandardCharsets.UTF_8);
+				if (open[i] && seen[i] > DICTIONARY_TRIAL_VALUES && hits[i] * 2 < seen[i]) {
+					// Values in this column are rarely repeated, such as ids,
+					// so stop filling the dictionary with them
+					open[i] = false;
+				}
+				if (open[i] && bytes.length <= MAX_DICTIONARY_VALUE_BYTES && dictionary.size() < MAX_DICTIONARY_SIZE) {
+					dictionary.put(nextValue, dictionary.size());
+					writeVarInt(row, TAG_DICTIONARY_LITERAL);
+				} else {
+					writeVarInt(row, TAG_LITERAL);
+				}
+				writeVarInt(row, bytes.length);
+				row.write(bytes);
+			}
+			writeVarInt(output, row.size());
+			row.writeTo(output);
+			rows++;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try (final OutputStream toClose = output;) {
+				// Rows always have at least one byte, so an empty row marks
+				// the end, followed by the number of rows as a check
+				writeVarInt(output, 0);
+				output.writeLong(rows);
+			}
+		}
+	}
+}
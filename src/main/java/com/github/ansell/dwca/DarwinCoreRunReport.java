@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes a machine readable report for a command line run, as JSON Lines, with
+ * one JSON object for each line.
+ * <p>
+ * The first line describes the run, each following line describes a file that
+ * was processed, an archive that was checked in batch mode, or an error that
+ * occurred, and the last line contains the totals for the run. Each line is
+ * flushed as soon as it is written, so if the run does not complete, every
+ * line up to the last file that was processed is still complete.
+ * <p>
+ * The file lines are added by each {@link DarwinCoreSpan} when it is closed,
+ * and the totals are taken from {@link DarwinCoreMetrics}, which must be
+ * enabled for the run.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreRunReport implements Closeable {
+
+	/**
+	 * The event for the first line in a report.
+	 */
+	public static final String EVENT_START = "start";
+
+	/**
+	 * The event for a line describing a file that was processed.
+	 */
+	public static final String EVENT_FILE = "file";
+
+	/**
+	 * The event for a line describing an archive that was checked in batch
+	 * mode.
+	 */
+	public static final String EVENT_ARCHIVE = "archive";
+
+	/**
+	 * The event for a line describing an error.
+	 */
+	public static final String EVENT_ERROR = "error";
+
+	/**
+	 * The event for the last line in a report.
+	 */
+	public static final String EVENT_END = "end";
+
+	private static final DarwinCoreRunReport DISABLED = new DarwinCoreRunReport(null);
+
+	private static volatile DarwinCoreRunReport defaultReport = DISABLED;
+
+	private final JsonGenerator generator;
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final long startNanos = System.nanoTime();
+
+	private DarwinCoreRunReport(final JsonGenerator generator) {
+		this.generator = generator;
+	}
+
+	/**
+	 * @return The report for the current run, which is a disabled report that
+	 *         does nothing unless {@link #start(Path, String, Path)} has been
+	 *         called.
+	 */
+	public static DarwinCoreRunReport getDefault() {
+		return defaultReport;
+	}
+
+	/**
+	 * Start a report for a command line run, replacing any previous report.
+	 * 
+	 * @param reportPath
+	 *            The file to write the report to, which is replaced if it
+	 *            exists, or null to not write a report.
+	 * @param tool
+	 *            The name of the command line tool.
+	 * @param inputPath
+	 *            The main input for the run.
+	 * @return The report for the run, which must be passed to
+	 *         {@link #finish(DarwinCoreRunReport, DarwinCoreMetrics)} when the
+	 *         run completes.
+	 * @throws IOException
+	 *             If the report could not be created.
+	 */
+	public static synchronized DarwinCoreRunReport start(final Path reportPath, final String tool,
+			final Path inputPath) throws IOException {
+		if (reportPath == null) {
+			return getDefault();
+		}
+		defaultReport.close();
+		final Writer writer = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8);
+		final DarwinCoreRunReport result = new DarwinCoreRunReport(
+				new JsonFactory().setRootValueSeparator(null).createGenerator(writer));
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pool.resetPeakUsage();
+			}
+		}
+		result.generator.writeStartObject();
+		result.generator.writeStringField("event", EVENT_START);
+		result.generator.writeStringField("tool", tool);
+		result.generator.writeStringField("input", Objects.toString(inputPath, null));
+		result.generator.writeStringField("time", Instant.now().toString());
+		result.endLine();
+		defaultReport = result;
+		return result;
+	}
+
+	/**
+	 * Write the totals for the run and close a report that was started by
+	 * {@link #start(Path, String, Path)}.
+	 * 
+	 * @param report
+	 *            The report returned by {@link #start(Path, String, Path)}.
+	 * @param metrics
+	 *            The metrics for the run, to take the totals from.
+	 * @throws IOException
+	 *             If the totals could not be written.
+	 */
+	public static synchronized void finish(final DarwinCoreRunReport report, final DarwinCoreMetrics metrics)
+			throws IOException {
+		if (!report.isEnabled()) {
+			return;
+		}
+		try {
+			synchronized (report) {
+				report.generator.writeStartObject();
+				report.generator.writeStringField("event", EVENT_END);
+				report.generator.writeStringField("status", report.getErrors() == 0 ? "ok" : "failed");
+				report.generator.writeNumberField("elapsedMillis",
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - report.startNanos));
+				report.generator.writeNumberField("rows", metrics.getRecords());
+				report.generator.writeNumberField("rowsWritten", metrics.getRecordsWritten());
+				report.generator.writeNumberField("bytes", metrics.getBytes());
+				report.generator.writeObjectFieldStart("phasesMillis");
+				for (final Map.Entry<String, Long> nextPhase : metrics.getPhaseMillis().entrySet()) {
+					report.generator.writeNumberField(nextPhase.getKey(), nextPhase.getValue());
+				}
+				report.generator.writeEndObject();
+				report.generator.writeNumberField("spills", metrics.getSpills());
+				report.generator.writeNumberField("spillBytes", metrics.getSpillBytes());
+				report.generator.writeNumberField("peakHeapBytes", getPeakHeapBytes());
+				report.generator.writeNumberField("errors", report.getErrors());
+				report.endLine();
+			}
+		} finally {
+			if (report == defaultReport) {
+				defaultReport = DISABLED;
+			}
+			report.close();
+		}
+	}
+
+	/**
+	 * @return The sum of the peak usage of each heap memory pool since the
+	 *         report was started.
+	 */
+	private static long getPeakHeapBytes() {
+		long result = 0;
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+				result += pool.getPeakUsage().getUsed();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return True if this report is being written, and false if all of the
+	 *         recording methods do nothing.
+	 */
+	public boolean isEnabled() {
+		return generator != null;
+	}
+
+	/**
+	 * @return The number of errors that have been added to this report.
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * Add a line for a file that was processed.
+	 * 
+	 * @param phase
+	 *            The phase that the file was processed in, from
+	 *            {@link DarwinCoreMetrics}.
+	 * @param file
+	 *            The file that was processed.
+	 * @param rows
+	 *            The number of rows, or -1 if the number of rows is not known.
+	 * @param bytes
+	 *            The number of bytes, or -1 if the number of bytes is not
+	 *            known.
+	 * @param elapsedNanos
+	 *            The time taken to process the file.
+	 */
+	public synchronized void addFile(final String phase, final String file, final long rows, final long bytes,
+			final long elapsedNanos) {
+		if (!isEnabled()) {
+			return;
+		}
+		try {
+			generator.writeStartObject();
+			generator.writeStringField("event", EVENT_FILE);
+			generator.writeStringField("phase", phase);
+			generator.writeStringField("file", file);
+			writeOptionalNumberField("rows", rows);
+			writeOptionalNumberField("bytes", bytes);
+			generator.writeNumberField("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+			generator.writeNumberField("peakHeapBytes", getPeakHeapBytes());
+			endLine();
+		} catch (final IOException e) {
+			throw new IllegalStateException("Could not write to run report", e);
+		}
+	}
+
+	/**
+	 * Add a line for an archive that was checked in batch mode, and increment
+	 * the error count if the check failed.
+	 * 
+	 * @param input
+	 *            The archive that was checked.
+	 * @param bytes
+	 *            The size of the archive.
+	 * @param elapsedNanos
+	 *            The time taken to check the archive.
+	 * @param error
+	 *            The reason the check failed, or null if it succeeded.
+	 */
+	public synchronized void addArchive(final String input, final long bytes, final long elapsedNanos,
+			final Throwable error) {
+		if (!isEnabled()) {
+			return;
+		}
+		if (error != null) {
+			errors.incrementAndGet();
+		}
+		try {
+			generator.writeStartObject();
+			generator.writeStringField("event", EVENT_ARCHIVE);
+			generator.writeStringField("input", input);
+			generator.writeStringField("status", error == null ? "ok" : "failed");
+			generator.writeNumberField("bytes", bytes);
+			generator.writeNumberField("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+			if (error != null) {
+				generator.writeStringField("type", error.getClass().getName());
+				generator.writeStringField("message", error.getMessage());
+			}
+			endLine();
+		} catch (final IOException e) {
+			throw new IllegalStateException("Could not write to run report", e);
+		}
+	}
+
+	/**
+	 * Add a line for an error, and increment the error count.
+	 * 
+	 * @param file
+	 *            The file that was being processed, or null if the error was
+	 *            not specific to a file.
+	 * @param error
+	 *            The error.
+	 */
+	public synchronized void addError(final String file, final Throwable error) {
+		if (!isEnabled()) {
+			return;
+		}
+		errors.incrementAndGet();
+		try {
+			generator.writeStartObject();
+			generator.writeStringField("event", EVENT_ERROR);
+			generator.writeStringField("file", file);
+			generator.writeStringField("type", error.getClass().getName());
+			generator.writeStringField("message", error.getMessage());
+			endLine();
+		} catch (final IOException e) {
+			throw new IllegalStateException("Could not write to run report", e);
+		}
+	}
+
+	private void writeOptionalNumberField(final String fieldName, final long value) throws IOException {
+		if (value < 0) {
+			generator.writeNullField(fieldName);
+		} else {
+			generator.writeNumberField(fieldName, value);
+		}
+	}
+
+	private void endLine() throws IOException {
+		generator.writeEndObject();
+		generator.writeRaw('\n');
+		generator.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (isEnabled()) {
+			generator.close();
+		}
+	}
+}
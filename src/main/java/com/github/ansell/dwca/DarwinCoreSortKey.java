@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.util.Arrays;
+
+/**
+ * Encodes id values into normalised binary sort keys, so that sorting and
+ * merge joins can compare unsigned bytes instead of comparing strings.
+ * <p>
+ * Each value is encoded with a leading type tag followed by a type specific
+ * encoding:
+ * <ul>
+ * <li>Canonical decimal integers that fit in a long, without leading zeros or
+ * a plus sign, are encoded as 8 big-endian bytes with the sign bit flipped,
+ * and sort numerically before all other values.</li>
+ * <li>Canonical lowercase UUIDs are encoded as their 16 bytes, and sort after
+ * integers.</li>
+ * <li>All other values are encoded as UTF-8 with zero bytes escaped and a
+ * zero terminator, and sort last, in code point order.</li>
+ * </ul>
+ * The encoding is injective, so two keys are equal if and only if the values
+ * are equal, and every encoding is self-delimiting, so keys for several
+ * columns can be concatenated and still compare column by column.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreSortKey {
+
+	private static final byte INTEGER_TAG = 0x01;
+	private static final byte UUID_TAG = 0x02;
+	private static final byte STRING_TAG = 0x03;
+
+	private static final byte STRING_TERMINATOR = 0x00;
+	private static final byte STRING_ESCAPE = (byte) 0xFF;
+
+	/**
+	 * The number of digits in Long.MAX_VALUE, used to avoid parsing values
+	 * that cannot be integers.
+	 */
+	private static final int MAX_LONG_DIGITS = 19;
+
+	/**
+	 * Private constructor for static only class
+	 */
+	private DarwinCoreSortKey() {
+	}
+
+	/**
+	 * Encode a single value as a sort key.
+	 * 
+	 * @param value
+	 *            The value to encode.
+	 * @return The sort key.
+	 */
+	public static byte[] encode(final String value) {
+		final KeyBuffer result = new KeyBuffer(value.length() + 2);
+		encodeTo(value, result);
+		return result.toByteArray();
+	}
+
+	/**
+	 * Encode the values in the given columns of a row as a single sort key.
+	 * Columns that are missing from the row are encoded as the empty string.
+	 * 
+	 * @param row
+	 *            The row.
+	 * @param columns
+	 *            The columns to include, in order of precedence.
+	 * @return The sort key.
+	 */
+	public static byte[] encode(final String[] row, final int[] columns) {
+		if (columns.length == 1) {
+			return encode(columns[0] < row.length ? row[columns[0]] : "");
+		}
+		final KeyBuffer result = new KeyBuffer(32);
+		for (final int nextColumn : columns) {
+			encodeTo(nextColumn < row.length ? row[nextColumn] : "", result);
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * Compare two sort keys as unsigned bytes.
+	 * 
+	 * @param key1
+	 *            The first key.
+	 * @param key2
+	 *            The second key.
+	 * @return A negative number, zero, or a positive number if the first key
+	 *         sorts before, equal to, or after the second key.
+	 */
+	public static int compare(final byte[] key1, final byte[] key2) {
+		final int length = Math.min(key1.length, key2.length);
+		for (int i = 0; i < length; i++) {
+			final int result = (key1[i] & 0xFF) - (key2[i] & 0xFF);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return key1.length - key2.length;
+	}
+
+	/**
+	 * Compare two values using their sort keys, without allocating when both
+	 * values are integers.
+	 * 
+	 * @param value1
+	 *            The first value.
+	 * @param value2
+	 *            The second value.
+	 * @return A negative number, zero, or a positive number if the first value
+	 *         sorts before, equal to, or after the second value.
+	 */
+	public static int compare(final String value1, final String value2) {
+		if (isCanonicalInteger(value1) && isCanonicalInteger(value2)) {
+			return Long.compare(Long.parseLong(value1), Long.parseLong(value2));
+		}
+		return compare(encode(value1), encode(value2));
+	}
+
+	private static void encodeTo(final String value, final KeyBuffer result) {
+		if (isCanonicalInteger(value)) {
+			result.put(INTEGER_TAG);
+			result.putLong(Long.parseLong(value) ^ Long.MIN_VALUE);
+		} else if (isCanonicalUUID(value)) {
+			result.put(UUID_TAG);
+			result.putLong(parseHex(value, 0, 8) << 32 | parseHex(value, 9, 13) << 16 | parseHex(value, 14, 18));
+			result.putLong(parseHex(value, 19, 23) << 48 | parseHex(value, 24, 36));
+		} else {
+			result.put(STRING_TAG);
+			for (int i = 0; i < value.length(); i++) {
+				// Lone surrogates are encoded as three byte sequences so that
+				// the encoding is still injective
+				final int nextCodePoint = value.codePointAt(i);
+				if (Character.isSupplementaryCodePoint(nextCodePoint)) {
+					i++;
+				}
+				putUTF8(nextCodePoint, result);
+			}
+			result.put(STRING_TERMINATOR);
+		}
+	}
+
+	private static void putUTF8(final int codePoint, final KeyBuffer result) {
+		if (codePoint == 0) {
+			result.put(STRING_TERMINATOR);
+			result.put(STRING_ESCAPE);
+		} else if (codePoint < 0x80) {
+			result.put((byte) codePoint);
+		} else if (codePoint < 0x800) {
+			result.put((byte) (0xC0 | codePoint >> 6));
+			result.put((byte) (0x80 | codePoint & 0x3F));
+		} else if (codePoint < 0x10000) {
+			result.put((byte) (0xE0 | codePoint >> 12));
+			result.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+			result.put((byte) (0x80 | codePoint & 0x3F));
+		} else {
+			result.put((byte) (0xF0 | codePoint >> 18));
+			result.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+			result.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+			result.put((byte) (0x80 | codePoint & 0x3F));
+		}
+	}
+
+	/**
+	 * Checks whether the value is the canonical decimal form of a long, so
+	 * that encoding it as a number does not merge values that are different
+	 * strings, such as "7" and "07".
+	 */
+	static boolean isCanonicalInteger(final String value) {
+		final int length = value.length();
+		final int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+		final int digits = length - start;
+		if (digits == 0 || digits > MAX_LONG_DIGITS) {
+			return false;
+		}
+		if (value.charAt(start) == '0' && (digits > 1 || start == 1)) {
+			return false;
+		}
+		for (int i = start; i < length; i++) {
+			final char nextChar = value.charAt(i);
+			if (nextChar < '0' || nextChar > '9') {
+				return false;
+			}
+		}
+		if (digits == MAX_LONG_DIGITS) {
+			try {
+				Long.parseLong(value);
+			} catch (final NumberFormatException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the value is a UUID in the canonical lowercase 8-4-4-4-12
+	 * form, so that encoding it as bytes does not merge values that only differ
+	 * by case.
+	 */
+	static boolean isCanonicalUUID(final String value) {
+		if (value.length() != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			final char nextChar = value.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (nextChar != '-') {
+					return false;
+				}
+			} else if (!(nextChar >= '0' && nextChar <= '9' || nextChar >= 'a' && nextChar <= 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long parseHex(final String value, final int start, final int end) {
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			result = result << 4 | Character.digit(value.charAt(i), 16);
+		}
+		return result;
+	}
+
+	/**
+	 * A minimal growable byte array, to avoid the synchronisation in
+	 * ByteArrayOutputStream.
+	 */
+	private static final class KeyBuffer {
+		private byte[] bytes;
+		private int size;
+
+		private KeyBuffer(final int initialCapacity) {
+			this.bytes = new byte[Math.max(initialCapacity, 9)];
+		}
+
+		private void put(final byte nextByte) {
+			if (size == bytes.length) {
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			}
+			bytes[size++] = nextByte;
+		}
+
+		private void putLong(final long value) {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				put((byte) (value >>> shift));
+			}
+		}
+
+		private byte[] toByteArray() {
+			return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import com.github.ansell.dwca.DarwinCoreFlightRecorder.EventType;
+
+/**
+ * A phase of archive processing, which is timed and counted once and recorded
+ * in {@link DarwinCoreMetrics}, {@link DarwinCoreRunReport} and
+ * {@link DarwinCoreFlightRecorder}, depending on which of them are enabled.
+ * <p>
+ * Rows and bytes are added to the span once, and are added to the metrics
+ * totals as they are added, so periodic summaries stay current. The report
+ * line and the Flight Recorder event are written when the span is closed.
+ * Spans for phases that are reported are the current span for their thread
+ * until they are closed, so that rows can be counted by code that does not
+ * have the span, such as line converters. If nothing is enabled,
+ * {@link #begin(Phase, String)} returns a shared span that does nothing.
+ * <p>
+ * Each span must only be used by the thread that began it.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreSpan implements AutoCloseable {
+
+	/**
+	 * The metrics totals that the rows or bytes of a span are added to.
+	 */
+	private enum Total {
+		NONE, RECORDS, RECORDS_WRITTEN, BYTES, SPILL_BYTES;
+
+		void add(final DarwinCoreMetrics metrics, final long count) {
+			switch (this) {
+			case RECORDS:
+				metrics.addRecords(count);
+				break;
+			case RECORDS_WRITTEN:
+				metrics.addRecordsWritten(count);
+				break;
+			case BYTES:
+				metrics.addBytes(count);
+				break;
+			case SPILL_BYTES:
+				metrics.addSpill(count);
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * The phases that spans are begun for.
+	 */
+	public enum Phase {
+
+		/**
+		 * Extracting a ZIP file, with the size of the ZIP file.
+		 */
+		ZIP_EXTRACT(DarwinCoreMetrics.PHASE_ZIP_EXTRACT, true, false, EventType.ZIP_OPEN, Total.NONE, Total.NONE,
+				false),
+
+		/**
+		 * Extracting one file from a ZIP file, with the size of the file.
+		 * These are reported, but their time is part of
+		 * {@link #ZIP_EXTRACT}.
+		 */
+		ZIP_ENTRY(DarwinCoreMetrics.PHASE_ZIP_EXTRACT, false, true, null, Total.NONE, Total.NONE, false),
+
+		/**
+		 * Parsing a meta.xml file, with the size of the file.
+		 */
+		METADATA_PARSE(DarwinCoreMetrics.PHASE_METADATA_PARSE, true, true, EventType.METADATA_PARSE, Total.NONE,
+				Total.NONE, false),
+
+		/**
+		 * Sorting a core or extension file, with the size of the file.
+		 */
+		SORT(DarwinCoreMetrics.PHASE_SORT, true, true, null, Total.NONE, Total.NONE, false),
+
+		/**
+		 * Parsing a core or extension file, with the number of rows and the
+		 * size of the file, which are added to the metrics totals.
+		 */
+		PARSE(DarwinCoreMetrics.PHASE_PARSE, true, true, EventType.FILE_PARSE, Total.RECORDS, Total.BYTES,
+				true),
+
+		/**
+		 * Summarising a core or extension file, with the size of the file.
+		 * The rows are also added to the current {@link #PARSE} span.
+		 */
+		SUMMARISE(null, false, false, EventType.SUMMARISE, Total.NONE, Total.NONE, false),
+
+		/**
+		 * Sorting a run and spilling it to disk, with the number of rows and
+		 * the compressed size of the spill file, which is added to the
+		 * metrics spills.
+		 */
+		SORT_RUN(null, false, false, EventType.SORT_RUN, Total.NONE, Total.SPILL_BYTES, false),
+
+		/**
+		 * Merging spilled runs, with the number of rows and the total
+		 * compressed size of the spill files.
+		 */
+		SORT_MERGE(null, false, false, EventType.SORT_MERGE, Total.NONE, Total.NONE, false),
+
+		/**
+		 * Merging two cores, with the number of rows written, which is added
+		 * to the metrics totals.
+		 */
+		MERGE(DarwinCoreMetrics.PHASE_MERGE, true, true, null, Total.RECORDS_WRITTEN, Total.NONE,
+				true),
+
+		/**
+		 * Writing a batch of merged rows, with the number of rows.
+		 */
+		MERGE_BATCH(null, false, false, EventType.MERGE_BATCH, Total.NONE, Total.NONE, false);
+
+		private final String phaseName;
+		private final boolean timed;
+		private final boolean reported;
+		private final EventType eventType;
+		private final Total rowsTotal;
+		private final Total bytesTotal;
+		private final boolean countsRows;
+
+		Phase(final String name, final boolean timed, final boolean reported, final EventType eventType,
+				final Total rowsTotal, final Total bytesTotal, final boolean countsRows) {
+			this.phaseName = name;
+			this.timed = timed;
+			this.reported = reported;
+			this.eventType = eventType;
+			this.rowsTotal = rowsTotal;
+			this.bytesTotal = bytesTotal;
+			this.countsRows = countsRows;
+		}
+
+		/**
+		 * @return The name of the phase in the metrics and the report, from
+		 *         {@link DarwinCoreMetrics}, or null if it is only recorded
+		 *         as a Flight Recorder event.
+		 */
+		public String getName() {
+			return phaseName;
+		}
+	}
+
+	private static final DarwinCoreSpan DISABLED = new DarwinCoreSpan();
+
+	/**
+	 * The innermost reported span on each thread.
+	 */
+	private static final ThreadLocal<DarwinCoreSpan> CURRENT = new ThreadLocal<>();
+
+	private final Phase phase;
+	private final String file;
+	private final DarwinCoreMetrics metrics;
+	private final DarwinCoreRunReport report;
+	private final DarwinCoreFlightRecorder.Span event;
+	private final DarwinCoreSpan enclosing;
+	private final long startNanos;
+	private long rows;
+	private long bytes = -1L;
+	private boolean closed;
+
+	private DarwinCoreSpan() {
+		this.phase = null;
+		this.file = null;
+		this.metrics = null;
+		this.report = null;
+		this.event = null;
+		this.enclosing = null;
+		this.startNanos = 0L;
+		this.closed = true;
+	}
+
+	private DarwinCoreSpan(final Phase phase, final String file, final DarwinCoreMetrics metrics,
+			final DarwinCoreRunReport report, final DarwinCoreFlightRecorder.Span event,
+			final DarwinCoreSpan enclosing) {
+		this.phase = phase;
+		this.file = file;
+		this.metrics = metrics;
+		this.report = report;
+		this.event = event;
+		this.enclosing = enclosing;
+		this.rows = phase.countsRows ? 0L : -1L;
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Begin a span.
+	 * 
+	 * @param phase
+	 *            The phase.
+	 * @param file
+	 *            The name of the file being processed, or null if there is no
+	 *            single file.
+	 * @return A span to add rows and bytes to, which must be closed.
+	 */
+	public static DarwinCoreSpan begin(final Phase phase, final String file) {
+		final DarwinCoreMetrics metrics = DarwinCoreMetrics.getDefault();
+		final DarwinCoreRunReport report = DarwinCoreRunReport.getDefault();
+		final DarwinCoreSpan enclosing = CURRENT.get();
+		final boolean measured = metrics.isEnabled()
+				&& (phase.timed || phase.rowsTotal != Total.NONE || phase.bytesTotal != Total.NONE);
+		final boolean reported = phase.reported && report.isEnabled();
+		final boolean forwarded = phase == Phase.SUMMARISE && enclosing != null;
+		final boolean recorded = phase.eventType != null && DarwinCoreFlightRecorder.isEnabled(phase.eventType);
+		if (!measured && !reported && !forwarded && !recorded) {
+			return DISABLED;
+		}
+		final DarwinCoreSpan result = new DarwinCoreSpan(phase, file, metrics, report,
+				recorded ? DarwinCoreFlightRecorder.begin(phase.eventType, file) : null, enclosing);
+		if (phase.reported) {
+			CURRENT.set(result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The innermost reported span that is open on the current thread,
+	 *         or a span that does nothing if there is none.
+	 */
+	public static DarwinCoreSpan current() {
+		final DarwinCoreSpan result = CURRENT.get();
+		return result == null ? DISABLED : result;
+	}
+
+	/**
+	 * @return True if this span records anything, so callers can skip
+	 *         counting rows or bytes for spans that do nothing.
+	 */
+	public boolean isEnabled() {
+		return this != DISABLED;
+	}
+
+	/**
+	 * @param count
+	 *            The number of rows to add to this span.
+	 */
+	public void addRows(final long count) {
+		if (closed) {
+			return;
+		}
+		rows = Math.max(rows, 0L) + count;
+		phase.rowsTotal.add(metrics, count);
+		if (event != null) {
+			event.addRows(count);
+		}
+		if (phase == Phase.SUMMARISE && enclosing != null) {
+			enclosing.addRows(count);
+		}
+	}
+
+	/**
+	 * @param count
+	 *            The number of bytes to add to this span.
+	 */
+	public void addBytes(final long count) {
+		if (closed) {
+			return;
+		}
+		bytes = Math.max(bytes, 0L) + count;
+		phase.bytesTotal.add(metrics, count);
+		if (event != null) {
+			event.addBytes(count);
+		}
+	}
+
+	/**
+	 * End the span, adding its time to the metrics, writing its report line
+	 * and committing its Flight Recorder event.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (CURRENT.get() == this) {
+			if (enclosing == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(enclosing);
+			}
+		}
+		if (phase.timed) {
+			metrics.endPhase(phase.phaseName, startNanos);
+		}
+		if (phase.reported) {
+			report.addFile(phase.phaseName, file, rows, bytes, System.nanoTime() - startNanos);
+		}
+		if (event != null) {
+			event.close();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A core record from a {@link DarwinCoreArchiveDocument} together with the
+ * extension records that refer to it, as returned by
+ * {@link DarwinCoreArchiveDocument#lookup(String)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreStarRecord {
+
+	private final DarwinCoreRecord core;
+	private final List<List<DarwinCoreRecord>> extensionRecords;
+
+	/**
+	 * Create a star record.
+	 * 
+	 * @param core
+	 *            The core record.
+	 * @param extensionRecords
+	 *            The records for each extension in the document, in the same
+	 *            order as {@link DarwinCoreArchiveDocument#getExtensions()}.
+	 */
+	public DarwinCoreStarRecord(DarwinCoreRecord core, List<List<DarwinCoreRecord>> extensionRecords) {
+		this.core = Objects.requireNonNull(core, "Core record cannot be null");
+		this.extensionRecords = Objects.requireNonNull(extensionRecords, "Extension records cannot be null");
+		if (this.extensionRecords.size() != core.getDocument().getExtensions().size()) {
+			throw new IllegalArgumentException("Extension records must be given for each extension: extensions="
+					+ core.getDocument().getExtensions().size() + " records=" + extensionRecords.size());
+		}
+	}
+
+	/**
+	 * @return The core record.
+	 */
+	public DarwinCoreRecord getCore() {
+		return core;
+	}
+
+	/**
+	 * @param extension
+	 *            One of the extensions in the document.
+	 * @return The records in the extension that refer to the core record, in
+	 *         file order.
+	 * @throws IllegalArgumentException
+	 *             If the extension is not part of the document.
+	 */
+	public List<DarwinCoreRecord> getExtensionRecords(DarwinCoreCoreOrExtension extension) {
+		final List<DarwinCoreCoreOrExtension> extensions = core.getDocument().getExtensions();
+		for (int i = 0; i < extensions.size(); i++) {
+			if (extensions.get(i) == extension) {
+				return Collections.unmodifiableList(extensionRecords.get(i));
+			}
+		}
+		throw new IllegalArgumentException("Extension is not part of this document: " + extension);
+	}
+}
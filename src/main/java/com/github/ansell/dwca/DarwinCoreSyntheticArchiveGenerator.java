@@ -0,0 +1,686 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.github.ansell.csv.stream.CSVStream;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Generates synthetic
+ * <a href="http://rs.tdwg.org/dwc/terms/guides/text/">Darwin Core Archives</a>
+ * of any size for load and scale testing, as a directory or a ZIP file.
+ * <p>
+ * Archives have a core file and any number of extension files, where each core
+ * id has a configurable number of rows in each extension. Rows are streamed
+ * straight to disk, so memory use does not depend on the number of rows, and
+ * the contents only depend on the settings, including the seed, so the same
+ * archive can be generated again for repeatable benchmarks.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreSyntheticArchiveGenerator {
+
+	/**
+	 * The name of the core file in generated archives.
+	 */
+	public static final String CORE_FILE = "core.csv";
+
+	/**
+	 * The namespace for row types and terms that are not Darwin Core terms.
+	 */
+	public static final String SYNTHETIC_NAMESPACE = "http://example.org/synthetic/";
+
+	/**
+	 * The distribution of core ids.
+	 */
+	public enum IdDistribution {
+
+		/**
+		 * The integers from 1 to the number of rows, in ascending order.
+		 */
+		SEQUENTIAL,
+
+		/**
+		 * The integers from 1 to the number of rows, in a random order.
+		 */
+		SHUFFLED,
+
+		/**
+		 * Random UUIDs, which are not in any order.
+		 */
+		UUID
+	}
+
+	/**
+	 * The distribution of the number of rows in each extension for each core
+	 * id.
+	 */
+	public enum FanOutDistribution {
+
+		/**
+		 * Every core id has exactly the fan out number of rows.
+		 */
+		FIXED,
+
+		/**
+		 * Uniformly distributed between zero and twice the fan out.
+		 */
+		UNIFORM,
+
+		/**
+		 * Geometrically distributed with the fan out as the mean, so most core
+		 * ids have few rows and some have many.
+		 */
+		GEOMETRIC
+	}
+
+	private enum ColumnKind {
+		INTEGER, DECIMAL, DATE, TEXT
+	}
+
+	/**
+	 * Local names of Darwin Core terms used for the core columns after the id.
+	 */
+	private static final List<String> DWC_LOCAL_NAMES = Arrays.asList("scientificName", "decimalLatitude",
+			"eventDate", "individualCount", "genus", "decimalLongitude", "year", "locality", "family",
+			"coordinateUncertaintyInMeters", "dateIdentified", "recordedBy", "country", "minimumElevationInMeters",
+			"modified", "stateProvince", "kingdom", "maximumElevationInMeters", "verbatimEventDate", "habitat");
+
+	/**
+	 * Text values outside of ASCII, which are only used if the encoding can
+	 * represent them.
+	 */
+	private static final List<String> NON_ASCII_VALUES = Arrays.asList("\u00d6sterreich", "M\u00fcller",
+			"S\u00e3o Paulo", "Z\u00fcrich", "\u00c5ngstr\u00f6m", "Caf\u00e9 du Monde", "\u0141\u00f3d\u017a",
+			"\u6771\u4eac");
+
+	private long seed = 0;
+
+	private long coreRows = 1000;
+
+	private int coreColumns = 20;
+
+	private int extensionCount = 0;
+
+	private int extensionColumns = 10;
+
+	private int fanOut = 3;
+
+	private FanOutDistribution fanOutDistribution = FanOutDistribution.FIXED;
+
+	private IdDistribution idDistribution = IdDistribution.SEQUENTIAL;
+
+	private double emptyRatio = 0.1;
+
+	private double quoteRatio = 0.1;
+
+	private Charset encoding = StandardCharsets.UTF_8;
+
+	private String fieldsTerminatedBy = DarwinCoreCoreOrExtension.DEFAULT_FIELDS_TERMINATED_BY;
+
+	private int defaultInterval = 0;
+
+	public static void main(String... args) throws Exception {
+		final OptionParser parser = new OptionParser();
+
+		final OptionSpec<Void> help = parser.accepts("help").forHelp();
+		final OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class).required()
+				.describedAs(
+						"The directory to write the archive to, or a file name ending in .zip to write a ZIP file.");
+		final OptionSpec<Long> seedOption = parser.accepts("seed").withRequiredArg().ofType(Long.class)
+				.defaultsTo(0L).describedAs("The seed for all random choices.");
+		final OptionSpec<Long> rowsOption = parser.accepts("rows").withRequiredArg().ofType(Long.class)
+				.defaultsTo(1000L).describedAs("The number of rows in the core file.");
+		final OptionSpec<Integer> columnsOption = parser.accepts("columns").withRequiredArg().ofType(Integer.class)
+				.defaultsTo(20).describedAs("The number of columns in the core file, including the id.");
+		final OptionSpec<Integer> extensionsOption = parser.accepts("extensions").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(0).describedAs("The number of extension files.");
+		final OptionSpec<Integer> extensionColumnsOption = parser.accepts("extension-columns").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(10)
+				.describedAs("The number of columns in each extension file, including the coreId.");
+		final OptionSpec<Integer> fanOutOption = parser.accepts("fan-out").withRequiredArg().ofType(Integer.class)
+				.defaultsTo(3).describedAs("The mean number of rows in each extension file for each core id.");
+		final OptionSpec<String> fanOutDistributionOption = parser.accepts("fan-out-distribution")
+				.withRequiredArg().ofType(String.class).defaultsTo(FanOutDistribution.FIXED.name())
+				.describedAs("One of " + Arrays.toString(FanOutDistribution.values()));
+		final OptionSpec<String> idDistributionOption = parser.accepts("id-distribution").withRequiredArg()
+				.ofType(String.class).defaultsTo(IdDistribution.SEQUENTIAL.name())
+				.describedAs("One of " + Arrays.toString(IdDistribution.values()));
+		final OptionSpec<Double> emptyRatioOption = parser.accepts("empty-ratio").withRequiredArg()
+				.ofType(Double.class).defaultsTo(0.1).describedAs("The fraction of values that are empty.");
+		final OptionSpec<Double> quoteRatioOption = parser.accepts("quote-ratio").withRequiredArg()
+				.ofType(Double.class).defaultsTo(0.1)
+				.describedAs("The fraction of text values that contain delimiters, quotes or line breaks.");
+		final OptionSpec<String> encodingOption = parser.accepts("encoding").withRequiredArg().ofType(String.class)
+				.defaultsTo(StandardCharsets.UTF_8.name()).describedAs("The character encoding for the data files.");
+		final OptionSpec<String> fieldsTerminatedByOption = parser.accepts("fields-terminated-by").withRequiredArg()
+				.ofType(String.class).defaultsTo(DarwinCoreCoreOrExtension.DEFAULT_FIELDS_TERMINATED_BY)
+				.describedAs("The field delimiter for the data files, using \\t for tab.");
+		final OptionSpec<Integer> defaultIntervalOption = parser.accepts("default-interval").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(0).describedAs(
+						"Give every nth column after the id a default value in meta.xml, or 0 to not use default values.");
+
+		OptionSet options = null;
+
+		try {
+			options = parser.parse(args);
+		} catch (final OptionException e) {
+			System.out.println(e.getMessage());
+			parser.printHelpOn(System.out);
+			throw e;
+		}
+
+		if (options.has(help)) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+
+		final DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(seedOption.value(options));
+		generator.setCoreRows(rowsOption.value(options));
+		generator.setCoreColumns(columnsOption.value(options));
+		generator.setExtensionCount(extensionsOption.value(options));
+		generator.setExtensionColumns(extensionColumnsOption.value(options));
+		generator.setFanOut(fanOutOption.value(options));
+		generator.setFanOutDistribution(
+				FanOutDistribution.valueOf(fanOutDistributionOption.value(options).toUpperCase(Locale.ENGLISH)));
+		generator.setIdDistribution(
+				IdDistribution.valueOf(idDistributionOption.value(options).toUpperCase(Locale.ENGLISH)));
+		generator.setEmptyRatio(emptyRatioOption.value(options));
+		generator.setQuoteRatio(quoteRatioOption.value(options));
+		generator.setEncoding(Charset.forName(encodingOption.value(options)));
+		generator.setFieldsTerminatedBy(fieldsTerminatedByOption.value(options));
+		generator.setDefaultInterval(defaultIntervalOption.value(options));
+
+		final Path outputPath = output.value(options).toPath().toAbsolutePath().normalize();
+		final long totalRows = generator.generate(outputPath);
+		System.out.println("Wrote " + totalRows + " rows to: " + outputPath);
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setCoreRows(long coreRows) {
+		if (coreRows < 0) {
+			throw new IllegalArgumentException("Number of core rows cannot be negative: " + coreRows);
+		}
+		this.coreRows = coreRows;
+	}
+
+	public void setCoreColumns(int coreColumns) {
+		if (coreColumns < 1) {
+			throw new IllegalArgumentException("Core files must have at least one column: " + coreColumns);
+		}
+		this.coreColumns = coreColumns;
+	}
+
+	public void setExtensionCount(int extensionCount) {
+		if (extensionCount < 0) {
+			throw new IllegalArgumentException("Number of extensions cannot be negative: " + extensionCount);
+		}
+		this.extensionCount = extensionCount;
+	}
+
+	public void setExtensionColumns(int extensionColumns) {
+		if (extensionColumns < 1) {
+			throw new IllegalArgumentException("Extension files must have at least one column: " + extensionColumns);
+		}
+		this.extensionColumns = extensionColumns;
+	}
+
+	public void setFanOut(int fanOut) {
+		if (fanOut < 0) {
+			throw new IllegalArgumentException("Fan out cannot be negative: " + fanOut);
+		}
+		this.fanOut = fanOut;
+	}
+
+	public void setFanOutDistribution(FanOutDistribution fanOutDistribution) {
+		this.fanOutDistribution = fanOutDistribution;
+	}
+
+	public void setIdDistribution(IdDistribution idDistribution) {
+		this.idDistribution = idDistribution;
+	}
+
+	public void setEmptyRatio(double emptyRatio) {
+		if (!(emptyRatio >= 0.0 && emptyRatio <= 1.0)) {
+			throw new IllegalArgumentException("Empty ratio must be between 0 and 1: " + emptyRatio);
+		}
+		this.emptyRatio = emptyRatio;
+	}
+
+	public void setQuoteRatio(double quoteRatio) {
+		if (!(quoteRatio >= 0.0 && quoteRatio <= 1.0)) {
+			throw new IllegalArgumentException("Quote ratio must be between 0 and 1: " + quoteRatio);
+		}
+		this.quoteRatio = quoteRatio;
+	}
+
+	public void setEncoding(Charset encoding) {
+		this.encoding = encoding;
+	}
+
+	public void setFieldsTerminatedBy(String fieldsTerminatedBy) {
+		final String delimiter = fieldsTerminatedBy.replace("\\t", "\t");
+		if (delimiter.length() != 1) {
+			throw new IllegalArgumentException("Field delimiter must be a single character: " + fieldsTerminatedBy);
+		}
+		this.fieldsTerminatedBy = delimiter;
+	}
+
+	/**
+	 * Give every nth column after the id a default value in the metadata, so
+	 * that empty values in those columns are replaced by the default when
+	 * defaults are included.
+	 * 
+	 * @param defaultInterval
+	 *            The interval between columns with default values, or 0 to not
+	 *            use default values.
+	 */
+	public void setDefaultInterval(int defaultInterval) {
+		if (defaultInterval < 0) {
+			throw new IllegalArgumentException("Default interval cannot be negative: " + defaultInterval);
+		}
+		this.defaultInterval = defaultInterval;
+	}
+
+	/**
+	 * @return The metadata document describing the archive that would be
+	 *         generated with the current settings.
+	 */
+	public DarwinCoreArchiveDocument createDocument() {
+		final DarwinCoreArchiveDocument document = new DarwinCoreArchiveDocument();
+		final DarwinCoreCoreOrExtension core = DarwinCoreCoreOrExtension.newCore();
+		core.setRowType(DarwinCoreArchiveConstants.OCCURRENCE_RECORD);
+		populate(core, CORE_FILE, coreColumns, true);
+		document.setCore(core);
+		for (int i = 0; i < extensionCount; i++) {
+			final DarwinCoreCoreOrExtension nextExtension = DarwinCoreCoreOrExtension.newExtension();
+			nextExtension.setRowType(SYNTHETIC_NAMESPACE + "Extension" + (i + 1));
+			populate(nextExtension, extensionFile(i), extensionColumns, false);
+			document.addExtension(nextExtension);
+		}
+		return document;
+	}
+
+	private void populate(DarwinCoreCoreOrExtension coreOrExtension, String location, int columns, boolean isCore) {
+		coreOrExtension.setIdOrCoreId("0");
+		coreOrExtension.setIgnoreHeaderLines(1);
+		if (!encoding.equals(DarwinCoreCoreOrExtension.DEFAULT_ENCODING)) {
+			coreOrExtension.setEncoding(encoding);
+		}
+		if (!fieldsTerminatedBy.equals(DarwinCoreCoreOrExtension.DEFAULT_FIELDS_TERMINATED_BY)) {
+			coreOrExtension.setFieldsTerminatedBy(fieldsTerminatedBy);
+		}
+		final DarwinCoreFile file = new DarwinCoreFile();
+		file.addLocation(location);
+		coreOrExtension.setFiles(file);
+		for (int i = 0; i < columns; i++) {
+			final DarwinCoreField nextField = new DarwinCoreField();
+			nextField.setIndex(i);
+			nextField.setTerm(isCore ? coreTerm(i) : extensionTerm(i));
+			if (defaultInterval > 0 && i > 0 && i % defaultInterval == 0) {
+				nextField.setDefault("default" + i);
+			}
+			coreOrExtension.addField(nextField);
+		}
+	}
+
+	private static String extensionFile(int extension) {
+		return "extension" + (extension + 1) + ".csv";
+	}
+
+	private static String coreTerm(int column) {
+		if (column == 0) {
+			return DarwinCoreArchiveConstants.DWC_TERMS + "occurrenceID";
+		}
+		if (column <= DWC_LOCAL_NAMES.size()) {
+			return DarwinCoreArchiveConstants.DWC_TERMS + DWC_LOCAL_NAMES.get(column - 1);
+		}
+		return SYNTHETIC_NAMESPACE + "term" + column;
+	}
+
+	private static String extensionTerm(int column) {
+		if (column == 0) {
+			return DarwinCoreArchiveConstants.DWC_TERMS + "occurrenceID";
+		}
+		return SYNTHETIC_NAMESPACE + "extensionTerm" + column;
+	}
+
+	/**
+	 * The kind of values in a column after the id, which is the same for core
+	 * and extension columns with the same index, so that typed columns are
+	 * spread across the file.
+	 */
+	private static ColumnKind columnKind(int column) {
+		switch (column % 4) {
+		case 1:
+			return ColumnKind.TEXT;
+		case 2:
+			return ColumnKind.DECIMAL;
+		case 3:
+			return ColumnKind.DATE;
+		default:
+			return ColumnKind.INTEGER;
+		}
+	}
+
+	/**
+	 * Generates the archive.
+	 * 
+	 * @param outputPath
+	 *            The directory to write the archive into, or, if the file name
+	 *            ends in ".zip", the ZIP file to write.
+	 * @return The total number of rows written to the core and extension files,
+	 *         not including header lines.
+	 * @throws IOException
+	 *             If there was an error writing the archive.
+	 */
+	public long generate(Path outputPath) throws IOException {
+		final DarwinCoreArchiveDocument document = createDocument();
+		if (outputPath.getFileName().toString().endsWith(".zip")) {
+			final Path parent = outputPath.toAbsolutePath().getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			try (final ZipOutputStream zipOutput = new ZipOutputStream(Files.newOutputStream(outputPath));) {
+				final OutputStream entryOutput = new CloseShieldOutputStream(zipOutput);
+				zipOutput.putNextEntry(new ZipEntry(DarwinCoreArchiveChecker.META_XML));
+				writeMetadata(document, entryOutput);
+				zipOutput.closeEntry();
+				zipOutput.putNextEntry(new ZipEntry(CORE_FILE));
+				long totalRows = writeCore(document.getCore(), entryOutput);
+				zipOutput.closeEntry();
+				for (int i = 0; i < extensionCount; i++) {
+					zipOutput.putNextEntry(new ZipEntry(extensionFile(i)));
+					totalRows += writeExtension(document.getExtensions().get(i), i, entryOutput);
+					zipOutput.closeEntry();
+				}
+				return totalRows;
+			}
+		} else {
+			Files.createDirectories(outputPath);
+			try (final OutputStream metadataOutput = Files
+					.newOutputStream(outputPath.resolve(DarwinCoreArchiveChecker.META_XML));) {
+				writeMetadata(document, metadataOutput);
+			}
+			long totalRows;
+			try (final OutputStream coreOutput = Files.newOutputStream(outputPath.resolve(CORE_FILE));) {
+				totalRows = writeCore(document.getCore(), coreOutput);
+			}
+			for (int i = 0; i < extensionCount; i++) {
+				try (final OutputStream extensionOutput = Files
+						.newOutputStream(outputPath.resolve(extensionFile(i)));) {
+					totalRows += writeExtension(document.getExtensions().get(i), i, extensionOutput);
+				}
+			}
+			return totalRows;
+		}
+	}
+
+	private void writeMetadata(DarwinCoreArchiveDocument document, OutputStream output) throws IOException {
+		try (final Writer metadataWriter = new BufferedWriter(
+				new OutputStreamWriter(output, StandardCharsets.UTF_8));) {
+			document.toXML(metadataWriter, false);
+		} catch (final XMLStreamException e) {
+			throw new IOException("Could not write metadata", e);
+		}
+	}
+
+	private long writeCore(DarwinCoreCoreOrExtension core, OutputStream output) throws IOException {
+		final IdSequence ids = new IdSequence(idDistribution, coreRows, seed);
+		final SplittableRandom random = new SplittableRandom(fileSeed(0));
+		final ValueSource values = new ValueSource(random);
+		try (final Writer writer = new BufferedWriter(new OutputStreamWriter(output, encoding), 1 << 16);
+				final SequenceWriter csvWriter = CSVStream.newCSVWriter(writer, core.getCsvSchema());) {
+			csvWriter.write(headers(core));
+			final List<String> nextRow = new ArrayList<>(coreColumns);
+			for (long i = 0; i < coreRows; i++) {
+				nextRow.clear();
+				nextRow.add(ids.next());
+				for (int j = 1; j < coreColumns; j++) {
+					nextRow.add(values.next(columnKind(j)));
+				}
+				csvWriter.write(nextRow);
+			}
+		}
+		return coreRows;
+	}
+
+	private long writeExtension(DarwinCoreCoreOrExtension extension, int extensionIndex, OutputStream output)
+			throws IOException {
+		// The core ids are generated again in the same order, rather than
+		// stored, so that each file can be streamed on its own
+		final IdSequence ids = new IdSequence(idDistribution, coreRows, seed);
+		final SplittableRandom random = new SplittableRandom(fileSeed(extensionIndex + 1));
+		final ValueSource values = new ValueSource(random);
+		long rowCount = 0;
+		try (final Writer writer = new BufferedWriter(new OutputStreamWriter(output, encoding), 1 << 16);
+				final SequenceWriter csvWriter = CSVStream.newCSVWriter(writer, extension.getCsvSchema());) {
+			csvWriter.write(headers(extension));
+			final List<String> nextRow = new ArrayList<>(extensionColumns);
+			for (long i = 0; i < coreRows; i++) {
+				final String coreId = ids.next();
+				final int rowsForId = rowsForId(random);
+				for (int k = 0; k < rowsForId; k++) {
+					nextRow.clear();
+					nextRow.add(coreId);
+					for (int j = 1; j < extensionColumns; j++) {
+						nextRow.add(values.next(columnKind(j)));
+					}
+					csvWriter.write(nextRow);
+				}
+				rowCount += rowsForId;
+			}
+		}
+		return rowCount;
+	}
+
+	private static List<String> headers(DarwinCoreCoreOrExtension coreOrExtension) {
+		final List<String> headers = new ArrayList<>(coreOrExtension.getFields().size());
+		for (final DarwinCoreField nextField : coreOrExtension.getFields()) {
+			headers.add(nextField.getTerm());
+		}
+		return headers;
+	}
+
+	private long fileSeed(int fileIndex) {
+		// Golden ratio increment, as used by SplittableRandom, so that files
+		// do not share value sequences
+		return seed + (fileIndex + 1) * 0x9E3779B97F4A7C15L;
+	}
+
+	private int rowsForId(SplittableRandom random) {
+		switch (fanOutDistribution) {
+		case UNIFORM:
+			return random.nextInt(2 * fanOut + 1);
+		case GEOMETRIC:
+			if (fanOut == 0) {
+				return 0;
+			}
+			// Inverse transform sampling, with the number of failures before
+			// the first success having a mean of fanOut
+			final double successProbability = 1.0 / (fanOut + 1);
+			final double uniform = 1.0 - random.nextDouble();
+			return (int) Math.min(Integer.MAX_VALUE,
+					Math.floor(Math.log(uniform) / Math.log(1.0 - successProbability)));
+		default:
+			return fanOut;
+		}
+	}
+
+	/**
+	 * Random values for each kind of column.
+	 */
+	private final class ValueSource {
+
+		private final SplittableRandom random;
+
+		private final List<String> nonAsciiValues;
+
+		private final char delimiter;
+
+		ValueSource(SplittableRandom random) {
+			this.random = random;
+			final CharsetEncoder encoder = encoding.newEncoder();
+			final List<String> encodable = new ArrayList<>(NON_ASCII_VALUES.size());
+			for (final String nextValue : NON_ASCII_VALUES) {
+				if (encoder.canEncode(nextValue)) {
+					encodable.add(nextValue);
+				}
+			}
+			this.nonAsciiValues = Collections.unmodifiableList(encodable);
+			this.delimiter = fieldsTerminatedBy.charAt(0);
+		}
+
+		String next(ColumnKind kind) {
+			if (random.nextDouble() < emptyRatio) {
+				return "";
+			}
+			switch (kind) {
+			case INTEGER:
+				return Integer.toString(random.nextInt(1000000));
+			case DECIMAL:
+				return Double.toString((random.nextInt(36000000) - 18000000) / 100000.0);
+			case DATE:
+				final int year = 1900 + random.nextInt(120);
+				final int month = 1 + random.nextInt(12);
+				final int day = 1 + random.nextInt(28);
+				return year + (month < 10 ? "-0" : "-") + month + (day < 10 ? "-0" : "-") + day;
+			default:
+				return nextText();
+			}
+		}
+
+		private String nextText() {
+			if (random.nextDouble() < quoteRatio) {
+				switch (random.nextInt(3)) {
+				case 0:
+					return "Text with" + delimiter + " a delimiter " + random.nextInt(1000);
+				case 1:
+					return "Text with \"quotes\" " + random.nextInt(1000);
+				default:
+					return "Text with a\nline break " + random.nextInt(1000);
+				}
+			}
+			if (!nonAsciiValues.isEmpty() && random.nextInt(8) == 0) {
+				return nonAsciiValues.get(random.nextInt(nonAsciiValues.size()));
+			}
+			return "text" + random.nextInt(100000);
+		}
+	}
+
+	/**
+	 * Generates core ids in order, without storing them, so that the same
+	 * sequence can be generated again for each extension file.
+	 */
+	private static final class IdSequence {
+
+		private final IdDistribution distribution;
+
+		private final long rows;
+
+		private final SplittableRandom random;
+
+		private final long mask;
+
+		private final long multiplier;
+
+		private final long increment;
+
+		private long state;
+
+		private long position = 0;
+
+		IdSequence(IdDistribution distribution, long rows, long seed) {
+			this.distribution = distribution;
+			this.rows = rows;
+			this.random = new SplittableRandom(seed);
+			// A linear congruential generator modulo a power of two is a
+			// permutation of that range if the multiplier is 1 modulo 4 and the
+			// increment is odd, so values at or above the number of rows are
+			// skipped to shuffle the ids in constant memory
+			final long modulus = Long.highestOneBit(Math.max(1L, rows - 1)) << 1;
+			this.mask = modulus - 1;
+			this.multiplier = (random.nextLong() << 2) | 1L;
+			this.increment = random.nextLong() | 1L;
+			this.state = random.nextLong() & mask;
+		}
+
+		String next() {
+			if (position >= rows) {
+				throw new IllegalStateException("No more ids after " + rows + " rows");
+			}
+			position++;
+			switch (distribution) {
+			case SHUFFLED:
+				do {
+					state = (multiplier * state + increment) & mask;
+				} while (state >= rows);
+				return Long.toString(state + 1);
+			case UUID:
+				// Version 4 and IETF variant bits, as for UUID.randomUUID
+				final long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+				final long leastSigBits = (random.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+				return new UUID(mostSigBits, leastSigBits).toString();
+			default:
+				return Long.toString(position);
+			}
+		}
+	}
+}
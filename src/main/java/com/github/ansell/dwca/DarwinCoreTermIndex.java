@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+import org.eclipse.rdf4j.model.IRI;
+
+/**
+ * An index over a vocabulary map, as created by
+ * {@link DarwinCoreMetadataGenerator#getDefaultVocabularies()}, that maps
+ * headers to terms using hash lookups on both local names and full IRIs.
+ * <p>
+ * The index is immutable once it is created, so it can be created once and
+ * reused for any number of files.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreTermIndex {
+
+	/**
+	 * A term that a header was matched to.
+	 */
+	public static final class Match {
+
+		private final String vocabulary;
+		private final IRI term;
+		private final int rank;
+
+		private Match(String vocabulary, IRI term, int rank) {
+			this.vocabulary = vocabulary;
+			this.term = term;
+			this.rank = rank;
+		}
+
+		/**
+		 * @return The base IRI of the vocabulary containing the term.
+		 */
+		public String getVocabulary() {
+			return vocabulary;
+		}
+
+		/**
+		 * @return The IRI for the term.
+		 */
+		public IRI getTerm() {
+			return term;
+		}
+	}
+
+	private final Map<String, Map<String, List<IRI>>> vocabularies;
+	private final Map<String, Match> exactIndex;
+	private final Map<String, Match> caseFoldedIndex;
+
+	private DarwinCoreTermIndex(Map<String, Map<String, List<IRI>>> vocabularies, Map<String, Match> exactIndex,
+			Map<String, Match> caseFoldedIndex) {
+		this.vocabularies = vocabularies;
+		this.exactIndex = exactIndex;
+		this.caseFoldedIndex = caseFoldedIndex;
+	}
+
+	/**
+	 * Create an index for the given vocabularies.
+	 * <p>
+	 * Where more than one term could match a header, the index picks the same
+	 * term that a linear scan through the vocabulary map would find first, with
+	 * local names taking priority over full IRIs for each entry.
+	 * 
+	 * @param vocabMap
+	 *            The map from vocabulary IRIs to local names to the IRIs of
+	 *            terms with that local name.
+	 * @return A new index over the given vocabularies.
+	 */
+	public static DarwinCoreTermIndex build(Map<String, Map<String, List<IRI>>> vocabMap) {
+		final Map<String, Match> exactIndex = new HashMap<>();
+		final Map<String, Match> caseFoldedIndex = new HashMap<>();
+		int rank = 0;
+		for (final Entry<String, Map<String, List<IRI>>> nextVocabulary : vocabMap.entrySet()) {
+			for (final Entry<String, List<IRI>> nextLocalNameIRI : nextVocabulary.getValue().entrySet()) {
+				final List<IRI> nextIRIs = nextLocalNameIRI.getValue();
+				if (nextIRIs.isEmpty()) {
+					continue;
+				}
+				final Match localNameMatch = new Match(nextVocabulary.getKey(), nextIRIs.get(0), rank++);
+				exactIndex.putIfAbsent(nextLocalNameIRI.getKey(), localNameMatch);
+				caseFoldedIndex.putIfAbsent(caseFold(nextLocalNameIRI.getKey()), localNameMatch);
+				// Support the full IRI being used for the field name
+				for (final IRI nextTermIRI : nextIRIs) {
+					final Match iriMatch = new Match(nextVocabulary.getKey(), nextTermIRI, rank++);
+					exactIndex.putIfAbsent(nextTermIRI.stringValue(), iriMatch);
+					caseFoldedIndex.putIfAbsent(caseFold(nextTermIRI.stringValue()), iriMatch);
+				}
+			}
+		}
+		return new DarwinCoreTermIndex(Collections.unmodifiableMap(vocabMap), exactIndex, caseFoldedIndex);
+	}
+
+	/**
+	 * @return The vocabulary map that this index was created from.
+	 */
+	public Map<String, Map<String, List<IRI>>> getVocabularies() {
+		return vocabularies;
+	}
+
+	/**
+	 * Find the term for the given header.
+	 * 
+	 * @param header
+	 *            The header to find a term for, either a local name or a full
+	 *            IRI.
+	 * @param matchCaseInsensitive
+	 *            If true, also matches terms without regard to case, using the
+	 *            same rules as {@link String#equalsIgnoreCase(String)}.
+	 * @return The matching term, or {@link Optional#empty()} if no terms
+	 *         matched the header.
+	 */
+	public Optional<Match> find(String header, boolean matchCaseInsensitive) {
+		final Match exactMatch = exactIndex.get(header);
+		if (!matchCaseInsensitive) {
+			return Optional.ofNullable(exactMatch);
+		}
+		final Match caseFoldedMatch = caseFoldedIndex.get(caseFold(header));
+		if (exactMatch == null) {
+			return Optional.ofNullable(caseFoldedMatch);
+		}
+		// The case folded match may be from an entry before the exact match
+		if (caseFoldedMatch != null && caseFoldedMatch.rank < exactMatch.rank) {
+			return Optional.of(caseFoldedMatch);
+		}
+		return Optional.of(exactMatch);
+	}
+
+	/**
+	 * Folds the case of each character in the same way that
+	 * {@link String#equalsIgnoreCase(String)} compares characters, so that two
+	 * strings are equal ignoring case exactly when their folded forms are equal.
+	 * 
+	 * @param value
+	 *            The string to fold.
+	 * @return The case folded string.
+	 */
+	static String caseFold(String value) {
+		final int length = value.length();
+		int i = 0;
+		while (i < length && foldChar(value.charAt(i)) == value.charAt(i)) {
+			i++;
+		}
+		if (i == length) {
+			return value;
+		}
+		final char[] result = value.toCharArray();
+		for (; i < length; i++) {
+			result[i] = foldChar(result[i]);
+		}
+		return new String(result);
+	}
+
+	private static char foldChar(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+
+import com.github.ansell.csv.stream.CSVStreamException;
+
+/**
+ * A cache of the results of checking core and extension files, so that files
+ * that have not changed since they were last checked are not parsed again.
+ * <p>
+ * Each result is stored in a folder in the cache directory, named using a
+ * hash of the content of the data file, combined with the parts of the
+ * {@link DarwinCoreCoreOrExtension} that change how it is parsed, which are
+ * the dialect, the fields and their defaults, along with whether defaults are
+ * included and statistics are generated. The statistics and mapping files are
+ * stored when output is required, and copied to the output directory when the
+ * result is reused. Files that pass are cached, along with files that fail
+ * with CSV syntax errors, which are thrown again when they are reused. Other
+ * errors, such as input-output errors, are not cached.
+ * <p>
+ * Results are never removed from the cache, and each result is written to a
+ * temporary folder and then moved into place, so a cache directory can be
+ * shared by checks running at the same time.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreValidationCache {
+
+	/**
+	 * The version of the cache format, which is part of each key, so results
+	 * from an older version are not reused.
+	 */
+	private static final int VERSION = 1;
+
+	private static final String RESULT_FILE = "result.properties";
+
+	private static final String STATISTICS_FILE = "Statistics";
+
+	private static final String MAPPING_FILE = "Mapping";
+
+	private static final String VERDICT = "verdict";
+
+	private static final String VERDICT_PASS = "pass";
+
+	private static final String VERDICT_FAIL = "fail";
+
+	private static final String MESSAGE = "message";
+
+	private static final String LOCATION = "location";
+
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	private final Path cacheDir;
+
+	/**
+	 * Create a cache using the given directory, creating it if it does not
+	 * exist.
+	 * 
+	 * @param cacheDir
+	 *            The directory to store results in.
+	 * @throws IOException
+	 *             If the directory could not be created.
+	 */
+	public DarwinCoreValidationCache(final Path cacheDir) throws IOException {
+		this.cacheDir = Files.createDirectories(cacheDir.toAbsolutePath().normalize());
+	}
+
+	/**
+	 * @return The directory that results are stored in.
+	 */
+	public Path getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * Check a core or extension file, using the cached result if the file and
+	 * the way it is parsed have not changed since it was last checked, and
+	 * otherwise parsing it using
+	 * {@link DarwinCoreArchiveChecker#checkCoreOrExtension(DarwinCoreCoreOrExtension, Path, Path, boolean, boolean, boolean)}
+	 * and caching the result.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to check.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param outputDirPath
+	 *            The output directory path if output is required
+	 * @param hasOutput
+	 *            True to generate statistical output and false to simply
+	 *            check that the file is syntactically valid.
+	 * @param debug
+	 *            True to emit debug messages
+	 * @param includeDefaults
+	 *            True to include default values from the metadata file.
+	 * @return True if a cached result was used, and false if the file was
+	 *         parsed.
+	 * @throws IOException
+	 *             If there are issues accessing or reading the files.
+	 * @throws CSVStreamException
+	 *             If there are CSV syntax errors, including when they are
+	 *             found in a cached result.
+	 */
+	public boolean check(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final Path outputDirPath, final boolean hasOutput, final boolean debug, final boolean includeDefaults)
+			throws IOException, CSVStreamException {
+		final Path dataPath = coreOrExtension.getDataPath(metadataPath);
+		final String key = keyFor(coreOrExtension, metadataPath, hasOutput, includeDefaults);
+		final Path entry = cacheDir.resolve(key);
+		final Properties cached = readResult(entry);
+		if (cached != null) {
+			if (debug) {
+				System.out.println("Reusing the previous result for unchanged file: " + dataPath);
+			}
+			if (VERDICT_FAIL.equals(cached.getProperty(VERDICT))) {
+				throw new CSVStreamException(cached.getProperty(MESSAGE, "Failed a previous check"));
+			}
+			if (hasOutput) {
+				Files.copy(entry.resolve(STATISTICS_FILE), statisticsPath(outputDirPath, dataPath),
+						StandardCopyOption.REPLACE_EXISTING);
+				Files.copy(entry.resolve(MAPPING_FILE), mappingPath(outputDirPath, dataPath),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		}
+
+		final Properties result = new Properties();
+		result.setProperty(LOCATION, coreOrExtension.getFiles().getLocations().get(0));
+		try {
+			DarwinCoreArchiveChecker.checkCoreOrExtension(coreOrExtension, metadataPath, outputDirPath, hasOutput,
+					debug, includeDefaults);
+		} catch (final CSVStreamException e) {
+			result.setProperty(VERDICT, VERDICT_FAIL);
+			result.setProperty(MESSAGE, e.getMessage() != null ? e.getMessage() : e.toString());
+			writeResult(entry, result, null, null);
+			throw e;
+		}
+		result.setProperty(VERDICT, VERDICT_PASS);
+		writeResult(entry, result, hasOutput ? statisticsPath(outputDirPath, dataPath) : null,
+				hasOutput ? mappingPath(outputDirPath, dataPath) : null);
+		return false;
+	}
+
+	/**
+	 * Create the key for the result of checking a core or extension file.
+	 * 
+	 * @param coreOrExtension
+	 *            The core or extension to check.
+	 * @param metadataPath
+	 *            The path to the metadata, which is used to relatively resolve
+	 *            the data file location.
+	 * @param hasOutput
+	 *            True if statistical output is generated.
+	 * @param includeDefaults
+	 *            True if default values from the metadata file are included.
+	 * @return A hexadecimal key which only changes if the content of the file
+	 *         or the way it is parsed changes.
+	 * @throws IOException
+	 *             If the data file could not be read.
+	 */
+	public String keyFor(final DarwinCoreCoreOrExtension coreOrExtension, final Path metadataPath,
+			final boolean hasOutput, final boolean includeDefaults) throws IOException {
+		final MessageDigest digest = newDigest();
+		digest.update(contentHash(coreOrExtension.getDataPath(metadataPath)));
+		update(digest, VERSION);
+		update(digest, hasOutput);
+		update(digest, includeDefaults);
+		update(digest, coreOrExtension.getRowType());
+		update(digest, coreOrExtension.getIdOrCoreId());
+		update(digest, coreOrExtension.getEncoding().name());
+		update(digest, coreOrExtension.getFieldsTerminatedBy());
+		update(digest, coreOrExtension.getLinesTerminatedBy());
+		update(digest, coreOrExtension.getFieldsEnclosedBy());
+		update(digest, coreOrExtension.getIgnoreHeaderLines());
+		update(digest, coreOrExtension.getDateFormat());
+		for (final DarwinCoreField nextField : coreOrExtension.getFields()) {
+			update(digest, nextField.getIndex());
+			update(digest, nextField.getTerm());
+			update(digest, nextField.getDefault());
+			update(digest, nextField.getVocabulary());
+			update(digest, nextField.getDelimitedBy());
+		}
+		return toHex(digest.digest());
+	}
+
+	private static Path statisticsPath(final Path outputDirPath, final Path dataPath) {
+		return outputDirPath.resolve("Statistics-" + dataPath.getFileName().toString());
+	}
+
+	private static Path mappingPath(final Path outputDirPath, final Path dataPath) {
+		return outputDirPath.resolve("Mapping-" + dataPath.getFileName().toString());
+	}
+
+	private static Properties readResult(final Path entry) throws IOException {
+		final Path resultPath = entry.resolve(RESULT_FILE);
+		if (!Files.exists(resultPath)) {
+			return null;
+		}
+		final Properties result = new Properties();
+		try (final InputStream input = Files.newInputStream(resultPath);) {
+			result.load(input);
+		}
+		return result;
+	}
+
+	private void writeResult(final Path entry, final Properties result, final Path statisticsPath,
+			final Path mappingPath) throws IOException {
+		final Path tempEntry = Files.createTempDirectory(cacheDir, entry.getFileName().toString() + "-");
+		try {
+			if (statisticsPath != null) {
+				Files.copy(statisticsPath, tempEntry.resolve(STATISTICS_FILE));
+				Files.copy(mappingPath, tempEntry.resolve(MAPPING_FILE));
+			}
+			// The result is written last, as its presence marks a complete
+			// entry
+			try (final OutputStream output = Files.newOutputStream(tempEntry.resolve(RESULT_FILE));) {
+				result.store(output, null);
+			}
+			try {
+				Files.move(tempEntry, entry, StandardCopyOption.ATOMIC_MOVE);
+			} catch (final FileAlreadyExistsException | DirectoryNotEmptyException e) {
+				// Another check stored the same result first
+			}
+		} finally {
+			FileUtils.deleteQuietly(tempEntry.toFile());
+		}
+	}
+
+	private static byte[] contentHash(final Path dataPath) throws IOException {
+		final MessageDigest digest = newDigest();
+		final byte[] buffer = new byte[READ_BUFFER_SIZE];
+		try (final InputStream input = Files.newInputStream(dataPath);) {
+			int next;
+			while ((next = input.read(buffer)) >= 0) {
+				digest.update(buffer, 0, next);
+			}
+		}
+		return digest.digest();
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is required to be supported", e);
+		}
+	}
+
+	/**
+	 * Adds a value to the digest, followed by a separator, so that adjacent
+	 * values cannot run together.
+	 */
+	private static void update(final MessageDigest digest, final Object value) {
+		digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	private static String toHex(final byte[] bytes) {
+		final StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (final byte nextByte : bytes) {
+			result.append(Character.forDigit((nextByte >>> 4) & 0xf, 16));
+			result.append(Character.forDigit(nextByte & 0xf, 16));
+		}
+		return result.toString();
+	}
+}
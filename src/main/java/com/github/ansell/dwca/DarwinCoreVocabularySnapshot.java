@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+import com.github.ansell.jdefaultdict.JDefaultDict;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Reads and writes a compact binary snapshot of the vocabulary map used by
+ * {@link DarwinCoreMetadataGenerator}, so that the default vocabularies can be
+ * loaded without parsing RDF.
+ * <p>
+ * The snapshot for the default vocabularies is generated during the build by
+ * running {@link #main(String...)}, and is loaded from the classpath at
+ * {@link #SNAPSHOT_RESOURCE}.
+ * <p>
+ * The format is a magic number and a version, followed by the number of
+ * vocabularies. Each vocabulary is its IRI and the number of local names,
+ * followed by each local name and the number of IRIs for it, followed by the
+ * namespace and local name of each IRI. All strings are written using
+ * {@link DataOutputStream#writeUTF(String)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class DarwinCoreVocabularySnapshot {
+
+	/**
+	 * The location of the snapshot for the default vocabularies on the
+	 * classpath.
+	 */
+	public static final String SNAPSHOT_RESOURCE = "/dwca-vocabularies.bin";
+
+	private static final int MAGIC = 0x44574356;
+	private static final int VERSION = 1;
+
+	/**
+	 * Private constructor for static only class
+	 */
+	private DarwinCoreVocabularySnapshot() {
+	}
+
+	public static void main(String... args) throws Exception {
+		final OptionParser parser = new OptionParser();
+
+		final OptionSpec<Void> help = parser.accepts("help").forHelp();
+		final OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class).required()
+				.describedAs("The snapshot file to write the default vocabularies to.");
+
+		OptionSet options = null;
+
+		try {
+			options = parser.parse(args);
+		} catch (final OptionException e) {
+			System.out.println(e.getMessage());
+			parser.printHelpOn(System.out);
+			throw e;
+		}
+
+		if (options.has(help)) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+
+		final Path outputPath = output.value(options).toPath();
+		if (outputPath.getParent() != null) {
+			Files.createDirectories(outputPath.getParent());
+		}
+		final Map<String, Map<String, List<IRI>>> vocabMap = DarwinCoreMetadataGenerator.parseDefaultVocabularies();
+		try (final OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(outputPath));) {
+			write(vocabMap, outputStream);
+		}
+	}
+
+	/**
+	 * Load the snapshot of the default vocabularies from the classpath.
+	 * 
+	 * @return The default vocabularies, or null if there is no snapshot on the
+	 *         classpath.
+	 * @throws IOException
+	 *             If there was an error reading the snapshot.
+	 */
+	public static Map<String, Map<String, List<IRI>>> loadDefault() throws IOException {
+		final InputStream snapshotStream = DarwinCoreVocabularySnapshot.class.getResourceAsStream(SNAPSHOT_RESOURCE);
+		if (snapshotStream == null) {
+			return null;
+		}
+		try (final InputStream inputStream = new BufferedInputStream(snapshotStream);) {
+			return read(inputStream);
+		}
+	}
+
+	/**
+	 * Write the given vocabulary map to a snapshot.
+	 * 
+	 * @param vocabMap
+	 *            The map from vocabulary IRIs to local names to the IRIs of
+	 *            terms with that local name.
+	 * @param outputStream
+	 *            The stream to write the snapshot to. It is flushed, but not
+	 *            closed.
+	 * @throws IOException
+	 *             If there was an error writing the snapshot.
+	 */
+	public static void write(Map<String, Map<String, List<IRI>>> vocabMap, OutputStream outputStream)
+			throws IOException {
+		final DataOutputStream output = new DataOutputStream(outputStream);
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeInt(vocabMap.size());
+		for (final Entry<String, Map<String, List<IRI>>> nextVocabulary : vocabMap.entrySet()) {
+			output.writeUTF(nextVocabulary.getKey());
+			output.writeInt(nextVocabulary.getValue().size());
+			for (final Entry<String, List<IRI>> nextLocalNameIRI : nextVocabulary.getValue().entrySet()) {
+				output.writeUTF(nextLocalNameIRI.getKey());
+				output.writeInt(nextLocalNameIRI.getValue().size());
+				for (final IRI nextIRI : nextLocalNameIRI.getValue()) {
+					output.writeUTF(nextIRI.getNamespace());
+					output.writeUTF(nextIRI.getLocalName());
+				}
+			}
+		}
+		output.flush();
+	}
+
+	/**
+	 * Read a vocabulary map from a snapshot.
+	 * 
+	 * @param inputStream
+	 *            The stream to read the snapshot from. It is not closed.
+	 * @return The vocabulary map, in the same form as
+	 *         {@link DarwinCoreMetadataGenerator#getDefaultVocabularies()}.
+	 * @throws IOException
+	 *             If there was an error reading the snapshot, or it was not a
+	 *             snapshot in a supported format.
+	 */
+	public static Map<String, Map<String, List<IRI>>> read(InputStream inputStream) throws IOException {
+		final DataInputStream input = new DataInputStream(inputStream);
+		if (input.readInt() != MAGIC) {
+			throw new IOException("Not a vocabulary snapshot");
+		}
+		final int version = input.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported vocabulary snapshot version: " + version);
+		}
+		final ValueFactory vf = SimpleValueFactory.getInstance();
+		final Map<String, Map<String, List<IRI>>> vocabMap = new JDefaultDict<>(
+				k -> new JDefaultDict<>(l -> new ArrayList<>()));
+		final int vocabularyCount = input.readInt();
+		for (int i = 0; i < vocabularyCount; i++) {
+			final Map<String, List<IRI>> nextVocabulary = vocabMap.get(input.readUTF());
+			final int localNameCount = input.readInt();
+			for (int j = 0; j < localNameCount; j++) {
+				final List<IRI> nextIRIs = nextVocabulary.get(input.readUTF());
+				final int iriCount = input.readInt();
+				for (int k = 0; k < iriCount; k++) {
+					nextIRIs.add(vf.createIRI(input.readUTF(), input.readUTF()));
+				}
+			}
+		}
+		return vocabMap;
+	}
+}
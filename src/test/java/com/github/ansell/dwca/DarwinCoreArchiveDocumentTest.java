@@ -351,4 +351,22 @@ public class DarwinCoreArchiveDocumentTest {
 		testDocument.checkConstraints();
 	}
 
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreArchiveDocument#setSorter(DarwinCoreExternalSorter)}
+	 * .
+	 */
+	@Test
+	public final void testSetSorter() {
+		assertSame(DarwinCoreExternalSorter.getDefault(), testDocument.getSorter());
+		DarwinCoreExternalSorter testSorter = new DarwinCoreExternalSorter(1L << 20, 1, null, 1 << 12);
+		testDocument.setSorter(testSorter);
+		assertSame(testSorter, testDocument.getSorter());
+		// Other documents are not affected
+		assertSame(DarwinCoreExternalSorter.getDefault(), new DarwinCoreArchiveDocument().getSorter());
+		thrown.expect(NullPointerException.class);
+		thrown.expectMessage("Sorter cannot be null");
+		testDocument.setSorter(null);
+	}
+
 }
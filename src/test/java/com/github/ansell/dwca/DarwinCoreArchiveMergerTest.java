@@ -27,13 +27,21 @@ package com.github.ansell.dwca;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.IOUtils;
@@ -238,6 +246,215 @@ public class DarwinCoreArchiveMergerTest {
     	DarwinCoreArchiveMerger.main("--input", testFile2.toAbsolutePath().toString(), "--other-input", testFile.toAbsolutePath().toString(), "--output", testTempDir.toAbsolutePath().toString());
     }
 
+    /**
+     * Test method for
+     * {@link com.github.ansell.dwca.DarwinCoreArchiveMerger#main(java.lang.String[])}
+     * .
+     */
+    @Test
+    public final void testMainOutputZip() throws Exception {
+        Path outputZip = testTempDir.resolve("merged.zip");
+        DarwinCoreArchiveMerger.main("--input", testFile.toAbsolutePath().toString(), "--other-input", testFile2.toAbsolutePath().toString(), "--output-zip", outputZip.toAbsolutePath().toString());
+        assertZipContainsMergedArchive(outputZip, ZipEntry.DEFLATED);
+        // No plain files should be written for the merged archive
+        assertFalse(Files.exists(testTempDir.resolve("merged-archive")));
+        assertFalse(Files.exists(testTempDir.resolve("first-archive")));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.dwca.DarwinCoreArchiveMerger#main(java.lang.String[])}
+     * .
+     */
+    @Test
+    public final void testMainOutputZipStored() throws Exception {
+        Path outputZip = testTempDir.resolve("merged-stored.zip");
+        DarwinCoreArchiveMerger.main("--input", testFile.toAbsolutePath().toString(), "--other-input", testFile2.toAbsolutePath().toString(), "--output-zip", outputZip.toAbsolutePath().toString(), "--zip-store-uncompressed", "true");
+        assertZipContainsMergedArchive(outputZip, ZipEntry.STORED);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.dwca.DarwinCoreMergeOptions#setCompressionLevel(int)}
+     * .
+     */
+    @Test
+    public final void testMergeOptionsInvalidLevel() throws Exception {
+        DarwinCoreMergeOptions options = new DarwinCoreMergeOptions();
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Compression level must be between -1 and 9");
+        options.setCompressionLevel(10);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.dwca.DarwinCoreArchiveMerger#main(java.lang.String[])}
+     * .
+     */
+    @Test
+    public final void testMainDelta() throws Exception {
+        Path baseZip = createTestArchiveZip("dwca-delta-base", "base.csv", "ID,Species,Count,DatasetID,eventDate\n"
+                + "99,Buxbaumia tasmanica,3,A2,2015-09-04\n"
+                + "101,Cryptantha muricata,1,A2,2016-07-30\n", false);
+        Path changesetZip = createTestArchiveZip("dwca-delta-changeset", "changeset.csv", "ID,Species,Count,DatasetID,eventDate," + DarwinCoreArchiveMerger.DELTA_OPERATION_TERM + "\n"
+                + "99,Buxbaumia tasmanica,3,A2,,DELETE\n"
+                + "200,Cryptantha crassisepala,1,A3,2017-02-02,upsert\n"
+                + "101,Cryptantha muricata,5,A2,2017-01-01,\n", true);
+        Path deltaZip = testTempDir.resolve("delta.zip");
+        DarwinCoreArchiveMerger.main("--input", baseZip.toAbsolutePath().toString(), "--other-input", changesetZip.toAbsolutePath().toString(), "--output-zip", deltaZip.toAbsolutePath().toString(), "--delta", "true");
+
+        try (ZipFile zipFile = new ZipFile(deltaZip.toFile());) {
+            ZipEntry mergedCore = zipFile.getEntry("base.csv");
+            assertNotNull(mergedCore);
+            List<String> lines;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(zipFile.getInputStream(mergedCore), StandardCharsets.UTF_8));) {
+                lines = reader.lines().skip(1).collect(Collectors.toList());
+            }
+            assertEquals(Arrays.asList("101,Cryptantha muricata,5,A2,2017-01-01", "200,Cryptantha crassisepala,1,A3,2017-02-02"), lines);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(zipFile.getInputStream(zipFile.getEntry(DarwinCoreArchiveChecker.META_XML)), StandardCharsets.UTF_8));) {
+                assertFalse(reader.lines().anyMatch(line -> line.contains(DarwinCoreArchiveMerger.DELTA_OPERATION_TERM)));
+            }
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.dwca.DarwinCoreArchiveMerger#doDeltaMerge(Path, Path, Path, DarwinCoreMergeOptions)}
+     * .
+     */
+    @Test
+    public final void testDoDeltaMergeBaseNotSorted() throws Exception {
+        Path changesetZip = createTestArchiveZip("dwca-delta-changeset", "changeset.csv", "ID,Species,Count,DatasetID,eventDate\n"
+                + "200,Cryptantha crassisepala,1,A3,2017-02-02\n", false);
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("The base archive is not sorted by id");
+        DarwinCoreArchiveMerger.doDeltaMerge(testFile, changesetZip, testTempDir, new DarwinCoreMergeOptions());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.dwca.DarwinCoreArchiveMerger#doMerge(Path, Path, Path, boolean, boolean, boolean)}
+     * and
+     * {@link com.github.ansell.dwca.DarwinCoreArchiveMerger#doDeltaMerge(Path, Path, Path, DarwinCoreMergeOptions)}
+     * .
+     */
+    @Test
+    public final void testDoMergeThenDeltaMerge() throws Exception {
+        Path inputZip = createTestArchiveZip("dwca-merge-input", "input.csv", "ID,Species,Count,DatasetID,eventDate\n"
+                + "101,Cryptantha muricata,1,A2,2016-07-30\n"
+                + "20,Buxbaumia tasmanica,3,A2,2015-09-04\n"
+                + "3,Cryptantha crassisepala,1,A3,2017-02-02\n", false);
+        Path otherInputZip = createTestArchiveZip("dwca-merge-other-input", "other.csv", "ID,Species,Count,DatasetID,eventDate\n"
+                + "5,Acacia dealbata,2,A4,2014-01-01\n"
+                + "20,Buxbaumia tasmanica,4,A2,2015-09-05\n"
+                + "1000,Eucalyptus regnans,1,A4,2013-03-03\n"
+                + "1,Banksia serrata,7,A4,2012-02-02\n", false);
+        Path mergeOutput = tempDir.newFolder("dwca-merge-output").toPath();
+        DarwinCoreArchiveMerger.doMerge(inputZip, otherInputZip, mergeOutput, false, false, false);
+
+        Path mergedArchive = mergeOutput.resolve("merged-archive");
+        List<String> mergedIds = Files.readAllLines(mergedArchive.resolve("Merged-input.csv"), StandardCharsets.UTF_8)
+                .stream().skip(1).map(line -> line.substring(0, line.indexOf(','))).collect(Collectors.toList());
+        assertEquals(Arrays.asList("1", "3", "5", "20", "101", "1000"), mergedIds);
+        // The statistics pass is opt-in
+        assertFalse(Files.exists(mergeOutput.resolve("first-archive").resolve("Statistics-input.csv")));
+
+        Path changesetZip = createTestArchiveZip("dwca-delta-changeset", "changeset.csv", "ID,Species,Count,DatasetID,eventDate," + DarwinCoreArchiveMerger.DELTA_OPERATION_TERM + "\n"
+                + "1000,Eucalyptus regnans,,A4,,delete\n"
+                + "4,Grevillea robusta,9,A5,2018-08-08,\n", true);
+        Path deltaOutput = tempDir.newFolder("dwca-delta-output").toPath();
+        DarwinCoreMergeOptions deltaOptions = new DarwinCoreMergeOptions();
+        deltaOptions.setIncludeDefaults(false);
+        DarwinCoreArchiveMerger.doDeltaMerge(mergedArchive, changesetZip, deltaOutput, deltaOptions);
+
+        List<String> deltaIds = Files.readAllLines(deltaOutput.resolve("merged-archive").resolve("Merged-input.csv"), StandardCharsets.UTF_8)
+                .stream().skip(1).map(line -> line.substring(0, line.indexOf(','))).collect(Collectors.toList());
+        assertEquals(Arrays.asList("1", "3", "4", "5", "20", "101"), deltaIds);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.dwca.DarwinCoreArchiveMerger#doDeltaMerge(Path, Path, Path, DarwinCoreMergeOptions)}
+     * .
+     */
+    @Test
+    public final void testDoDeltaMergePartialChangeset() throws Exception {
+        Path baseZip = createTestArchiveZip("dwca-delta-base", "base.csv", "ID,Species,Count,DatasetID,eventDate\n"
+                + "101,Cryptantha muricata,1,A2,2016-07-30\n"
+                + "200,Cryptantha crassisepala,1,A3,2017-02-02\n", false);
+        // The changeset only contains the id, count and operation fields
+        Path changesetZip = createTestArchiveZip("dwca-delta-changeset", "changeset.csv", "ID,Count,operation\n"
+                + "101,5,\n"
+                + "150,,delete\n"
+                + "200,,\n", true);
+        Path changesetFolder = tempDir.newFolder("dwca-delta-changeset-fields").toPath();
+        Path partialChangesetZip = changesetFolder.resolve("partial-changeset.zip");
+        try (ZipFile zipFile = new ZipFile(changesetZip.toFile());
+                OutputStream out = Files.newOutputStream(partialChangesetZip, StandardOpenOption.CREATE);
+                ZipOutputStream zipOut = new ZipOutputStream(out, StandardCharsets.UTF_8);) {
+            String metaXml = IOUtils.toString(zipFile.getInputStream(zipFile.getEntry(DarwinCoreArchiveChecker.META_XML)), StandardCharsets.UTF_8);
+            metaXml = metaXml.replaceAll("    <field index=\"[134]\" term=\"[^\"]*\"\\s*/>\n", "")
+                    .replace("index=\"2\"", "index=\"1\"").replace("index=\"5\"", "index=\"2\"");
+            zipOut.putNextEntry(new ZipEntry(DarwinCoreArchiveChecker.META_XML));
+            zipOut.write(metaXml.getBytes(StandardCharsets.UTF_8));
+            zipOut.closeEntry();
+            zipOut.putNextEntry(new ZipEntry("changeset.csv"));
+            IOUtils.copy(zipFile.getInputStream(zipFile.getEntry("changeset.csv")), zipOut);
+            zipOut.closeEntry();
+        }
+        Path deltaOutput = tempDir.newFolder("dwca-delta-output").toPath();
+
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream capturedOut = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(capturedOut, true, StandardCharsets.UTF_8.name()));
+        try {
+            DarwinCoreArchiveMerger.doDeltaMerge(baseZip, partialChangesetZip, deltaOutput, new DarwinCoreMergeOptions());
+        } finally {
+            System.setOut(originalOut);
+        }
+
+        // Fields that are not in the changeset keep their base values, and
+        // empty values in the changeset replace the base values
+        List<String> lines = Files.readAllLines(deltaOutput.resolve("merged-archive").resolve("base.csv"), StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("101,Cryptantha muricata,5,A2,2016-07-30", "200,Cryptantha crassisepala,,A3,2017-02-02"), lines.subList(1, lines.size()));
+        assertTrue(capturedOut.toString(StandardCharsets.UTF_8.name()).contains("Ignored 1 changeset deletes for ids that were not in the base archive"));
+    }
+
+    private Path createTestArchiveZip(String folderName, String coreFileName, String coreContent, boolean withDeltaOperation) throws Exception {
+        Path archiveZip = tempDir.newFolder(folderName).toPath().resolve(folderName + ".zip");
+        try (OutputStream out = Files.newOutputStream(archiveZip, StandardOpenOption.CREATE);
+                ZipOutputStream zipOut = new ZipOutputStream(out, StandardCharsets.UTF_8);) {
+            zipOut.putNextEntry(new ZipEntry(DarwinCoreArchiveChecker.META_XML));
+            String metaXml = IOUtils.toString(
+                    this.getClass().getResourceAsStream("/com/github/ansell/dwca/metadata-to-merge.xml"),
+                    StandardCharsets.UTF_8);
+            metaXml = metaXml.replace("./specimens-to-merge.csv", "./" + coreFileName);
+            if (withDeltaOperation) {
+                metaXml = metaXml.replace("  </core>",
+                        "    <field index=\"5\" term=\"" + DarwinCoreArchiveMerger.DELTA_OPERATION_TERM + "\"/>\n  </core>");
+            }
+            zipOut.write(metaXml.getBytes(StandardCharsets.UTF_8));
+            zipOut.closeEntry();
+            zipOut.putNextEntry(new ZipEntry(coreFileName));
+            zipOut.write(coreContent.getBytes(StandardCharsets.UTF_8));
+            zipOut.closeEntry();
+        }
+        return archiveZip;
+    }
+
+    private void assertZipContainsMergedArchive(Path outputZip, int expectedMethod) throws Exception {
+        assertTrue(Files.exists(outputZip));
+        try (ZipFile zipFile = new ZipFile(outputZip.toFile());) {
+            ZipEntry metaXml = zipFile.getEntry(DarwinCoreArchiveChecker.META_XML);
+            assertNotNull(metaXml);
+            assertEquals(expectedMethod, metaXml.getMethod());
+            ZipEntry mergedCore = zipFile.getEntry("Merged-specimens.csv");
+            assertNotNull(mergedCore);
+            assertEquals(expectedMethod, mergedCore.getMethod());
+            assertTrue(mergedCore.getSize() > 0);
+        }
+    }
+
     /**
      * Test method for
      * {@link com.github.ansell.dwca.DarwinCoreArchiveMerger#main(java.lang.String[])}
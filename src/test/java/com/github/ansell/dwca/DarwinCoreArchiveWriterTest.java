@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DarwinCoreArchiveWriter}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreArchiveWriterTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-writer-test").toPath();
+	}
+
+	private static DarwinCoreArchiveDocument createDocument() {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setCoreColumns(3);
+		generator.setExtensionCount(2);
+		generator.setExtensionColumns(2);
+		return generator.createDocument();
+	}
+
+	/**
+	 * A charset that cannot encode, so that the thread writing a file using it
+	 * fails.
+	 */
+	private static final class FailingCharset extends Charset {
+
+		FailingCharset() {
+			super("X-DWCA-FAILING", null);
+		}
+
+		@Override
+		public boolean contains(Charset cs) {
+			return false;
+		}
+
+		@Override
+		public CharsetDecoder newDecoder() {
+			throw new UnsupportedOperationException("Cannot decode");
+		}
+
+		@Override
+		public CharsetEncoder newEncoder() {
+			throw new UnsupportedOperationException("Cannot encode");
+		}
+	}
+
+	private static List<String> row(String... values) {
+		return Arrays.asList(values);
+	}
+
+	/**
+	 * Writes rows to the core and both extensions from separate threads, with
+	 * small batches so that the producers have to wait for the writers.
+	 */
+	private static void writeRows(DarwinCoreArchiveWriter writer, int rows) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<Future<?>> jobs = new ArrayList<>();
+			jobs.add(executor.submit(() -> {
+				for (int i = 0; i < rows; i++) {
+					writer.getCoreWriter().write(row("id" + i, "text, \"quoted\"\n" + i, Integer.toString(i)));
+				}
+				return null;
+			}));
+			for (int extension = 0; extension < 2; extension++) {
+				DarwinCoreArchiveWriter.RowWriter extensionWriter = writer.getExtensionWriter(extension);
+				jobs.add(executor.submit(() -> {
+					for (int i = 0; i < rows; i++) {
+						extensionWriter.write(row("id" + i, "a" + i));
+						extensionWriter.write(row("id" + i, "b" + i));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> nextJob : jobs) {
+				nextJob.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static List<List<String>> read(DarwinCoreCoreOrExtension coreOrExtension, Path metadataPath)
+			throws Exception {
+		List<List<String>> result = new ArrayList<>();
+		DarwinCoreArchiveChecker.parseCoreOrExtension(coreOrExtension, metadataPath,
+				DarwinCoreArchiveChecker.createParseFunction(coreOrExtension, h -> {
+				}, (h, l) -> l, result::add, false));
+		return result;
+	}
+
+	private static void assertArchive(Path metadataPath, int rows) throws Exception {
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		assertEquals(2, document.getExtensions().size());
+		List<List<String>> core = read(document.getCore(), metadataPath);
+		assertEquals(rows, core.size());
+		assertEquals(row("id0", "text, \"quoted\"\n0", "0"), core.get(0));
+		assertEquals(row("id" + (rows - 1), "text, \"quoted\"\n" + (rows - 1), Integer.toString(rows - 1)),
+				core.get(rows - 1));
+		for (DarwinCoreCoreOrExtension nextExtension : document.getExtensions()) {
+			List<List<String>> extension = read(nextExtension, metadataPath);
+			assertEquals(rows * 2, extension.size());
+			assertEquals(row("id1", "b1"), extension.get(3));
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveWriter#open(Path, DarwinCoreArchiveDocument, int, int)}.
+	 */
+	@Test
+	public final void testWriteDirectory() throws Exception {
+		Path outputPath = testDir.resolve("archive");
+		try (DarwinCoreArchiveWriter writer = DarwinCoreArchiveWriter.open(outputPath, createDocument(), 7, 2);) {
+			writeRows(writer, 5000);
+			assertEquals(5000, writer.getCoreWriter().getRowCount());
+			assertEquals(10000, writer.getExtensionWriter(1).getRowCount());
+		}
+		assertArchive(outputPath.resolve(DarwinCoreArchiveChecker.META_XML), 5000);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveWriter#open(Path, DarwinCoreArchiveDocument)}.
+	 */
+	@Test
+	public final void testWriteZip() throws Exception {
+		Path outputPath = testDir.resolve("archive.zip");
+		try (DarwinCoreArchiveWriter writer = DarwinCoreArchiveWriter.open(outputPath, createDocument());) {
+			writeRows(writer, 3000);
+		}
+		// Only the ZIP file is left after the temporary extension files are
+		// copied into it
+		try (Stream<Path> files = Files.list(testDir);) {
+			assertEquals(1, files.count());
+		}
+		Path extracted = tempDir.newFolder("extracted").toPath();
+		assertArchive(DarwinCoreArchiveChecker.checkZip(outputPath, extracted), 3000);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveWriter#open(Path, DarwinCoreArchiveDocument, int, int, int, boolean)}.
+	 */
+	@Test
+	public final void testWriteZipStored() throws Exception {
+		Path outputPath = testDir.resolve("archive.zip");
+		try (DarwinCoreArchiveWriter writer = DarwinCoreArchiveWriter.open(outputPath, createDocument(),
+				DarwinCoreArchiveWriter.DEFAULT_BATCH_SIZE, DarwinCoreArchiveWriter.DEFAULT_QUEUED_BATCHES, 9,
+				true);) {
+			writeRows(writer, 100);
+		}
+		try (ZipFile zipFile = new ZipFile(outputPath.toFile());) {
+			assertEquals(4, zipFile.size());
+			for (ZipEntry nextEntry : Collections.list(zipFile.entries())) {
+				assertEquals(nextEntry.getName(), ZipEntry.STORED, nextEntry.getMethod());
+			}
+		}
+		Path extracted = tempDir.newFolder("extracted").toPath();
+		assertArchive(DarwinCoreArchiveChecker.checkZip(outputPath, extracted), 100);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveWriter#open(Path, DarwinCoreArchiveDocument, int, int, int, boolean)}.
+	 */
+	@Test
+	public final void testOpenInvalidCompressionLevel() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Compression level must be between -1 and 9");
+		DarwinCoreArchiveWriter.open(testDir.resolve("archive.zip"), createDocument(), 10, 1, 10, false);
+	}
+
+	/**
+	 * Writes rows to a core that cannot be written, and checks that closing
+	 * the writer fails and leaves nothing behind in the test directory.
+	 */
+	private void assertPartialOutputDeleted(Path outputPath) throws Exception {
+		DarwinCoreArchiveDocument document = createDocument();
+		document.getCore().setEncoding(new FailingCharset());
+		DarwinCoreArchiveWriter writer = DarwinCoreArchiveWriter.open(outputPath, document, 1, 1);
+		try {
+			for (int i = 0; i < 100; i++) {
+				writer.getCoreWriter().write(row("id" + i, "a", "b"));
+				writer.getExtensionWriter(0).write(row("id" + i, "a"));
+			}
+			fail("Did not find expected exception");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to write"));
+		}
+		try {
+			writer.close();
+			fail("Did not find expected exception");
+		} catch (IOException e) {
+			assertEquals(UnsupportedOperationException.class, e.getCause().getClass());
+		}
+		try (Stream<Path> files = Files.list(testDir);) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveWriter#close()}.
+	 */
+	@Test
+	public final void testCloseDeletesPartialDirectory() throws Exception {
+		assertPartialOutputDeleted(testDir.resolve("archive").resolve("nested"));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveWriter#close()}.
+	 */
+	@Test
+	public final void testCloseDeletesPartialZip() throws Exception {
+		assertPartialOutputDeleted(testDir.resolve("archive.zip"));
+	}
+
+	/**
+	 * Writes some rows and then fails in the producer, checking that aborting
+	 * the writer leaves nothing behind in the test directory.
+	 */
+	private void assertAbortDeletesOutput(Path outputPath) throws Exception {
+		try (DarwinCoreArchiveWriter writer = DarwinCoreArchiveWriter.open(outputPath, createDocument(), 7, 2);) {
+			try {
+				for (int i = 0; i < 100; i++) {
+					if (i == 50) {
+						throw new IllegalStateException("Producer failed");
+					}
+					writer.getCoreWriter().write(row("id" + i, "a", "b"));
+					writer.getExtensionWriter(0).write(row("id" + i, "a"));
+				}
+				fail("Did not find expected exception");
+			} catch (IllegalStateException e) {
+				writer.abort();
+			}
+		}
+		try (Stream<Path> files = Files.list(testDir);) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveWriter#abort()}.
+	 */
+	@Test
+	public final void testAbortDeletesDirectory() throws Exception {
+		assertAbortDeletesOutput(testDir.resolve("archive").resolve("nested"));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveWriter#abort()}.
+	 */
+	@Test
+	public final void testAbortDeletesZip() throws Exception {
+		assertAbortDeletesOutput(testDir.resolve("archive.zip"));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveWriter#abort()}.
+	 */
+	@Test
+	public final void testAbortAfterClose() throws Exception {
+		Path outputPath = testDir.resolve("archive.zip");
+		DarwinCoreArchiveWriter writer = DarwinCoreArchiveWriter.open(outputPath, createDocument());
+		writer.getCoreWriter().write(row("id1", "a", "b"));
+		writer.close();
+		assertTrue(Files.exists(outputPath));
+		writer.abort();
+		assertFalse(Files.exists(outputPath));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveWriter.RowWriter#write(List)}.
+	 */
+	@Test
+	public final void testWriteWrongColumnCount() throws Exception {
+		try (DarwinCoreArchiveWriter writer = DarwinCoreArchiveWriter.open(testDir.resolve("wrong"),
+				createDocument());) {
+			writer.getCoreWriter().write(row("id1", "a", "b"));
+			thrown.expect(IllegalArgumentException.class);
+			thrown.expectMessage("Expected 3 values");
+			writer.getCoreWriter().write(row("id2", "a"));
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveWriter#open(Path, DarwinCoreArchiveDocument)}.
+	 */
+	@Test
+	public final void testOpenLocationOutsideArchive() throws Exception {
+		DarwinCoreArchiveDocument document = createDocument();
+		DarwinCoreCoreOrExtension extension = DarwinCoreCoreOrExtension.newExtension();
+		extension.setRowType(DarwinCoreSyntheticArchiveGenerator.SYNTHETIC_NAMESPACE + "Outside");
+		extension.setIdOrCoreId("0");
+		DarwinCoreFile file = new DarwinCoreFile();
+		file.addLocation("../outside.csv");
+		extension.setFiles(file);
+		DarwinCoreField field = new DarwinCoreField();
+		field.setIndex(0);
+		field.setTerm(DarwinCoreArchiveConstants.DWC_TERMS + "occurrenceID");
+		extension.addField(field);
+		document.addExtension(extension);
+
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("File locations must be relative to the archive");
+		DarwinCoreArchiveWriter.open(testDir.resolve("outside"), document);
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DarwinCoreBatchChecker}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreBatchCheckerTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	private Path testTempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-batch-test").toPath();
+		testTempDir = tempDir.newFolder("dwca-batch-temp").toPath();
+	}
+
+	private Path generate(String name, long rows) throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(1);
+		generator.setCoreRows(rows);
+		generator.setExtensionCount(1);
+		generator.generate(testDir.resolve(name));
+		return testDir.resolve(name);
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreBatchChecker#findArchives(Path)}.
+	 */
+	@Test
+	public final void testFindArchivesFolder() throws Exception {
+		Path zip = generate("b.zip", 10);
+		Path folder = generate("a", 10);
+		Files.createDirectories(testDir.resolve("not-an-archive"));
+		Files.write(testDir.resolve("notes.txt"), Arrays.asList("test"), StandardCharsets.UTF_8);
+
+		assertEquals(Arrays.asList(folder, zip), DarwinCoreBatchChecker.findArchives(testDir));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreBatchChecker#findArchives(Path)}.
+	 */
+	@Test
+	public final void testFindArchivesList() throws Exception {
+		Path listFile = testDir.resolve("archives.txt");
+		Files.write(listFile, Arrays.asList("# Archives to check", "a.zip", "", "  b/meta.xml  "),
+				StandardCharsets.UTF_8);
+
+		assertEquals(Arrays.asList(testDir.resolve("a.zip"), testDir.resolve("b").resolve("meta.xml")),
+				DarwinCoreBatchChecker.findArchives(listFile));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreBatchChecker#checkArchives(List, Path, Path, boolean, boolean, int, int)}.
+	 */
+	@Test
+	public final void testCheckArchives() throws Exception {
+		Path small = generate("small", 10);
+		Path large = generate("large.zip", 1000);
+		Path metadata = generate("medium", 100).resolve(DarwinCoreArchiveChecker.META_XML);
+		Path outputDir = tempDir.newFolder("dwca-batch-output").toPath();
+
+		List<DarwinCoreBatchChecker.BatchResult> results = DarwinCoreBatchChecker
+				.checkArchives(Arrays.asList(small, large, metadata), testTempDir, outputDir, false, false, 2, 1);
+
+		assertEquals(3, results.size());
+		assertEquals(small, results.get(0).getInput());
+		assertEquals(large, results.get(1).getInput());
+		assertEquals(metadata, results.get(2).getInput());
+		for (DarwinCoreBatchChecker.BatchResult nextResult : results) {
+			assertTrue(nextResult.isSuccess());
+			assertTrue(nextResult.getBytes() > 0);
+		}
+		assertTrue(results.get(1).getBytes() > results.get(0).getBytes());
+		assertTrue(Files.isDirectory(outputDir.resolve("small")));
+		assertTrue(Files.isDirectory(outputDir.resolve("large.zip")));
+		assertTrue(Files.isDirectory(outputDir.resolve("medium")));
+		// Each archive is extracted to its own folder, which is removed after
+		// the check
+		try (Stream<Path> children = Files.list(testTempDir);) {
+			assertEquals(0, children.count());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreBatchChecker#checkArchives(List, Path, Path, boolean, boolean, int, int)}.
+	 */
+	@Test
+	public final void testCheckArchivesFailure() throws Exception {
+		Path valid = generate("valid", 10);
+		Path broken = testDir.resolve("broken");
+		Files.createDirectories(broken);
+		Files.write(broken.resolve(DarwinCoreArchiveChecker.META_XML), Arrays.asList("<archive"),
+				StandardCharsets.UTF_8);
+
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("2 of 3 archives failed the check");
+		DarwinCoreBatchChecker.checkArchives(Arrays.asList(valid, broken, testDir.resolve("missing.zip")),
+				testTempDir, null, false, false, 2, 2);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreBatchChecker#checkArchives(List, Path, Path, boolean, boolean, int, int)}.
+	 */
+	@Test
+	public final void testCheckArchivesInvalidThreads() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Batch threads must be positive");
+		DarwinCoreBatchChecker.checkArchives(Arrays.asList(testDir), testTempDir, null, false, false, 0, 1);
+	}
+}
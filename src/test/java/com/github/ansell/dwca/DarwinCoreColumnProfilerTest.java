@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.ansell.dwca.DarwinCoreColumnProfiler.ColumnType;
+
+/**
+ * Tests for {@link DarwinCoreColumnProfiler}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreColumnProfilerTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testFile;
+
+	private final List<String> headers = Arrays.asList("id", "count", "latitude", "eventDate", "modified", "notes",
+			"empty", "mixed");
+
+	@Before
+	public void setUp() throws Exception {
+		testFile = tempDir.newFolder("dwca-profiler-test").toPath().resolve("profile.csv");
+		Files.write(testFile,
+				Arrays.asList(String.join(",", headers), "1,10,-35.5,21/03/2017,2017-03-21,a,,1",
+						"2,,1E-3,01/12/2016,2017-03-22,b,,2", "3,7,-35,,2017-03-23,\"c, d\",,2017-01-01"),
+				StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreColumnProfiler#profile(Path, java.nio.charset.Charset, List)}.
+	 */
+	@Test
+	public final void testProfile() throws Exception {
+		DarwinCoreColumnProfiler.Result result = new DarwinCoreColumnProfiler(0).profile(testFile, StandardCharsets.UTF_8, headers);
+		assertEquals(3, result.getRowCount());
+		List<DarwinCoreColumnProfiler.ColumnProfile> columns = result.getColumns();
+		assertEquals(ColumnType.INTEGER, columns.get(0).getType());
+		assertEquals(ColumnType.INTEGER, columns.get(1).getType());
+		assertEquals(1, columns.get(1).getEmptyCount());
+		assertEquals(ColumnType.DECIMAL, columns.get(2).getType());
+		assertEquals(ColumnType.DATE, columns.get(3).getType());
+		assertEquals("dd/MM/yyyy", columns.get(3).getDateFormat().get());
+		assertEquals(ColumnType.DATE, columns.get(4).getType());
+		assertEquals("yyyy-MM-dd", columns.get(4).getDateFormat().get());
+		assertEquals(ColumnType.TEXT, columns.get(5).getType());
+		assertFalse(columns.get(5).getDateFormat().isPresent());
+		assertEquals(ColumnType.EMPTY, columns.get(6).getType());
+		assertEquals(3, columns.get(6).getEmptyCount());
+		assertEquals(ColumnType.TEXT, columns.get(7).getType());
+		// Both date formats are used by one column, so the first is used
+		assertEquals("dd/MM/yyyy", result.getDateFormat().get());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreColumnProfiler#profile(Path, java.nio.charset.Charset, List)}.
+	 */
+	@Test
+	public final void testProfileMaxRows() throws Exception {
+		DarwinCoreColumnProfiler.Result result = new DarwinCoreColumnProfiler(2).profile(testFile, StandardCharsets.UTF_8, headers);
+		assertEquals(2, result.getRowCount());
+		assertEquals(ColumnType.INTEGER, result.getColumns().get(7).getType());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreColumnProfiler#scanNumber(String)}.
+	 */
+	@Test
+	public final void testScanNumber() throws Exception {
+		assertEquals(DarwinCoreColumnProfiler.INTEGER_NUMBER, DarwinCoreColumnProfiler.scanNumber("0"));
+		assertEquals(DarwinCoreColumnProfiler.INTEGER_NUMBER, DarwinCoreColumnProfiler.scanNumber("-123"));
+		assertEquals(DarwinCoreColumnProfiler.INTEGER_NUMBER, DarwinCoreColumnProfiler.scanNumber("+123"));
+		assertEquals(DarwinCoreColumnProfiler.INTEGER_NUMBER,
+				DarwinCoreColumnProfiler.scanNumber("123456789012345678"));
+		assertEquals(DarwinCoreColumnProfiler.DECIMAL_NUMBER,
+				DarwinCoreColumnProfiler.scanNumber("1234567890123456789"));
+		assertEquals(DarwinCoreColumnProfiler.DECIMAL_NUMBER, DarwinCoreColumnProfiler.scanNumber("1.5"));
+		assertEquals(DarwinCoreColumnProfiler.DECIMAL_NUMBER, DarwinCoreColumnProfiler.scanNumber(".5"));
+		assertEquals(DarwinCoreColumnProfiler.DECIMAL_NUMBER, DarwinCoreColumnProfiler.scanNumber("5."));
+		assertEquals(DarwinCoreColumnProfiler.DECIMAL_NUMBER, DarwinCoreColumnProfiler.scanNumber("-1.5e+10"));
+		assertEquals(DarwinCoreColumnProfiler.NOT_A_NUMBER, DarwinCoreColumnProfiler.scanNumber("-"));
+		assertEquals(DarwinCoreColumnProfiler.NOT_A_NUMBER, DarwinCoreColumnProfiler.scanNumber("."));
+		assertEquals(DarwinCoreColumnProfiler.NOT_A_NUMBER, DarwinCoreColumnProfiler.scanNumber("1e"));
+		assertEquals(DarwinCoreColumnProfiler.NOT_A_NUMBER, DarwinCoreColumnProfiler.scanNumber("1.2.3"));
+		assertEquals(DarwinCoreColumnProfiler.NOT_A_NUMBER, DarwinCoreColumnProfiler.scanNumber("12a"));
+		assertEquals(DarwinCoreColumnProfiler.NOT_A_NUMBER, DarwinCoreColumnProfiler.scanNumber("NaN"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreColumnProfiler#matchDatePatterns(String)}.
+	 */
+	@Test
+	public final void testMatchDatePatterns() throws Exception {
+		assertEquals(1, DarwinCoreColumnProfiler.matchDatePatterns("2017-03-21"));
+		assertEquals(2, DarwinCoreColumnProfiler.matchDatePatterns("2017/03/21"));
+		// Day and month are both valid in either order
+		assertEquals(4 | 8, DarwinCoreColumnProfiler.matchDatePatterns("03/04/2017"));
+		assertEquals(4, DarwinCoreColumnProfiler.matchDatePatterns("21/03/2017"));
+		assertEquals(8, DarwinCoreColumnProfiler.matchDatePatterns("03/21/2017"));
+		assertEquals(16, DarwinCoreColumnProfiler.matchDatePatterns("21-03-2017"));
+		assertEquals(0, DarwinCoreColumnProfiler.matchDatePatterns("2017-13-21"));
+		assertEquals(0, DarwinCoreColumnProfiler.matchDatePatterns("2017-03-32"));
+		assertEquals(0, DarwinCoreColumnProfiler.matchDatePatterns("2017-03-00"));
+		assertEquals(0, DarwinCoreColumnProfiler.matchDatePatterns("2017-03-2"));
+		assertEquals(0, DarwinCoreColumnProfiler.matchDatePatterns("2017-03/21"));
+		assertEquals(0, DarwinCoreColumnProfiler.matchDatePatterns("abcd-ef-gh"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreColumnProfiler#DarwinCoreColumnProfiler(long)}.
+	 */
+	@Test
+	public final void testConstructorNegativeMaxRows() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Maximum rows must not be negative: -1");
+		new DarwinCoreColumnProfiler(-1);
+	}
+}
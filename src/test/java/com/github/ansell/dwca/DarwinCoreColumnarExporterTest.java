@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DarwinCoreColumnarExporter}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreColumnarExporterTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	private Path outputDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-columnar-test").toPath();
+		outputDir = tempDir.newFolder("dwca-columnar-output").toPath();
+	}
+
+	private Path generate(String name) throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(3);
+		generator.setCoreRows(300);
+		generator.setCoreColumns(6);
+		generator.setExtensionCount(1);
+		generator.setFanOut(2);
+		generator.setQuoteRatio(0.3);
+		generator.generate(testDir.resolve(name));
+		return testDir.resolve(name);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreColumnarExporter#export(DarwinCoreArchiveDocument, Path, int, boolean)}.
+	 */
+	@Test
+	public final void testExport() throws Exception {
+		Path metadataPath = generate("export").resolve(DarwinCoreArchiveChecker.META_XML);
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+
+		List<Path> outputs = DarwinCoreColumnarExporter.export(document, outputDir, 100, false);
+		assertEquals(2, outputs.size());
+		assertEquals(outputDir.resolve("core" + DarwinCoreColumnarWriter.FILE_SUFFIX), outputs.get(0));
+		assertEquals(outputDir.resolve("extension1" + DarwinCoreColumnarWriter.FILE_SUFFIX), outputs.get(1));
+
+		List<List<String>> expected = new ArrayList<>();
+		try (CloseableIterator<DarwinCoreRecord> iterator = document.iterator(false, false);) {
+			while (iterator.hasNext()) {
+				DarwinCoreRecord next = iterator.next();
+				List<String> nextValues = new ArrayList<>();
+				for (int i = 0; i < next.getFields().size(); i++) {
+					nextValues.add(next.valueAt(i, false));
+				}
+				expected.add(nextValues);
+			}
+		}
+
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader.open(outputs.get(0));) {
+			List<String> expectedColumns = new ArrayList<>();
+			for (DarwinCoreField nextField : document.getCore().getFields()) {
+				expectedColumns.add(nextField.getTerm());
+			}
+			assertEquals(expectedColumns, reader.getColumns());
+			assertEquals(3, reader.getBlocks().size());
+			List<List<String>> rows = new ArrayList<>();
+			reader.scan(reader.getColumns(), rows::add);
+			assertEquals(expected, rows);
+		}
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader.open(outputs.get(1));) {
+			assertEquals(600, reader.getRowCount());
+			assertEquals(6, reader.getBlocks().size());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreColumnarExporter#export(DarwinCoreArchiveDocument, Path, int, int, boolean)}.
+	 */
+	@Test
+	public final void testExportDictionaryEncoding() throws Exception {
+		Path metadataPath = generate("dictionary").resolve(DarwinCoreArchiveChecker.META_XML);
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		String coreId = document.getExtensions().get(0).getFields().get(0).getTerm();
+
+		List<Path> outputs = DarwinCoreColumnarExporter.export(document, outputDir, 100, 1000, false);
+		// Each core id is repeated in the extension, but the core ids are
+		// unique
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader.open(outputs.get(1));) {
+			assertTrue(reader.isDictionaryEncoded(coreId));
+			List<List<String>> rows = new ArrayList<>();
+			reader.scan(Arrays.asList(coreId), rows::add);
+			assertEquals(600, rows.size());
+			assertEquals(300, rows.stream().distinct().count());
+		}
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader.open(outputs.get(0));) {
+			assertFalse(reader.isDictionaryEncoded(reader.getColumns().get(0)));
+		}
+
+		// Over the limit
+		outputs = DarwinCoreColumnarExporter.export(document, outputDir, 100, 299, false);
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader.open(outputs.get(1));) {
+			assertFalse(reader.isDictionaryEncoded(coreId));
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreColumnarExporter#export(DarwinCoreArchiveDocument, Path, int, int, boolean)}.
+	 */
+	@Test
+	public final void testExportInvalidDictionaryLimit() throws Exception {
+		Path metadataPath = generate("invalid").resolve(DarwinCoreArchiveChecker.META_XML);
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Dictionary limit must be between 0 and");
+		DarwinCoreColumnarExporter.export(DarwinCoreArchiveChecker.parseMetadataXml(metadataPath), outputDir, 100,
+				-1, false);
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreColumnarExporter#main(String...)}.
+	 */
+	@Test
+	public final void testMainZip() throws Exception {
+		Path zipPath = generate("export.zip");
+		DarwinCoreColumnarExporter.main("--input", zipPath.toString(), "--output", outputDir.toString());
+		assertTrue(Files.exists(outputDir.resolve("core" + DarwinCoreColumnarWriter.FILE_SUFFIX)));
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader
+				.open(outputDir.resolve("extension1" + DarwinCoreColumnarWriter.FILE_SUFFIX));) {
+			assertEquals(600, reader.getRowCount());
+		}
+	}
+}
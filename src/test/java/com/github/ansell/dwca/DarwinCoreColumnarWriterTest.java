@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BaseIntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DarwinCoreColumnarWriter} and
+ * {@link DarwinCoreColumnarReader}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreColumnarWriterTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testFile;
+
+	@Before
+	public void setUp() throws Exception {
+		testFile = tempDir.newFolder("dwca-columnar-test").toPath().resolve("test.arrow");
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreColumnarWriter#write(List)}.
+	 */
+	@Test
+	public final void testRoundTrip() throws Exception {
+		List<List<String>> expected = new ArrayList<>();
+		try (DarwinCoreColumnarWriter writer = new DarwinCoreColumnarWriter(testFile,
+				Arrays.asList("id", "basisOfRecord", "text"), 10);) {
+			for (int i = 0; i < 25; i++) {
+				List<String> nextRow = Arrays.asList(String.format("%03d", i), i % 2 == 0 ? "Observation" : "Specimen",
+						i % 5 == 0 ? "" : "Text, with \"quotes\"\nand ünïcödé " + i);
+				writer.write(nextRow);
+				expected.add(nextRow);
+			}
+			assertEquals(25, writer.getRowCount());
+		}
+
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader.open(testFile);) {
+			assertEquals(Arrays.asList("id", "basisOfRecord", "text"), reader.getColumns());
+			assertEquals(25, reader.getRowCount());
+			assertEquals(3, reader.getBlocks().size());
+			assertEquals(5, reader.getBlocks().get(2).getRows());
+
+			List<List<String>> rows = new ArrayList<>();
+			reader.scan(reader.getColumns(), rows::add);
+			assertEquals(expected, rows);
+
+			List<List<String>> selected = new ArrayList<>();
+			reader.scan(Arrays.asList("text", "id"), selected::add);
+			assertEquals(25, selected.size());
+			assertEquals(Arrays.asList("Text, with \"quotes\"\nand ünïcödé 1", "001"), selected.get(1));
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreColumnarReader#getBlocks()}.
+	 */
+	@Test
+	public final void testBlockStatistics() throws Exception {
+		try (DarwinCoreColumnarWriter writer = new DarwinCoreColumnarWriter(testFile,
+				Arrays.asList("id", "basisOfRecord", "empty"), 10);) {
+			for (int i = 0; i < 20; i++) {
+				writer.write(Arrays.asList(String.format("%03d", i), i % 2 == 0 ? "Observation" : "Specimen", null));
+			}
+		}
+
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader.open(testFile);) {
+			DarwinCoreColumnarReader.Block first = reader.getBlocks().get(0);
+			assertEquals("000", first.getMin("id").get());
+			assertEquals("009", first.getMax("id").get());
+			assertEquals("Observation", first.getMin("basisOfRecord").get());
+			assertEquals("Specimen", first.getMax("basisOfRecord").get());
+			assertFalse(first.getMin("empty").isPresent());
+			assertEquals(10, first.getEmptyCount("empty"));
+			assertEquals(0, first.getEmptyCount("id"));
+
+			// Skip blocks that cannot contain the id
+			List<List<String>> rows = new ArrayList<>();
+			reader.scan(Arrays.asList("id"), b -> b.getMax("id").get().compareTo("015") >= 0
+					&& b.getMin("id").get().compareTo("015") <= 0, rows::add);
+			assertEquals(10, rows.size());
+			assertEquals(Collections.singletonList("010"), rows.get(0));
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreColumnarWriter#close()}.
+	 */
+	@Test
+	public final void testReadWithArrow() throws Exception {
+		try (DarwinCoreColumnarWriter writer = new DarwinCoreColumnarWriter(testFile, Arrays.asList("id", "name"),
+				2);) {
+			writer.write(Arrays.asList("1", "Émile"));
+			writer.write(Arrays.asList("2", ""));
+			writer.write(Arrays.asList("3", null));
+		}
+
+		try (BufferAllocator allocator = new RootAllocator();
+				ArrowFileReader reader = new ArrowFileReader(
+						FileChannel.open(testFile, StandardOpenOption.READ), allocator);) {
+			VectorSchemaRoot root = reader.getVectorSchemaRoot();
+			assertEquals(Arrays.asList("id", "name"), root.getSchema().getFields().stream().map(f -> f.getName())
+					.collect(Collectors.toList()));
+			assertEquals(2, reader.getRecordBlocks().size());
+			assertTrue(reader.getMetaData().containsKey(DarwinCoreColumnarWriter.BLOCKS_METADATA_KEY));
+
+			assertTrue(reader.loadNextBatch());
+			assertEquals(2, root.getRowCount());
+			VarCharVector names = (VarCharVector) root.getVector("name");
+			assertEquals("Émile", new String(names.get(0), StandardCharsets.UTF_8));
+			// Empty values are stored as nulls
+			assertTrue(names.isNull(1));
+
+			assertTrue(reader.loadNextBatch());
+			assertEquals(1, root.getRowCount());
+			assertTrue(root.getVector("name").isNull(0));
+			assertFalse(reader.loadNextBatch());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreColumnarWriter#DarwinCoreColumnarWriter(Path, List, int, Map)}.
+	 */
+	@Test
+	public final void testDictionaryEncoding() throws Exception {
+		List<List<String>> expected = new ArrayList<>();
+		try (DarwinCoreColumnarWriter writer = new DarwinCoreColumnarWriter(testFile,
+				Arrays.asList("id", "basisOfRecord"), 4,
+				Collections.singletonMap("basisOfRecord", Arrays.asList("HumanObservation", "PreservedSpecimen")));) {
+			for (int i = 0; i < 10; i++) {
+				List<String> nextRow = Arrays.asList("id" + i,
+						i % 3 == 0 ? "" : (i % 3 == 1 ? "HumanObservation" : "PreservedSpecimen"));
+				writer.write(nextRow);
+				expected.add(nextRow);
+			}
+		}
+
+		try (BufferAllocator allocator = new RootAllocator();
+				ArrowFileReader reader = new ArrowFileReader(
+						FileChannel.open(testFile, StandardOpenOption.READ), allocator);) {
+			VectorSchemaRoot root = reader.getVectorSchemaRoot();
+			assertNull(root.getSchema().findField("id").getDictionary());
+			DictionaryEncoding encoding = root.getSchema().findField("basisOfRecord").getDictionary();
+			assertNotNull(encoding);
+			// One dictionary for the whole file, shared by every record batch
+			assertEquals(1, reader.getDictionaryBlocks().size());
+			assertEquals(3, reader.getRecordBlocks().size());
+			assertTrue(reader.loadNextBatch());
+			VarCharVector dictionary = (VarCharVector) reader.getDictionaryVectors().get(encoding.getId())
+					.getVector();
+			assertEquals(2, dictionary.getValueCount());
+			BaseIntVector codes = (BaseIntVector) root.getVector("basisOfRecord");
+			assertTrue(codes.isNull(0));
+			assertEquals("PreservedSpecimen",
+					new String(dictionary.get((int) codes.getValueAsLong(2)), StandardCharsets.UTF_8));
+		}
+
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader.open(testFile);) {
+			assertFalse(reader.isDictionaryEncoded("id"));
+			assertTrue(reader.isDictionaryEncoded("basisOfRecord"));
+			List<List<String>> rows = new ArrayList<>();
+			reader.scan(reader.getColumns(), rows::add);
+			assertEquals(expected, rows);
+			assertEquals("PreservedSpecimen", reader.getBlocks().get(0).getMax("basisOfRecord").get());
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreColumnarWriter#write(List)}.
+	 */
+	@Test
+	public final void testValueNotInDictionary() throws Exception {
+		try (DarwinCoreColumnarWriter writer = new DarwinCoreColumnarWriter(testFile, Arrays.asList("id", "sex"),
+				10, Collections.singletonMap("sex", Arrays.asList("female", "male")));) {
+			writer.write(Arrays.asList("1", "female"));
+			thrown.expect(IllegalArgumentException.class);
+			thrown.expectMessage("Value was not in the dictionary for sex: unknown");
+			writer.write(Arrays.asList("2", "unknown"));
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreColumnarWriter#DarwinCoreColumnarWriter(Path, List, int)}.
+	 */
+	@Test
+	public final void testEmptyFile() throws Exception {
+		new DarwinCoreColumnarWriter(testFile, Arrays.asList("id"), 10).close();
+		try (DarwinCoreColumnarReader reader = DarwinCoreColumnarReader.open(testFile);) {
+			assertEquals(0, reader.getRowCount());
+			assertTrue(reader.getBlocks().isEmpty());
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreColumnarWriter#write(List)}.
+	 */
+	@Test
+	public final void testWrongRowSize() throws Exception {
+		try (DarwinCoreColumnarWriter writer = new DarwinCoreColumnarWriter(testFile, Arrays.asList("id", "name"),
+				10);) {
+			thrown.expect(IllegalArgumentException.class);
+			thrown.expectMessage("Row size was different to the columns");
+			writer.write(Arrays.asList("1"));
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreColumnarReader#open(Path)}.
+	 */
+	@Test
+	public final void testOpenTruncated() throws Exception {
+		try (DarwinCoreColumnarWriter writer = new DarwinCoreColumnarWriter(testFile, Arrays.asList("id"), 10);) {
+			writer.write(Arrays.asList("1"));
+		}
+		byte[] bytes = Files.readAllBytes(testFile);
+		Files.write(testFile, Arrays.copyOf(bytes, bytes.length - 1));
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("Not a complete columnar file");
+		DarwinCoreColumnarReader.open(testFile);
+	}
+}
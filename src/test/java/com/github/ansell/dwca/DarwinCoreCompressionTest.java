@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.ansell.dwca.DarwinCoreCompression.Format;
+
+/**
+ * Tests for {@link DarwinCoreCompression}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreCompressionTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-compression-test").toPath();
+	}
+
+	private static byte[] gzip(byte[] input) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (OutputStream output = new GZIPOutputStream(result);) {
+			output.write(input);
+		}
+		return result.toByteArray();
+	}
+
+	private static byte[] bzip2(byte[] input) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (OutputStream output = new BZip2CompressorOutputStream(result);) {
+			output.write(input);
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * Writes gzip members of at most blockSize uncompressed bytes, each with a
+	 * BC extra subfield containing the size of the member, followed by an
+	 * empty member, in the same way as bgzip.
+	 */
+	private static byte[] blockGzip(byte[] input, int blockSize) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		for (int offset = 0; offset < input.length; offset += blockSize) {
+			writeBlock(result, input, offset, Math.min(blockSize, input.length - offset));
+		}
+		writeBlock(result, input, 0, 0);
+		return result.toByteArray();
+	}
+
+	private static void writeBlock(ByteArrayOutputStream result, byte[] input, int offset, int length) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(input, offset, length);
+		deflater.finish();
+		byte[] compressed = new byte[length + 1024];
+		int compressedLength = 0;
+		while (!deflater.finished()) {
+			compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+		}
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(input, offset, length);
+		int total = 18 + compressedLength + 8;
+		byte[] header = new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+				(byte) (total - 1), (byte) ((total - 1) >>> 8) };
+		result.write(header, 0, header.length);
+		result.write(compressed, 0, compressedLength);
+		writeInt(result, (int) crc.getValue());
+		writeInt(result, length);
+	}
+
+	private static void writeInt(ByteArrayOutputStream output, int value) {
+		output.write(value);
+		output.write(value >>> 8);
+		output.write(value >>> 16);
+		output.write(value >>> 24);
+	}
+
+	private static byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7919];
+		int next;
+		while ((next = input.read(buffer)) >= 0) {
+			result.write(buffer, 0, next);
+		}
+		return result.toByteArray();
+	}
+
+	private static List<List<String>> iterate(DarwinCoreArchiveDocument document, boolean sortById)
+			throws Exception {
+		List<List<String>> result = new ArrayList<>();
+		try (CloseableIterator<DarwinCoreRecord> iterator = document.iterator(false, sortById);) {
+			while (iterator.hasNext()) {
+				DarwinCoreRecord next = iterator.next();
+				List<String> nextValues = new ArrayList<>();
+				for (int i = 0; i < next.getFields().size(); i++) {
+					nextValues.add(next.valueAt(i, false));
+				}
+				result.add(nextValues);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreCompression#detect(Path)}.
+	 */
+	@Test
+	public final void testDetect() throws Exception {
+		byte[] text = "id,value\n1,a\n".getBytes(StandardCharsets.UTF_8);
+		Path plain = Files.write(testDir.resolve("plain.txt"), text);
+		Path empty = Files.write(testDir.resolve("empty.txt"), new byte[0]);
+		Path gzip = Files.write(testDir.resolve("data.txt.gz"), gzip(text));
+		Path bgzip = Files.write(testDir.resolve("data.txt.bgz"), blockGzip(text, 4));
+		Path bzip2 = Files.write(testDir.resolve("data.txt.bz2"), bzip2(text));
+		Path xz = Files.write(testDir.resolve("data.txt.xz"),
+				new byte[] { (byte) 0xfd, '7', 'z', 'X', 'Z', 0, 0, 4 });
+		Path zstd = Files.write(testDir.resolve("data.txt.zst"), new byte[] { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd });
+
+		assertEquals(Format.NONE, DarwinCoreCompression.detect(plain));
+		assertEquals(Format.NONE, DarwinCoreCompression.detect(empty));
+		assertEquals(Format.GZIP, DarwinCoreCompression.detect(gzip));
+		assertEquals(Format.GZIP, DarwinCoreCompression.detect(bgzip));
+		assertEquals(Format.BZIP2, DarwinCoreCompression.detect(bzip2));
+		assertEquals(Format.XZ, DarwinCoreCompression.detect(xz));
+		assertEquals(Format.ZSTD, DarwinCoreCompression.detect(zstd));
+
+		assertFalse(DarwinCoreCompression.isBlockGzip(plain));
+		assertFalse(DarwinCoreCompression.isBlockGzip(gzip));
+		assertTrue(DarwinCoreCompression.isBlockGzip(bgzip));
+
+		for (Path next : Arrays.asList(plain, gzip, bgzip, bzip2)) {
+			for (int parallelism : Arrays.asList(1, 3)) {
+				try (InputStream input = DarwinCoreCompression.newInputStream(next, parallelism);) {
+					assertArrayEquals(next.toString(), text, readAll(input));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreCompression#newInputStream(Path, int)}.
+	 */
+	@Test
+	public final void testBlockGzipParallel() throws Exception {
+		byte[] text = new byte[3_000_000];
+		Random random = new Random(5);
+		for (int i = 0; i < text.length; i++) {
+			text[i] = (byte) ('a' + random.nextInt(random.nextInt(26) + 1));
+		}
+		Path bgzip = Files.write(testDir.resolve("large.txt.gz"), blockGzip(text, 65280));
+		for (int parallelism : Arrays.asList(1, 2, 8)) {
+			try (InputStream input = DarwinCoreCompression.newInputStream(bgzip, parallelism);) {
+				assertArrayEquals(text, readAll(input));
+			}
+		}
+		// Closing before the end stops the decompression threads
+		try (InputStream input = DarwinCoreCompression.newInputStream(bgzip, 4);) {
+			assertEquals(text[0] & 0xff, input.read());
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreCompression#newInputStream(Path, int)}.
+	 */
+	@Test
+	public final void testBlockGzipCorrupt() throws Exception {
+		byte[] text = "id,value\n1,a\n2,b\n".getBytes(StandardCharsets.UTF_8);
+		byte[] compressed = blockGzip(text, 1024);
+		// The CRC of the first block starts 8 bytes before the start of the
+		// empty block at the end
+		compressed[compressed.length - 28 - 8] ^= 0x01;
+		Path bgzip = Files.write(testDir.resolve("corrupt.txt.gz"), compressed);
+
+		thrown.expect(IOException.class);
+		thrown.expectMessage("CRC");
+		try (InputStream input = DarwinCoreCompression.newInputStream(bgzip, 2);) {
+			readAll(input);
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveChecker#parseCoreOrExtension(DarwinCoreCoreOrExtension, Path, java.util.function.Consumer)}.
+	 */
+	@Test
+	public final void testIterateCompressedCore() throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(13);
+		generator.setCoreRows(2000);
+		generator.setCoreColumns(6);
+		generator.setQuoteRatio(0.4);
+		generator.setIdDistribution(DarwinCoreSyntheticArchiveGenerator.IdDistribution.SHUFFLED);
+		generator.generate(testDir.resolve("archive"));
+		Path metadataPath = testDir.resolve("archive").resolve(DarwinCoreArchiveChecker.META_XML);
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		Path corePath = metadataPath.resolveSibling(DarwinCoreSyntheticArchiveGenerator.CORE_FILE);
+		byte[] text = Files.readAllBytes(corePath);
+		List<List<String>> expected = iterate(document, false);
+		List<List<String>> expectedSorted = iterate(document, true);
+		assertEquals(2000, expected.size());
+
+		for (byte[] compressed : Arrays.asList(gzip(text), blockGzip(text, 4096), bzip2(text))) {
+			Files.write(corePath, compressed);
+			assertNotEquals(Format.NONE, DarwinCoreCompression.detect(corePath));
+			assertEquals(expected, iterate(document, false));
+			assertEquals(expectedSorted, iterate(document, true));
+			DarwinCoreArchiveChecker.checkCoreOrExtension(document.getCore(), metadataPath, null, false, false,
+					false);
+		}
+
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("Cannot index a compressed file");
+		DarwinCoreIdIndex.build(document.getCore(), metadataPath);
+	}
+}
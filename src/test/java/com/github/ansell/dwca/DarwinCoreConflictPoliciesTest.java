@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for {@link DarwinCoreConflictPolicies}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreConflictPoliciesTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private DarwinCoreArchiveDocument testInputDocument;
+
+	private DarwinCoreArchiveDocument testOtherDocument;
+
+	private DarwinCoreCoreOrExtension testMergedCore;
+
+	@Before
+	public void setUp() throws Exception {
+		testInputDocument = new DarwinCoreArchiveDocument();
+		testInputDocument.setCore(newCore());
+		testOtherDocument = new DarwinCoreArchiveDocument();
+		testOtherDocument.setCore(newCore());
+		testMergedCore = newCore();
+	}
+
+	private static DarwinCoreCoreOrExtension newCore() {
+		DarwinCoreCoreOrExtension result = DarwinCoreCoreOrExtension.newCore();
+		result.setIdOrCoreId("0");
+		result.addField(newField(0, "id", null, null));
+		result.addField(newField(1, "name", null, "|"));
+		result.addField(newField(2, "count", "1", null));
+		result.addField(newField(3, DarwinCoreConflictPolicies.MODIFIED_TERM, null, null));
+		return result;
+	}
+
+	private static DarwinCoreField newField(int index, String term, String defaultValue, String delimitedBy) {
+		DarwinCoreField result = new DarwinCoreField();
+		result.setIndex(index);
+		result.setTerm(term);
+		result.setDefault(defaultValue);
+		result.setDelimitedBy(delimitedBy);
+		return result;
+	}
+
+	private DarwinCoreRecord inputRecord(String... values) {
+		return new DarwinCoreRecordImpl(testInputDocument, testInputDocument.getCore().getFields(),
+				Arrays.asList(values));
+	}
+
+	private DarwinCoreRecord otherRecord(String... values) {
+		return new DarwinCoreRecordImpl(testOtherDocument, testOtherDocument.getCore().getFields(),
+				Arrays.asList(values));
+	}
+
+	private DarwinCoreMergeMapping mappingFor(String term, DarwinCoreConflictPolicy policy) {
+		Map<String, DarwinCoreConflictPolicy> policies = new HashMap<>();
+		policies.put(term, policy);
+		return new DarwinCoreMergeMapping(testMergedCore, false, policies);
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreConflictPolicies#PREFER_INPUT}.
+	 */
+	@Test
+	public final void testPreferInput() {
+		DarwinCoreMergeMapping testMapping = new DarwinCoreMergeMapping(testMergedCore, false,
+				Collections.emptyMap());
+		assertEquals(Arrays.asList("a", "First", "2", "2017-01-01"), testMapping
+				.merge(inputRecord("a", "First", "", "2017-01-01"), otherRecord("a", "Second", "2", "2017-02-01")));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreConflictPolicies#PREFER_NEWEST}.
+	 */
+	@Test
+	public final void testPreferNewest() {
+		DarwinCoreMergeMapping testMapping = mappingFor("name", DarwinCoreConflictPolicies.PREFER_NEWEST);
+		assertEquals("Second", testMapping
+				.merge(inputRecord("a", "First", "", "2017-01-01"), otherRecord("a", "Second", "", "2017-02-01"))
+				.get(1));
+		assertEquals("First", testMapping
+				.merge(inputRecord("a", "First", "", "2017-03-01"), otherRecord("a", "Second", "", "2017-02-01"))
+				.get(1));
+		// Ties and missing dates prefer the input
+		assertEquals("First", testMapping
+				.merge(inputRecord("a", "First", "", "2017-01-01"), otherRecord("a", "Second", "", "2017-01-01"))
+				.get(1));
+		assertEquals("First",
+				testMapping.merge(inputRecord("a", "First", "", ""), otherRecord("a", "Second", "", "")).get(1));
+		// The newest record falls back to the older record if it is empty
+		assertEquals("First", testMapping
+				.merge(inputRecord("a", "First", "", "2017-01-01"), otherRecord("a", "", "", "2017-02-01"))
+				.get(1));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreConflictPolicies#PREFER_NEWEST}.
+	 */
+	@Test
+	public final void testPreferNewestNoModifiedTerm() {
+		DarwinCoreCoreOrExtension noModifiedCore = DarwinCoreCoreOrExtension.newCore();
+		noModifiedCore.setIdOrCoreId("0");
+		noModifiedCore.addField(newField(0, "id", null, null));
+		noModifiedCore.addField(newField(1, "name", null, null));
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("Cannot prefer the newest value for name");
+		new DarwinCoreMergeMapping(noModifiedCore, false,
+				Collections.singletonMap("name", DarwinCoreConflictPolicies.PREFER_NEWEST));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreConflictPolicies#PREFER_NON_DEFAULT}.
+	 */
+	@Test
+	public final void testPreferNonDefault() {
+		DarwinCoreMergeMapping testMapping = mappingFor("count", DarwinCoreConflictPolicies.PREFER_NON_DEFAULT);
+		assertEquals("5",
+				testMapping.merge(inputRecord("a", "", "1", ""), otherRecord("a", "", "5", "")).get(2));
+		assertEquals("3",
+				testMapping.merge(inputRecord("a", "", "3", ""), otherRecord("a", "", "5", "")).get(2));
+		assertEquals("1",
+				testMapping.merge(inputRecord("a", "", "1", ""), otherRecord("a", "", "", "")).get(2));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreConflictPolicies#CONCATENATE}.
+	 */
+	@Test
+	public final void testConcatenate() {
+		DarwinCoreMergeMapping testMapping = mappingFor("name", DarwinCoreConflictPolicies.CONCATENATE);
+		assertEquals("First|Second",
+				testMapping.merge(inputRecord("a", "First", "", ""), otherRecord("a", "Second", "", "")).get(1));
+		assertEquals("First",
+				testMapping.merge(inputRecord("a", "First", "", ""), otherRecord("a", "First", "", "")).get(1));
+		assertEquals("Second",
+				testMapping.merge(inputRecord("a", "", "", ""), otherRecord("a", "Second", "", "")).get(1));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreConflictPolicies#CONCATENATE}.
+	 */
+	@Test
+	public final void testConcatenateNoDelimiter() {
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("Cannot concatenate values for count");
+		mappingFor("count", DarwinCoreConflictPolicies.CONCATENATE);
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMergeMapping#DarwinCoreMergeMapping(DarwinCoreCoreOrExtension, boolean, Map)}.
+	 */
+	@Test
+	public final void testUnknownTerm() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Conflict policies were given for terms that are not in the merged archive: [nmae]");
+		mappingFor("nmae", DarwinCoreConflictPolicies.PREFER_NEWEST);
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreConflictPolicies#forName(String)}.
+	 */
+	@Test
+	public final void testForName() {
+		assertSame(DarwinCoreConflictPolicies.PREFER_NEWEST, DarwinCoreConflictPolicies.forName("prefer-newest"));
+		assertSame(DarwinCoreConflictPolicies.CONCATENATE, DarwinCoreConflictPolicies.forName("concatenate"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreConflictPolicies#forName(String)}.
+	 */
+	@Test
+	public final void testForNameUnknown() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Could not find a conflict policy named: does-not-exist");
+		DarwinCoreConflictPolicies.forName("does-not-exist");
+	}
+}
@@ -28,6 +28,8 @@ package com.github.ansell.dwca;
 import static org.junit.Assert.*;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
 import org.junit.Before;
@@ -329,6 +331,20 @@ public class DarwinCoreCoreOrExtensionTest {
 		extension.setFiles(new DarwinCoreFile());
 	}
 
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreCoreOrExtension#getDataPath(java.nio.file.Path)}
+	 * .
+	 */
+	@Test
+	public final void testGetDataPath() {
+		DarwinCoreFile files = new DarwinCoreFile();
+		files.addLocation("./data/occurrence.txt");
+		core.setFiles(files);
+		Path metadataPath = Paths.get("archive", "meta.xml");
+		assertEquals(Paths.get("archive", "data", "occurrence.txt").toAbsolutePath(), core.getDataPath(metadataPath));
+	}
+
 	/**
 	 * Test method for
 	 * {@link com.github.ansell.dwca.DarwinCoreCoreOrExtension#getFields()}.
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DarwinCoreDaemon}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreDaemonTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	private DarwinCoreDaemon testDaemon;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-daemon-test").toPath();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (testDaemon != null) {
+			testDaemon.close();
+		}
+	}
+
+	private Path generate(String name, long rows) throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setCoreRows(rows);
+		generator.setExtensionCount(1);
+		generator.generate(testDir.resolve(name));
+		return testDir.resolve(name).resolve(DarwinCoreArchiveChecker.META_XML);
+	}
+
+	private HttpURLConnection request(String method, String path, String body) throws Exception {
+		return request(method, path, body, testDaemon.getToken());
+	}
+
+	private HttpURLConnection request(String method, String path, String body, String token) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://127.0.0.1:" + testDaemon.getPort() + path).openConnection();
+		connection.setRequestMethod(method);
+		if (token != null) {
+			connection.setRequestProperty("Authorization", "Bearer " + token);
+		}
+		if (body != null) {
+			connection.setDoOutput(true);
+			try (OutputStream output = connection.getOutputStream();) {
+				output.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return connection;
+	}
+
+	private String responseBody(HttpURLConnection connection) throws Exception {
+		try (InputStream input = connection.getResponseCode() < 400 ? connection.getInputStream()
+				: connection.getErrorStream();) {
+			return IOUtils.toString(input, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreDaemon#DarwinCoreDaemon(int, int, int, int)}.
+	 */
+	@Test
+	public final void testInvalidMaxJobs() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Maximum jobs must be positive");
+		new DarwinCoreDaemon(0, 0, 1, 1);
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon#submit(DarwinCoreDaemon.Tool, java.util.List)}.
+	 */
+	@Test
+	public final void testCheckJob() throws Exception {
+		Path metadataPath = generate("check", 100);
+		testDaemon = new DarwinCoreDaemon(0, 2, 2, 10);
+		testDaemon.start();
+
+		HttpURLConnection submit = request("POST", "/jobs/check", "--input\n" + metadataPath + "\n");
+		assertEquals(202, submit.getResponseCode());
+		String submitted = responseBody(submit);
+		assertTrue(submitted, submitted.contains("\"tool\":\"check\""));
+		DarwinCoreDaemon.Job job = testDaemon.getJob("1");
+		assertNotNull(job);
+		assertEquals(Arrays.asList("--input", metadataPath.toString()), job.getArgs());
+		assertTrue(job.await(30, TimeUnit.SECONDS));
+		assertEquals(job.getError(), DarwinCoreDaemon.JobStatus.SUCCEEDED, job.getStatus());
+
+		HttpURLConnection status = request("GET", "/jobs/1", null);
+		assertEquals(200, status.getResponseCode());
+		assertTrue(responseBody(status).startsWith("{\"id\":\"1\",\"tool\":\"check\",\"status\":\"SUCCEEDED\",\"output\":"));
+
+		HttpURLConnection health = request("GET", "/health", null);
+		assertEquals(200, health.getResponseCode());
+		assertTrue(responseBody(health).startsWith("{\"status\":\"ok\""));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon#submit(DarwinCoreDaemon.Tool, java.util.List)}.
+	 */
+	@Test
+	public final void testFailedJob() throws Exception {
+		testDaemon = new DarwinCoreDaemon(0, 1, 1, 10);
+		DarwinCoreDaemon.Job job = testDaemon.submit(DarwinCoreDaemon.Tool.CHECK,
+				Arrays.asList("--input", testDir.resolve("missing.xml").toString()));
+		assertTrue(job.await(30, TimeUnit.SECONDS));
+		assertEquals(DarwinCoreDaemon.JobStatus.FAILED, job.getStatus());
+		assertTrue(job.getError(), job.getError().startsWith("java.io.FileNotFoundException"));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon.Job#getOutput()}.
+	 */
+	@Test
+	public final void testJobOutput() throws Exception {
+		testDaemon = new DarwinCoreDaemon(0, 2, 2, 10);
+		testDaemon.start();
+		assertEquals(202, request("POST", "/jobs/check", "--help\n").getResponseCode());
+		DarwinCoreDaemon.Job job = testDaemon.getJob("1");
+		assertTrue(job.await(30, TimeUnit.SECONDS));
+		assertTrue(job.getOutput(), job.getOutput().contains("input"));
+		assertFalse(job.isOutputTruncated());
+
+		HttpURLConnection status = request("GET", "/jobs/1", null);
+		assertEquals(200, status.getResponseCode());
+		assertTrue(responseBody(status).contains("input"));
+
+		// Output from other threads is not captured
+		System.out.println("Not from a job");
+		assertFalse(job.getOutput().contains("Not from a job"));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon.Job#isOutputTruncated()}.
+	 */
+	@Test
+	public final void testJobOutputTruncated() throws Exception {
+		testDaemon = new DarwinCoreDaemon(0, 1, 1, 10, 10, DarwinCoreDaemon.generateToken());
+		DarwinCoreDaemon.Job job = testDaemon.submit(DarwinCoreDaemon.Tool.CHECK, Arrays.asList("--help"));
+		assertTrue(job.await(30, TimeUnit.SECONDS));
+		assertEquals(10, job.getOutput().length());
+		assertTrue(job.isOutputTruncated());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon} requests without the token.
+	 */
+	@Test
+	public final void testMissingToken() throws Exception {
+		testDaemon = new DarwinCoreDaemon(0, 1, 1, 10);
+		testDaemon.start();
+		HttpURLConnection missing = request("POST", "/jobs/check", "--help\n", null);
+		assertEquals(401, missing.getResponseCode());
+		assertEquals("Bearer", missing.getHeaderField("WWW-Authenticate"));
+		assertEquals(401, request("GET", "/health", null, null).getResponseCode());
+		assertEquals(401, request("GET", "/health", null, DarwinCoreDaemon.generateToken()).getResponseCode());
+		assertNull(testDaemon.getJob("1"));
+		assertEquals(200, request("GET", "/health", null).getResponseCode());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon#writeTokenFile(Path, String)}.
+	 */
+	@Test
+	public final void testWriteTokenFile() throws Exception {
+		Path tokenFile = testDir.resolve("token");
+		Files.write(tokenFile, "old".getBytes(StandardCharsets.UTF_8));
+		String token = DarwinCoreDaemon.generateToken();
+		assertEquals(43, token.length());
+		DarwinCoreDaemon.writeTokenFile(tokenFile, token);
+		assertEquals(token, new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8));
+		if (tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+					Files.getPosixFilePermissions(tokenFile));
+		}
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon#warmUp()}.
+	 */
+	@Test
+	public final void testWarmUp() throws Exception {
+		DarwinCoreDaemon.warmUp();
+		assertSame(DarwinCoreMetadataGenerator.getCachedDefaultVocabularies(),
+				DarwinCoreMetadataGenerator.getCachedDefaultVocabularies());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon} requests that are not valid.
+	 */
+	@Test
+	public final void testNotFound() throws Exception {
+		testDaemon = new DarwinCoreDaemon(0, 1, 1, 10);
+		testDaemon.start();
+		assertEquals(404, request("POST", "/jobs/unknown", "").getResponseCode());
+		assertEquals(404, request("GET", "/jobs/1", null).getResponseCode());
+		assertEquals(404, request("DELETE", "/jobs/1", null).getResponseCode());
+		assertEquals(405, request("PUT", "/jobs/1", "").getResponseCode());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon#submit(DarwinCoreDaemon.Tool, java.util.List)}
+	 * when the queue is full, and {@link DarwinCoreDaemon#cancel(String)}.
+	 */
+	@Test
+	public final void testAdmissionControlAndCancel() throws Exception {
+		Path metadataPath = generate("large", 500000);
+		// A single job can run, and no jobs can wait
+		testDaemon = new DarwinCoreDaemon(0, 1, 0, 10);
+		testDaemon.start();
+
+		assertEquals(202, request("POST", "/jobs/check", "--input\n" + metadataPath).getResponseCode());
+		HttpURLConnection rejected = request("POST", "/jobs/check", "--input\n" + metadataPath);
+		assertEquals(503, rejected.getResponseCode());
+		assertEquals("1", rejected.getHeaderField("Retry-After"));
+
+		HttpURLConnection cancelled = request("DELETE", "/jobs/1", null);
+		assertEquals(200, cancelled.getResponseCode());
+		assertTrue(responseBody(cancelled).contains("\"status\":\"CANCELLED\""));
+		DarwinCoreDaemon.Job job = testDaemon.getJob("1");
+		assertTrue(job.await(30, TimeUnit.SECONDS));
+		assertEquals(DarwinCoreDaemon.JobStatus.CANCELLED, job.getStatus());
+
+		// The thread is free again after the cancelled job stops
+		DarwinCoreDaemon.Job nextJob = testDaemon.submit(DarwinCoreDaemon.Tool.CHECK,
+				Arrays.asList("--input", generate("small", 10).toString()));
+		assertTrue(nextJob.await(30, TimeUnit.SECONDS));
+		assertEquals(nextJob.getError(), DarwinCoreDaemon.JobStatus.SUCCEEDED, nextJob.getStatus());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon#cancel(String)} stopping the
+	 * parse and sort threads of a running merge.
+	 */
+	@Test
+	public final void testCancelMerge() throws Exception {
+		Path inputPath = generate("input", 500000);
+		Path otherInputPath = generate("other-input", 500000);
+		testDaemon = new DarwinCoreDaemon(0, 1, 0, 10);
+		DarwinCoreDaemon.Job job = testDaemon.submit(DarwinCoreDaemon.Tool.MERGE,
+				Arrays.asList("--input", inputPath.toString(), "--other-input", otherInputPath.toString(),
+						"--output-zip", testDir.resolve("merged.zip").toString(), "--sort-memory-mb", "1",
+						"--sort-temp-dir", testDir.resolve("sort").toString()));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (!hasThread("dwca-sort-spill") && System.nanoTime() < deadline) {
+			assertFalse(job.getError(), job.getStatus().isFinished());
+			Thread.sleep(10);
+		}
+		assertTrue("The merge did not start sorting", hasThread("dwca-sort-spill"));
+
+		assertSame(job, testDaemon.cancel(job.getId()));
+		assertTrue(job.await(30, TimeUnit.SECONDS));
+		assertEquals(DarwinCoreDaemon.JobStatus.CANCELLED, job.getStatus());
+		deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while ((hasThread("dwca-document-parse") || hasThread("dwca-sort-spill")) && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(hasThread("dwca-document-parse"));
+		assertFalse(hasThread("dwca-sort-spill"));
+		try (Stream<Path> sortFiles = Files.list(testDir.resolve("sort"));) {
+			assertEquals(0, sortFiles.count());
+		}
+	}
+
+	private static boolean hasThread(String name) {
+		for (Thread nextThread : Thread.getAllStackTraces().keySet()) {
+			if (nextThread.isAlive() && nextThread.getName().equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon#changesGlobalState(java.util.List)}.
+	 */
+	@Test
+	public final void testChangesGlobalState() throws Exception {
+		assertFalse(DarwinCoreDaemon.changesGlobalState(Arrays.asList("--input", "archive.zip", "--debug", "true")));
+		assertFalse(DarwinCoreDaemon.changesGlobalState(Arrays.asList("--zip-compression-level", "-1")));
+		assertTrue(DarwinCoreDaemon.changesGlobalState(Arrays.asList("--input", "archive.zip", "--metrics", "true")));
+		assertTrue(DarwinCoreDaemon.changesGlobalState(Arrays.asList("--metrics-log-seconds=5")));
+		assertTrue(DarwinCoreDaemon.changesGlobalState(Arrays.asList("--report", "report.jsonl")));
+		assertTrue(DarwinCoreDaemon.changesGlobalState(Arrays.asList("--rep", "report.jsonl")));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreDaemon#submit(DarwinCoreDaemon.Tool, java.util.List)}
+	 * forgetting finished jobs.
+	 */
+	@Test
+	public final void testJobHistory() throws Exception {
+		testDaemon = new DarwinCoreDaemon(0, 1, 5, 1);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(testDaemon.submit(DarwinCoreDaemon.Tool.CHECK, Arrays.asList("--help")).await(30,
+					TimeUnit.SECONDS));
+		}
+		testDaemon.submit(DarwinCoreDaemon.Tool.CHECK, Arrays.asList("--help")).await(30, TimeUnit.SECONDS);
+		assertNull(testDaemon.getJob("1"));
+		assertNull(testDaemon.getJob("2"));
+		assertNotNull(testDaemon.getJob("4"));
+	}
+}
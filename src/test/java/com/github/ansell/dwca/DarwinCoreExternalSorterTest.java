@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+/**
+ * Tests for {@link DarwinCoreExternalSorter}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreExternalSorterTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testSortDir;
+
+	private CsvSchema testSchema;
+
+	@Before
+	public void setUp() throws Exception {
+		testSortDir = tempDir.newFolder("dwca-sort-temp").toPath();
+		testSchema = DarwinCoreCoreOrExtension.newCore().getCsvSchema();
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreExternalSorter#sort(java.io.Reader, java.io.Writer, CsvSchema, int, List, boolean)}.
+	 */
+	@Test
+	public final void testSortInMemory() throws Exception {
+		DarwinCoreExternalSorter testSorter = new DarwinCoreExternalSorter(1L << 30, 2, testSortDir, 1 << 16);
+		StringWriter output = new StringWriter();
+		testSorter.sort(new StringReader("id,name\n10,c\n9,a\nb,b\n"), output, testSchema, 1, Arrays.asList(0),
+				false);
+		// Integer ids sort numerically, before other strings
+		assertEquals(Arrays.asList("id,name", "9,a", "10,c", "b,b"), Arrays.asList(output.toString().split("\n")));
+		assertEquals(0, Files.list(testSortDir).count());
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreExternalSorter#sort(java.io.Reader, java.io.Writer, CsvSchema, int, List, boolean)}.
+	 */
+	@Test
+	public final void testSortWithSpills() throws Exception {
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			ids.add(i % 5000);
+		}
+		Collections.shuffle(ids, new Random(42));
+		StringBuilder input = new StringBuilder("id,sequence\n");
+		for (int i = 0; i < ids.size(); i++) {
+			input.append(ids.get(i)).append(",").append(i).append("\n");
+		}
+
+		// A tiny memory budget forces the smallest runs, so the rows are
+		// spilled and merged
+		DarwinCoreExternalSorter testSorter = new DarwinCoreExternalSorter(1, 4, testSortDir, 1 << 12);
+		StringWriter output = new StringWriter();
+		testSorter.sort(new StringReader(input.toString()), output, testSchema, 1, Arrays.asList(0), true);
+
+		List<String> lines = Arrays.asList(output.toString().split("\n"));
+		assertEquals(ids.size() + 1, lines.size());
+		assertEquals("id,sequence", lines.get(0));
+		for (int i = 2; i < lines.size(); i++) {
+			String[] previous = lines.get(i - 1).split(",");
+			String[] next = lines.get(i).split(",");
+			int comparison = Integer.compare(Integer.parseInt(previous[0]), Integer.parseInt(next[0]));
+			assertTrue("Rows out of order: " + lines.get(i - 1) + " " + lines.get(i), comparison <= 0);
+			if (comparison == 0) {
+				// Rows with the same id must keep their input order
+				assertTrue(Integer.parseInt(previous[1]) < Integer.parseInt(next[1]));
+			}
+		}
+		// Spill files are removed after merging
+		assertEquals(0, Files.list(testSortDir).count());
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreExternalSorter#sort(java.io.Reader, java.io.Writer, CsvSchema, int, List, boolean)}.
+	 */
+	@Test
+	public final void testSortWithManyTinyRuns() throws Exception {
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			ids.add(i);
+		}
+		Collections.shuffle(ids, new Random(7));
+		StringBuilder input = new StringBuilder("id,name\n");
+		for (final Integer nextId : ids) {
+			input.append(nextId).append(",name-").append(nextId).append("\n");
+		}
+
+		// Hundreds of the smallest runs, with a budget that only allows two
+		// of them to be read at once, so the runs are merged in several
+		// passes
+		DarwinCoreExternalSorter testSorter = new DarwinCoreExternalSorter(1, 2, testSortDir, 1 << 12);
+		assertEquals(2, testSorter.getMergeFanIn());
+		StringWriter output = new StringWriter();
+		testSorter.sort(new StringReader(input.toString()), output, testSchema, 1, Arrays.asList(0), false);
+
+		List<String> lines = Arrays.asList(output.toString().split("\n"));
+		assertEquals(ids.size() + 1, lines.size());
+		for (int i = 1; i < lines.size(); i++) {
+			assertEquals((i - 1) + ",name-" + (i - 1), lines.get(i));
+		}
+		// Both the original and the intermediate runs are removed
+		assertEquals(0, Files.list(testSortDir).count());
+		// The fan in grows with the memory budget, up to a fixed limit
+		assertEquals(8, new DarwinCoreExternalSorter(8L * ((1 << 20) + (1 << 16) + (1 << 15)), 2, testSortDir,
+				1 << 20).getMergeFanIn());
+		assertEquals(512, new DarwinCoreExternalSorter(1L << 40, 2, testSortDir, 1 << 20).getMergeFanIn());
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreExternalSorter#DarwinCoreExternalSorter(long, int, Path, int)}.
+	 */
+	@Test
+	public final void testInvalidParallelism() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Parallelism must be positive");
+		new DarwinCoreExternalSorter(1L << 20, 0, testSortDir, 1 << 16);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests for {@link DarwinCoreFlightRecorder}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreFlightRecorderTest {
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-jfr-test").toPath();
+	}
+
+	private DarwinCoreArchiveDocument generate(String name, long rows, long seed) throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(seed);
+		generator.setCoreRows(rows);
+		generator.setCoreColumns(5);
+		generator.setIdDistribution(DarwinCoreSyntheticArchiveGenerator.IdDistribution.SHUFFLED);
+		generator.generate(testDir.resolve(name));
+		return DarwinCoreArchiveChecker.parseMetadataXml(testDir.resolve(name).resolve(DarwinCoreArchiveChecker.META_XML));
+	}
+
+	private List<RecordedEvent> events(Recording recording, String eventName) throws Exception {
+		Path recordingPath = testDir.resolve("recording.jfr");
+		recording.dump(recordingPath);
+		return RecordingFile.readAllEvents(recordingPath).stream()
+				.filter(event -> event.getEventType().getName().equals(eventName)).collect(Collectors.toList());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreFlightRecorder#begin(DarwinCoreFlightRecorder.EventType, String)}.
+	 */
+	@Test
+	public final void testBeginDisabled() throws Exception {
+		assertFalse(DarwinCoreFlightRecorder.isEnabled(DarwinCoreFlightRecorder.EventType.FILE_PARSE));
+		try (DarwinCoreFlightRecorder.Span span = DarwinCoreFlightRecorder
+				.begin(DarwinCoreFlightRecorder.EventType.FILE_PARSE, "test.csv");) {
+			assertFalse(span.isEnabled());
+			span.addRows(1);
+			span.addBytes(1);
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveChecker#parseCoreOrExtension(DarwinCoreCoreOrExtension, Path, java.util.function.Consumer)}
+	 * with Flight Recorder events enabled.
+	 */
+	@Test
+	public final void testFileParseEvents() throws Exception {
+		DarwinCoreArchiveDocument document = generate("parse", 1000, 1);
+		Path metadataPath = document.getMetadataXMLPath().get();
+		Path corePath = metadataPath.resolveSibling(DarwinCoreSyntheticArchiveGenerator.CORE_FILE).toAbsolutePath();
+		try (Recording recording = new Recording();) {
+			recording.enable("com.github.ansell.dwca.MetadataParse").withoutThreshold();
+			recording.enable("com.github.ansell.dwca.FileParse").withoutThreshold();
+			recording.start();
+			assertTrue(DarwinCoreFlightRecorder.isEnabled(DarwinCoreFlightRecorder.EventType.FILE_PARSE));
+			DarwinCoreArchiveDocument parsedDocument = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+			DarwinCoreArchiveChecker.parseCoreOrExtension(parsedDocument.getCore(), metadataPath,
+					DarwinCoreArchiveChecker.createParseFunction(parsedDocument.getCore(), false));
+			recording.stop();
+
+			List<RecordedEvent> metadataEvents = events(recording, "com.github.ansell.dwca.MetadataParse");
+			assertEquals(1, metadataEvents.size());
+			assertEquals(metadataPath.toString(), metadataEvents.get(0).getString("file"));
+			assertEquals(Files.size(metadataPath), metadataEvents.get(0).getLong("bytes"));
+
+			List<RecordedEvent> fileParseEvents = events(recording, "com.github.ansell.dwca.FileParse");
+			assertEquals(1, fileParseEvents.size());
+			assertEquals(corePath.normalize().toString(), fileParseEvents.get(0).getString("file"));
+			assertEquals(1000L, fileParseEvents.get(0).getLong("rows"));
+			assertEquals(Files.size(corePath), fileParseEvents.get(0).getLong("bytes"));
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveChecker#parseCoreOrExtensionSorted(DarwinCoreCoreOrExtension, Path, java.util.function.Consumer, DarwinCoreExternalSorter, boolean)}
+	 * with Flight Recorder events enabled.
+	 */
+	@Test
+	public final void testSortEvents() throws Exception {
+		DarwinCoreArchiveDocument document = generate("sort", 20000, 2);
+		DarwinCoreExternalSorter sorter = new DarwinCoreExternalSorter(1, 2, testDir.resolve("sort-temp"), 4096);
+		try (Recording recording = new Recording();) {
+			recording.enable("com.github.ansell.dwca.SortRun").withoutThreshold();
+			recording.enable("com.github.ansell.dwca.SortMerge").withoutThreshold();
+			recording.start();
+			DarwinCoreArchiveChecker.parseCoreOrExtensionSorted(document.getCore(),
+					document.getMetadataXMLPath().get(),
+					DarwinCoreArchiveChecker.createParseFunction(document.getCore(), false), sorter, false);
+			recording.stop();
+
+			List<RecordedEvent> runEvents = events(recording, "com.github.ansell.dwca.SortRun");
+			assertTrue(runEvents.size() > 1);
+			long runRows = 0;
+			long runBytes = 0;
+			for (RecordedEvent runEvent : runEvents) {
+				runRows += runEvent.getLong("rows");
+				runBytes += runEvent.getLong("bytes");
+			}
+			assertEquals(20000L, runRows);
+
+			// The tiny budget only allows two runs to be merged at once, so
+			// the runs are merged in several passes, with every row in the
+			// final merge
+			List<RecordedEvent> mergeEvents = events(recording, "com.github.ansell.dwca.SortMerge");
+			assertTrue(mergeEvents.size() > 1);
+			long finalMergeRows = 0;
+			for (RecordedEvent mergeEvent : mergeEvents) {
+				finalMergeRows = Math.max(finalMergeRows, mergeEvent.getLong("rows"));
+			}
+			assertEquals(runRows, finalMergeRows);
+			assertTrue(runBytes > 0);
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DarwinCoreIdIndex} and
+ * {@link DarwinCoreArchiveDocument#lookup(String)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreIdIndexTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-index-test").toPath();
+	}
+
+	private DarwinCoreArchiveDocument generate(String name, long rows) throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(7);
+		generator.setCoreRows(rows);
+		generator.setCoreColumns(4);
+		generator.setExtensionCount(1);
+		generator.setFanOut(2);
+		generator.setQuoteRatio(0.5);
+		generator.setIdDistribution(DarwinCoreSyntheticArchiveGenerator.IdDistribution.SHUFFLED);
+		generator.generate(testDir.resolve(name));
+		return DarwinCoreArchiveChecker
+				.parseMetadataXml(testDir.resolve(name).resolve(DarwinCoreArchiveChecker.META_XML));
+	}
+
+	private List<String> values(DarwinCoreRecord record) {
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < record.getFields().size(); i++) {
+			result.add(record.valueAt(i, false));
+		}
+		return result;
+	}
+
+	private Path writeMetadata(Integer idIndex, String linesTerminatedBy) throws Exception {
+		Path metadataPath = testDir.resolve(DarwinCoreArchiveChecker.META_XML);
+		Files.write(metadataPath,
+				Arrays.asList("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\">",
+						"<core rowType=\"http://rs.tdwg.org/dwc/terms/Occurrence\" ignoreHeaderLines=\"1\""
+								+ (linesTerminatedBy != null ? " linesTerminatedBy=\"" + linesTerminatedBy + "\"" : "")
+								+ ">",
+						"<files><location>occurrence.csv</location></files>",
+						idIndex != null ? "<id index=\"" + idIndex + "\"/>" : "",
+						"<field index=\"0\" term=\"http://rs.tdwg.org/dwc/terms/basisOfRecord\"/>",
+						"<field index=\"1\" term=\"http://rs.tdwg.org/dwc/terms/occurrenceID\"/>", "</core>",
+						"</archive>"),
+				StandardCharsets.UTF_8);
+		return metadataPath;
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveDocument#lookup(String)}.
+	 */
+	@Test
+	public final void testLookup() throws Exception {
+		DarwinCoreArchiveDocument document = generate("lookup", 500);
+		Map<String, List<String>> expected = new LinkedHashMap<>();
+		try (CloseableIterator<DarwinCoreRecord> iterator = document.iterator(false, false);) {
+			while (iterator.hasNext()) {
+				DarwinCoreRecord next = iterator.next();
+				expected.put(next.valueAt(0, false), values(next));
+			}
+		}
+		assertEquals(500, expected.size());
+
+		DarwinCoreCoreOrExtension extension = document.getExtensions().get(0);
+		for (Map.Entry<String, List<String>> nextExpected : expected.entrySet()) {
+			Optional<DarwinCoreStarRecord> result = document.lookup(nextExpected.getKey());
+			assertTrue(nextExpected.getKey(), result.isPresent());
+			assertEquals(nextExpected.getValue(), values(result.get().getCore()));
+			assertEquals(2, result.get().getExtensionRecords(extension).size());
+			for (DarwinCoreRecord nextExtensionRecord : result.get().getExtensionRecords(extension)) {
+				assertEquals(nextExpected.getKey(), nextExtensionRecord.valueAt(0, false));
+			}
+		}
+		assertFalse(document.lookup("not-an-id").isPresent());
+
+		Path corePath = testDir.resolve("lookup").resolve(DarwinCoreSyntheticArchiveGenerator.CORE_FILE);
+		assertTrue(Files.exists(DarwinCoreIdIndex.indexPathFor(corePath)));
+		assertEquals(500, DarwinCoreIdIndex.open(document.getCore(), document.getMetadataXMLPath().get()).size());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdIndex#open(DarwinCoreCoreOrExtension, Path, Path)}
+	 * with an index that is mapped in many segments.
+	 */
+	@Test
+	public final void testSegmentedLookup() throws Exception {
+		DarwinCoreArchiveDocument document = generate("segments", 500);
+		Path metadataPath = document.getMetadataXMLPath().get();
+		DarwinCoreCoreOrExtension extension = document.getExtensions().get(0);
+		DarwinCoreIdIndex index = DarwinCoreIdIndex.open(document.getCore(), metadataPath, null, 7);
+		// The extension has two rows for each id, which are in different
+		// segments for some ids
+		DarwinCoreIdIndex extensionIndex = DarwinCoreIdIndex.open(extension, metadataPath, null, 3);
+		assertEquals(500, index.size());
+		assertEquals(1000, extensionIndex.size());
+		try (CloseableIterator<DarwinCoreRecord> iterator = document.iterator(false, false);) {
+			while (iterator.hasNext()) {
+				DarwinCoreRecord next = iterator.next();
+				String id = next.valueAt(0, false);
+				assertEquals(Arrays.asList(values(next)), index.lookup(id, false));
+				List<List<String>> extensionRows = extensionIndex.lookup(id, false);
+				assertEquals(id, 2, extensionRows.size());
+				for (List<String> nextExtensionRow : extensionRows) {
+					assertEquals(id, nextExtensionRow.get(0));
+				}
+			}
+		}
+		assertTrue(index.lookup("not-an-id", false).isEmpty());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveDocument#setCacheDir(Path)}.
+	 */
+	@Test
+	public final void testLookupWithCacheDir() throws Exception {
+		DarwinCoreArchiveDocument document = generate("cache-dir", 100);
+		DarwinCoreArchiveDocument otherDocument = generate("other-cache-dir", 50);
+		Path cacheDir = testDir.resolve("indexes");
+		document.setCacheDir(cacheDir);
+		otherDocument.setCacheDir(cacheDir);
+		for (DarwinCoreArchiveDocument nextDocument : Arrays.asList(document, otherDocument)) {
+			try (CloseableIterator<DarwinCoreRecord> iterator = nextDocument.iterator(false, false);) {
+				assertTrue(nextDocument.lookup(iterator.next().valueAt(0, false)).isPresent());
+			}
+		}
+
+		Path corePath = testDir.resolve("cache-dir").resolve(DarwinCoreSyntheticArchiveGenerator.CORE_FILE);
+		Path otherCorePath = testDir.resolve("other-cache-dir")
+				.resolve(DarwinCoreSyntheticArchiveGenerator.CORE_FILE);
+		assertFalse(Files.exists(DarwinCoreIdIndex.indexPathFor(corePath)));
+		assertTrue(Files.exists(DarwinCoreIdIndex.indexPathFor(corePath, cacheDir)));
+		// Data files with the same name in different archives have their own
+		// index
+		assertNotEquals(DarwinCoreIdIndex.indexPathFor(corePath, cacheDir),
+				DarwinCoreIdIndex.indexPathFor(otherCorePath, cacheDir));
+		assertEquals(100, DarwinCoreIdIndex.open(document.getCore(), document.getMetadataXMLPath().get(), cacheDir)
+				.size());
+		assertEquals(50, DarwinCoreIdIndex
+				.open(otherDocument.getCore(), otherDocument.getMetadataXMLPath().get(), cacheDir).size());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdIndex#open(DarwinCoreCoreOrExtension, Path)}.
+	 */
+	@Test
+	public final void testOpenRebuildsStaleIndex() throws Exception {
+		Path metadataPath = writeMetadata(1, null);
+		Path dataPath = testDir.resolve("occurrence.csv");
+		Files.write(dataPath,
+				"basisOfRecord,occurrenceID\r\n\"Human, observation\",a\r\n\"Line\nbreak\",\"b,\"\"c\"\"\"\r\nOther,d"
+						.getBytes(StandardCharsets.UTF_8));
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+
+		DarwinCoreIdIndex index = DarwinCoreIdIndex.open(document.getCore(), metadataPath);
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList(Arrays.asList("Human, observation", "a")), index.lookup("a", false));
+		assertEquals(Arrays.asList(Arrays.asList("Line\nbreak", "b,\"c\"")), index.lookup("b,\"c\"", false));
+		assertEquals(Arrays.asList(Arrays.asList("Other", "d")), index.lookup("d", false));
+		assertTrue(index.lookup("e", false).isEmpty());
+
+		Files.write(dataPath, "basisOfRecord,occurrenceID\nOther,e\n".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(dataPath,
+				FileTime.fromMillis(Files.getLastModifiedTime(dataPath).toMillis() + 2000));
+		DarwinCoreIdIndex rebuilt = DarwinCoreIdIndex.open(document.getCore(), metadataPath);
+		assertEquals(1, rebuilt.size());
+		assertEquals(Arrays.asList(Arrays.asList("Other", "e")), rebuilt.lookup("e", false));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdIndex#open(DarwinCoreCoreOrExtension, Path)}.
+	 */
+	@Test
+	public final void testOpenRebuildsIndexForChangedId() throws Exception {
+		Path dataPath = testDir.resolve("occurrence.csv");
+		Files.write(dataPath, "basisOfRecord,occurrenceID\nHuman,a\nOther,b\n".getBytes(StandardCharsets.UTF_8));
+		Path metadataPath = writeMetadata(1, null);
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		assertEquals(Arrays.asList(Arrays.asList("Human", "a")),
+				DarwinCoreIdIndex.open(document.getCore(), metadataPath).lookup("a", false));
+
+		// The data file is unchanged, but the id is now the first column
+		writeMetadata(0, null);
+		DarwinCoreArchiveDocument changedDocument = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		DarwinCoreIdIndex rebuilt = DarwinCoreIdIndex.open(changedDocument.getCore(), metadataPath);
+		assertTrue(rebuilt.lookup("a", false).isEmpty());
+		assertEquals(Arrays.asList(Arrays.asList("Other", "b")), rebuilt.lookup("Other", false));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdIndex#open(DarwinCoreCoreOrExtension, Path)}.
+	 */
+	@Test
+	public final void testOpenCarriageReturnLineEndings() throws Exception {
+		Path dataPath = testDir.resolve("occurrence.csv");
+		Files.write(dataPath, "basisOfRecord,occurrenceID\r\nHuman,a\r\n\"Line\r\nbreak\",b\r\n"
+				.getBytes(StandardCharsets.UTF_8));
+		Path metadataPath = writeMetadata(1, "\\r\\n");
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		assertEquals("\r\n", document.getCore().getLinesTerminatedBy());
+		DarwinCoreIdIndex index = DarwinCoreIdIndex.open(document.getCore(), metadataPath);
+		assertEquals(2, index.size());
+		assertEquals(Arrays.asList(Arrays.asList("Human", "a")), index.lookup("a", false));
+		assertEquals(Arrays.asList(Arrays.asList("Line\r\nbreak", "b")), index.lookup("b", false));
+
+		Files.write(dataPath, "basisOfRecord,occurrenceID\rHuman,a\r\"Line\nbreak\",b\rOther,c"
+				.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(dataPath,
+				FileTime.fromMillis(Files.getLastModifiedTime(dataPath).toMillis() + 2000));
+		metadataPath = writeMetadata(1, "\\r");
+		document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		assertEquals("\r", document.getCore().getLinesTerminatedBy());
+		index = DarwinCoreIdIndex.open(document.getCore(), metadataPath);
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList(Arrays.asList("Human", "a")), index.lookup("a", false));
+		assertEquals(Arrays.asList(Arrays.asList("Line\nbreak", "b")), index.lookup("b", false));
+		assertEquals(Arrays.asList(Arrays.asList("Other", "c")), index.lookup("c", false));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdIndex#build(DarwinCoreCoreOrExtension, Path)}.
+	 */
+	@Test
+	public final void testBuildWithoutId() throws Exception {
+		Path metadataPath = writeMetadata(null, null);
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("without an id or coreId");
+		DarwinCoreIdIndex.build(document.getCore(), metadataPath);
+	}
+}
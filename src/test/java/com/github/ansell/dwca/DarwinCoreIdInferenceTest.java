@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DarwinCoreIdInference}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreIdInferenceTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testTempDir;
+
+	private Path testCore;
+
+	private Path testExtension;
+
+	private final List<String> coreHeaders = Arrays.asList("name", "code", "id");
+
+	private final List<String> extensionHeaders = Arrays.asList("value", "coreRef");
+
+	@Before
+	public void setUp() throws Exception {
+		testTempDir = tempDir.newFolder("dwca-id-inference-test").toPath();
+		testCore = testTempDir.resolve("core.csv");
+		testExtension = testTempDir.resolve("extension.csv");
+		List<String> coreLines = new ArrayList<>();
+		coreLines.add(String.join(",", coreHeaders));
+		for (int i = 0; i < 1000; i++) {
+			// The code column is unique except for one empty value
+			coreLines.add("name" + (i % 10) + "," + (i == 500 ? "" : "code" + i) + ",id" + i);
+		}
+		Files.write(testCore, coreLines, StandardCharsets.UTF_8);
+		List<String> extensionLines = new ArrayList<>();
+		extensionLines.add(String.join(",", extensionHeaders));
+		for (int i = 0; i < 3000; i++) {
+			extensionLines.add("value" + i + ",id" + (i % 1000));
+		}
+		Files.write(testExtension, extensionLines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdInference#inferId(Path, java.nio.charset.Charset, List, Integer)}.
+	 */
+	@Test
+	public final void testInferId() throws Exception {
+		DarwinCoreIdInference idInference = new DarwinCoreIdInference(DarwinCoreIdInference.DEFAULT_MEMORY_BUDGET,
+				DarwinCoreIdInference.DEFAULT_CANDIDATE_COUNT);
+		DarwinCoreIdInference.Result result = idInference.inferId(testCore, StandardCharsets.UTF_8, coreHeaders, null);
+		assertEquals(1000, result.getRowCount());
+		assertEquals(Integer.valueOf(2), result.getSuggestedIndex().get());
+		List<DarwinCoreIdInference.ColumnStatistics> columns = result.getColumns();
+		assertEquals(3, columns.size());
+		assertEquals(10, columns.get(0).getEstimatedCardinality());
+		assertEquals(DarwinCoreIdInference.NOT_COMPUTED, columns.get(0).getExactCardinality());
+		assertEquals(1, columns.get(1).getEmptyCount());
+		assertEquals(DarwinCoreIdInference.NOT_COMPUTED, columns.get(1).getExactCardinality());
+		assertEquals(1000, columns.get(2).getExactCardinality());
+		assertEquals(1000, columns.get(2).getEstimatedCardinality(), 30);
+		assertEquals(DarwinCoreIdInference.NOT_COMPUTED, columns.get(2).getCoreIdReferences());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdInference#inferId(Path, java.nio.charset.Charset, List, Integer)}.
+	 */
+	@Test
+	public final void testInferIdNoMemory() throws Exception {
+		DarwinCoreIdInference idInference = new DarwinCoreIdInference(0, DarwinCoreIdInference.DEFAULT_CANDIDATE_COUNT);
+		DarwinCoreIdInference.Result result = idInference.inferId(testCore, StandardCharsets.UTF_8, coreHeaders, null);
+		assertFalse(result.getSuggestedIndex().isPresent());
+		assertEquals(DarwinCoreIdInference.NOT_COMPUTED, result.getColumns().get(2).getExactCardinality());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdInference#inferId(Path, java.nio.charset.Charset, List, Integer)}.
+	 */
+	@Test
+	public final void testInferIdKnownIndex() throws Exception {
+		DarwinCoreIdInference idInference = new DarwinCoreIdInference(DarwinCoreIdInference.DEFAULT_MEMORY_BUDGET,
+				DarwinCoreIdInference.DEFAULT_CANDIDATE_COUNT);
+		DarwinCoreIdInference.Result result = idInference.inferId(testCore, StandardCharsets.UTF_8, coreHeaders, 0);
+		assertEquals(Integer.valueOf(0), result.getSuggestedIndex().get());
+		assertEquals(10, result.getColumns().get(0).getExactCardinality());
+		assertEquals(DarwinCoreIdInference.NOT_COMPUTED, result.getColumns().get(2).getExactCardinality());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdInference#inferCoreId(Path, java.nio.charset.Charset, List, DarwinCoreIdInference.Result)}.
+	 */
+	@Test
+	public final void testInferCoreId() throws Exception {
+		DarwinCoreIdInference idInference = new DarwinCoreIdInference(DarwinCoreIdInference.DEFAULT_MEMORY_BUDGET,
+				DarwinCoreIdInference.DEFAULT_CANDIDATE_COUNT);
+		DarwinCoreIdInference.Result coreResult = idInference.inferId(testCore, StandardCharsets.UTF_8, coreHeaders, null);
+		DarwinCoreIdInference.Result result = idInference.inferCoreId(testExtension, StandardCharsets.UTF_8, extensionHeaders, coreResult);
+		assertEquals(3000, result.getRowCount());
+		assertEquals(Integer.valueOf(1), result.getSuggestedIndex().get());
+		assertEquals(0, result.getColumns().get(0).getCoreIdReferences());
+		assertEquals(3000, result.getColumns().get(1).getCoreIdReferences());
+		assertEquals(1000, result.getColumns().get(1).getEstimatedCardinality(), 30);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdInference#inferCoreId(Path, java.nio.charset.Charset, List, DarwinCoreIdInference.Result)}.
+	 */
+	@Test
+	public final void testInferCoreIdWithoutCoreIds() throws Exception {
+		DarwinCoreIdInference idInference = new DarwinCoreIdInference(0, DarwinCoreIdInference.DEFAULT_CANDIDATE_COUNT);
+		DarwinCoreIdInference.Result coreResult = idInference.inferId(testCore, StandardCharsets.UTF_8, coreHeaders, null);
+		DarwinCoreIdInference.Result result = idInference.inferCoreId(testExtension, StandardCharsets.UTF_8, extensionHeaders, coreResult);
+		assertFalse(result.getSuggestedIndex().isPresent());
+		assertEquals(DarwinCoreIdInference.NOT_COMPUTED, result.getColumns().get(1).getCoreIdReferences());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreIdInference.HyperLogLog}.
+	 */
+	@Test
+	public final void testHyperLogLog() throws Exception {
+		DarwinCoreIdInference.HyperLogLog sketch = new DarwinCoreIdInference.HyperLogLog();
+		assertEquals(0, sketch.estimate());
+		for (int i = 0; i < 200000; i++) {
+			sketch.add(DarwinCoreIdInference.fingerprint("value" + (i % 100000)));
+		}
+		assertEquals(100000, sketch.estimate(), 3000);
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreIdInference.FingerprintSet}.
+	 */
+	@Test
+	public final void testFingerprintSet() throws Exception {
+		DarwinCoreIdInference.FingerprintSet set = new DarwinCoreIdInference.FingerprintSet(
+				(int) DarwinCoreIdInference.FingerprintSet.capacityFor(4));
+		assertTrue(set.add(0));
+		assertFalse(set.add(0));
+		assertTrue(set.add(16));
+		assertTrue(set.add(32));
+		assertFalse(set.add(16));
+		assertTrue(set.add(-1));
+		assertEquals(4, set.size());
+		assertTrue(set.contains(0));
+		assertTrue(set.contains(32));
+		assertFalse(set.contains(48));
+		assertEquals(-1, DarwinCoreIdInference.FingerprintSet.capacityFor(1L << 40));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreIdInference#DarwinCoreIdInference(long, int)}.
+	 */
+	@Test
+	public final void testConstructorInvalidCandidateCount() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Candidate count must be positive: 0");
+		new DarwinCoreIdInference(0, 0);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for {@link DarwinCoreMergeMapping}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreMergeMappingTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private DarwinCoreArchiveDocument testInputDocument;
+
+	private DarwinCoreArchiveDocument testOtherDocument;
+
+	private DarwinCoreCoreOrExtension testMergedCore;
+
+	@Before
+	public void setUp() throws Exception {
+		testInputDocument = new DarwinCoreArchiveDocument();
+		DarwinCoreCoreOrExtension inputCore = DarwinCoreCoreOrExtension.newCore();
+		inputCore.setIdOrCoreId("0");
+		inputCore.addField(newField(0, "id", null));
+		inputCore.addField(newField(1, "name", null));
+		testInputDocument.setCore(inputCore);
+
+		testOtherDocument = new DarwinCoreArchiveDocument();
+		DarwinCoreCoreOrExtension otherCore = DarwinCoreCoreOrExtension.newCore();
+		otherCore.setIdOrCoreId("1");
+		otherCore.addField(newField(0, "count", null));
+		otherCore.addField(newField(1, "id", null));
+		otherCore.addField(newField(2, "name", null));
+		testOtherDocument.setCore(otherCore);
+
+		testMergedCore = DarwinCoreCoreOrExtension.newCore();
+		testMergedCore.setIdOrCoreId("0");
+		testMergedCore.addField(newField(0, "id", null));
+		testMergedCore.addField(newField(1, "name", null));
+		testMergedCore.addField(newField(2, "count", "1"));
+	}
+
+	private static DarwinCoreField newField(int index, String term, String defaultValue) {
+		DarwinCoreField result = new DarwinCoreField();
+		result.setIndex(index);
+		result.setTerm(term);
+		result.setDefault(defaultValue);
+		return result;
+	}
+
+	private DarwinCoreRecord inputRecord(String... values) {
+		return new DarwinCoreRecordImpl(testInputDocument, testInputDocument.getCore().getFields(),
+				Arrays.asList(values));
+	}
+
+	private DarwinCoreRecord otherRecord(String... values) {
+		return new DarwinCoreRecordImpl(testOtherDocument, testOtherDocument.getCore().getFields(),
+				Arrays.asList(values));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMergeMapping#idFor(DarwinCoreRecord)}.
+	 */
+	@Test
+	public final void testIdFor() {
+		DarwinCoreMergeMapping testMapping = new DarwinCoreMergeMapping(testMergedCore, true);
+		assertEquals("a", testMapping.idFor(inputRecord("a", "Alpha")));
+		assertEquals("b", testMapping.idFor(otherRecord("3", "b", "Beta")));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMergeMapping#merge(DarwinCoreRecord, DarwinCoreRecord)}.
+	 */
+	@Test
+	public final void testMergeNoFallbackWithDefaults() {
+		DarwinCoreMergeMapping testMapping = new DarwinCoreMergeMapping(testMergedCore, true);
+		assertEquals(Arrays.asList("a", "Alpha", "1"), testMapping.merge(inputRecord("a", "Alpha"), null));
+		assertEquals(Arrays.asList("b", "Beta", "3"), testMapping.merge(otherRecord("3", "b", "Beta"), null));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMergeMapping#merge(DarwinCoreRecord, DarwinCoreRecord)}.
+	 */
+	@Test
+	public final void testMergeNoFallbackWithoutDefaults() {
+		DarwinCoreMergeMapping testMapping = new DarwinCoreMergeMapping(testMergedCore, false);
+		assertEquals(Arrays.asList("a", "Alpha", ""), testMapping.merge(inputRecord("a", "Alpha"), null));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMergeMapping#merge(DarwinCoreRecord, DarwinCoreRecord)}.
+	 */
+	@Test
+	public final void testMergeWithFallback() {
+		DarwinCoreMergeMapping testMapping = new DarwinCoreMergeMapping(testMergedCore, true);
+		List<String> merged = testMapping.merge(inputRecord("a", ""), otherRecord("5", "a", "Alpha"));
+		assertEquals(Arrays.asList("a", "Alpha", "5"), merged);
+		// The input value takes precedence when it is not empty
+		merged = testMapping.merge(inputRecord("a", "First"), otherRecord("5", "a", "Second"));
+		assertEquals(Arrays.asList("a", "First", "5"), merged);
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMergeMapping#merge(DarwinCoreRecord, DarwinCoreRecord)}.
+	 */
+	@Test
+	public final void testMergeReusesRow() {
+		DarwinCoreMergeMapping testMapping = new DarwinCoreMergeMapping(testMergedCore, true);
+		List<String> first = testMapping.merge(inputRecord("a", "Alpha"), null);
+		List<String> second = testMapping.merge(inputRecord("b", "Beta"), null);
+		assertSame(first, second);
+		assertEquals(Arrays.asList("b", "Beta", "1"), second);
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMergeMapping#DarwinCoreMergeMapping(DarwinCoreCoreOrExtension, boolean)}.
+	 */
+	@Test
+	public final void testMissingIdField() {
+		DarwinCoreCoreOrExtension noIdCore = DarwinCoreCoreOrExtension.newCore();
+		noIdCore.setIdOrCoreId("5");
+		noIdCore.addField(newField(0, "id", null));
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("Did not find the id field for the merged document using its index");
+		new DarwinCoreMergeMapping(noIdCore, true);
+	}
+}
@@ -27,10 +27,14 @@ package com.github.ansell.dwca;
 
 import static org.junit.Assert.*;
 
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -197,4 +201,139 @@ public class DarwinCoreMetadataGeneratorTest {
 		}
 	}
 
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMetadataGenerator#main(java.lang.String[])}
+	 * .
+	 */
+	@Test
+	public final void testMainSummarise() throws Exception {
+		DarwinCoreMetadataGenerator.main("--input", testFile.toAbsolutePath().toString(), "--output",
+				testMetadataXml.toAbsolutePath().toString(), "--summarise", "true");
+		try (Reader input = Files.newBufferedReader(testMetadataXml);) {
+			DarwinCoreArchiveDocument archiveDocument = DarwinCoreMetadataSaxParser.parse(input);
+			assertNotNull(archiveDocument);
+			assertEquals(0, archiveDocument.getExtensions().size());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMetadataGenerator#readHeaders(Path, java.nio.charset.Charset)}
+	 * .
+	 */
+	@Test
+	public final void testReadHeaders() throws Exception {
+		Path testHeadersFile = testTempDir.resolve("headers.csv");
+		// Only the header line is read, so later lines that are not valid for the
+		// headers are not checked here
+		Files.write(testHeadersFile, Arrays.asList("id,\"scientific, name\",genus", "1,a", "2,b,c,d"),
+				StandardCharsets.UTF_8);
+		assertEquals(Arrays.asList("id", "scientific, name", "genus"),
+				DarwinCoreMetadataGenerator.readHeaders(testHeadersFile, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMetadataGenerator#readHeaders(Path, java.nio.charset.Charset)}
+	 * .
+	 */
+	@Test
+	public final void testReadHeadersEmpty() throws Exception {
+		Path testHeadersFile = testTempDir.resolve("empty.csv");
+		Files.createFile(testHeadersFile);
+		assertTrue(DarwinCoreMetadataGenerator.readHeaders(testHeadersFile, StandardCharsets.UTF_8).isEmpty());
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMetadataGenerator#main(java.lang.String[])}
+	 * .
+	 */
+	@Test
+	public final void testMainInferIds() throws Exception {
+		DarwinCoreMetadataGenerator.main("--input", testExtension2.toAbsolutePath().toString(), "--output",
+				testMetadataXml.toAbsolutePath().toString(), "--extension", testExtension.toAbsolutePath().toString(),
+				"--infer-ids", "true");
+		try (Reader input = Files.newBufferedReader(testMetadataXml);) {
+			DarwinCoreArchiveDocument archiveDocument = DarwinCoreMetadataSaxParser.parse(input);
+			assertNotNull(archiveDocument);
+			assertEquals("0", archiveDocument.getCore().getIdOrCoreId());
+			assertEquals(1, archiveDocument.getExtensions().size());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMetadataGenerator#main(java.lang.String[])}
+	 * .
+	 */
+	@Test
+	public final void testMainGzipLatin1() throws Exception {
+		Path testGzipFile = testTempDir.resolve("dates.csv.gz");
+		try (Writer output = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(testGzipFile)),
+				StandardCharsets.ISO_8859_1);) {
+			output.write("id,scientificName,eventDate\n1,Dendrob\u00e9,21/03/2017\n2,Acacia,01/12/2016\n");
+		}
+		DarwinCoreMetadataGenerator.main("--input", testGzipFile.toAbsolutePath().toString(), "--output",
+				testMetadataXml.toAbsolutePath().toString(), "--encoding", "ISO-8859-1", "--infer-ids", "true",
+				"--infer-types", "true");
+		try (Reader input = Files.newBufferedReader(testMetadataXml);) {
+			DarwinCoreArchiveDocument archiveDocument = DarwinCoreMetadataSaxParser.parse(input);
+			assertNotNull(archiveDocument);
+			assertEquals(StandardCharsets.ISO_8859_1, archiveDocument.getCore().getEncoding());
+			assertEquals("0", archiveDocument.getCore().getIdOrCoreId());
+			assertEquals("dd/MM/yyyy", archiveDocument.getCore().getDateFormat());
+			assertEquals(3, archiveDocument.getCore().getFields().size());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMetadataGenerator#main(java.lang.String[])}
+	 * .
+	 */
+	@Test
+	public final void testMainInferTypes() throws Exception {
+		Path testDatesFile = testTempDir.resolve("dates.csv");
+		Files.write(testDatesFile, Arrays.asList("id,eventDate", "1,21/03/2017", "2,01/12/2016"),
+				StandardCharsets.UTF_8);
+		DarwinCoreMetadataGenerator.main("--input", testDatesFile.toAbsolutePath().toString(), "--output",
+				testMetadataXml.toAbsolutePath().toString(), "--infer-types", "true");
+		try (Reader input = Files.newBufferedReader(testMetadataXml);) {
+			DarwinCoreArchiveDocument archiveDocument = DarwinCoreMetadataSaxParser.parse(input);
+			assertNotNull(archiveDocument);
+			assertEquals("dd/MM/yyyy", archiveDocument.getCore().getDateFormat());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreMetadataGenerator#main(java.lang.String[])}
+	 * .
+	 */
+	@Test
+	public final void testMainThreadsDeterministic() throws Exception {
+		Path testMetadataXmlParallel = testTempDir.resolve("metadata-parallel.xml");
+		DarwinCoreMetadataGenerator.main("--input", testFile.toAbsolutePath().toString(), "--output",
+				testMetadataXml.toAbsolutePath().toString(), "--extension", testExtension.toAbsolutePath().toString(),
+				"--extension", testExtension2.toAbsolutePath().toString(), "--infer-ids", "true", "--infer-types",
+				"true", "--threads", "1");
+		DarwinCoreMetadataGenerator.main("--input", testFile.toAbsolutePath().toString(), "--output",
+				testMetadataXmlParallel.toAbsolutePath().toString(), "--extension",
+				testExtension.toAbsolutePath().toString(), "--extension", testExtension2.toAbsolutePath().toString(),
+				"--infer-ids", "true", "--infer-types", "true", "--threads", "3");
+		assertEquals(Files.readAllLines(testMetadataXml, StandardCharsets.UTF_8),
+				Files.readAllLines(testMetadataXmlParallel, StandardCharsets.UTF_8));
+		try (Reader input = Files.newBufferedReader(testMetadataXmlParallel);) {
+			DarwinCoreArchiveDocument archiveDocument = DarwinCoreMetadataSaxParser.parse(input);
+			assertEquals(2, archiveDocument.getExtensions().size());
+			assertEquals("distribution.csv",
+					archiveDocument.getExtensions().get(0).getFiles().getLocations().get(0));
+			assertEquals("specimens.csv", archiveDocument.getExtensions().get(1).getFiles().getLocations().get(0));
+			// The extension refers to the core using the taxonIDForeignKey column
+			assertEquals("0", archiveDocument.getExtensions().get(0).getIdOrCoreId());
+		}
+	}
+
 }
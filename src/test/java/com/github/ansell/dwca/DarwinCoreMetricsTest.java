@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.github.ansell.csv.stream.CSVStream;
+
+/**
+ * Tests for {@link DarwinCoreMetrics}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreMetricsTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-metrics-test").toPath();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DarwinCoreMetrics.disable();
+	}
+
+	private DarwinCoreArchiveDocument generate(String name, long rows, long seed) throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(seed);
+		generator.setCoreRows(rows);
+		generator.setCoreColumns(5);
+		generator.setIdDistribution(DarwinCoreSyntheticArchiveGenerator.IdDistribution.SHUFFLED);
+		// No quoted line breaks, so output rows can be counted by line
+		generator.setQuoteRatio(0.0);
+		generator.generate(testDir.resolve(name));
+		return DarwinCoreArchiveChecker.parseMetadataXml(testDir.resolve(name).resolve(DarwinCoreArchiveChecker.META_XML));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreMetrics#getDefault()}.
+	 */
+	@Test
+	public final void testGetDefaultDisabled() throws Exception {
+		DarwinCoreMetrics metrics = DarwinCoreMetrics.getDefault();
+		assertFalse(metrics.isEnabled());
+		assertEquals(0L, metrics.startPhase());
+		metrics.addRecords(10);
+		metrics.addSpill(100);
+		metrics.endPhase(DarwinCoreMetrics.PHASE_PARSE, 0L);
+		assertEquals(0L, metrics.getRecords());
+		assertEquals(0L, metrics.getSpills());
+		assertTrue(metrics.getPhaseMillis().isEmpty());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreMetrics#enable()}.
+	 */
+	@Test
+	public final void testEnable() throws Exception {
+		ObjectName objectName = new ObjectName(DarwinCoreMetrics.OBJECT_NAME);
+		DarwinCoreMetrics metrics = DarwinCoreMetrics.enable();
+		assertTrue(metrics.isEnabled());
+		assertSame(metrics, DarwinCoreMetrics.getDefault());
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+		metrics.addRecords(5);
+		metrics.addBytes(50);
+		assertEquals(5L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "Records"));
+		assertEquals(50L, metrics.getBytes());
+		metrics.reset();
+		assertEquals(0L, metrics.getRecords());
+
+		DarwinCoreMetrics.disable();
+		assertFalse(DarwinCoreMetrics.getDefault().isEnabled());
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveDocument#iterator(boolean, boolean)}
+	 * with metrics enabled.
+	 */
+	@Test
+	public final void testIteratorMetrics() throws Exception {
+		DarwinCoreArchiveDocument document = generate("iterate", 1000, 1);
+		DarwinCoreMetrics metrics = DarwinCoreMetrics.enable();
+		DarwinCoreArchiveDocument parsedDocument = DarwinCoreArchiveChecker
+				.parseMetadataXml(document.getMetadataXMLPath().get());
+		int count = 0;
+		try (CloseableIterator<DarwinCoreRecord> iterator = parsedDocument.iterator(false, true);) {
+			while (iterator.hasNext()) {
+				iterator.next();
+				count++;
+			}
+		}
+		assertEquals(1000, count);
+		assertEquals(1000L, metrics.getRecords());
+		assertEquals(Files.size(testDir.resolve("iterate").resolve(DarwinCoreSyntheticArchiveGenerator.CORE_FILE)),
+				metrics.getBytes());
+		assertTrue(metrics.getPhaseMillis().containsKey(DarwinCoreMetrics.PHASE_METADATA_PARSE));
+		assertTrue(metrics.getPhaseMillis().containsKey(DarwinCoreMetrics.PHASE_SORT));
+		assertTrue(metrics.getPhaseMillis().containsKey(DarwinCoreMetrics.PHASE_PARSE));
+		assertTrue(metrics.getRecordsPerSecond() > 0.0);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveChecker#parseCoreOrExtensionSorted(DarwinCoreCoreOrExtension, Path, java.util.function.Consumer, DarwinCoreExternalSorter, boolean)}
+	 * with metrics enabled.
+	 */
+	@Test
+	public final void testSortSpillMetrics() throws Exception {
+		DarwinCoreArchiveDocument document = generate("spill", 20000, 2);
+		DarwinCoreMetrics metrics = DarwinCoreMetrics.enable();
+		DarwinCoreExternalSorter sorter = new DarwinCoreExternalSorter(1, 2, testDir.resolve("sort"), 4096);
+		DarwinCoreArchiveChecker.parseCoreOrExtensionSorted(document.getCore(), document.getMetadataXMLPath().get(),
+				DarwinCoreArchiveChecker.createParseFunction(document.getCore(), false), sorter, false);
+		assertEquals(20000L, metrics.getRecords());
+		assertTrue(metrics.getSpills() > 1);
+		assertTrue(metrics.getSpillBytes() > 0);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveMerger#writeMerge(DarwinCoreArchiveDocument, CloseableIterator, CloseableIterator, SequenceWriter, boolean)}
+	 * with metrics enabled.
+	 */
+	@Test
+	public final void testMergeMetrics() throws Exception {
+		DarwinCoreArchiveDocument document = generate("input", 100, 3);
+		DarwinCoreArchiveDocument otherDocument = generate("other", 150, 4);
+		DarwinCoreMetrics metrics = DarwinCoreMetrics.enable();
+		StringWriter output = new StringWriter();
+		try (CloseableIterator<DarwinCoreRecord> inputIterator = document.iterator(false, true);
+				CloseableIterator<DarwinCoreRecord> otherInputIterator = otherDocument.iterator(false, true);
+				SequenceWriter csvWriter = CSVStream.newCSVWriter(output, document.getCore().getCsvSchema());) {
+			DarwinCoreArchiveMerger.writeMerge(document, inputIterator, otherInputIterator, csvWriter, false);
+		}
+		assertEquals(output.toString().split("\n").length, metrics.getRecordsWritten());
+		assertEquals(250L, metrics.getRecords());
+		assertTrue(metrics.getPhaseMillis().containsKey(DarwinCoreMetrics.PHASE_MERGE));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreMetrics#startRun(boolean, int, java.util.function.Consumer)}.
+	 */
+	@Test
+	public final void testStartRun() throws Exception {
+		List<String> lines = new ArrayList<>();
+		DarwinCoreMetrics disabled = DarwinCoreMetrics.startRun(false, 0, lines::add);
+		assertFalse(disabled.isEnabled());
+		DarwinCoreMetrics.finishRun(disabled);
+		assertTrue(lines.isEmpty());
+
+		DarwinCoreMetrics metrics = DarwinCoreMetrics.startRun(false, 60, lines::add);
+		assertTrue(metrics.isEnabled());
+		metrics.addRecords(3);
+		DarwinCoreMetrics.finishRun(metrics);
+		assertFalse(DarwinCoreMetrics.getDefault().isEnabled());
+		// The final summary line is always logged when the run finishes
+		assertEquals(1, lines.size());
+		assertTrue(lines.get(0), lines.get(0).startsWith("metrics records=3 "));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreMetrics#startRun(boolean, int, java.util.function.Consumer)}.
+	 */
+	@Test
+	public final void testStartRunNegative() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Metrics log interval cannot be negative");
+		DarwinCoreMetrics.startRun(true, -1, System.out::println);
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveChecker#main(String...)} with
+	 * metrics enabled.
+	 */
+	@Test
+	public final void testCheckerMainMetrics() throws Exception {
+		DarwinCoreArchiveDocument document = generate("check", 10, 5);
+		DarwinCoreArchiveChecker.main("--input", document.getMetadataXMLPath().get().toString(), "--metrics", "true",
+				"--metrics-log-seconds", "60");
+		assertFalse(DarwinCoreMetrics.getDefault().isEnabled());
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DarwinCoreRowCache}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreRowCacheTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-row-cache-test").toPath();
+	}
+
+	private DarwinCoreArchiveDocument generate(String name) throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(11);
+		generator.setCoreRows(3000);
+		generator.setCoreColumns(8);
+		generator.setQuoteRatio(0.3);
+		generator.setIdDistribution(DarwinCoreSyntheticArchiveGenerator.IdDistribution.SHUFFLED);
+		generator.generate(testDir.resolve(name));
+		return DarwinCoreArchiveChecker
+				.parseMetadataXml(testDir.resolve(name).resolve(DarwinCoreArchiveChecker.META_XML));
+	}
+
+	private List<List<String>> iterate(DarwinCoreArchiveDocument document, boolean includeDefaults, boolean sortById)
+			throws Exception {
+		List<List<String>> result = new ArrayList<>();
+		try (CloseableIterator<DarwinCoreRecord> iterator = document.iterator(includeDefaults, sortById);) {
+			while (iterator.hasNext()) {
+				DarwinCoreRecord next = iterator.next();
+				List<String> nextValues = new ArrayList<>();
+				for (int i = 0; i < next.getFields().size(); i++) {
+					nextValues.add(next.valueAt(i, false));
+				}
+				result.add(nextValues);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveDocument#setRowCacheEnabled(boolean)}.
+	 */
+	@Test
+	public final void testIterateWithRowCache() throws Exception {
+		DarwinCoreArchiveDocument document = generate("cache");
+		Path metadataPath = document.getMetadataXMLPath().get();
+		Path corePath = metadataPath.resolveSibling(DarwinCoreSyntheticArchiveGenerator.CORE_FILE);
+		List<List<String>> expected = iterate(document, false, false);
+		List<List<String>> expectedSorted = iterate(document, false, true);
+		assertEquals(3000, expected.size());
+		assertNotEquals(expected, expectedSorted);
+		assertFalse(Files.exists(DarwinCoreRowCache.cachePathFor(corePath, false)));
+
+		document.setRowCacheEnabled(true);
+		// The first iteration parses the file and writes the cache
+		assertEquals(expected, iterate(document, false, false));
+		assertTrue(DarwinCoreRowCache.isCurrent(document.getCore(), metadataPath, false));
+		assertFalse(DarwinCoreRowCache.isCurrent(document.getCore(), metadataPath, true));
+		// The next iteration reads the cache
+		assertEquals(expected, iterate(document, false, false));
+
+		assertEquals(expectedSorted, iterate(document, false, true));
+		assertTrue(DarwinCoreRowCache.isCurrent(document.getCore(), metadataPath, true));
+		assertEquals(expectedSorted, iterate(document, false, true));
+
+		List<List<String>> cached = new ArrayList<>();
+		assertEquals(3000, DarwinCoreRowCache.read(document.getCore(), metadataPath, false, false, cached::add));
+		assertEquals(expected, cached);
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveDocument#setCacheDir(Path)}.
+	 */
+	@Test
+	public final void testIterateWithCacheDir() throws Exception {
+		DarwinCoreArchiveDocument document = generate("cache-dir");
+		Path metadataPath = document.getMetadataXMLPath().get();
+		Path corePath = metadataPath.resolveSibling(DarwinCoreSyntheticArchiveGenerator.CORE_FILE);
+		Path cacheDir = testDir.resolve("caches");
+		List<List<String>> expected = iterate(document, false, false);
+
+		document.setRowCacheEnabled(true);
+		document.setCacheDir(cacheDir);
+		assertEquals(expected, iterate(document, false, false));
+		assertFalse(Files.exists(DarwinCoreRowCache.cachePathFor(corePath, false)));
+		assertTrue(Files.exists(DarwinCoreRowCache.cachePathFor(corePath, false, cacheDir)));
+		assertFalse(DarwinCoreRowCache.isCurrent(document.getCore(), metadataPath, false));
+		assertTrue(DarwinCoreRowCache.isCurrent(document.getCore(), metadataPath, false, cacheDir));
+		assertEquals(expected, iterate(document, false, false));
+
+		List<List<String>> cached = new ArrayList<>();
+		assertEquals(3000,
+				DarwinCoreRowCache.read(document.getCore(), metadataPath, false, false, cacheDir, cached::add));
+		assertEquals(expected, cached);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreRowCache#parse(DarwinCoreCoreOrExtension, Path, boolean, boolean, java.util.function.Consumer)}.
+	 */
+	@Test
+	public final void testParseDefaultsAndInvalidation() throws Exception {
+		Path metadataPath = testDir.resolve(DarwinCoreArchiveChecker.META_XML);
+		Files.write(metadataPath,
+				Arrays.asList("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\">",
+						"<core rowType=\"http://rs.tdwg.org/dwc/terms/Occurrence\" ignoreHeaderLines=\"1\">",
+						"<files><location>occurrence.csv</location></files>", "<id index=\"0\"/>",
+						"<field index=\"0\" term=\"http://rs.tdwg.org/dwc/terms/occurrenceID\"/>",
+						"<field index=\"1\" term=\"http://rs.tdwg.org/dwc/terms/basisOfRecord\" default=\"HumanObservation\"/>",
+						"</core>", "</archive>"),
+				StandardCharsets.UTF_8);
+		Path dataPath = testDir.resolve("occurrence.csv");
+		Files.write(dataPath, "occurrenceID,basisOfRecord\na,\nb,PreservedSpecimen\nc,\"Quoted, value\"\n"
+				.getBytes(StandardCharsets.UTF_8));
+		DarwinCoreCoreOrExtension core = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath).getCore();
+
+		List<List<String>> withDefaults = new ArrayList<>();
+		DarwinCoreRowCache.parse(core, metadataPath, false, true, withDefaults::add);
+		List<List<String>> expectedWithDefaults = Arrays.asList(Arrays.asList("a", "HumanObservation"),
+				Arrays.asList("b", "PreservedSpecimen"), Arrays.asList("c", "Quoted, value"));
+		assertEquals(expectedWithDefaults, withDefaults);
+
+		// The same cache is used with and without defaults
+		assertTrue(DarwinCoreRowCache.isCurrent(core, metadataPath, false));
+		List<List<String>> cachedWithDefaults = new ArrayList<>();
+		DarwinCoreRowCache.parse(core, metadataPath, false, true, cachedWithDefaults::add);
+		assertEquals(expectedWithDefaults, cachedWithDefaults);
+		List<List<String>> cachedWithoutDefaults = new ArrayList<>();
+		DarwinCoreRowCache.parse(core, metadataPath, false, false, cachedWithoutDefaults::add);
+		assertEquals(Arrays.asList("a", ""), cachedWithoutDefaults.get(0));
+
+		Files.write(dataPath, "occurrenceID,basisOfRecord\nd,Other\n".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(dataPath,
+				FileTime.fromMillis(Files.getLastModifiedTime(dataPath).toMillis() + 2000));
+		assertFalse(DarwinCoreRowCache.isCurrent(core, metadataPath, false));
+		List<List<String>> changed = new ArrayList<>();
+		DarwinCoreRowCache.parse(core, metadataPath, false, true, changed::add);
+		assertEquals(Arrays.asList(Arrays.asList("d", "Other")), changed);
+		assertTrue(DarwinCoreRowCache.isCurrent(core, metadataPath, false));
+	}
+
+	private Path writeMetadata(int basisOfRecordIndex, String basisOfRecordDefault) throws Exception {
+		Path metadataPath = testDir.resolve(DarwinCoreArchiveChecker.META_XML);
+		Files.write(metadataPath,
+				Arrays.asList("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\">",
+						"<core rowType=\"http://rs.tdwg.org/dwc/terms/Occurrence\" ignoreHeaderLines=\"1\">",
+						"<files><location>occurrence.csv</location></files>", "<id index=\"0\"/>",
+						"<field index=\"0\" term=\"http://rs.tdwg.org/dwc/terms/occurrenceID\"/>",
+						"<field index=\"" + basisOfRecordIndex
+								+ "\" term=\"http://rs.tdwg.org/dwc/terms/basisOfRecord\" default=\""
+								+ basisOfRecordDefault + "\"/>",
+						"</core>", "</archive>"),
+				StandardCharsets.UTF_8);
+		return metadataPath;
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreRowCache#isCurrent(DarwinCoreCoreOrExtension, Path, boolean)}.
+	 */
+	@Test
+	public final void testFieldChangesInvalidate() throws Exception {
+		Path dataPath = testDir.resolve("occurrence.csv");
+		Files.write(dataPath, "occurrenceID,basisOfRecord\na,\nb,PreservedSpecimen\n".getBytes(StandardCharsets.UTF_8));
+		Path metadataPath = writeMetadata(1, "HumanObservation");
+		DarwinCoreCoreOrExtension core = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath).getCore();
+		DarwinCoreRowCache.materialise(core, metadataPath, false);
+		assertTrue(DarwinCoreRowCache.isCurrent(core, metadataPath, false));
+
+		// The data file is unchanged, but the field is now mapped to a
+		// different column
+		DarwinCoreCoreOrExtension reindexed = DarwinCoreArchiveChecker
+				.parseMetadataXml(writeMetadata(2, "HumanObservation")).getCore();
+		assertFalse(DarwinCoreRowCache.isCurrent(reindexed, metadataPath, false));
+		DarwinCoreRowCache.materialise(reindexed, metadataPath, false);
+		assertTrue(DarwinCoreRowCache.isCurrent(reindexed, metadataPath, false));
+
+		DarwinCoreCoreOrExtension newDefault = DarwinCoreArchiveChecker
+				.parseMetadataXml(writeMetadata(2, "MachineObservation")).getCore();
+		assertFalse(DarwinCoreRowCache.isCurrent(newDefault, metadataPath, false));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreRowCache#read(DarwinCoreCoreOrExtension, Path, boolean, boolean, java.util.function.Consumer)}.
+	 */
+	@Test
+	public final void testReadTruncated() throws Exception {
+		DarwinCoreArchiveDocument document = generate("truncated");
+		Path metadataPath = document.getMetadataXMLPath().get();
+		Path cachePath = DarwinCoreRowCache.materialise(document.getCore(), metadataPath, false);
+		byte[] bytes = Files.readAllBytes(cachePath);
+		Files.write(cachePath, Arrays.copyOf(bytes, bytes.length / 2));
+
+		thrown.expect(IllegalStateException.class);
+		thrown.expectMessage("Row cache is not complete");
+		DarwinCoreRowCache.read(document.getCore(), metadataPath, false, false, l -> {
+		});
+	}
+}
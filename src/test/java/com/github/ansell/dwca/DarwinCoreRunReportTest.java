@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Tests for {@link DarwinCoreRunReport}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreRunReportTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-report-test").toPath();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DarwinCoreMetrics.disable();
+	}
+
+	private Path generate(String name, long rows, int extensions) throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(1);
+		generator.setCoreRows(rows);
+		generator.setCoreColumns(4);
+		generator.setExtensionCount(extensions);
+		generator.setFanOut(2);
+		generator.generate(testDir.resolve(name));
+		return testDir.resolve(name).resolve(DarwinCoreArchiveChecker.META_XML);
+	}
+
+	/**
+	 * Reads the top level fields from each line in a report, skipping nested
+	 * objects.
+	 */
+	private List<Map<String, Object>> readReport(Path reportPath) throws Exception {
+		List<Map<String, Object>> result = new ArrayList<>();
+		JsonFactory factory = new JsonFactory();
+		for (String nextLine : Files.readAllLines(reportPath, StandardCharsets.UTF_8)) {
+			Map<String, Object> nextFields = new HashMap<>();
+			try (JsonParser parser = factory.createParser(nextLine);) {
+				assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String fieldName = parser.getCurrentName();
+					JsonToken value = parser.nextToken();
+					if (value == JsonToken.START_OBJECT) {
+						parser.skipChildren();
+						nextFields.put(fieldName, Boolean.TRUE);
+					} else if (value == JsonToken.VALUE_NUMBER_INT) {
+						nextFields.put(fieldName, parser.getLongValue());
+					} else if (value == JsonToken.VALUE_NULL) {
+						nextFields.put(fieldName, null);
+					} else {
+						nextFields.put(fieldName, parser.getText());
+					}
+				}
+				assertNull(parser.nextToken());
+			}
+			result.add(nextFields);
+		}
+		return result;
+	}
+
+	private List<Map<String, Object>> events(List<Map<String, Object>> lines, String event, String phase) {
+		List<Map<String, Object>> result = new ArrayList<>();
+		for (Map<String, Object> nextLine : lines) {
+			if (event.equals(nextLine.get("event")) && (phase == null || phase.equals(nextLine.get("phase")))) {
+				result.add(nextLine);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreRunReport#getDefault()}.
+	 */
+	@Test
+	public final void testGetDefaultDisabled() throws Exception {
+		DarwinCoreRunReport report = DarwinCoreRunReport.getDefault();
+		assertFalse(report.isEnabled());
+		assertSame(report, DarwinCoreRunReport.start(null, "test", testDir));
+		report.addFile(DarwinCoreMetrics.PHASE_PARSE, "test.csv", 1, 1, 1);
+		report.addError("test.csv", new IllegalStateException("Test"));
+		assertEquals(0L, report.getErrors());
+		DarwinCoreRunReport.finish(report, DarwinCoreMetrics.getDefault());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveChecker#main(String...)} with a
+	 * report.
+	 */
+	@Test
+	public final void testCheckerReport() throws Exception {
+		Path metadataPath = generate("check", 500, 1);
+		Path reportPath = testDir.resolve("report.jsonl");
+		DarwinCoreArchiveChecker.main("--input", metadataPath.toString(), "--report", reportPath.toString());
+		assertFalse(DarwinCoreRunReport.getDefault().isEnabled());
+		assertFalse(DarwinCoreMetrics.getDefault().isEnabled());
+
+		List<Map<String, Object>> lines = readReport(reportPath);
+		assertEquals("start", lines.get(0).get("event"));
+		assertEquals("dwcacheck", lines.get(0).get("tool"));
+
+		List<Map<String, Object>> metadataLines = events(lines, "file", DarwinCoreMetrics.PHASE_METADATA_PARSE);
+		assertEquals(1, metadataLines.size());
+		assertNull(metadataLines.get(0).get("rows"));
+		assertEquals(Files.size(metadataPath), metadataLines.get(0).get("bytes"));
+
+		List<Map<String, Object>> parseLines = events(lines, "file", DarwinCoreMetrics.PHASE_PARSE);
+		assertEquals(2, parseLines.size());
+		Path corePath = metadataPath.resolveSibling(DarwinCoreSyntheticArchiveGenerator.CORE_FILE);
+		assertEquals(corePath.toAbsolutePath().normalize().toString(), parseLines.get(0).get("file"));
+		assertEquals(500L, parseLines.get(0).get("rows"));
+		assertEquals(Files.size(corePath), parseLines.get(0).get("bytes"));
+		assertEquals(1000L, parseLines.get(1).get("rows"));
+		assertTrue((Long) parseLines.get(0).get("peakHeapBytes") > 0);
+
+		Map<String, Object> end = lines.get(lines.size() - 1);
+		assertEquals("end", end.get("event"));
+		assertEquals("ok", end.get("status"));
+		assertEquals(1500L, end.get("rows"));
+		assertEquals(0L, end.get("errors"));
+		assertEquals(Boolean.TRUE, end.get("phasesMillis"));
+		assertTrue(events(lines, "error", null).isEmpty());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveChecker#main(String...)} with a
+	 * report and an output directory, where the files are summarised.
+	 */
+	@Test
+	public final void testCheckerReportWithOutput() throws Exception {
+		Path metadataPath = generate("check", 500, 1);
+		Path outputPath = Files.createDirectories(testDir.resolve("output"));
+		Path reportPath = testDir.resolve("report.jsonl");
+		DarwinCoreArchiveChecker.main("--input", metadataPath.toString(), "--output", outputPath.toString(),
+				"--report", reportPath.toString());
+
+		List<Map<String, Object>> lines = readReport(reportPath);
+		List<Map<String, Object>> parseLines = events(lines, "file", DarwinCoreMetrics.PHASE_PARSE);
+		assertEquals(2, parseLines.size());
+		assertEquals(500L, parseLines.get(0).get("rows"));
+		assertEquals(1000L, parseLines.get(1).get("rows"));
+		Map<String, Object> end = lines.get(lines.size() - 1);
+		assertEquals("ok", end.get("status"));
+		assertEquals(1500L, end.get("rows"));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveChecker#main(String...)} with a
+	 * report for a run that fails.
+	 */
+	@Test
+	public final void testCheckerReportError() throws Exception {
+		Path metadataPath = generate("missing", 10, 0);
+		Files.delete(metadataPath.resolveSibling(DarwinCoreSyntheticArchiveGenerator.CORE_FILE));
+		Path reportPath = testDir.resolve("report.jsonl");
+		try {
+			DarwinCoreArchiveChecker.main("--input", metadataPath.toString(), "--report", reportPath.toString());
+			fail("Did not find expected exception");
+		} catch (NoSuchFileException e) {
+			// Expected
+		}
+		List<Map<String, Object>> lines = readReport(reportPath);
+		List<Map<String, Object>> errorLines = events(lines, "error", null);
+		assertEquals(1, errorLines.size());
+		assertEquals(NoSuchFileException.class.getName(), errorLines.get(0).get("type"));
+		Map<String, Object> end = lines.get(lines.size() - 1);
+		assertEquals("failed", end.get("status"));
+		assertEquals(1L, end.get("errors"));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveChecker#main(String...)} with a
+	 * report for a batch of archives.
+	 */
+	@Test
+	public final void testCheckerBatchReport() throws Exception {
+		generate("small", 10, 0);
+		generate("large", 200, 1);
+		Path reportPath = testDir.resolve("report.jsonl");
+		DarwinCoreArchiveChecker.main("--input", testDir.toString(), "--batch", "true", "--batch-threads", "2",
+				"--report", reportPath.toString());
+
+		List<Map<String, Object>> lines = readReport(reportPath);
+		List<Map<String, Object>> archiveLines = events(lines, "archive", null);
+		assertEquals(2, archiveLines.size());
+		for (Map<String, Object> nextLine : archiveLines) {
+			assertEquals("ok", nextLine.get("status"));
+			assertTrue((Long) nextLine.get("bytes") > 0);
+		}
+		assertEquals(3, events(lines, "file", DarwinCoreMetrics.PHASE_PARSE).size());
+		Map<String, Object> end = lines.get(lines.size() - 1);
+		assertEquals("ok", end.get("status"));
+		assertEquals(610L, end.get("rows"));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreArchiveMerger#main(String...)} with a
+	 * report.
+	 */
+	@Test
+	public final void testMergerReport() throws Exception {
+		Path inputPath = generate("input", 100, 0);
+		Path otherInputPath = generate("other", 100, 0);
+		Path outputPath = Files.createDirectories(testDir.resolve("output"));
+		Path reportPath = testDir.resolve("report.jsonl");
+		DarwinCoreArchiveMerger.main("--input", inputPath.toString(), "--other-input", otherInputPath.toString(),
+				"--output", outputPath.toString(), "--report", reportPath.toString());
+
+		List<Map<String, Object>> lines = readReport(reportPath);
+		assertEquals("dwcamerge", lines.get(0).get("tool"));
+		// Each input is only parsed once, when it is merged
+		List<Map<String, Object>> parseLines = events(lines, "file", DarwinCoreMetrics.PHASE_PARSE);
+		assertEquals(2, parseLines.size());
+		assertEquals(100L, parseLines.get(0).get("rows"));
+		assertEquals(100L, parseLines.get(1).get("rows"));
+		List<Map<String, Object>> mergeLines = events(lines, "file", DarwinCoreMetrics.PHASE_MERGE);
+		assertEquals(1, mergeLines.size());
+		assertTrue((Long) mergeLines.get(0).get("rows") >= 100L);
+		Map<String, Object> end = lines.get(lines.size() - 1);
+		assertEquals("ok", end.get("status"));
+		assertEquals(mergeLines.get(0).get("rows"), end.get("rowsWritten"));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreRunReport#addFile(String, String, long, long, long)}.
+	 */
+	@Test
+	public final void testReportIncremental() throws Exception {
+		Path reportPath = testDir.resolve("report.jsonl");
+		DarwinCoreRunReport report = DarwinCoreRunReport.start(reportPath, "test", testDir);
+		try {
+			assertSame(report, DarwinCoreRunReport.getDefault());
+			try (DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.PARSE, "test.csv");) {
+				assertTrue(span.isEnabled());
+				DarwinCoreSpan.current().addRows(1);
+				DarwinCoreSpan.current().addRows(1);
+			}
+			// Every line is complete before the run has finished
+			List<Map<String, Object>> lines = readReport(reportPath);
+			assertEquals(2, lines.size());
+			assertEquals("test.csv", lines.get(1).get("file"));
+			assertEquals(2L, lines.get(1).get("rows"));
+			assertNull(lines.get(1).get("bytes"));
+		} finally {
+			DarwinCoreRunReport.finish(report, DarwinCoreMetrics.getDefault());
+		}
+		assertFalse(DarwinCoreRunReport.getDefault().isEnabled());
+		assertEquals(3, readReport(reportPath).size());
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link DarwinCoreSortKey}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreSortKeyTest {
+
+	private static List<String> sorted(String... values) {
+		List<String> result = new ArrayList<>(Arrays.asList(values));
+		result.sort((o1, o2) -> DarwinCoreSortKey.compare(DarwinCoreSortKey.encode(o1), DarwinCoreSortKey.encode(o2)));
+		return result;
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreSortKey#encode(String)}.
+	 */
+	@Test
+	public final void testIntegersSortNumerically() {
+		assertEquals(Arrays.asList("-10", "-2", "0", "2", "10", "9223372036854775807"),
+				sorted("10", "2", "-2", "9223372036854775807", "0", "-10"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreSortKey#encode(String)}.
+	 */
+	@Test
+	public final void testTypesSortIntegersThenUUIDsThenStrings() {
+		String uuid = "123e4567-e89b-12d3-a456-426614174000";
+		assertEquals(Arrays.asList("5", uuid, "", "07", "a"), sorted("a", uuid, "07", "5", ""));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreSortKey#encode(String)}.
+	 */
+	@Test
+	public final void testUUIDsSortByValue() {
+		assertEquals(
+				Arrays.asList("00000000-0000-0000-0000-00000000000f", "00000000-0000-0000-0000-0000000000f0",
+						"f0000000-0000-0000-0000-000000000000"),
+				sorted("f0000000-0000-0000-0000-000000000000", "00000000-0000-0000-0000-0000000000f0",
+						"00000000-0000-0000-0000-00000000000f"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreSortKey#encode(String)}.
+	 */
+	@Test
+	public final void testStringsSortByCodePoint() {
+		assertEquals(Arrays.asList("a", "a\u0000", "a\u0000b", "ab", "b", "\u00e9", "\ud83d\ude00"),
+				sorted("\ud83d\ude00", "b", "ab", "a\u0000b", "\u00e9", "a", "a\u0000"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreSortKey#encode(String)}.
+	 */
+	@Test
+	public final void testDistinctValuesHaveDistinctKeys() {
+		List<String> values = Arrays.asList("7", "07", "+7", "-0", "0", "9223372036854775808",
+				"123E4567-E89B-12D3-A456-426614174000", "123e4567-e89b-12d3-a456-426614174000", "\ud800", "?");
+		for (String value1 : values) {
+			for (String value2 : values) {
+				assertEquals(value1 + " " + value2, value1.equals(value2),
+						Arrays.equals(DarwinCoreSortKey.encode(value1), DarwinCoreSortKey.encode(value2)));
+			}
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreSortKey#encode(String[], int[])}.
+	 */
+	@Test
+	public final void testMultipleColumns() {
+		byte[] key1 = DarwinCoreSortKey.encode(new String[] { "a", "2" }, new int[] { 0, 1 });
+		byte[] key2 = DarwinCoreSortKey.encode(new String[] { "a", "10" }, new int[] { 0, 1 });
+		byte[] key3 = DarwinCoreSortKey.encode(new String[] { "ab", "1" }, new int[] { 0, 1 });
+		byte[] key4 = DarwinCoreSortKey.encode(new String[] { "a" }, new int[] { 0, 1 });
+		assertTrue(DarwinCoreSortKey.compare(key1, key2) < 0);
+		assertTrue(DarwinCoreSortKey.compare(key2, key3) < 0);
+		// A missing column is the empty string, which sorts after integers
+		assertTrue(DarwinCoreSortKey.compare(key2, key4) < 0);
+		assertTrue(DarwinCoreSortKey.compare(key4, key3) < 0);
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.github.ansell.dwca.DarwinCoreSortKey#compare(String, String)}.
+	 */
+	@Test
+	public final void testCompareStrings() {
+		assertTrue(DarwinCoreSortKey.compare("9", "10") < 0);
+		assertTrue(DarwinCoreSortKey.compare("10", "a") < 0);
+		assertEquals(0, DarwinCoreSortKey.compare("abc", "abc"));
+	}
+}
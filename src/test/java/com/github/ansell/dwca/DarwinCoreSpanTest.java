@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests for {@link DarwinCoreSpan}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreSpanTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-span-test").toPath();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DarwinCoreMetrics.disable();
+	}
+
+	private List<RecordedEvent> events(Recording recording, String eventName) throws Exception {
+		Path recordingPath = testDir.resolve("recording.jfr");
+		recording.dump(recordingPath);
+		return RecordingFile.readAllEvents(recordingPath).stream()
+				.filter(event -> event.getEventType().getName().equals(eventName)).collect(Collectors.toList());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSpan#begin(DarwinCoreSpan.Phase, String)}.
+	 */
+	@Test
+	public final void testBeginDisabled() throws Exception {
+		try (DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.PARSE, "test.csv");) {
+			assertFalse(span.isEnabled());
+			assertFalse(DarwinCoreSpan.current().isEnabled());
+			span.addRows(1);
+			span.addBytes(1);
+		}
+		assertFalse(DarwinCoreMetrics.getDefault().isEnabled());
+		assertEquals(0L, DarwinCoreMetrics.getDefault().getRecords());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSpan#begin(DarwinCoreSpan.Phase, String)} with metrics,
+	 * a report and Flight Recorder events enabled.
+	 */
+	@Test
+	public final void testParseSpan() throws Exception {
+		DarwinCoreMetrics metrics = DarwinCoreMetrics.enable();
+		Path reportPath = testDir.resolve("report.jsonl");
+		DarwinCoreRunReport report = DarwinCoreRunReport.start(reportPath, "test", testDir);
+		try (Recording recording = new Recording();) {
+			recording.enable("com.github.ansell.dwca.FileParse").withoutThreshold();
+			recording.enable("com.github.ansell.dwca.Summarise").withoutThreshold();
+			recording.start();
+			try (DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.PARSE, "test.csv");) {
+				assertTrue(span.isEnabled());
+				assertSame(span, DarwinCoreSpan.current());
+				// Rows added to a summarise span are also added to the parse
+				// span, but are only counted once in the metrics
+				try (DarwinCoreSpan summarise = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.SUMMARISE, "test.csv");) {
+					assertTrue(summarise.isEnabled());
+					assertSame(span, DarwinCoreSpan.current());
+					summarise.addRows(3);
+				}
+				span.addBytes(10);
+				assertEquals(3L, metrics.getRecords());
+			}
+			assertFalse(DarwinCoreSpan.current().isEnabled());
+			recording.stop();
+
+			assertEquals(3L, metrics.getRecords());
+			assertEquals(10L, metrics.getBytes());
+			assertTrue(metrics.getPhaseMillis().containsKey(DarwinCoreMetrics.PHASE_PARSE));
+
+			List<RecordedEvent> fileParseEvents = events(recording, "com.github.ansell.dwca.FileParse");
+			assertEquals(1, fileParseEvents.size());
+			assertEquals("test.csv", fileParseEvents.get(0).getString("file"));
+			assertEquals(3L, fileParseEvents.get(0).getLong("rows"));
+			assertEquals(10L, fileParseEvents.get(0).getLong("bytes"));
+
+			List<RecordedEvent> summariseEvents = events(recording, "com.github.ansell.dwca.Summarise");
+			assertEquals(1, summariseEvents.size());
+			assertEquals(3L, summariseEvents.get(0).getLong("rows"));
+		} finally {
+			DarwinCoreRunReport.finish(report, metrics);
+		}
+		List<String> lines = Files.readAllLines(reportPath, StandardCharsets.UTF_8);
+		assertEquals(3, lines.size());
+		assertTrue(lines.get(1), lines.get(1).contains("\"file\":\"test.csv\""));
+		assertTrue(lines.get(1), lines.get(1).contains("\"rows\":3"));
+		assertTrue(lines.get(1), lines.get(1).contains("\"bytes\":10"));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSpan#begin(DarwinCoreSpan.Phase, String)} for a sorted
+	 * run, which adds its bytes to the metrics spills.
+	 */
+	@Test
+	public final void testSortRunSpan() throws Exception {
+		DarwinCoreMetrics metrics = DarwinCoreMetrics.enable();
+		try (DarwinCoreSpan span = DarwinCoreSpan.begin(DarwinCoreSpan.Phase.SORT_RUN, null);) {
+			assertTrue(span.isEnabled());
+			// Sorted runs are not reported, so they are never the current span
+			assertFalse(DarwinCoreSpan.current().isEnabled());
+			span.addRows(5);
+			span.addBytes(100);
+		}
+		assertEquals(1L, metrics.getSpills());
+		assertEquals(100L, metrics.getSpillBytes());
+		assertEquals(0L, metrics.getRecords());
+		assertEquals(0L, metrics.getBytes());
+		assertTrue(metrics.getPhaseMillis().isEmpty());
+	}
+}
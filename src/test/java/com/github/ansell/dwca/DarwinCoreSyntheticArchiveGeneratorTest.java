@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.ansell.csv.stream.CSVStream;
+import com.github.ansell.dwca.DarwinCoreSyntheticArchiveGenerator.FanOutDistribution;
+import com.github.ansell.dwca.DarwinCoreSyntheticArchiveGenerator.IdDistribution;
+
+/**
+ * Tests for {@link DarwinCoreSyntheticArchiveGenerator}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreSyntheticArchiveGeneratorTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-synthetic-test").toPath();
+	}
+
+	private static List<List<String>> readRows(DarwinCoreCoreOrExtension coreOrExtension, Path archiveDir)
+			throws Exception {
+		List<List<String>> result = new ArrayList<>();
+		try (Reader reader = Files.newBufferedReader(
+				archiveDir.resolve(coreOrExtension.getFiles().getLocations().get(0)), coreOrExtension.getEncoding());) {
+			CSVStream.parse(reader, h -> {
+			}, (h, l) -> l, result::add, null, coreOrExtension.getIgnoreHeaderLines(), CSVStream.defaultMapper(),
+					coreOrExtension.getCsvSchema());
+		}
+		return result;
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSyntheticArchiveGenerator#generate(Path)}.
+	 */
+	@Test
+	public final void testGenerateDirectory() throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setCoreRows(100);
+		generator.setCoreColumns(30);
+		generator.setExtensionCount(2);
+		generator.setExtensionColumns(5);
+		generator.setFanOut(2);
+		Path outputDir = testDir.resolve("archive");
+		assertEquals(100 + 2 * 200, generator.generate(outputDir));
+
+		Path metadataPath = outputDir.resolve(DarwinCoreArchiveChecker.META_XML);
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		assertEquals(30, document.getCore().getFields().size());
+		assertEquals(2, document.getExtensions().size());
+
+		List<List<String>> coreRows = readRows(document.getCore(), outputDir);
+		assertEquals(100, coreRows.size());
+		for (int i = 0; i < coreRows.size(); i++) {
+			assertEquals(30, coreRows.get(i).size());
+			assertEquals(Integer.toString(i + 1), coreRows.get(i).get(0));
+		}
+		List<List<String>> extensionRows = readRows(document.getExtensions().get(1), outputDir);
+		assertEquals(200, extensionRows.size());
+		assertEquals("1", extensionRows.get(0).get(0));
+		assertEquals("1", extensionRows.get(1).get(0));
+		assertEquals("100", extensionRows.get(199).get(0));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSyntheticArchiveGenerator#setDefaultInterval(int)}.
+	 */
+	@Test
+	public final void testGenerateDefaults() throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setCoreRows(10);
+		generator.setCoreColumns(12);
+		generator.setDefaultInterval(5);
+		Path outputDir = testDir.resolve("archive");
+		generator.generate(outputDir);
+
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker
+				.parseMetadataXml(outputDir.resolve(DarwinCoreArchiveChecker.META_XML));
+		List<DarwinCoreField> fields = document.getCore().getFields();
+		for (int i = 0; i < fields.size(); i++) {
+			if (i == 5 || i == 10) {
+				assertEquals("default" + i, fields.get(i).getDefault());
+			} else {
+				assertNull(fields.get(i).getDefault());
+			}
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSyntheticArchiveGenerator#generate(Path)}.
+	 */
+	@Test
+	public final void testGenerateDeterministic() throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(42);
+		generator.setCoreRows(200);
+		generator.setExtensionCount(1);
+		generator.setFanOutDistribution(FanOutDistribution.GEOMETRIC);
+		generator.setIdDistribution(IdDistribution.UUID);
+		generator.setQuoteRatio(0.5);
+		generator.generate(testDir.resolve("first"));
+		generator.generate(testDir.resolve("second"));
+		for (String nextFile : new String[] { DarwinCoreArchiveChecker.META_XML,
+				DarwinCoreSyntheticArchiveGenerator.CORE_FILE, "extension1.csv" }) {
+			assertArrayEquals(nextFile, Files.readAllBytes(testDir.resolve("first").resolve(nextFile)),
+					Files.readAllBytes(testDir.resolve("second").resolve(nextFile)));
+		}
+
+		generator.setSeed(43);
+		generator.generate(testDir.resolve("third"));
+		assertFalse(new String(Files.readAllBytes(testDir.resolve("first").resolve("extension1.csv")),
+				StandardCharsets.UTF_8).equals(new String(
+						Files.readAllBytes(testDir.resolve("third").resolve("extension1.csv")),
+						StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSyntheticArchiveGenerator#generate(Path)}.
+	 */
+	@Test
+	public final void testGenerateShuffledIds() throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(7);
+		generator.setCoreRows(1000);
+		generator.setCoreColumns(3);
+		generator.setIdDistribution(IdDistribution.SHUFFLED);
+		Path outputDir = testDir.resolve("shuffled");
+		generator.generate(outputDir);
+
+		Path metadataPath = outputDir.resolve(DarwinCoreArchiveChecker.META_XML);
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		List<List<String>> coreRows = readRows(document.getCore(), outputDir);
+		Set<Integer> ids = new HashSet<>();
+		boolean ascending = true;
+		for (int i = 0; i < coreRows.size(); i++) {
+			int nextId = Integer.parseInt(coreRows.get(i).get(0));
+			assertTrue(nextId >= 1 && nextId <= 1000);
+			assertTrue(ids.add(nextId));
+			ascending &= nextId == i + 1;
+		}
+		assertEquals(1000, ids.size());
+		assertFalse(ascending);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSyntheticArchiveGenerator#generate(Path)}.
+	 */
+	@Test
+	public final void testGenerateEncodingAndDelimiter() throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setCoreRows(500);
+		generator.setCoreColumns(6);
+		generator.setEncoding(Charset.forName("ISO-8859-1"));
+		generator.setFieldsTerminatedBy("\\t");
+		generator.setQuoteRatio(0.3);
+		Path outputDir = testDir.resolve("latin1");
+		generator.generate(outputDir);
+
+		Path metadataPath = outputDir.resolve(DarwinCoreArchiveChecker.META_XML);
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		assertEquals(Charset.forName("ISO-8859-1"), document.getCore().getEncoding());
+		assertEquals("\t", document.getCore().getFieldsTerminatedBy());
+		List<List<String>> coreRows = readRows(document.getCore(), outputDir);
+		assertEquals(500, coreRows.size());
+		boolean foundNonAscii = false;
+		boolean foundLineBreak = false;
+		for (List<String> nextRow : coreRows) {
+			assertEquals(6, nextRow.size());
+			for (String nextValue : nextRow) {
+				foundNonAscii |= nextValue.contains("M\u00fcller") || nextValue.contains("\u00d6sterreich");
+				foundLineBreak |= nextValue.contains("\n");
+				// Values that ISO-8859-1 cannot represent are not generated
+				assertFalse(nextValue, nextValue.contains("\u6771\u4eac"));
+			}
+		}
+		assertTrue(foundNonAscii);
+		assertTrue(foundLineBreak);
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSyntheticArchiveGenerator#generate(Path)}.
+	 */
+	@Test
+	public final void testGenerateZip() throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setCoreRows(50);
+		generator.setExtensionCount(3);
+		generator.setFanOut(0);
+		Path zipFile = testDir.resolve("synthetic.zip");
+		assertEquals(50, generator.generate(zipFile));
+
+		List<String> entries = new ArrayList<>();
+		try (ZipInputStream zipInput = new ZipInputStream(Files.newInputStream(zipFile));) {
+			ZipEntry nextEntry;
+			while ((nextEntry = zipInput.getNextEntry()) != null) {
+				entries.add(nextEntry.getName());
+			}
+		}
+		assertEquals(5, entries.size());
+		assertEquals(DarwinCoreArchiveChecker.META_XML, entries.get(0));
+		assertEquals(DarwinCoreSyntheticArchiveGenerator.CORE_FILE, entries.get(1));
+		assertEquals("extension3.csv", entries.get(4));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSyntheticArchiveGenerator#main(String[])}.
+	 */
+	@Test
+	public final void testMain() throws Exception {
+		Path outputDir = testDir.resolve("main");
+		DarwinCoreSyntheticArchiveGenerator.main("--output", outputDir.toString(), "--rows", "10", "--extensions",
+				"1", "--fan-out", "4", "--fan-out-distribution", "uniform", "--id-distribution", "SHUFFLED");
+		assertTrue(Files.exists(outputDir.resolve(DarwinCoreArchiveChecker.META_XML)));
+		assertTrue(Files.exists(outputDir.resolve("extension1.csv")));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSyntheticArchiveGenerator#setFieldsTerminatedBy(String)}.
+	 */
+	@Test
+	public final void testSetFieldsTerminatedByInvalid() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Field delimiter must be a single character");
+		new DarwinCoreSyntheticArchiveGenerator().setFieldsTerminatedBy("||");
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreSyntheticArchiveGenerator#setQuoteRatio(double)}.
+	 */
+	@Test
+	public final void testSetQuoteRatioInvalid() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Quote ratio must be between 0 and 1");
+		new DarwinCoreSyntheticArchiveGenerator().setQuoteRatio(1.5);
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link DarwinCoreTermIndex}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreTermIndexTest {
+
+	private static final String TEST_VOCAB = "http://example.org/test/";
+
+	private final ValueFactory vf = SimpleValueFactory.getInstance();
+
+	private Map<String, Map<String, List<IRI>>> vocabMap;
+
+	@Before
+	public void setUp() throws Exception {
+		vocabMap = new LinkedHashMap<>();
+		addTerm(DarwinCoreArchiveConstants.DWC_TERMS, "scientificName");
+		addTerm(DarwinCoreArchiveConstants.DWC_TERMS, "Genus");
+		addTerm(TEST_VOCAB, "genus");
+		addTerm(TEST_VOCAB, "otherTerm");
+	}
+
+	private void addTerm(String vocabulary, String localName) {
+		vocabMap.computeIfAbsent(vocabulary, k -> new LinkedHashMap<>())
+				.computeIfAbsent(localName, k -> new ArrayList<>()).add(vf.createIRI(vocabulary, localName));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreTermIndex#find(String, boolean)}.
+	 */
+	@Test
+	public final void testFindLocalName() throws Exception {
+		DarwinCoreTermIndex index = DarwinCoreTermIndex.build(vocabMap);
+		Optional<DarwinCoreTermIndex.Match> match = index.find("scientificName", false);
+		assertTrue(match.isPresent());
+		assertEquals(DarwinCoreArchiveConstants.DWC_TERMS, match.get().getVocabulary());
+		assertEquals(DarwinCoreArchiveConstants.DWC_TERMS + "scientificName", match.get().getTerm().stringValue());
+		assertFalse(index.find("scientificname", false).isPresent());
+		assertFalse(index.find("notATerm", true).isPresent());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreTermIndex#find(String, boolean)}.
+	 */
+	@Test
+	public final void testFindFullIRI() throws Exception {
+		DarwinCoreTermIndex index = DarwinCoreTermIndex.build(vocabMap);
+		Optional<DarwinCoreTermIndex.Match> match = index.find(TEST_VOCAB + "otherTerm", false);
+		assertTrue(match.isPresent());
+		assertEquals(TEST_VOCAB, match.get().getVocabulary());
+		assertFalse(index.find(TEST_VOCAB.toUpperCase() + "OTHERTERM", false).isPresent());
+		match = index.find(TEST_VOCAB.toUpperCase() + "OTHERTERM", true);
+		assertTrue(match.isPresent());
+		assertEquals(TEST_VOCAB + "otherTerm", match.get().getTerm().stringValue());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreTermIndex#find(String, boolean)}.
+	 */
+	@Test
+	public final void testFindCaseInsensitiveKeepsVocabularyOrder() throws Exception {
+		DarwinCoreTermIndex index = DarwinCoreTermIndex.build(vocabMap);
+		assertEquals(TEST_VOCAB + "genus", index.find("genus", false).get().getTerm().stringValue());
+		// The case insensitive match in the earlier vocabulary is preferred, as it
+		// was when each vocabulary was scanned in turn
+		assertEquals(DarwinCoreArchiveConstants.DWC_TERMS + "Genus",
+				index.find("genus", true).get().getTerm().stringValue());
+		assertEquals(DarwinCoreArchiveConstants.DWC_TERMS + "Genus",
+				index.find("Genus", true).get().getTerm().stringValue());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreTermIndex#caseFold(String)}.
+	 */
+	@Test
+	public final void testCaseFold() throws Exception {
+		List<String> values = Arrays.asList("", "abc", "ABC", "aBc", "\u0130", "i", "\u0131", "I", "\u00df", "SS",
+				"\u03a3", "\u03c3", "\u03c2");
+		for (String value : values) {
+			for (String otherValue : values) {
+				assertEquals(value + " " + otherValue, value.equalsIgnoreCase(otherValue),
+						DarwinCoreTermIndex.caseFold(value).equals(DarwinCoreTermIndex.caseFold(otherValue)));
+			}
+		}
+		String alreadyFolded = "alreadyfolded";
+		assertSame(alreadyFolded, DarwinCoreTermIndex.caseFold(alreadyFolded));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreMetadataGenerator#populateFields(List, DarwinCoreTermIndex, DarwinCoreCoreOrExtension, boolean)}.
+	 */
+	@Test
+	public final void testPopulateFields() throws Exception {
+		DarwinCoreTermIndex index = DarwinCoreTermIndex.build(vocabMap);
+		DarwinCoreCoreOrExtension core = DarwinCoreCoreOrExtension.newCore();
+		DarwinCoreMetadataGenerator.populateFields(Arrays.asList("id", "SCIENTIFICNAME", TEST_VOCAB + "otherTerm"),
+				index, core, true);
+		List<DarwinCoreField> fields = core.getFields();
+		assertEquals(3, fields.size());
+		assertEquals("id", fields.get(0).getTerm());
+		assertNull(fields.get(0).getVocabulary());
+		assertEquals(DarwinCoreArchiveConstants.DWC_TERMS + "scientificName", fields.get(1).getTerm());
+		assertEquals(DarwinCoreArchiveConstants.DWC_TERMS, fields.get(1).getVocabulary());
+		assertEquals(1, fields.get(1).getIndex().intValue());
+		assertEquals(TEST_VOCAB + "otherTerm", fields.get(2).getTerm());
+		assertEquals(TEST_VOCAB, fields.get(2).getVocabulary());
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.ansell.csv.stream.CSVStreamException;
+
+/**
+ * Tests for {@link DarwinCoreValidationCache}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreValidationCacheTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path testDir;
+
+	private DarwinCoreValidationCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		testDir = tempDir.newFolder("dwca-validation-cache-test").toPath();
+		cache = new DarwinCoreValidationCache(testDir.resolve("cache"));
+	}
+
+	private Path generate(String name) throws Exception {
+		DarwinCoreSyntheticArchiveGenerator generator = new DarwinCoreSyntheticArchiveGenerator();
+		generator.setSeed(17);
+		generator.setCoreRows(500);
+		generator.setExtensionCount(2);
+		generator.generate(testDir.resolve(name));
+		return testDir.resolve(name).resolve(DarwinCoreArchiveChecker.META_XML);
+	}
+
+	private List<Boolean> check(Path metadataPath, Path outputDirPath) throws Exception {
+		DarwinCoreArchiveDocument document = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath);
+		Files.createDirectories(outputDirPath);
+		return Stream.concat(Stream.of(document.getCore()), document.getExtensions().stream())
+				.map(c -> {
+					try {
+						return cache.check(c, metadataPath, outputDirPath, true, false, true);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}).collect(Collectors.toList());
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreValidationCache#check(DarwinCoreCoreOrExtension, Path, Path, boolean, boolean, boolean)}.
+	 */
+	@Test
+	public final void testCheckSkipsUnchangedFiles() throws Exception {
+		Path metadataPath = generate("archive");
+		assertEquals(Arrays.asList(false, false, false), check(metadataPath, testDir.resolve("output1")));
+		assertEquals(Arrays.asList(true, true, true), check(metadataPath, testDir.resolve("output2")));
+		// The statistics are copied from the cache
+		assertTrue(Files.exists(testDir.resolve("output2").resolve("Statistics-extension1.csv")));
+		assertTrue(Files.exists(
+				testDir.resolve("output2").resolve("Mapping-" + DarwinCoreSyntheticArchiveGenerator.CORE_FILE)));
+
+		// A republished archive with the same content in a different place
+		// reuses the results
+		Path republished = generate("republished");
+		Path extensionPath = republished.resolveSibling("extension2.csv");
+		List<String> lines = Files.readAllLines(extensionPath, StandardCharsets.UTF_8);
+		lines.remove(lines.size() - 1);
+		Files.write(extensionPath, lines, StandardCharsets.UTF_8);
+		assertEquals(Arrays.asList(true, true, false), check(republished, testDir.resolve("output3")));
+		assertEquals(Arrays.asList(true, true, true), check(republished, testDir.resolve("output4")));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreValidationCache#keyFor(DarwinCoreCoreOrExtension, Path, boolean, boolean)}.
+	 */
+	@Test
+	public final void testKeyForDialectAndFields() throws Exception {
+		Path metadataPath = generate("archive");
+		DarwinCoreCoreOrExtension core = DarwinCoreArchiveChecker.parseMetadataXml(metadataPath).getCore();
+		String key = cache.keyFor(core, metadataPath, true, true);
+		assertEquals(key, cache.keyFor(core, metadataPath, true, true));
+		assertNotEquals(key, cache.keyFor(core, metadataPath, false, true));
+		assertNotEquals(key, cache.keyFor(core, metadataPath, true, false));
+
+		core.setFieldsEnclosedBy("'");
+		String quoteKey = cache.keyFor(core, metadataPath, true, true);
+		assertNotEquals(key, quoteKey);
+
+		DarwinCoreField field = new DarwinCoreField();
+		field.setTerm(DarwinCoreArchiveConstants.DWC_TERMS + "basisOfRecord");
+		field.setDefault("HumanObservation");
+		core.addField(field);
+		assertNotEquals(quoteKey, cache.keyFor(core, metadataPath, true, true));
+	}
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreArchiveChecker#checkArchive(Path, Path, boolean, boolean, boolean, DarwinCoreValidationCache)}.
+	 */
+	@Test
+	public final void testCheckArchiveCachedFailure() throws Exception {
+		Path metadataPath = generate("archive");
+		Path extensionPath = metadataPath.resolveSibling("extension1.csv");
+		List<String> lines = Files.readAllLines(extensionPath, StandardCharsets.UTF_8);
+		lines.add("only-one-column");
+		Files.write(extensionPath, lines, StandardCharsets.UTF_8);
+		Path outputDir = tempDir.newFolder("output").toPath();
+		try {
+			DarwinCoreArchiveChecker.checkArchive(metadataPath, outputDir, false, false, true, cache);
+			fail("Did not find expected exception");
+		} catch (CSVStreamException e) {
+			// Expected
+		}
+		try (Stream<Path> entries = Files.list(cache.getCacheDir());) {
+			// The core and the failed extension
+			assertEquals(2, entries.count());
+		}
+
+		thrown.expect(CSVStreamException.class);
+		thrown.expectMessage("Line and header sizes were different");
+		DarwinCoreArchiveChecker.checkArchive(metadataPath, outputDir, false, false, true, cache);
+	}
+}
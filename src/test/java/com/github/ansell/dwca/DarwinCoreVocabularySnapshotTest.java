@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017, Peter Ansell
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.dwca;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DarwinCoreVocabularySnapshot}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class DarwinCoreVocabularySnapshotTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public TemporaryFolder tempDir = new TemporaryFolder();
+
+	private final ValueFactory vf = SimpleValueFactory.getInstance();
+
+	/**
+	 * Test method for
+	 * {@link DarwinCoreVocabularySnapshot#write(Map, java.io.OutputStream)} and
+	 * {@link DarwinCoreVocabularySnapshot#read(InputStream)}.
+	 */
+	@Test
+	public final void testWriteRead() throws Exception {
+		Map<String, Map<String, List<IRI>>> vocabMap = new LinkedHashMap<>();
+		Map<String, List<IRI>> dwcTerms = new LinkedHashMap<>();
+		dwcTerms.put("scientificName",
+				new ArrayList<>(Arrays.asList(vf.createIRI(DarwinCoreArchiveConstants.DWC_TERMS, "scientificName"))));
+		dwcTerms.put("genus", new ArrayList<>(Arrays.asList(vf.createIRI(DarwinCoreArchiveConstants.DWC_TERMS, "genus"))));
+		vocabMap.put(DarwinCoreArchiveConstants.DWC_TERMS, dwcTerms);
+		Map<String, List<IRI>> acTerms = new LinkedHashMap<>();
+		acTerms.put("caption", new ArrayList<>(Arrays.asList(vf.createIRI(DarwinCoreArchiveConstants.AC_TERMS, "caption"))));
+		vocabMap.put(DarwinCoreArchiveConstants.AC_TERMS, acTerms);
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		DarwinCoreVocabularySnapshot.write(vocabMap, output);
+		Map<String, Map<String, List<IRI>>> result = DarwinCoreVocabularySnapshot
+				.read(new ByteArrayInputStream(output.toByteArray()));
+
+		assertEquals(vocabMap, result);
+		IRI genus = result.get(DarwinCoreArchiveConstants.DWC_TERMS).get("genus").get(0);
+		assertEquals(DarwinCoreArchiveConstants.DWC_TERMS, genus.getNamespace());
+		assertEquals("genus", genus.getLocalName());
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreVocabularySnapshot#read(InputStream)}.
+	 */
+	@Test
+	public final void testReadNotSnapshot() throws Exception {
+		thrown.expect(IOException.class);
+		thrown.expectMessage("Not a vocabulary snapshot");
+		DarwinCoreVocabularySnapshot.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+	}
+
+	/**
+	 * Test method for {@link DarwinCoreVocabularySnapshot#main(String...)}.
+	 */
+	@Test
+	public final void testMain() throws Exception {
+		Path testOutput = tempDir.newFolder("dwca-snapshot-test").toPath().resolve("nested").resolve("snapshot.bin");
+		DarwinCoreVocabularySnapshot.main("--output", testOutput.toAbsolutePath().toString());
+		assertTrue(Files.exists(testOutput));
+		try (InputStream input = Files.newInputStream(testOutput);) {
+			assertEquals(DarwinCoreMetadataGenerator.parseDefaultVocabularies(),
+					DarwinCoreVocabularySnapshot.read(input));
+		}
+	}
+}